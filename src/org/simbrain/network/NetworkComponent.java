@@ -17,9 +17,12 @@
  */
 package org.simbrain.network;
 
+import java.io.BufferedInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.simbrain.network.core.Network;
@@ -33,6 +36,7 @@ import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.listeners.NeuronListener;
 import org.simbrain.network.listeners.SynapseListener;
+import org.simbrain.network.util.io_utilities.BinaryNetworkFormat;
 import org.simbrain.workspace.AttributeType;
 import org.simbrain.workspace.PotentialConsumer;
 import org.simbrain.workspace.PotentialProducer;
@@ -46,6 +50,12 @@ public final class NetworkComponent extends WorkspaceComponent {
     /** Reference to root network, the main model network. */
     private Network network = new Network();
 
+    /**
+     * Whether this network is saved in the binary network format rather than
+     * as XML when no format is requested, as when saving a workspace.
+     */
+    private boolean binaryFormat;
+
     /**
      * Create a new network component.
      *
@@ -427,17 +437,70 @@ public final class NetworkComponent extends WorkspaceComponent {
      */
     public static NetworkComponent open(final InputStream input,
             final String name, final String format) {
-        Network newNetwork = (Network) Network.getXStream().fromXML(input);
+        BufferedInputStream buffered = new BufferedInputStream(input);
+        try {
+            if (BinaryNetworkFormat.isBinary(buffered)) {
+                NetworkComponent component = new NetworkComponent(name,
+                        BinaryNetworkFormat.read(buffered));
+                component.setBinaryFormat(true);
+                return component;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read network " + name
+                    + ".", e);
+        }
+        Network newNetwork = (Network) Network.getXStream().fromXML(buffered);
         return new NetworkComponent(name, newNetwork);
     }
 
     @Override
     public void save(final OutputStream output, final String format) {
+        if (format != null) {
+            // Keep the chosen format when saved as part of a workspace
+            binaryFormat = BinaryNetworkFormat.EXTENSION.equals(format);
+        }
+        if (binaryFormat) {
+            try {
+                BinaryNetworkFormat.write(network, output);
+            } catch (IOException e) {
+                throw new IllegalStateException("Could not save network "
+                        + getName() + ".", e);
+            }
+            return;
+        }
         network.preSaveInit();
         Network.getXStream().toXML(network, output);
         network.postSaveReInit();
     }
 
+    @Override
+    public List<? extends String> getFormats() {
+        return Arrays.asList("xml", BinaryNetworkFormat.EXTENSION);
+    }
+
+    @Override
+    public String getDefaultFormat() {
+        return binaryFormat ? BinaryNetworkFormat.EXTENSION : "xml";
+    }
+
+    /**
+     * @return whether this network is saved in the binary network format by
+     *         default
+     */
+    public boolean isBinaryFormat() {
+        return binaryFormat;
+    }
+
+    /**
+     * Set whether this network is saved in the binary network format by
+     * default, which is much faster and smaller than XML for large networks.
+     *
+     * @param binaryFormat whether to save in the binary network format
+     */
+    public void setBinaryFormat(final boolean binaryFormat) {
+        this.binaryFormat = binaryFormat;
+    }
+
     /**
      * Returns the root network.
      *
@@ -452,6 +515,11 @@ public final class NetworkComponent extends WorkspaceComponent {
         network.update();
     }
 
+    @Override
+    public void setRandomSeed(final long seed) {
+        network.setRandomSeed(seed);
+    }
+
     @Override
     public void closing() {
         // TODO Auto-generated method stub
@@ -21,13 +21,15 @@ import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.util.Utils;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * Connect every source neuron to every target neuron.
  *
  * @author Zach Tosi
  * @author Jeff Yoshimi
  */
-public class AllToAll implements ConnectNeurons {
+public class AllToAll implements BulkConnector {
 
     /**
      * The default preference as to whether or not self connections are allowed.
@@ -109,6 +111,8 @@ public class AllToAll implements ConnectNeurons {
             final boolean looseSynapses) {
         ArrayList<Synapse> syns = new ArrayList<Synapse>(
                 (int) (targetNeurons.size() * sourceNeurons.size()));
+        ConnectionUtilities.reserveConnectivity(sourceNeurons,
+                targetNeurons.size(), targetNeurons, sourceNeurons.size());
         // Optimization: separately handle case where we have to worry about
         // avoiding self-connections, so an equals check is required.
         if (recurrent && !allowSelfConnection) {
@@ -135,6 +139,8 @@ public class AllToAll implements ConnectNeurons {
                 s.getSource().getNetwork().addSynapse(s);
             }
         }
+        ConnectionUtilities.finalizeConnectivity(sourceNeurons);
+        ConnectionUtilities.finalizeConnectivity(targetNeurons);
         return syns;
     }
 
@@ -159,6 +165,32 @@ public class AllToAll implements ConnectNeurons {
         }
     }
 
+    /**
+     * Chooses every target, leaving out the source itself if self
+     * connections are not allowed.
+     *
+     * @param source the index of the source neuron
+     * @param numSources the number of source neurons
+     * @param numTargets the number of target neurons
+     * @param recurrent whether the sources are the targets
+     * @param stream not used
+     * @return the indices of the targets in ascending order
+     */
+    @Override
+    public int[] chooseTargets(final int source, final int numSources,
+            final int numTargets, final boolean recurrent,
+            final RandomStream stream) {
+        boolean skipSelf = recurrent && !selfConnectionAllowed
+                && source < numTargets;
+        int[] targets = new int[skipSelf ? numTargets - 1 : numTargets];
+        for (int j = 0, k = 0; j < numTargets; j++) {
+            if (!skipSelf || j != source) {
+                targets[k++] = j;
+            }
+        }
+        return targets;
+    }
+
     /**
      * @return if neurons are allowed to connect to themselves i.e. a synapse
      *         where the source and target neuron are the same neuron is
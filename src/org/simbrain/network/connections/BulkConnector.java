@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.connections;
+
+import org.simbrain.network.groups.SynapseGroup;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
+
+/**
+ * A connection manager which can choose the targets of each source neuron
+ * independently, from indices alone, so that a synapse group can build its
+ * connectivity in primitive arrays, for many source neurons at once on
+ * different threads, before making any synapses. See
+ * {@link SynapseGroup#makeConnections(long)}.
+ */
+public interface BulkConnector extends ConnectNeurons {
+
+    /**
+     * Chooses the targets of one source neuron. Must not change the state of
+     * this connector, since it is called for many source neurons at once,
+     * and must draw all of its random numbers from the given stream, so that
+     * the same stream gives the same targets.
+     *
+     * @param source the index of the source neuron in the source group
+     * @param numSources the number of source neurons
+     * @param numTargets the number of target neurons
+     * @param recurrent whether the source and target groups are the same
+     *            group, in which case a source and target with the same
+     *            index are the same neuron
+     * @param stream the random stream to draw from
+     * @return the indices of the targets in the target group, distinct and
+     *         in ascending order
+     */
+    int[] chooseTargets(int source, int numSources, int numTargets,
+            boolean recurrent, RandomStream stream);
+
+}
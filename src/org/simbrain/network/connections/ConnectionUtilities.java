@@ -26,6 +26,7 @@ import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
 import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.randomizer.PolarizedRandomizer;
 
 /**
@@ -412,7 +413,7 @@ public class ConnectionUtilities {
                     excitatory = true;
                 }
             } else {
-                double exciteOrInhib = Math.random();
+                double exciteOrInhib = RandomStreams.current().nextDouble();
                 if (exciteOrInhib < excitatoryRatio) {
                     excitatory = true;
                 } else {
@@ -447,6 +448,41 @@ public class ConnectionUtilities {
         return true;
     }
 
+    /**
+     * Reserves fan-out capacity in each source neuron and fan-in capacity in
+     * each target neuron ahead of a bulk connection, so that their synapse
+     * storage is allocated once rather than grown synapse by synapse.
+     *
+     * @param sourceNeurons the source neurons
+     * @param fanOutPerSource the number of synapses each source will send
+     * @param targetNeurons the target neurons
+     * @param fanInPerTarget the number of synapses each target will receive
+     */
+    public static void reserveConnectivity(
+        Collection<Neuron> sourceNeurons, int fanOutPerSource,
+        Collection<Neuron> targetNeurons, int fanInPerTarget) {
+        for (Neuron source : sourceNeurons) {
+            source.ensureFanOutCapacity(source.getFanOut().size()
+                + fanOutPerSource);
+        }
+        for (Neuron target : targetNeurons) {
+            target.ensureFanInCapacity(target.getFanIn().size()
+                + fanInPerTarget);
+        }
+    }
+
+    /**
+     * Finalizes the connectivity of the given neurons after a bulk connection
+     * by releasing any unused fan-in and fan-out capacity.
+     *
+     * @param neurons the neurons whose connectivity is complete
+     */
+    public static void finalizeConnectivity(Collection<Neuron> neurons) {
+        for (Neuron neuron : neurons) {
+            neuron.trimConnectivity();
+        }
+    }
+
     /**
      *
      * @param exciteRule
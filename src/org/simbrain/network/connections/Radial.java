@@ -31,8 +31,12 @@ import java.util.concurrent.TimeUnit;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.util.SpatialIndex;
 import org.simbrain.util.SimbrainConstants.Polarity;
-import org.simbrain.util.math.ProbDistribution;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SimbrainMath;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  *
@@ -58,6 +62,12 @@ import org.simbrain.util.math.ProbDistribution;
  * have it make the most connections possible given the exponential
  * distribution.
  *
+ * Pairs of neurons so far apart that their probability of connection is below
+ * {@link #MIN_CONNECT_PROBABILITY} are never considered. The target neurons
+ * are put in a {@link SpatialIndex} and each source neuron only visits those
+ * within the corresponding cutoff radius, so the time taken grows with the
+ * number of synapses made rather than with the number of pairs of neurons.
+ *
  * @author Zach Tosi
  *
  */
@@ -76,6 +86,13 @@ public class Radial extends Sparse {
 
     public static final double DEFAULT_LAMBDA = 2.5;
 
+    /**
+     * Connection probabilities below this are treated as 0, so that only
+     * neurons within {@link #cutoffRadius(double, double)} of each other
+     * need to be considered for a connection.
+     */
+    public static final double MIN_CONNECT_PROBABILITY = 1E-10;
+
     /** The connection constant for connections between 2 excitatory neurons. */
     private double eeDistConst = DEFAULT_EE_CONST;
 
@@ -126,51 +143,15 @@ public class Radial extends Sparse {
         final List<Neuron> source, final List<Neuron> target,
         double eeDistConst, double eiDistConst, double ieDistConst,
         double iiDistConst, double distConst, double lambda, boolean loose) {
-        // Pre-allocating assuming that if one is using this as a connector
-        // then they are probably not going to have greater than 25%
-        // connectivity
-        List<Synapse> synapses = new ArrayList<Synapse>(source.size()
-            * target.size() / 4);
-        for (Neuron src : source) {
-            for (Neuron tar : target) {
-                double randVal = Math.random();
-                double probability;
-                if (src.getPolarity() == Polarity.EXCITATORY) {
-                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-                        probability = calcConnectProb(src, tar, eeDistConst,
-                            lambda);
-                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                        probability = calcConnectProb(src, tar, eiDistConst,
-                            lambda);
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
-                    }
-                } else if (src.getPolarity() == Polarity.INHIBITORY) {
-                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-                        probability = calcConnectProb(src, tar, ieDistConst,
-                            lambda);
-                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                        probability = calcConnectProb(src, tar, iiDistConst,
-                            lambda);
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
-                    }
-                } else {
-                    probability = calcConnectProb(src, tar, distConst,
-                        lambda);
-                }
-                if (randVal < probability) {
-                    Synapse s = new Synapse(src, tar);
-                    synapses.add(s);
-                    if (loose) {
-                        src.getNetwork().addSynapse(s);
-                    }
-                }
-            }
+        double radius = cutoffRadius(Math.max(Math.max(eeDistConst,
+            eiDistConst), Math.max(Math.max(ieDistConst, iiDistConst),
+            distConst)), lambda);
+        if (radius == 0 || target.isEmpty()) {
+            return new ArrayList<Synapse>();
         }
-        return synapses;
+        return connectRadial(source, new SpatialIndex(target, radius), radius,
+            eeDistConst, eiDistConst, ieDistConst, iiDistConst, distConst,
+            lambda, loose, RandomStreams.current());
     }
 
     /**
@@ -185,17 +166,46 @@ public class Radial extends Sparse {
     public static List<Synapse> connectRadialNoPolarity(
         final List<Neuron> source, final List<Neuron> target, double distConst,
         double lambda, boolean loose) {
-        // Pre-allocating assuming that if one is using this as a connector
-        // then they are probably not going to have greater than 25%
-        // connectivity
-        List<Synapse> synapses = new ArrayList<Synapse>(source.size()
-            * target.size() / 4);
+        double radius = cutoffRadius(distConst, lambda);
+        if (radius == 0 || target.isEmpty()) {
+            return new ArrayList<Synapse>();
+        }
+        return connectRadial(source, new SpatialIndex(target, radius), radius,
+            distConst, distConst, distConst, distConst, distConst, lambda,
+            loose, RandomStreams.current());
+    }
+
+    /**
+     * Makes connections from each source neuron to the neurons near it,
+     * choosing the connection constant by the polarities of the two neurons.
+     * Only pairs within the cutoff radius are considered.
+     *
+     * @param source the source neurons
+     * @param targets an index of the target neurons
+     * @param radius the cutoff radius, see
+     *            {@link #cutoffRadius(double, double)}
+     * @param eeDistConst the connection constant for connections between 2 excitatory neurons.
+     * @param eiDistConst the connection constant for connection from an excitatory to an inhibitory neuron.
+     * @param ieDistConst the connection constant for connection from an inhibitory to an excitatory neuron.
+     * @param iiDistConst the connection constant for connections between 2 inhibitory neurons.
+     * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
+     * @param lambda average connection distance.
+     * @param loose whether to add the synapses to the network as loose
+     *            synapses
+     * @param rand the stream the connections are drawn from
+     * @return the new synapses
+     */
+    private static List<Synapse> connectRadial(
+        final Collection<Neuron> source, final SpatialIndex targets,
+        double radius, double eeDistConst, double eiDistConst,
+        double ieDistConst, double iiDistConst, double distConst,
+        double lambda, boolean loose, final RandomStream rand) {
+        List<Synapse> synapses = new ArrayList<Synapse>();
         for (Neuron src : source) {
-            for (Neuron tar : target) {
-                double randVal = Math.random();
-                double probability = calcConnectProb(src, tar, distConst,
-                    lambda);
-                if (randVal < probability) {
+            for (Neuron tar : targets.getNeuronsInRadius(src, radius)) {
+                double probability = calcConnectProb(src, tar, eeDistConst,
+                    eiDistConst, ieDistConst, iiDistConst, distConst, lambda);
+                if (rand.nextDouble() < probability) {
                     Synapse s = new Synapse(src, tar);
                     synapses.add(s);
                     if (loose) {
@@ -207,6 +217,24 @@ public class Radial extends Sparse {
         return synapses;
     }
 
+    /**
+     * Returns the distance beyond which no connection constant can give a
+     * connection probability above {@link #MIN_CONNECT_PROBABILITY}. Since
+     * the probability falls off as e^-(d^2 / λ^2), this is a few multiples
+     * of lambda.
+     *
+     * @param maxDistConst the largest connection constant in use
+     * @param lambda average connection distance.
+     * @return the cutoff radius, or 0 if no connections can be made
+     */
+    public static double cutoffRadius(double maxDistConst, double lambda) {
+        if (!(maxDistConst > MIN_CONNECT_PROBABILITY) || !(lambda > 0)) {
+            return 0;
+        }
+        return lambda * Math.sqrt(Math.log(maxDistConst
+            / MIN_CONNECT_PROBABILITY));
+    }
+
     /**
      * Default constructor
      */
@@ -277,6 +305,12 @@ public class Radial extends Sparse {
         	Iterator<Neuron> srcIter = source.iterator();
         	List<Neuron> srcChunk;
         	double runningPercentEx = 0;
+        	double radius = cutoffRadius(getMaxDistConst(), lambda);
+        	SpatialIndex index = radius == 0 || target.isEmpty() ? null
+        			: new SpatialIndex(target, radius);
+        	// Each chunk draws from its own stream, split from the caller's,
+        	// so the result does not depend on how the threads are scheduled.
+        	long seed = RandomStreams.nextSeed(RandomStreams.current());
         	for (int i = 0; i < threads; i++) {
         		srcChunk = new ArrayList<Neuron>((int) Math.ceil((idealShare
         				* 2) / 0.75));
@@ -298,7 +332,8 @@ public class Radial extends Sparse {
         			j++;
         		}
         		remaining -= j;
-        		workers.add(new ConnectorService(srcChunk, target, false));
+        		workers.add(new ConnectorService(srcChunk, index, radius,
+        				false, SimbrainMath.seededStream(seed, i)));
         	}
         	runningPercentEx /= source.size();
         	synGroup.setExcitatoryRatio(runningPercentEx);
@@ -347,6 +382,47 @@ public class Radial extends Sparse {
         Runtime.getRuntime().gc();
     }
 
+    /**
+     * Returns the probability of a connection between two neurons, using the
+     * connection constant for their polarities.
+     *
+     * @param src the source neuron.
+     * @param tar the target neuron.
+     * @param eeDistConst the connection constant for connections between 2 excitatory neurons.
+     * @param eiDistConst the connection constant for connection from an excitatory to an inhibitory neuron.
+     * @param ieDistConst the connection constant for connection from an inhibitory to an excitatory neuron.
+     * @param iiDistConst the connection constant for connections between 2 inhibitory neurons.
+     * @param distConst the connection constant for general connections. Used in cases where neurons have no explicit polarity.
+     * @param lambda average connection distance.
+     * @return the probability of a connection from src to tar
+     */
+    private static double calcConnectProb(Neuron src, Neuron tar,
+        double eeDistConst, double eiDistConst, double ieDistConst,
+        double iiDistConst, double distConst, double lambda) {
+        if (src.getPolarity() == Polarity.EXCITATORY) {
+            if (tar.getPolarity() == Polarity.EXCITATORY) {
+                return calcConnectProb(src, tar, eeDistConst, lambda);
+            } else if (tar.getPolarity() == Polarity.INHIBITORY) {
+                return calcConnectProb(src, tar, eiDistConst, lambda);
+            }
+        } else if (src.getPolarity() == Polarity.INHIBITORY) {
+            if (tar.getPolarity() == Polarity.EXCITATORY) {
+                return calcConnectProb(src, tar, ieDistConst, lambda);
+            } else if (tar.getPolarity() == Polarity.INHIBITORY) {
+                return calcConnectProb(src, tar, iiDistConst, lambda);
+            }
+        }
+        return calcConnectProb(src, tar, distConst, lambda);
+    }
+
+    /**
+     * @return the largest of the connection constants
+     */
+    private double getMaxDistConst() {
+        return Math.max(Math.max(eeDistConst, eiDistConst),
+            Math.max(Math.max(ieDistConst, iiDistConst), distConst));
+    }
+
     /**
      *
      * @param src the source neuron.
@@ -439,64 +515,35 @@ public class Radial extends Sparse {
     	
     	private final Collection<Neuron> srcColl;
     	
-    	private final Collection<Neuron> targColl;
+    	/** An index of the target neurons, or null if there are none. */
+    	private final SpatialIndex targets;
+    	
+    	/** The cutoff radius the targets are searched within. */
+    	private final double radius;
     	
     	private final boolean loose;
     	
+    	/** The stream the connections of this chunk are drawn from. */
+    	private final RandomStream rand;
+    	
     	public ConnectorService(final Collection<Neuron> srcColl,
-    			final Collection<Neuron> targColl, final boolean loose) {
+    			final SpatialIndex targets, final double radius,
+    			final boolean loose, final RandomStream rand) {
     		this.srcColl = srcColl;
-    		this.targColl = targColl;
+    		this.targets = targets;
+    		this.radius = radius;
     		this.loose = loose;
+    		this.rand = rand;
     	}
 
 		@Override
 		public Collection<Synapse> call() throws Exception {
-			// Attempting to pre-allocate... assumes that connection density
-			// will be less than #src * #tar * 0.2 or 20% connectivity
-			List<Synapse> synapses = new ArrayList<Synapse>(
-					(int) Math.ceil(srcColl.size() * targColl.size() * 0.2
-							* 0.75));
-			for (Neuron src : srcColl) {
-	            for (Neuron tar : targColl) {
-	                double randVal = ProbDistribution.UNIFORM.nextRand(0, 1);
-	                double probability;
-	                if (src.getPolarity() == Polarity.EXCITATORY) {
-	                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-	                        probability = calcConnectProb(src, tar, eeDistConst,
-	                            lambda);
-	                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-	                        probability = calcConnectProb(src, tar, eiDistConst,
-	                            lambda);
-	                    } else {
-	                        probability = calcConnectProb(src, tar, distConst,
-	                            lambda);
-	                    }
-	                } else if (src.getPolarity() == Polarity.INHIBITORY) {
-	                    if (tar.getPolarity() == Polarity.EXCITATORY) {
-	                        probability = calcConnectProb(src, tar, ieDistConst,
-	                            lambda);
-	                    } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-	                        probability = calcConnectProb(src, tar, iiDistConst,
-	                            lambda);
-	                    } else {
-	                        probability = calcConnectProb(src, tar, distConst,
-	                            lambda);
-	                    }
-	                } else {
-	                    probability = calcConnectProb(src, tar, distConst,
-	                        lambda);
-	                }
-	                if (randVal < probability) {
-	                    Synapse s = new Synapse(src, tar);
-	                    synapses.add(s);
-	                    if (loose) {
-	                        src.getNetwork().addSynapse(s);
-	                    }
-	                }
-	            }
-	        }
-	        return synapses;
+			if (targets == null) {
+				return new ArrayList<Synapse>();
+			}
+			return connectRadial(srcColl, targets, radius, eeDistConst,
+					eiDistConst, ieDistConst, iiDistConst, distConst, lambda,
+					loose, rand);
 		}
     	
     }
@@ -508,42 +555,19 @@ public class Radial extends Sparse {
         @Override
         public void run() {
             int count = 0;
-            for (Neuron src : synapseGroup.getSourceNeurons()) {
-                for (Neuron tar : synapseGroup.getTargetNeurons()) {
-                    double randVal = Math.random();
-                    double probability;
-                    if (src.getPolarity() == Polarity.EXCITATORY) {
-                        if (tar.getPolarity() == Polarity.EXCITATORY) {
-                            probability =
-                                calcConnectProb(src, tar, eeDistConst,
-                                    lambda);
-                        } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                            probability =
-                                calcConnectProb(src, tar, eiDistConst,
-                                    lambda);
-                        } else {
-                            probability = calcConnectProb(src, tar, distConst,
-                                lambda);
-                        }
-                    } else if (src.getPolarity() == Polarity.INHIBITORY) {
-                        if (tar.getPolarity() == Polarity.EXCITATORY) {
-                            probability =
-                                calcConnectProb(src, tar, ieDistConst,
-                                    lambda);
-                        } else if (tar.getPolarity() == Polarity.INHIBITORY) {
-                            probability =
-                                calcConnectProb(src, tar, iiDistConst,
-                                    lambda);
-                        } else {
-                            probability = calcConnectProb(src, tar, distConst,
-                                lambda);
+            double radius = cutoffRadius(getMaxDistConst(), lambda);
+            List<Neuron> target = synapseGroup.getTargetNeurons();
+            if (radius > 0 && !target.isEmpty()) {
+                SpatialIndex index = new SpatialIndex(target, radius);
+                for (Neuron src : synapseGroup.getSourceNeurons()) {
+                    for (Neuron tar : index.getNeuronsInRadius(src, radius)) {
+                        double probability = calcConnectProb(src, tar,
+                            eeDistConst, eiDistConst, ieDistConst,
+                            iiDistConst, distConst, lambda);
+                        if (RandomStreams.current().nextDouble()
+                                < probability) {
+                            count++;
                         }
-                    } else {
-                        probability = calcConnectProb(src, tar, distConst,
-                            lambda);
-                    }
-                    if (randVal < probability) {
-                        count++;
                     }
                 }
             }
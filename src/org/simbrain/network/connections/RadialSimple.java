@@ -18,12 +18,17 @@
 package org.simbrain.network.connections;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.util.SpatialIndex;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * For each neuron, consider every neuron in an excitatory and inhibitory radius
@@ -77,6 +82,12 @@ public class RadialSimple implements ConnectNeurons {
      */
     private List<Neuron> sourceNeurons;
 
+    /**
+     * An index of the neurons which may be connected to, only set while
+     * connections are being made.
+     */
+    private SpatialIndex index;
+
     /**
      * @param network the network
      * @param sourceNeurons the source neurons
@@ -96,10 +107,29 @@ public class RadialSimple implements ConnectNeurons {
      */
     public List<Synapse> connectNeurons(final boolean looseSynapses) {
         ArrayList<Synapse> syns = new ArrayList<Synapse>();
-        for (Neuron source : sourceNeurons) {
-            makeExcitatory(source, syns, looseSynapses);
-            makeInhibitory(source, syns, looseSynapses);
+        double radius = Math.max(excitatoryRadius, inhibitoryRadius);
+        if (radius <= 0) {
+            return syns;
         }
+        Set<Neuron> loose = Collections.newSetFromMap(
+                new IdentityHashMap<Neuron, Boolean>());
+        loose.addAll(network.getNeuronList());
+        List<Neuron> candidates = new ArrayList<Neuron>();
+        for (Neuron neuron : sourceNeurons) {
+            if (loose.contains(neuron)) {
+                candidates.add(neuron);
+            }
+        }
+        index = new SpatialIndex(candidates, radius);
+        try {
+            for (Neuron source : sourceNeurons) {
+                makeExcitatory(source, syns, looseSynapses);
+                makeInhibitory(source, syns, looseSynapses);
+            }
+        } finally {
+            index = null;
+        }
+        network.fireSynapsesUpdated();
         return syns;
     }
 
@@ -113,9 +143,6 @@ public class RadialSimple implements ConnectNeurons {
             boolean looseSynapses) {
         for (Neuron target : getNeuronsInRadius(source,
                 inhibitoryRadius)) {
-            if (!sourceNeurons.contains(target)) {
-                continue;
-            }
             // Don't add a connection if there is already one present
             if (Network.getSynapse(source, target) != null) {
                 continue;
@@ -125,7 +152,7 @@ public class RadialSimple implements ConnectNeurons {
                     continue;
                 }
             }
-            if (Math.random() < inhibitoryProbability) {
+            if (RandomStreams.current().nextDouble() < inhibitoryProbability) {
                 Synapse synapse = new Synapse(source, target);
                 synapse.setStrength(-1);
                 if (looseSynapses) {
@@ -137,7 +164,8 @@ public class RadialSimple implements ConnectNeurons {
     }
 
     /**
-     * Return a list of neurons in a specific radius of a specified neuron.
+     * Return a list of the source neurons which are loose neurons of the
+     * network and are within a specific radius of a specified neuron.
      *
      * @param source the source neuron.
      * @param radius the radius to search within.
@@ -145,8 +173,8 @@ public class RadialSimple implements ConnectNeurons {
      */
     private List<Neuron> getNeuronsInRadius(Neuron source, double radius) {
         ArrayList<Neuron> ret = new ArrayList<Neuron>();
-        for (Neuron neuron : network.getNeuronList()) {
-            if (network.getEuclideanDist(source, neuron) < radius) {
+        for (Neuron neuron : index.getNeuronsInRadius(source, radius)) {
+            if (Network.getEuclideanDist(source, neuron) < radius) {
                 ret.add(neuron);
             }
         }
@@ -163,9 +191,6 @@ public class RadialSimple implements ConnectNeurons {
             boolean looseSynapses) {
         for (Neuron target : getNeuronsInRadius(source,
                 excitatoryRadius)) {
-            if (!sourceNeurons.contains(target)) {
-                continue;
-            }
             // Don't add a connection if there is already one present
             if (Network.getSynapse(source, target) != null) {
                 continue;
@@ -175,7 +200,7 @@ public class RadialSimple implements ConnectNeurons {
                     continue;
                 }
             }
-            if (Math.random() < excitatoryProbability) {
+            if (RandomStreams.current().nextDouble() < excitatoryProbability) {
                 Synapse synapse = new Synapse(source, target);
                 synapse.setStrength(1);
                 if (looseSynapses) {
@@ -183,7 +208,6 @@ public class RadialSimple implements ConnectNeurons {
                 }
                 syns.add(synapse);
             }
-            network.fireSynapsesUpdated();
         }
     }
 
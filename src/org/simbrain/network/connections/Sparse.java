@@ -18,6 +18,7 @@
 package org.simbrain.network.connections;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
@@ -26,9 +27,11 @@ import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
 
 import umontreal.iro.lecuyer.randvar.BinomialGen;
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  * A superclass for all connectors whose primary parameter is related to base
@@ -37,7 +40,7 @@ import umontreal.iro.lecuyer.randvar.BinomialGen;
  *
  * @author Zach Tosi
  */
-public class Sparse implements ConnectNeurons {
+public class Sparse implements BulkConnector {
 
     /**
      * The default preference as to whether or not self connections are allowed.
@@ -172,7 +175,11 @@ public class Sparse implements ConnectNeurons {
         Neuron target;
         Synapse synapse;
         ArrayList<Synapse> syns = new ArrayList<Synapse>();
-        Random rand = new Random(System.nanoTime());
+        Random rand = new Random(RandomStreams.nextSeed(RandomStreams
+            .current()));
+        ConnectionUtilities.reserveConnectivity(sourceNeurons,
+            (int) (sparsity * targetNeurons.size()), targetNeurons,
+            (int) (sparsity * sourceNeurons.size()));
         if (equalizeEfferents) {
             ArrayList<Integer> targetList = new ArrayList<Integer>();
             ArrayList<Integer> tListCopy;
@@ -229,7 +236,7 @@ public class Sparse implements ConnectNeurons {
                     if (!selfConnectionAllowed && recurrent && i == j) {
                         continue;
                     } else {
-                        if (Math.random() < sparsity) {
+                        if (RandomStreams.current().nextDouble() < sparsity) {
                             source = sourceNeurons.get(i);
                             target = targetNeurons.get(j);
                             synapse = new Synapse(source, target);
@@ -243,6 +250,8 @@ public class Sparse implements ConnectNeurons {
 
             }
         }
+        ConnectionUtilities.finalizeConnectivity(sourceNeurons);
+        ConnectionUtilities.finalizeConnectivity(targetNeurons);
         return syns;
 
     }
@@ -269,11 +278,9 @@ public class Sparse implements ConnectNeurons {
                 connectRandom(synapseGroup);
             }
         } else {
-            List<Synapse> syns = this.connectSparse(synapseGroup
-                    .getSourceNeurons(), synapseGroup.getTargetNeurons());
-            for (Synapse s : syns) {
-                synapseGroup.addNewSynapse(s);
-            }
+            // Too big to keep orderings for, so build in bulk instead.
+            synapseGroup.connectBulk(this,
+                    RandomStreams.nextSeed(RandomStreams.current()));
         }
 
     }
@@ -302,6 +309,9 @@ public class Sparse implements ConnectNeurons {
         }
         expectedNumSyns = numConnectsPerSrc * sourceNeurons.length;
         synapseGroup.preAllocateSynapses(expectedNumSyns);
+        ConnectionUtilities.reserveConnectivity(Arrays.asList(sourceNeurons),
+            numConnectsPerSrc, Arrays.asList(targetNeurons),
+            expectedNumSyns / Math.max(1, targetNeurons.length));
         for (int i = 0, n = sourceNeurons.length; i < n; i++) {
             currentOrderingIndices[i] = numConnectsPerSrc;
             Neuron src = sourceNeurons[i];
@@ -312,6 +322,7 @@ public class Sparse implements ConnectNeurons {
                 synapseGroup.addNewSynapse(s);
             }
         }
+        finalizeConnectivity();
     }
 
     /**
@@ -332,9 +343,13 @@ public class Sparse implements ConnectNeurons {
                 : targetNeurons.length;
         synapseGroup
             .preAllocateSynapses((int) (sourceNeurons.length * numTars * connectionDensity));
+        // Fan-outs are sized exactly below; fan-ins get their expected size.
+        ConnectionUtilities.reserveConnectivity(Collections.emptyList(), 0,
+            Arrays.asList(targetNeurons),
+            (int) (sourceNeurons.length * connectionDensity));
         for (int i = 0, n = sourceNeurons.length; i < n; i++) {
             currentOrderingIndices[i] = BinomialGen.nextInt(
-                SimbrainMath.DEFAULT_RANDOM_STREAM, numTars,
+                RandomStreams.current(), numTars,
                 connectionDensity);
             Neuron src = sourceNeurons[i];
             Neuron tar;
@@ -346,13 +361,27 @@ public class Sparse implements ConnectNeurons {
             } else {
 	            o = SimbrainMath.randPermute(0, tarLen + 1);
             }
+            src.ensureFanOutCapacity(src.getFanOut().size()
+                + currentOrderingIndices[i]);
             for (int j = 0; j < currentOrderingIndices[i]; j++) {
                 tar = targetNeurons[o[j]];
                 Synapse s = new Synapse(src, tar);
                 synapseGroup.addNewSynapse(s);
             }
         }
+        finalizeConnectivity();
+    }
 
+    /**
+     * Releases unused fan-in and fan-out capacity of the source and target
+     * neurons once all synapses have been made.
+     */
+    private void finalizeConnectivity() {
+        ConnectionUtilities.finalizeConnectivity(Arrays.asList(sourceNeurons));
+        if (targetNeurons != sourceNeurons) {
+            ConnectionUtilities.finalizeConnectivity(
+                Arrays.asList(targetNeurons));
+        }
     }
 
     /**
@@ -377,6 +406,50 @@ public class Sparse implements ConnectNeurons {
         }
     }
 
+    /**
+     * Chooses the targets of a source neuron in one of two ways. If efferents
+     * are equalized every source gets the same number of targets, chosen
+     * uniformly. Otherwise each possible target is connected to with a
+     * probability equal to the connection density. A group connected this
+     * way does not support changing its density afterward.
+     *
+     * @param source the index of the source neuron
+     * @param numSources the number of source neurons
+     * @param numTargets the number of target neurons
+     * @param recurrent whether the sources are the targets
+     * @param stream the random stream to draw from
+     * @return the indices of the targets in ascending order
+     */
+    @Override
+    public int[] chooseTargets(final int source, final int numSources,
+            final int numTargets, final boolean recurrent,
+            final RandomStream stream) {
+        int excluded = recurrent && !selfConnectionAllowed ? source : -1;
+        int numCandidates = excluded < 0 ? numTargets : numTargets - 1;
+        int count;
+        if (numCandidates <= 0 || connectionDensity <= 0) {
+            count = 0;
+        } else if (connectionDensity >= 1) {
+            count = numCandidates;
+        } else if (equalizeEfferents) {
+            count = (int) (connectionDensity * numCandidates);
+        } else {
+            count = BinomialGen.nextInt(stream, numCandidates,
+                    connectionDensity);
+        }
+        int[] targets = SimbrainMath.randSubset(Math.max(0, numCandidates),
+                count, stream);
+        if (excluded >= 0) {
+            // Skip over the source itself.
+            for (int k = 0; k < targets.length; k++) {
+                if (targets[k] >= excluded) {
+                    targets[k]++;
+                }
+            }
+        }
+        return targets;
+    }
+
     /**
      * Randomly shuffles k integers in a list. The first k elements are randomly
      * swapped with other elements in the list. This method will alter the list
@@ -422,7 +495,7 @@ public class Sparse implements ConnectNeurons {
         } else {
             for (int i = 0, n = sourceNeurons.length; i < n; i++) {
                 int numToRemove = BinomialGen.nextInt(
-                    SimbrainMath.DEFAULT_RANDOM_STREAM, synapseGroup
+                    RandomStreams.current(), synapseGroup
                         .getTargetNeuronGroup().size(), newSparsity);
                 if (numToRemove < currentOrderingIndices[i]) {
                     List<Synapse> remove = decreaseDensity(i, numToRemove);
@@ -472,7 +545,7 @@ public class Sparse implements ConnectNeurons {
         } else {
             for (int i = 0, n = sourceNeurons.length; i < n; i++) {
                 int numToAdd = BinomialGen.nextInt(
-                    SimbrainMath.DEFAULT_RANDOM_STREAM, synapseGroup
+                    RandomStreams.current(), synapseGroup
                         .getTargetNeuronGroup().size(), newSparsity);
                 int finalNumConPerSource =
                     numToAdd >= currentOrderingIndices[i]
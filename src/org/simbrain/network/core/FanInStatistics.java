@@ -0,0 +1,110 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.List;
+
+/**
+ * Sums over the fan-in of a neuron, taken once per network update so that
+ * learning rules which need them for every synapse do not each sum the whole
+ * fan-in again. Without this a rule reading the average input of its target
+ * makes a learning step cost the square of the fan-in for each neuron. See
+ * {@link Neuron#getFanInStatistics()}.
+ * <p>
+ * The sums are a snapshot: they are not changed by later changes to the
+ * activations or weights they were taken from.
+ */
+public final class FanInStatistics {
+
+    /** The network update the statistics were taken in. */
+    private final long update;
+
+    /** The number of synapses in the fan-in. */
+    private final int count;
+
+    /** The sum of the activations of the source neurons. */
+    private final double activationSum;
+
+    /** The sum of the strengths of the synapses. */
+    private final double weightSum;
+
+    /**
+     * Takes the statistics of a fan-in.
+     *
+     * @param fanIn the synapses attaching to a neuron
+     * @param update the network update the statistics are taken in
+     */
+    FanInStatistics(final List<Synapse> fanIn, final long update) {
+        this.update = update;
+        double activations = 0;
+        double weights = 0;
+        int n = fanIn.size();
+        for (int i = 0; i < n; i++) {
+            Synapse s = fanIn.get(i);
+            activations += s.getSource().getActivation();
+            weights += s.getStrength();
+        }
+        this.count = n;
+        this.activationSum = activations;
+        this.weightSum = weights;
+    }
+
+    /**
+     * @return the network update the statistics were taken in
+     */
+    long getUpdate() {
+        return update;
+    }
+
+    /**
+     * @return the number of synapses in the fan-in
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the activations of the source neurons
+     */
+    public double getActivationSum() {
+        return activationSum;
+    }
+
+    /**
+     * @return the mean activation of the source neurons, NaN if there are
+     *         none
+     */
+    public double getAverageActivation() {
+        return activationSum / count;
+    }
+
+    /**
+     * @return the sum of the strengths of the synapses
+     */
+    public double getWeightSum() {
+        return weightSum;
+    }
+
+    /**
+     * @return the mean strength of the synapses, NaN if there are none
+     */
+    public double getAverageWeight() {
+        return weightSum / count;
+    }
+}
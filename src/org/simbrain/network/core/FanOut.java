@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2005,2007 The Authors. See http://www.simbrain.net/credits This
+ * program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version. This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details. You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * The efferent synapses of a neuron, keyed by their target neuron. Synapses
+ * are kept in a plain array which starts out empty and grows as needed, or
+ * can be sized exactly ahead of time by connection routines that know how
+ * many synapses they will make. Lookups by target are done with a linear scan
+ * while the fan-out is small; beyond {@link #INDEX_THRESHOLD} synapses a
+ * compact open-addressing table of array positions is built instead, which
+ * costs a few bytes per synapse rather than a hash map entry.
+ *
+ * Seen from the outside this is a read-only map; it is modified only through
+ * the package-private methods used by {@link Neuron}.
+ */
+final class FanOut extends AbstractMap<Neuron, Synapse> {
+
+    /** Fan-out size above which a lookup table is maintained. */
+    static final int INDEX_THRESHOLD = 8;
+
+    /** Shared empty array used until the first synapse is added. */
+    private static final Synapse[] NO_SYNAPSES = new Synapse[0];
+
+    /** The synapses; only the first {@link #size} entries are valid. */
+    private Synapse[] synapses = NO_SYNAPSES;
+
+    /** The number of synapses. */
+    private int size;
+
+    /**
+     * Open-addressing table keyed by target neuron holding positions in
+     * {@link #synapses} plus one (0 marks an empty slot). Its length is a
+     * power of two and at least twice {@link #size}. Null while the fan-out
+     * is small.
+     */
+    private int[] index;
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    @Override
+    public Synapse get(final Object target) {
+        int pos = find(target);
+        return pos < 0 ? null : synapses[pos];
+    }
+
+    @Override
+    public boolean containsKey(final Object target) {
+        return find(target) >= 0;
+    }
+
+    /**
+     * @param i a position less than {@link #size()}
+     * @return the synapse at that position
+     */
+    Synapse synapseAt(final int i) {
+        return synapses[i];
+    }
+
+    /**
+     * Adds a synapse, replacing any synapse to the same target.
+     *
+     * @param synapse the synapse to add
+     * @return the replaced synapse, or null if there was none
+     */
+    Synapse add(final Synapse synapse) {
+        int pos = find(synapse.getTarget());
+        if (pos >= 0) {
+            Synapse old = synapses[pos];
+            synapses[pos] = synapse;
+            return old;
+        }
+        if (size == synapses.length) {
+            synapses = Arrays.copyOf(synapses,
+                    Math.max(4, size + (size >> 1)));
+        }
+        synapses[size++] = synapse;
+        if (index != null && size * 2 <= index.length) {
+            insertIntoIndex(size - 1);
+        } else if (size > INDEX_THRESHOLD) {
+            rebuildIndex();
+        }
+        return null;
+    }
+
+    /**
+     * Removes the given synapse if it is the one held for its target. The
+     * last synapse is moved into the vacated position, so removal does not
+     * preserve order.
+     *
+     * @param synapse the synapse to remove
+     * @return true if the synapse was removed
+     */
+    boolean removeSynapse(final Synapse synapse) {
+        int pos = find(synapse.getTarget());
+        if (pos < 0 || synapses[pos] != synapse) {
+            return false;
+        }
+        int last = size - 1;
+        int slot = -1;
+        int lastSlot = -1;
+        if (index != null) {
+            slot = slotOf(pos);
+            lastSlot = slotOf(last);
+        }
+        synapses[pos] = synapses[last];
+        synapses[last] = null;
+        size = last;
+        if (index != null) {
+            if (last != pos) {
+                index[lastSlot] = pos + 1;
+            }
+            deleteSlot(slot);
+        }
+        return true;
+    }
+
+    @Override
+    public void clear() {
+        synapses = NO_SYNAPSES;
+        size = 0;
+        index = null;
+    }
+
+    /**
+     * Makes room for at least the given number of synapses.
+     *
+     * @param capacity the total number of synapses expected
+     */
+    void ensureCapacity(final int capacity) {
+        if (capacity > synapses.length) {
+            synapses = Arrays.copyOf(synapses, capacity);
+        }
+    }
+
+    /**
+     * Shrinks the synapse array to the number of synapses held.
+     */
+    void trimToSize() {
+        if (size < synapses.length) {
+            synapses = size == 0 ? NO_SYNAPSES
+                    : Arrays.copyOf(synapses, size);
+            if (index != null) {
+                rebuildIndex();
+            }
+        }
+    }
+
+    /**
+     * @param target the target neuron
+     * @return the position of the synapse to that target or -1 if there is
+     *         none
+     */
+    private int find(final Object target) {
+        if (index == null) {
+            for (int i = 0; i < size; i++) {
+                if (synapses[i].getTarget() == target) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = index.length - 1;
+        for (int s = hash(target) & mask;; s = (s + 1) & mask) {
+            int entry = index[s];
+            if (entry == 0) {
+                return -1;
+            }
+            if (synapses[entry - 1].getTarget() == target) {
+                return entry - 1;
+            }
+        }
+    }
+
+    /**
+     * @param pos a position present in the index
+     * @return the slot of the index holding that position
+     */
+    private int slotOf(final int pos) {
+        int mask = index.length - 1;
+        int s = hash(synapses[pos].getTarget()) & mask;
+        while (index[s] != pos + 1) {
+            s = (s + 1) & mask;
+        }
+        return s;
+    }
+
+    /**
+     * Empties a slot of the index, shifting back any later entries of the
+     * same probe run so that lookups still find them.
+     *
+     * @param slot the slot to empty
+     */
+    private void deleteSlot(int slot) {
+        int mask = index.length - 1;
+        index[slot] = 0;
+        for (int s = (slot + 1) & mask; index[s] != 0; s = (s + 1) & mask) {
+            int home = hash(synapses[index[s] - 1].getTarget()) & mask;
+            // Move the entry if its home slot does not lie cyclically in
+            // (slot, s].
+            boolean inRange = slot <= s ? (slot < home && home <= s)
+                    : (slot < home || home <= s);
+            if (!inRange) {
+                index[slot] = index[s];
+                index[s] = 0;
+                slot = s;
+            }
+        }
+    }
+
+    /**
+     * @param pos the position of a synapse not yet in the index
+     */
+    private void insertIntoIndex(final int pos) {
+        int mask = index.length - 1;
+        int s = hash(synapses[pos].getTarget()) & mask;
+        while (index[s] != 0) {
+            s = (s + 1) & mask;
+        }
+        index[s] = pos + 1;
+    }
+
+    /**
+     * Rebuilds the index for the current size, or drops it if the fan-out
+     * has become small.
+     */
+    private void rebuildIndex() {
+        if (size <= INDEX_THRESHOLD) {
+            index = null;
+            return;
+        }
+        index = new int[Integer.highestOneBit(size * 2 - 1) << 1];
+        for (int i = 0; i < size; i++) {
+            insertIntoIndex(i);
+        }
+    }
+
+    /**
+     * @param target a target neuron
+     * @return a spread version of its identity hash code
+     */
+    private static int hash(final Object target) {
+        int h = System.identityHashCode(target) * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    @Override
+    public Collection<Synapse> values() {
+        return new AbstractCollection<Synapse>() {
+            @Override
+            public Iterator<Synapse> iterator() {
+                return new PositionIterator<Synapse>() {
+                    @Override
+                    Synapse elementAt(final int i) {
+                        return synapses[i];
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    @Override
+    public Set<Entry<Neuron, Synapse>> entrySet() {
+        return new AbstractSet<Entry<Neuron, Synapse>>() {
+            @Override
+            public Iterator<Entry<Neuron, Synapse>> iterator() {
+                return new PositionIterator<Entry<Neuron, Synapse>>() {
+                    @Override
+                    Entry<Neuron, Synapse> elementAt(final int i) {
+                        return new SimpleImmutableEntry<Neuron, Synapse>(
+                                synapses[i].getTarget(), synapses[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Read-only iterator over the valid positions of the synapse array.
+     *
+     * @param <E> the element type
+     */
+    private abstract class PositionIterator<E> implements Iterator<E> {
+
+        /** The next position. */
+        private int next;
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public E next() {
+            if (next >= size) {
+                throw new NoSuchElementException();
+            }
+            return elementAt(next++);
+        }
+
+        /**
+         * @param i a valid position
+         * @return the element for that position
+         */
+        abstract E elementAt(int i);
+    }
+
+}
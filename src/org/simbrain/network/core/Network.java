@@ -41,17 +41,24 @@ import org.simbrain.network.listeners.NeuronListener;
 import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.listeners.TextListener;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.synapse_update_rules.spikeresponders.RiseAndDecay;
+import org.simbrain.network.synapse_update_rules.spikeresponders.Step;
+import org.simbrain.network.synapse_update_rules.spikeresponders.UDF;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
 import org.simbrain.network.update_actions.CustomUpdate;
+import org.simbrain.network.update_actions.ParallelBufferedUpdate;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
 import org.simbrain.util.SimpleId;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
 
 import com.thoughtworks.xstream.XStream;
 import com.thoughtworks.xstream.io.xml.DomDriver;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>Network</b> provides core neural network functionality and is the the main
  * API for external calls. Network objects are sets of neurons and weights
@@ -134,6 +141,72 @@ public class Network {
      */
     private List<Neuron> prioritySortedNeuronList;
 
+    /**
+     * Neurons whose input value has been set since inputs were last cleared,
+     * so that {@link #clearInputs()} only visits those.
+     */
+    private List<Neuron> neuronsWithInput = new ArrayList<Neuron>();
+
+    /**
+     * State arrays whose inputs have been written to directly since inputs
+     * were last cleared.
+     */
+    private List<NeuronStateArrays> stateArraysWithInput =
+            new ArrayList<NeuronStateArrays>();
+
+    /**
+     * Cached flat list of neurons, or null if it must be rebuilt. See
+     * {@link #getFlatNeuronView()}.
+     */
+    private volatile List<Neuron> flatNeuronView;
+
+    /**
+     * Cached flat list of synapses, or null if it must be rebuilt. See
+     * {@link #getFlatSynapseView()}.
+     */
+    private volatile List<Synapse> flatSynapseView;
+
+    /** Incremented each time the cached flat lists are invalidated. */
+    private volatile int structureVersion;
+
+    /** Incremented each time a neuron is moved. */
+    private volatile int positionVersion;
+
+    /** Incremented at the start of each update. */
+    private volatile long updateCount;
+
+    /** Whether the update actions of an update are being run. */
+    private volatile boolean updating;
+
+    /**
+     * The seed all random numbers drawn by this network are derived from. 0
+     * in networks saved before seeds were, which are given a new seed when
+     * they are loaded.
+     */
+    private long randomSeed = RandomStreams.nextSeed();
+
+    /**
+     * The random stream bound while the network updates, see
+     * {@link #getRandomStream()}. Null until needed.
+     */
+    private RandomStream randomStream;
+
+    /** The child of the seed that the seeds of groups are derived from. */
+    private static final long GROUP_SEEDS = 1;
+
+    /** The child of the seed that the seeds of updates are derived from. */
+    private static final long UPDATE_SEEDS = 2;
+
+    /**
+     * Whether spikes are propagated as events into per-neuron responses
+     * rather than through every synapse's spike responder on every update.
+     * See {@link #setEventDrivenSpikes(boolean)}.
+     */
+    private boolean eventDrivenSpikes;
+
+    /** Propagates spikes when they are event driven; null otherwise. */
+    private SpikeEventManager spikeEvents;
+
     /** Comparator used for sorting the priority sorted neuron list. */
     private PriorityComparator priorityComparator = new PriorityComparator();
 
@@ -195,11 +268,22 @@ public class Network {
     	for (int i = 0, n = networkListeners.size(); i < n; i++) {
     		networkListeners.get(i).setUpdateComplete(false);
     	}
+        if (spikeEvents != null) {
+            spikeEvents.deliver();
+        }
         // Perform update
-    	for (int i = 0, n = updateManager.getActionList().size(); i < n;
-    			i++) {
-    		updateManager.getActionList().get(i).invoke();
-    	}
+        updateCount++;
+        updating = true;
+        RandomStream previous = RandomStreams.bind(getRandomStream());
+        try {
+            for (int i = 0, n = updateManager.getActionList().size(); i < n;
+                    i++) {
+                updateManager.getActionList().get(i).invoke();
+            }
+        } finally {
+            updating = false;
+            RandomStreams.bind(previous);
+        }
 
     	if (fireUpdates) {
     	    // Fire update events for GUI update. Loose items, then groups.
@@ -280,12 +364,39 @@ public class Network {
      * cause problems.
      */
     public void clearInputs() {
+        synchronized (neuronsWithInput) {
+            for (int i = 0, n = neuronsWithInput.size(); i < n; i++) {
+                neuronsWithInput.get(i).clearInputValue();
+            }
+            neuronsWithInput.clear();
+            for (int i = 0, n = stateArraysWithInput.size(); i < n; i++) {
+                stateArraysWithInput.get(i).clearPendingInputs();
+            }
+            stateArraysWithInput.clear();
+        }
+    }
 
-        // TODO: Is there a more efficient way to handle this?
-        // i.e. a way to get a list of neurons that (1) are coupled or better,
-        // (2) have input values which consume.
-        for (Neuron neuron : this.getFlatNeuronList()) {
-            neuron.setInputValue(0);
+    /**
+     * Called by a neuron the first time its input value is set to something
+     * other than zero after inputs were cleared.
+     *
+     * @param neuron the neuron whose input must be cleared after the update
+     */
+    void inputValueSet(final Neuron neuron) {
+        synchronized (neuronsWithInput) {
+            neuronsWithInput.add(neuron);
+        }
+    }
+
+    /**
+     * Called by state arrays the first time their inputs are written to
+     * directly after inputs were cleared.
+     *
+     * @param arrays the arrays whose inputs must be cleared after the update
+     */
+    void inputValuesSet(final NeuronStateArrays arrays) {
+        synchronized (neuronsWithInput) {
+            stateArraysWithInput.add(arrays);
         }
     }
 
@@ -360,7 +471,7 @@ public class Network {
      * @return neuron with that id, null otherwise
      */
     public Neuron getNeuron(final String id) {
-        for (Neuron n : getFlatNeuronList()) {
+        for (Neuron n : getFlatNeuronView()) {
             if (n.getId().equalsIgnoreCase(id)) {
                 return n;
             }
@@ -483,7 +594,7 @@ public class Network {
      * @return synapse with that id, null otherwise
      */
     public Synapse getSynapse(final String id) {
-        for (Synapse s : getFlatSynapseList()) {
+        for (Synapse s : getFlatSynapseView()) {
             if (s.getId().equalsIgnoreCase(id)) {
                 return s;
             }
@@ -499,6 +610,7 @@ public class Network {
      */
     public void addNeuron(final Neuron neuron) {
         neuronList.add(neuron);
+        structureChanged();
         neuron.setId(getNeuronIdGenerator().getId());
         updatePriorityList();
         fireNeuronAdded(neuron);
@@ -514,6 +626,7 @@ public class Network {
     public void addSynapse(final Synapse synapse) {
         synapse.initSpikeResponder();
         synapseList.add(synapse);
+        structureChanged();
         synapse.setId(getSynapseIdGenerator().getId());
         fireSynapseAdded(synapse);
     }
@@ -541,6 +654,13 @@ public class Network {
         // Update priority list
         updatePriorityList();
 
+        // Compressed synapse groups index their weights by neuron position
+        // and so must be expanded before a neuron can be removed.
+        if (toDelete.getParentGroup() instanceof NeuronGroup) {
+            ((NeuronGroup) toDelete.getParentGroup())
+                    .decompressSynapseGroups();
+        }
+
         // Remove Connected Synapses
         toDelete.deleteConnectedSynapses();
 
@@ -553,6 +673,7 @@ public class Network {
             }
         } else {
             neuronList.remove(toDelete);
+            structureChanged();
         }
 
         // Notify listeners that this neuron has been deleted
@@ -588,6 +709,7 @@ public class Network {
             }
         } else {
             synapseList.remove(toDelete);
+            structureChanged();
             // Notify listeners that this synapse has been deleted
             fireSynapseRemoved(toDelete);
         }
@@ -616,6 +738,7 @@ public class Network {
             neuronList.remove(neuron);
             group.addNeuron(neuron, false);
         }
+        structureChanged();
     }
 
     /**
@@ -799,6 +922,7 @@ public class Network {
         if (group.isTopLevelGroup()) {
             groupList.add(group);
         }
+        structureChanged();
 
         // Notify listeners (mainly network panel) that the group has been
         // added.
@@ -818,6 +942,7 @@ public class Network {
 
         // Call delete method on this group being deleted
         toDelete.delete();
+        structureChanged();
 
         // Notify listeners that this group has been deleted.
         fireGroupRemoved(toDelete);
@@ -844,6 +969,36 @@ public class Network {
      * @return the flat list
      */
     public List<Neuron> getFlatNeuronList() {
+        return new ArrayList<Neuron>(getFlatNeuronView());
+    }
+
+    /**
+     * Returns an unmodifiable flat list of neurons, like
+     * {@link #getFlatNeuronList()}, without copying. The list is cached until
+     * neurons or groups are added or removed (see {@link #structureChanged()}),
+     * so callers should not hold on to it across such changes.
+     *
+     * @return the cached flat list
+     */
+    public List<Neuron> getFlatNeuronView() {
+        List<Neuron> view = flatNeuronView;
+        if (view == null) {
+            int version = structureVersion;
+            view = Collections.unmodifiableList(buildFlatNeuronList());
+            // Don't cache a list which was built during a structural change.
+            if (version == structureVersion) {
+                flatNeuronView = view;
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Walks the loose neurons and all groups to build a flat neuron list.
+     *
+     * @return the flat list
+     */
+    private List<Neuron> buildFlatNeuronList() {
 
         List<Neuron> ret = new ArrayList<Neuron>();
         ret.addAll(neuronList);
@@ -869,12 +1024,193 @@ public class Network {
      * @return the flat list
      */
     public List<Synapse> getFlatSynapseList() {
+        return new ArrayList<Synapse>(getFlatSynapseView());
+    }
+
+    /**
+     * Returns an unmodifiable flat list of synapses, like
+     * {@link #getFlatSynapseList()}, without copying. The list is cached until
+     * synapses or groups are added or removed (see
+     * {@link #structureChanged()}).
+     *
+     * @return the cached flat list
+     */
+    public List<Synapse> getFlatSynapseView() {
+        List<Synapse> view = flatSynapseView;
+        if (view == null) {
+            int version = structureVersion;
+            view = Collections.unmodifiableList(buildFlatSynapseList());
+            if (version == structureVersion) {
+                flatSynapseView = view;
+            }
+        }
+        return view;
+    }
+
+    /**
+     * Notifies the network that neurons, synapses or groups have been added to
+     * or removed from it or one of its groups, which invalidates the cached
+     * flat lists. Groups call this when their membership changes.
+     */
+    public void structureChanged() {
+        structureVersion++;
+        flatNeuronView = null;
+        flatSynapseView = null;
+    }
+
+    /**
+     * @return a number which changes whenever {@link #structureChanged()} is
+     *         called
+     */
+    int getStructureVersion() {
+        return structureVersion;
+    }
+
+    /**
+     * @return a number which changes whenever a neuron of this network is
+     *         moved, so that indices of neuron positions can tell when they
+     *         are out of date
+     */
+    public int getPositionVersion() {
+        return positionVersion;
+    }
+
+    /**
+     * @return a number which changes at the start of every update, so that
+     *         values computed from the state of the network can be cached for
+     *         the rest of the update
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return true while the update actions of {@link #update()} are run
+     */
+    public boolean isUpdating() {
+        return updating;
+    }
+
+    /**
+     * @return the seed all random numbers drawn by this network are derived
+     *         from
+     */
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    /**
+     * Sets the seed all random numbers drawn by this network are derived
+     * from. The network's random stream and those of its groups start again
+     * from the new seed.
+     *
+     * @param randomSeed the new seed
+     */
+    public void setRandomSeed(final long randomSeed) {
+        this.randomSeed = randomSeed;
+        randomStream = null;
+    }
+
+    /**
+     * Returns the random stream of this network, which is bound as the
+     * current stream of the updating thread during {@link #update()} (see
+     * {@link RandomStreams#current()}), so that rules with noise draw the
+     * same numbers on every run from the same seed.
+     *
+     * @return the random stream of this network
+     */
+    public RandomStream getRandomStream() {
+        if (randomStream == null) {
+            randomStream = SimbrainMath.seededStream(randomSeed, 0);
+        }
+        return randomStream;
+    }
+
+    /**
+     * @param group a group of this network
+     * @return the seed of the group's random stream, derived from the seed of
+     *         this network and the id of the group
+     */
+    public long getGroupSeed(final Group group) {
+        String id = group.getId();
+        return RandomStreams.childSeed(RandomStreams.childSeed(randomSeed,
+                GROUP_SEEDS), id == null ? 0 : id.hashCode());
+    }
+
+    /**
+     * Returns a seed for the current update, for update actions which split
+     * their work over several threads and give each piece of work its own
+     * stream, see {@link SimbrainMath#seededStream(long, long)}.
+     *
+     * @return a seed derived from the seed of this network and the number of
+     *         updates so far
+     */
+    public long getUpdateSeed() {
+        return RandomStreams.childSeed(RandomStreams.childSeed(randomSeed,
+                UPDATE_SEEDS), updateCount);
+    }
+
+    /**
+     * @return whether spikes are propagated as events
+     */
+    public boolean isEventDrivenSpikes() {
+        return eventDrivenSpikes;
+    }
+
+    /**
+     * Sets whether spikes are propagated as events. When they are, synapses
+     * with exponential spike responders (see
+     * {@link org.simbrain.network.synapse_update_rules.spikeresponders.ExponentialResponder})
+     * are no longer updated one by one. Instead each neuron keeps one
+     * decaying response per kind of responder, to which each spike adds the
+     * synapse's jump, after the synapse's delay. The cost of an update then
+     * grows with the number of spikes rather than the number of synapses,
+     * which pays off for large networks with low firing rates. See
+     * {@link SpikeEventManager} for how this differs from updating each
+     * synapse.
+     *
+     * @param eventDrivenSpikes whether spikes are propagated as events
+     */
+    public void setEventDrivenSpikes(final boolean eventDrivenSpikes) {
+        this.eventDrivenSpikes = eventDrivenSpikes;
+        spikeEvents = eventDrivenSpikes ? new SpikeEventManager(this) : null;
+    }
+
+    /**
+     * @return the spike event manager, or null if spikes are not event
+     *         driven
+     */
+    SpikeEventManager getSpikeEvents() {
+        return spikeEvents;
+    }
+
+    /**
+     * Notifies the network that a synapse's spike responder or delay has
+     * changed, so that event-driven spikes are routed anew.
+     */
+    void spikeRoutingChanged() {
+        SpikeEventManager events = spikeEvents;
+        if (events != null) {
+            events.invalidate();
+        }
+    }
+
+    /**
+     * Walks the loose synapses and all groups to build a flat synapse list.
+     *
+     * @return the flat list
+     */
+    private List<Synapse> buildFlatSynapseList() {
         List<Synapse> ret = new ArrayList<Synapse>(10000);
         ret.addAll(synapseList);
         for (int i = 0; i < groupList.size(); i++) {
             if (groupList.get(i) instanceof SynapseGroup) {
                 SynapseGroup group = (SynapseGroup) groupList.get(i);
-                ret.addAll(group.getAllSynapses());
+                // Compressed groups have no synapse objects in the network,
+                // only read-only copies.
+                if (!group.isUseCompressedMatrix()) {
+                    ret.addAll(group.getAllSynapses());
+                }
             } else if (groupList.get(i) instanceof Subnetwork) {
                 Subnetwork group = (Subnetwork) groupList.get(i);
                 ret.addAll(group.getFlatSynapseList());
@@ -1001,6 +1337,18 @@ public class Network {
         xstream.omitField(Network.class, "updateCompleted");
         xstream.omitField(Network.class, "logger");
         xstream.omitField(Network.class, "synapseVisibilityThreshold");
+        xstream.omitField(Network.class, "neuronsWithInput");
+        xstream.omitField(Network.class, "stateArraysWithInput");
+        xstream.omitField(Network.class, "flatNeuronView");
+        xstream.omitField(Network.class, "flatSynapseView");
+        xstream.omitField(Network.class, "structureVersion");
+        xstream.omitField(Network.class, "positionVersion");
+        xstream.omitField(Network.class, "updateCount");
+        xstream.omitField(Network.class, "updating");
+        xstream.omitField(Network.class, "spikeEvents");
+        xstream.omitField(Network.class, "randomStream");
+        xstream.omitField(Group.class, "randomStream");
+        xstream.omitField(Group.class, "randomStreamSeed");
 
         xstream.omitField(NetworkUpdateManager.class, "listeners");
         xstream.omitField(ConcurrentBufferedUpdate.class, "consumerThreads");
@@ -1011,11 +1359,39 @@ public class Network {
         xstream.omitField(ConcurrentBufferedUpdate.class, "collectorThread");
         xstream.omitField(ConcurrentBufferedUpdate.class,
                 "synchronizingBarrier");
+        xstream.omitField(ParallelBufferedUpdate.class, "network");
+        xstream.omitField(ParallelBufferedUpdate.class, "neurons");
+        xstream.omitField(ParallelBufferedUpdate.class, "bounds");
+        xstream.omitField(ParallelBufferedUpdate.class, "inputGroups");
+        xstream.omitField(ParallelBufferedUpdate.class, "outputGroups");
+        xstream.omitField(ParallelBufferedUpdate.class, "compressedGroups");
+        xstream.omitField(ParallelBufferedUpdate.class, "kernelGroups");
+        xstream.omitField(ParallelBufferedUpdate.class, "synapseGroups");
+        xstream.omitField(ParallelBufferedUpdate.class, "usedKernel");
+        xstream.omitField(ParallelBufferedUpdate.class,
+                "kernelSynapseGroups");
+        xstream.omitField(ParallelBufferedUpdate.class, "checkFanIn");
+        xstream.omitField(ParallelBufferedUpdate.class, "topologyChanged");
+        xstream.omitField(ParallelBufferedUpdate.class, "phaser");
+        xstream.omitField(ParallelBufferedUpdate.class, "workers");
+        xstream.omitField(ParallelBufferedUpdate.class, "stopSignal");
+        xstream.omitField(ParallelBufferedUpdate.class, "failure");
         xstream.omitField(CustomUpdate.class, "interpreter");
         xstream.omitField(CustomUpdate.class, "theAction");
 
         xstream.omitField(SynapseGroup.class, "exTemp");
         xstream.omitField(SynapseGroup.class, "inTemp");
+        xstream.omitField(SynapseGroup.class, "compressedWeights");
+        xstream.omitField(SynapseGroup.class, "compressedIds");
+        xstream.omitField(SynapseGroup.class, "compressedResponders");
+        xstream.omitField(SynapseGroup.class, "compressedRules");
+        xstream.omitField(SynapseGroup.class, "compressedFrozen");
+        xstream.omitField(SynapseGroup.class, "srcActivationBuffer");
+        xstream.omitField(SynapseGroup.class, "tarInputBuffer");
+        xstream.omitField(SynapseGroup.class, "exTraceUpdater");
+        xstream.omitField(SynapseGroup.class, "inTraceUpdater");
+        xstream.omitField(SynapseGroup.class, "exBatch");
+        xstream.omitField(SynapseGroup.class, "inBatch");
         xstream.omitField(Sparse.class, "sparseOrdering");
         xstream.omitField(Sparse.class, "currentOrderingIndices");
         xstream.omitField(Sparse.class, "sourceNeurons");
@@ -1024,9 +1400,27 @@ public class Network {
         xstream.omitField(Neuron.class, "fanOut");
         xstream.omitField(Neuron.class, "fanIn");
         xstream.omitField(Neuron.class, "generator");
+        xstream.omitField(Neuron.class, "stateArrays");
+        xstream.omitField(Neuron.class, "inputPending");
+        xstream.omitField(Neuron.class, "spikeEventIndex");
+        xstream.omitField(Neuron.class, "fanInStatistics");
+        xstream.omitField(NeuronGroup.class, "stateArrays");
+        xstream.omitField(NeuronGroup.class, "spatialIndex");
+        xstream.omitField(NeuronGroup.class, "spatialIndexVersion");
+        xstream.omitField(NeuronGroup.class, "spatialIndexRadius");
 
         // TODO: Backwards compatible
         xstream.omitField(Synapse.class, "sendWeightedInput");
+        xstream.omitField(Synapse.class, "readOnly");
+
+        // Spike responders used to keep per-synapse state in their own fields
+        xstream.omitField(Step.class, "timer");
+        xstream.omitField(RiseAndDecay.class, "recovery");
+        for (String field : new String[] { "U", "D", "F", "lastSpikeTime",
+                "u", "R", "spikeDecay", "firstTime", "jumpHeight", "baseLine",
+                "timeConstant" }) {
+            xstream.omitField(UDF.class, field);
+        }
 
         return xstream;
     }
@@ -1048,6 +1442,14 @@ public class Network {
         synapseListeners = new ArrayList<SynapseListener>();
         textListeners = new ArrayList<TextListener>();
         groupListeners = new ArrayList<GroupListener>();
+        neuronsWithInput = new ArrayList<Neuron>();
+        if (randomSeed == 0) {
+            randomSeed = RandomStreams.nextSeed();
+        }
+        stateArraysWithInput = new ArrayList<NeuronStateArrays>();
+        if (eventDrivenSpikes) {
+            spikeEvents = new SpikeEventManager(this);
+        }
 
         // Initialize update manager
         updateManager.postUnmarshallingInit();
@@ -1057,6 +1459,13 @@ public class Network {
             neuron.postUnmarshallingInit();
         }
 
+        // Rebuild neuron state arrays if needed
+        for (Group group : this.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                ((NeuronGroup) group).postUnmarshallingInit();
+            }
+        }
+
         // Uncompress compressed matrix rep if needed
         for (SynapseGroup group : this.getSynapseGroups()) {
             group.postUnmarshallingInit();
@@ -1075,6 +1484,11 @@ public class Network {
      * operations occur in {@link #readResolve()}.
      */
     public void preSaveInit() {
+        for (Group group : this.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                ((NeuronGroup) group).preSaveInit();
+            }
+        }
         for (SynapseGroup group : this.getSynapseGroups()) {
             group.preSaveInit();
         }
@@ -1283,6 +1697,7 @@ public class Network {
      *            Neuron that has been moved
      */
     public void fireNeuronMoved(final Neuron moved) {
+        positionVersion++;
         for (NeuronListener listener : neuronListeners) {
             listener.neuronMoved(new NetworkEvent<Neuron>(this, moved));
         }
@@ -1628,6 +2043,16 @@ public class Network {
         neuronListeners.add(listener);
     }
 
+    /**
+     * Remove a neuron listener.
+     *
+     * @param listener
+     *            the observer to remove
+     */
+    public void removeNeuronListener(final NeuronListener listener) {
+        neuronListeners.remove(listener);
+    }
+
     /**
      * Register a synapse listener.
      *
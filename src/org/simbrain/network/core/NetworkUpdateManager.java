@@ -24,11 +24,13 @@ import java.util.Iterator;
 import java.util.List;
 
 import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.listeners.GroupAdapter;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.update_actions.BufferedUpdate;
 import org.simbrain.network.update_actions.ConcurrentBufferedUpdate;
 import org.simbrain.network.update_actions.CustomUpdate;
+import org.simbrain.network.update_actions.ParallelBufferedUpdate;
 import org.simbrain.network.update_actions.PriorityUpdate;
 import org.simbrain.network.update_actions.UpdateGroup;
 
@@ -89,6 +91,13 @@ public class NetworkUpdateManager {
                 break;
             }
         }
+        // Parallel updates hold threads and a reference to the network, none
+        // of which are saved, so replace them with fresh instances.
+        for (int i = 0; i < actionList.size(); i++) {
+            if (actionList.get(i) instanceof ParallelBufferedUpdate) {
+                actionList.set(i, new ParallelBufferedUpdate(network));
+            }
+        }
 
         for (NetworkUpdateAction action : getActionList()) {
             if (action instanceof CustomUpdate) {
@@ -132,6 +141,7 @@ public class NetworkUpdateManager {
         availableActionList.add(new PriorityUpdate(network));
         availableActionList.add(ConcurrentBufferedUpdate
                 .createConcurrentBufferedUpdate(network));
+        availableActionList.add(new ParallelBufferedUpdate(network));
 
         // Add update actions for all groups available
         for (Group group : network.getGroupList()) {
@@ -213,6 +223,13 @@ public class NetworkUpdateManager {
      *            the action to add.
      */
     public void addAction(NetworkUpdateAction action) {
+        // Priority updates visit neurons one at a time, which compressed
+        // synapse groups can't feed, see SynapseGroup#setUseCompressedMatrix.
+        if (action instanceof PriorityUpdate) {
+            for (SynapseGroup sg : network.getSynapseGroups()) {
+                sg.setUseCompressedMatrix(false);
+            }
+        }
         actionList.add(action);
         for (UpdateManagerListener listener : listeners) {
             listener.actionAdded(action);
@@ -227,6 +244,9 @@ public class NetworkUpdateManager {
      */
     public void removeAction(NetworkUpdateAction action) {
         actionList.remove(action);
+        if (action instanceof ParallelBufferedUpdate) {
+            ((ParallelBufferedUpdate) action).shutdown();
+        }
         for (UpdateManagerListener listener : listeners) {
             listener.actionRemoved(action);
         }
@@ -262,6 +282,9 @@ public class NetworkUpdateManager {
      */
     public void clear() {
         for (NetworkUpdateAction action : actionList) {
+            if (action instanceof ParallelBufferedUpdate) {
+                ((ParallelBufferedUpdate) action).shutdown();
+            }
             for (UpdateManagerListener l : listeners) {
                 l.actionRemoved(action);
             }
@@ -22,7 +22,6 @@ import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
@@ -34,6 +33,7 @@ import org.simbrain.network.neuron_update_rules.interfaces.ActivityGenerator;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>Neuron</b> represents a node in the neural network. Most of the "logic" of
@@ -54,9 +54,15 @@ public class Neuron {
     public static final NeuronUpdateRule DEFAULT_UPDATE_RULE = new LinearRule();
 
     /**
-     * Pre-allocates the number of bins in this neuron's fanIn/Out for
-     * efficiency.
+     * Formerly the number of bins pre-allocated in every neuron's fanIn/Out.
+     * Fan-in and fan-out now start empty and grow as needed; connection
+     * routines which know their sizes in advance use
+     * {@link #ensureFanInCapacity(int)}, {@link #ensureFanOutCapacity(int)}
+     * and {@link #trimConnectivity()} instead.
+     *
+     * @deprecated no longer used
      */
+    @Deprecated
     public static final int PRE_ALLOCATED_NUM_SYNAPSES = (int) Math.ceil(500
             / 0.75);
 
@@ -101,13 +107,20 @@ public class Neuron {
     /** Reference to network this neuron is part of. */
     private final Network parent;
 
-    /** List of synapses this neuron attaches to. */
-    private Map<Neuron, Synapse> fanOut = new HashMap<Neuron, Synapse>(
-            PRE_ALLOCATED_NUM_SYNAPSES);
+    /** Synapses this neuron attaches to, keyed by target. */
+    private FanOut fanOut = new FanOut();
 
-    /** List of synapses attaching to this neuron. */
-    private ArrayList<Synapse> fanIn = new ArrayList<Synapse>(
-            PRE_ALLOCATED_NUM_SYNAPSES);
+    /**
+     * List of synapses attaching to this neuron. An ArrayList created with no
+     * capacity shares one empty array until its first synapse is added, so an
+     * unconnected neuron holds no synapse storage; it then grows as synapses
+     * are added, and connection routines size it exactly with
+     * {@link #ensureFanInCapacity(int)} and {@link #trimConnectivity()}. It is
+     * read by index in the update loops and handed out through
+     * {@link #getFanIn()}, unlike the fan-out, which needed its own class to
+     * avoid a map per neuron.
+     */
+    private ArrayList<Synapse> fanIn = new ArrayList<Synapse>(0);
 
     /** x-coordinate of this neuron in 2-space. */
     private double x;
@@ -149,7 +162,35 @@ public class Neuron {
      * values can be useful in scripts.
      */
     private double auxValue;
-    
+
+    /**
+     * Arrays holding this neuron's state variables when it belongs to a
+     * neuron group using structure-of-arrays storage; null otherwise. See
+     * {@link NeuronStateArrays}.
+     */
+    private NeuronStateArrays stateArrays;
+
+    /** The index of this neuron in {@link #stateArrays}. */
+    private int stateIndex;
+
+    /**
+     * Whether this neuron is queued with its network to have its input value
+     * cleared at the end of the update. See {@link Network#clearInputs()}.
+     */
+    private boolean inputPending;
+
+    /**
+     * The index of this neuron in its network's spike event routing when
+     * spikes are event driven. See {@link SpikeEventManager}.
+     */
+    private int spikeEventIndex = -1;
+
+    /**
+     * The statistics of the fan-in taken during the current network update,
+     * or null. See {@link #getFanInStatistics()}.
+     */
+    private FanInStatistics fanInStatistics;
+
     /**
      * Construct a neuron with all default values in the specified network.
      * Sometimes used as the basis for a template neuron which will be edited
@@ -230,11 +271,15 @@ public class Neuron {
      * parent network has been added.
      */
     public void postUnmarshallingInit() {
-        fanOut = new HashMap<Neuron, Synapse>();
-        fanIn = new ArrayList<Synapse>();
+        fanOut = new FanOut();
+        fanIn = new ArrayList<Synapse>(0);
         if (polarity == null) {
             polarity = Polarity.BOTH;
         }
+        inputPending = false;
+        if (inputValue != 0 && parent != null) {
+            queueInputClear();
+        }
     }
 
     /**
@@ -297,6 +342,9 @@ public class Neuron {
     public void setUpdateRule(final NeuronUpdateRule updateRule) {
         NeuronUpdateRule oldRule = updateRule;
         this.updateRule = updateRule;
+        if (stateArrays != null) {
+            stateArrays.ruleChanged(stateIndex, updateRule);
+        }
         for (Synapse s : getFanOut().values()) {
             s.initSpikeResponder();
         }
@@ -328,6 +376,8 @@ public class Neuron {
     public void setActivation(final double act) {
         if (isClamped()) {
             return;
+        } else if (stateArrays != null) {
+            stateArrays.activations[stateIndex] = act;
         } else {
             activation = act;
         }
@@ -354,13 +404,20 @@ public class Neuron {
      *            the new activation value
      */
     public void forceSetActivation(final double act) {
-        activation = act;
+        if (stateArrays != null) {
+            stateArrays.activations[stateIndex] = act;
+        } else {
+            activation = act;
+        }
     }
 
     /**
      * @return the level of activation.
      */
     public double getActivation() {
+        if (stateArrays != null) {
+            return stateArrays.activations[stateIndex];
+        }
         return activation;
     }
 
@@ -406,15 +463,11 @@ public class Neuron {
      */
     public void addEfferent(final Synapse synapse) {
         if (fanOut != null) {
-            Synapse dup = fanOut.get(synapse.getTarget());
-            if (dup == null) { // There is no duplicate
-                fanOut.put(synapse.getTarget(), synapse);
-            } else { // There is a duplicate connecting src and target
-                // Check that we're not trying to add the exact same synapse...
-                if (!dup.equals(synapse)) {
-                    getNetwork().removeSynapse(fanOut.get(synapse.getTarget()));
-                    fanOut.put(synapse.getTarget(), synapse);
-                } // Do nothing if we are.
+            Synapse dup = fanOut.add(synapse);
+            // If there was a duplicate connecting src and target, and it is
+            // not the exact same synapse, remove it from the network.
+            if (dup != null && !dup.equals(synapse)) {
+                getNetwork().removeSynapse(dup);
             }
         }
     }
@@ -427,7 +480,7 @@ public class Neuron {
      */
     public void removeEfferent(final Synapse synapse) {
         if (fanOut != null) {
-            fanOut.remove(synapse.getTarget());
+            fanOut.removeSynapse(synapse);
         }
     }
 
@@ -457,6 +510,44 @@ public class Neuron {
         }
     }
 
+    /**
+     * Makes room in this neuron's fan-in for at least the given number of
+     * synapses, so that a connection routine which knows how many synapses
+     * it will make can avoid repeatedly growing it.
+     *
+     * @param capacity the total number of afferent synapses expected
+     */
+    public void ensureFanInCapacity(final int capacity) {
+        if (fanIn != null) {
+            fanIn.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Makes room in this neuron's fan-out for at least the given number of
+     * synapses.
+     *
+     * @param capacity the total number of efferent synapses expected
+     */
+    public void ensureFanOutCapacity(final int capacity) {
+        if (fanOut != null) {
+            fanOut.ensureCapacity(capacity);
+        }
+    }
+
+    /**
+     * Releases any unused capacity in this neuron's fan-in and fan-out. Called
+     * once a connection routine has finished adding synapses.
+     */
+    public void trimConnectivity() {
+        if (fanIn != null) {
+            fanIn.trimToSize();
+        }
+        if (fanOut != null) {
+            fanOut.trimToSize();
+        }
+    }
+
     /**
      * Sums the weighted signals that are sent to this node. This sums all the
      * weighted inputs to a neuron in a connectionist sense. No spike responders
@@ -466,7 +557,7 @@ public class Neuron {
      * @return weighted input to this node
      */
     public double getWeightedInputs() {
-        double wtdSum = inputValue;
+        double wtdSum = getInputValue();
         for (int i = 0, n = fanIn.size(); i < n; i++) {
         	wtdSum += fanIn.get(i).calcWeightedSum();
         }
@@ -483,13 +574,43 @@ public class Neuron {
      * neuron.
      */
     public double getSynapticInput() {
-        double wtdSum = inputValue;
+        SpikeEventManager events = getSpikeEvents();
+        if (events != null) {
+            return getInputValue() + events.getSynapticInput(this);
+        }
+        double wtdSum = getInputValue();
         for (int i = 0, n = fanIn.size(); i < n; i++) {
         	wtdSum += fanIn.get(i).calcPSR();
         }
         return wtdSum;
     }
 
+    /**
+     * @return the spike event manager providing this neuron's synaptic input,
+     *         or null if spikes are not event driven or this neuron has not
+     *         been routed yet
+     */
+    SpikeEventManager getSpikeEvents() {
+        SpikeEventManager events = parent == null ? null
+                : parent.getSpikeEvents();
+        return events != null && events.isTarget(this) ? events : null;
+    }
+
+    /**
+     * @return the index of this neuron in its network's spike event routing
+     */
+    int getSpikeEventIndex() {
+        return spikeEventIndex;
+    }
+
+    /**
+     * @param spikeEventIndex the index of this neuron in its network's spike
+     *            event routing
+     */
+    void setSpikeEventIndex(final int spikeEventIndex) {
+        this.spikeEventIndex = spikeEventIndex;
+    }
+
     /**
      * A helper method which iterates over each afferent synapse to this neuron
      * and calls their update functions.
@@ -600,7 +721,7 @@ public class Neuron {
         System.out.println("fan out");
 
         for (int i = 0; i < fanOut.size(); i++) {
-            Synapse tempRef = fanOut.get(i);
+            Synapse tempRef = fanOut.synapseAt(i);
             System.out.println("fanOut [" + i + "]:" + tempRef);
         }
     }
@@ -622,13 +743,20 @@ public class Neuron {
      *            temporary value
      */
     public void setBuffer(final double d) {
-        buffer = d;
+        if (stateArrays != null) {
+            stateArrays.buffers[stateIndex] = d;
+        } else {
+            buffer = d;
+        }
     }
 
     /**
      * @return Returns the current value in the buffer.
      */
     public double getBuffer() {
+        if (stateArrays != null) {
+            return stateArrays.buffers[stateIndex];
+        }
         return buffer;
     }
 
@@ -636,6 +764,9 @@ public class Neuron {
      * @return Returns the inputValue.
      */
     public double getInputValue() {
+        if (stateArrays != null) {
+            return stateArrays.inputs[stateIndex];
+        }
         return inputValue;
     }
 
@@ -643,13 +774,61 @@ public class Neuron {
      * Set the input value of the neuron. This is used in
      * {@link #getWeightedInputs()} as an "external input" to the neuron. When
      * external components (like input tables) send activation to the network
-     * they should use this.
+     * they should use this. The input is cleared after the next update of the
+     * network; a neuron without a network keeps it until it is set again.
      *
      * @param inputValue
      *            The inputValue to set.
      */
     public void setInputValue(final double inputValue) {
-        this.inputValue = inputValue;
+        if (stateArrays != null) {
+            stateArrays.inputs[stateIndex] = inputValue;
+        } else {
+            this.inputValue = inputValue;
+        }
+        if (inputValue != 0 && !inputPending && parent != null) {
+            queueInputClear();
+        }
+    }
+
+    /**
+     * Adds to the input value of the neuron. Used by sources of input which
+     * accumulate, such as compressed synapse groups, see
+     * {@link org.simbrain.network.groups.SynapseGroup#propagateCompressed()}.
+     *
+     * Like {@link #setInputValue(double)} the input is cleared after the next
+     * update of the network, if the neuron has one.
+     *
+     * @param toAdd the amount to add to the input value
+     */
+    public void addInputValue(final double toAdd) {
+        if (stateArrays != null) {
+            stateArrays.inputs[stateIndex] += toAdd;
+        } else {
+            this.inputValue += toAdd;
+        }
+        if (toAdd != 0 && !inputPending && parent != null) {
+            queueInputClear();
+        }
+    }
+
+    /**
+     * Registers this neuron with its network so that its input value is
+     * cleared at the end of the current update. Only called for neurons which
+     * have a network.
+     */
+    private void queueInputClear() {
+        inputPending = true;
+        parent.inputValueSet(this);
+    }
+
+    /**
+     * Sets the input value to zero. Called by the network when it clears the
+     * inputs of the neurons which received any.
+     */
+    void clearInputValue() {
+        inputPending = false;
+        setInputValue(0);
     }
 
     /**
@@ -698,6 +877,32 @@ public class Neuron {
         return numActiveLines;
     }
 
+    /**
+     * Returns the sums over the fan-in of this neuron as they were the first
+     * time they were asked for during the current update of the network, so
+     * that learning rules can read them for each synapse without summing the
+     * fan-in each time. They are taken again if synapses have been added or
+     * removed since, and every time when the network is not updating, e.g.
+     * when synapses are updated by hand. Unlike {@link #getAverageInput()}
+     * they do not see changes made after they were taken during the update,
+     * such as those made by the learning rules using them.
+     *
+     * @return the statistics of the fan-in for the current update
+     */
+    public FanInStatistics getFanInStatistics() {
+        FanInStatistics stats = fanInStatistics;
+        if (parent == null || !parent.isUpdating()) {
+            return new FanInStatistics(fanIn, -1);
+        }
+        long update = parent.getUpdateCount();
+        if (stats == null || stats.getUpdate() != update
+                || stats.getCount() != fanIn.size()) {
+            stats = new FanInStatistics(fanIn, update);
+            fanInStatistics = stats;
+        }
+        return stats;
+    }
+
     /**
      * @return the average activation of neurons connecting to this neuron
      */
@@ -946,6 +1151,9 @@ public class Neuron {
      * @return the clamped
      */
     public boolean isClamped() {
+        if (stateArrays != null) {
+            return stateArrays.clamped[stateIndex];
+        }
         return clamped;
     }
 
@@ -956,7 +1164,11 @@ public class Neuron {
      *            Whether this neuron is to be clamped.
      */
     public void setClamped(final boolean clamped) {
-        this.clamped = clamped;
+        if (stateArrays != null) {
+            stateArrays.clamped[stateIndex] = clamped;
+        } else {
+            this.clamped = clamped;
+        }
     }
 
     /**
@@ -1007,7 +1219,7 @@ public class Neuron {
     public void randomizeBias(double lower, double upper) {
         if (this.getUpdateRule() instanceof BiasedUpdateRule) {
             ((BiasedUpdateRule) this.getUpdateRule()).setBias((upper - lower)
-                    * Math.random() + lower);
+                    * RandomStreams.current().nextDouble() + lower);
         }
     }
 
@@ -1164,19 +1376,77 @@ public class Neuron {
     }
 
     public boolean isSpike() {
+        if (stateArrays != null) {
+            return stateArrays.spikes[stateIndex];
+        }
         return spike;
     }
 
     public void setSpike(boolean spike) {
-        this.spike = spike;
+        if (stateArrays != null) {
+            stateArrays.spikes[stateIndex] = spike;
+        } else {
+            this.spike = spike;
+        }
     }
 
     public boolean getSpkBuffer() {
+        if (stateArrays != null) {
+            return stateArrays.spikeBuffers[stateIndex];
+        }
         return spkBuffer;
     }
 
     public void setSpkBuffer(boolean spkBuffer) {
-        this.spkBuffer = spkBuffer;
+        if (stateArrays != null) {
+            stateArrays.spikeBuffers[stateIndex] = spkBuffer;
+        } else {
+            this.spkBuffer = spkBuffer;
+        }
+    }
+
+    /**
+     * Makes the given arrays the home of this neuron's state variables. Only
+     * called by {@link NeuronStateArrays}, which copies the current state in.
+     *
+     * @param arrays the arrays
+     * @param index the index of this neuron in the arrays
+     */
+    void attachState(final NeuronStateArrays arrays, final int index) {
+        stateArrays = arrays;
+        stateIndex = index;
+    }
+
+    /**
+     * Copies this neuron's state out of its state arrays (if any) and back
+     * into its own fields.
+     */
+    void writeBackState() {
+        if (stateArrays != null) {
+            activation = stateArrays.activations[stateIndex];
+            buffer = stateArrays.buffers[stateIndex];
+            inputValue = stateArrays.inputs[stateIndex];
+            spike = stateArrays.spikes[stateIndex];
+            spkBuffer = stateArrays.spikeBuffers[stateIndex];
+            clamped = stateArrays.clamped[stateIndex];
+        }
+    }
+
+    /**
+     * Copies this neuron's state back into its own fields and stops using
+     * its state arrays.
+     */
+    void detachState() {
+        writeBackState();
+        stateArrays = null;
+    }
+
+    /**
+     * @return the arrays holding this neuron's state, or null if its state is
+     *         held in its own fields
+     */
+    public NeuronStateArrays getStateArrays() {
+        return stateArrays;
     }
 
 }
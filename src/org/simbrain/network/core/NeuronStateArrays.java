@@ -0,0 +1,296 @@
+/*
+ * Copyright (C) 2005,2007 The Authors. See http://www.simbrain.net/credits This
+ * program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version. This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details. You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.simbrain.network.neuron_update_rules.interfaces.BatchUpdateRule;
+
+/**
+ * Structure-of-arrays storage for the state variables of a list of neurons,
+ * typically all the neurons of a neuron group. While a neuron is attached to
+ * one of these objects its activation, buffer, input value, spike flags and
+ * clamping are read from and written to the arrays here rather than to its
+ * own fields, so that a group can be updated with a tight loop over
+ * contiguous memory. The usual {@link Neuron} accessors remain valid views
+ * onto the arrays.
+ *
+ * When every neuron uses the same kind of update rule and that rule is a
+ * {@link BatchUpdateRule}, {@link #update()} hands the whole group to the
+ * rule's batch kernel. Otherwise neurons are updated one at a time.
+ */
+public class NeuronStateArrays {
+
+    /** The neurons whose state is stored here, in index order. */
+    private final Neuron[] neurons;
+
+    /** The update rule of each neuron. */
+    private final NeuronUpdateRule[] rules;
+
+    /** Activations. */
+    final double[] activations;
+
+    /** Activation buffers. */
+    final double[] buffers;
+
+    /** External input values. */
+    final double[] inputs;
+
+    /** Spike flags. */
+    final boolean[] spikes;
+
+    /** Spike buffers. */
+    final boolean[] spikeBuffers;
+
+    /** Clamping flags. */
+    final boolean[] clamped;
+
+    /**
+     * The batch kernel used to update all neurons at once, or null if the
+     * neurons' rules are mixed or have no batch kernel.
+     */
+    private BatchUpdateRule batchRule;
+
+    /**
+     * Whether these arrays are queued with the network to have their inputs
+     * cleared at the end of the update.
+     */
+    private boolean inputsPending;
+
+    /** Whether the neurons have been detached from these arrays. */
+    private boolean released;
+
+    /**
+     * Creates arrays holding the state of the given neurons, copies each
+     * neuron's current state into them and attaches the neurons, so that
+     * from here on their state lives in the arrays.
+     *
+     * @param neuronList the neurons to attach
+     */
+    public NeuronStateArrays(final List<Neuron> neuronList) {
+        int n = neuronList.size();
+        neurons = neuronList.toArray(new Neuron[n]);
+        rules = new NeuronUpdateRule[n];
+        activations = new double[n];
+        buffers = new double[n];
+        inputs = new double[n];
+        spikes = new boolean[n];
+        spikeBuffers = new boolean[n];
+        clamped = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            Neuron neuron = neurons[i];
+            activations[i] = neuron.getActivation();
+            buffers[i] = neuron.getBuffer();
+            inputs[i] = neuron.getInputValue();
+            spikes[i] = neuron.isSpike();
+            spikeBuffers[i] = neuron.getSpkBuffer();
+            clamped[i] = neuron.isClamped();
+            rules[i] = neuron.getUpdateRule();
+            neuron.attachState(this, i);
+        }
+        findBatchRule();
+    }
+
+    /**
+     * Copies the state held here back into the fields of the neurons and
+     * detaches them. The arrays should not be used afterwards.
+     */
+    public void release() {
+        for (Neuron neuron : neurons) {
+            neuron.detachState();
+        }
+        released = true;
+    }
+
+    /**
+     * Copies the state held here into the fields of the neurons without
+     * detaching them, e.g. so that they can be serialized.
+     */
+    public void writeBack() {
+        for (Neuron neuron : neurons) {
+            neuron.writeBackState();
+        }
+    }
+
+    /**
+     * Updates every neuron and then moves all buffered values into place,
+     * i.e. a buffered update of all the neurons.
+     */
+    public void update() {
+        updateBuffers();
+        commitBuffers();
+    }
+
+    /**
+     * Updates every neuron, leaving the results in the buffers. This is the
+     * first half of {@link #update()}.
+     */
+    public void updateBuffers() {
+        if (batchRule != null) {
+            batchRule.updateBatch(this);
+        } else {
+            for (Neuron neuron : neurons) {
+                neuron.update();
+            }
+        }
+    }
+
+    /**
+     * Moves all buffered values into place. This is the second half of
+     * {@link #update()}.
+     */
+    public void commitBuffers() {
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            if (!clamped[i]) {
+                activations[i] = buffers[i];
+            }
+            spikes[i] = spikeBuffers[i];
+        }
+    }
+
+    /**
+     * Clears the external inputs of all neurons.
+     */
+    public void clearInputs() {
+        Arrays.fill(inputs, 0);
+    }
+
+    /**
+     * Must be called after writing to {@link #getInputs()} directly, rather
+     * than through the neurons, so that the network clears the inputs at the
+     * end of the update.
+     */
+    public void markInputsSet() {
+        if (!inputsPending && neurons.length > 0
+                && neurons[0].getNetwork() != null) {
+            inputsPending = true;
+            neurons[0].getNetwork().inputValuesSet(this);
+        }
+    }
+
+    /**
+     * Clears the inputs after {@link #markInputsSet()}. If the neurons have
+     * since been detached their inputs are cleared one by one.
+     */
+    void clearPendingInputs() {
+        inputsPending = false;
+        if (released) {
+            for (Neuron neuron : neurons) {
+                neuron.setInputValue(0);
+            }
+        } else {
+            clearInputs();
+        }
+    }
+
+    /**
+     * Called by a neuron when its update rule is replaced.
+     *
+     * @param index the index of the neuron
+     * @param rule the new rule
+     */
+    void ruleChanged(final int index, final NeuronUpdateRule rule) {
+        rules[index] = rule;
+        findBatchRule();
+    }
+
+    /**
+     * Sets {@link #batchRule} if all neurons share one rule class which has a
+     * batch kernel.
+     */
+    private void findBatchRule() {
+        batchRule = null;
+        if (rules.length == 0 || !(rules[0] instanceof BatchUpdateRule)) {
+            return;
+        }
+        Class<?> ruleClass = rules[0].getClass();
+        for (NeuronUpdateRule rule : rules) {
+            if (rule.getClass() != ruleClass) {
+                return;
+            }
+        }
+        batchRule = (BatchUpdateRule) rules[0];
+    }
+
+    /**
+     * @return the number of neurons
+     */
+    public int size() {
+        return neurons.length;
+    }
+
+    /**
+     * @return the neurons, in index order (not a copy)
+     */
+    public Neuron[] getNeurons() {
+        return neurons;
+    }
+
+    /**
+     * @return the update rule of each neuron (not a copy)
+     */
+    public NeuronUpdateRule[] getRules() {
+        return rules;
+    }
+
+    /**
+     * @return the activations (not a copy)
+     */
+    public double[] getActivations() {
+        return activations;
+    }
+
+    /**
+     * @return the activation buffers (not a copy)
+     */
+    public double[] getBuffers() {
+        return buffers;
+    }
+
+    /**
+     * @return the external input values (not a copy)
+     */
+    public double[] getInputs() {
+        return inputs;
+    }
+
+    /**
+     * @return the spike flags (not a copy)
+     */
+    public boolean[] getSpikes() {
+        return spikes;
+    }
+
+    /**
+     * @return the spike buffers (not a copy)
+     */
+    public boolean[] getSpikeBuffers() {
+        return spikeBuffers;
+    }
+
+    /**
+     * @return the clamping flags (not a copy)
+     */
+    public boolean[] getClamped() {
+        return clamped;
+    }
+
+    /**
+     * @return true if the neurons are updated by a single batch kernel
+     */
+    public boolean isBatchUpdate() {
+        return batchRule != null;
+    }
+
+}
@@ -21,6 +21,7 @@ package org.simbrain.network.core;
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * A rule for updating a neuron.
@@ -106,6 +107,10 @@ public abstract class NeuronUpdateRule {
             
 			@Override
 			public double[] getSeparatedInput(Neuron n) {
+				SpikeEventManager events = n.getSpikeEvents();
+				if (events != null) {
+					return events.getSeparatedInput(n, false);
+				}
 				double [] ei = new double[2];
 				for (Synapse s : n.getFanIn()) {
 					double psr = s.calcPSR();
@@ -121,6 +126,10 @@ public abstract class NeuronUpdateRule {
 
 			@Override
 			public double[] getNormalizedSeparatedInput(Neuron n) {
+				SpikeEventManager events = n.getSpikeEvents();
+				if (events != null) {
+					return events.getSeparatedInput(n, true);
+				}
 				double [] ei = new double[2];
 				double e = 0;
 				double i = 0;
@@ -253,10 +262,10 @@ public abstract class NeuronUpdateRule {
         if (this instanceof BoundedUpdateRule) {
             return (((BoundedUpdateRule) this).getUpperBound() - ((BoundedUpdateRule) this)
                     .getLowerBound())
-                    * Math.random()
+                    * RandomStreams.current().nextDouble()
                     + ((BoundedUpdateRule) this).getLowerBound();
         } else {
-            return 2 * Math.random() - 1;
+            return 2 * RandomStreams.current().nextDouble() - 1;
         }
 
     }
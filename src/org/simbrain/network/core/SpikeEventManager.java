@@ -0,0 +1,579 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.core;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.synapse_update_rules.spikeresponders.ExponentialResponder;
+import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
+
+/**
+ * Event-driven propagation of spikes for a network, used in place of calling
+ * every synapse's spike responder on every update when
+ * {@link Network#isEventDrivenSpikes()} is set.
+ *
+ * Synapses with an {@link ExponentialResponder} are not updated individually.
+ * Instead each target neuron has one decaying state per kind of responder
+ * (responder class, time constant and baseline), split into an excitatory
+ * and an inhibitory part so that separated inputs still work. When a source
+ * neuron spikes, each of its routed synapses adds its jump (jump height times
+ * strength) to its target's state, either directly or, if the synapse has a
+ * delay, through a ring buffer of pending events indexed by the step the
+ * event arrives on. The cost of an update is then one decay per state plus
+ * one addition per synapse of each neuron which spiked, rather than a
+ * responder update per synapse. Synapses with other responders, or with no
+ * responder, are still called on every update through
+ * {@link Synapse#calcPSR()}.
+ *
+ * Spikes are collected at the start of each update, so a neuron sees a spike
+ * on the update after it happened, as under a buffered update. Where a
+ * target neuron is updated after its source within the same update (for
+ * example a neuron group updated after the group feeding it), it sees the
+ * spike one update later than a synapse updated on its own would show it.
+ * Each update the states decay first and the jumps arriving on that update
+ * are added afterwards. A synapse updated on its own instead skips the decay
+ * on the update its source spikes, and {@link
+ * org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay}
+ * replaces its response rather than adding to it, so the two modes agree
+ * closely but not exactly when a synapse's response has not decayed by the
+ * time its source spikes again. The post-synaptic responses of routed
+ * synapses ({@link Synapse#getPsr()}) are not updated.
+ *
+ * The routing is rebuilt on the next update whenever neurons, synapses or
+ * groups are added or removed, or a synapse's spike responder or delay is
+ * set. States and pending events carry over to the rebuilt routing. The
+ * states are first filled in from the synapses' post-synaptic responses.
+ */
+final class SpikeEventManager {
+
+    /** The network whose spikes are propagated. */
+    private final Network network;
+
+    /** Whether the routing must be rebuilt before the next update. */
+    private volatile boolean dirty = true;
+
+    /** The structure version of the network the routing was built for. */
+    private int structureVersion;
+
+    /** Whether the routing has been built at least once. */
+    private boolean built;
+
+    /**
+     * The neurons of the network. A neuron's index here is its
+     * {@link Neuron#getSpikeEventIndex()}.
+     */
+    private Neuron[] neurons = new Neuron[0];
+
+    /** The kinds of responder found, indexed by kind. */
+    private ResponderKind[] kinds = new ResponderKind[0];
+
+    /** The decay rate of each kind for the current time step. */
+    private double[] rates = new double[0];
+
+    /**
+     * State boundaries: the states of neuron i are [stateStart[i],
+     * stateStart[i + 1]), in excitatory and inhibitory pairs.
+     */
+    private int[] stateStart = new int[1];
+
+    /** The value of each state. */
+    private double[] values = new double[0];
+
+    /** The value each state decays towards. */
+    private double[] baselines = new double[0];
+
+    /** The kind of each state. */
+    private int[] stateKinds = new int[0];
+
+    /**
+     * Routing boundaries: the routed synapses from neuron i are
+     * [routeStart[i], routeStart[i + 1]).
+     */
+    private int[] routeStart = new int[1];
+
+    /** The routed synapses, grouped by source. */
+    private Synapse[] routeSynapses = new Synapse[0];
+
+    /** The excitatory state each routed synapse adds to. */
+    private int[] routeStates = new int[0];
+
+    /** The delay of each routed synapse. */
+    private int[] routeDelays = new int[0];
+
+    /** The indices of the neurons with at least one routed synapse. */
+    private int[] sources = new int[0];
+
+    /**
+     * Boundaries of the remaining synapses onto neuron i, which are updated
+     * individually: [otherStart[i], otherStart[i + 1]).
+     */
+    private int[] otherStart = new int[1];
+
+    /** Synapses updated individually, grouped by target. */
+    private Synapse[] otherSynapses = new Synapse[0];
+
+    /** The number of routed excitatory synapses onto each neuron. */
+    private int[] excitatoryCounts = new int[0];
+
+    /** The number of routed inhibitory synapses onto each neuron. */
+    private int[] inhibitoryCounts = new int[0];
+
+    /**
+     * Pending events, by the ring buffer slot of the update they arrive on:
+     * the states they add to.
+     */
+    private int[][] pendingStates = new int[1][0];
+
+    /** Pending events: the amounts they add. */
+    private double[][] pendingAmounts = new double[1][0];
+
+    /** The number of pending events in each ring buffer slot. */
+    private int[] pendingCounts = new int[1];
+
+    /** The ring buffer slot of the current update. */
+    private int cursor;
+
+    /**
+     * @param network the network whose spikes are propagated
+     */
+    SpikeEventManager(final Network network) {
+        this.network = network;
+    }
+
+    /**
+     * Note that the routing must be rebuilt before the next update.
+     */
+    void invalidate() {
+        dirty = true;
+    }
+
+    /**
+     * @param neuron a neuron
+     * @return whether the neuron's synaptic input is currently provided by
+     *         this manager
+     */
+    boolean isTarget(final Neuron neuron) {
+        int i = neuron.getSpikeEventIndex();
+        return i >= 0 && i < neurons.length && neurons[i] == neuron;
+    }
+
+    /**
+     * Advances the states by one update: decays them, adds the events
+     * arriving on this update and propagates the spikes of the neurons which
+     * spiked on the last one. Called by the network at the start of each
+     * update, before any neuron reads its input.
+     */
+    void deliver() {
+        if (dirty || structureVersion != network.getStructureVersion()) {
+            rebuild();
+        }
+        double timeStep = network.getTimeStep();
+        for (int k = 0; k < kinds.length; k++) {
+            rates[k] = timeStep / kinds[k].timeConstant;
+        }
+        for (int j = 0, n = values.length; j < n; j++) {
+            values[j] += (baselines[j] - values[j]) * rates[stateKinds[j]];
+        }
+
+        int[] states = pendingStates[cursor];
+        double[] amounts = pendingAmounts[cursor];
+        for (int e = 0, n = pendingCounts[cursor]; e < n; e++) {
+            values[states[e]] += amounts[e];
+        }
+        pendingCounts[cursor] = 0;
+
+        int slots = pendingCounts.length;
+        for (int p = 0; p < sources.length; p++) {
+            int source = sources[p];
+            if (!neurons[source].isSpike()) {
+                continue;
+            }
+            for (int r = routeStart[source], end = routeStart[source + 1];
+                    r < end; r++) {
+                Synapse synapse = routeSynapses[r];
+                if (!synapse.isEnabled()) {
+                    continue;
+                }
+                double jump = ((ExponentialResponder) synapse
+                        .getSpikeResponder()).getJumpHeight()
+                        * synapse.getStrength();
+                int state = jump < 0 ? routeStates[r] + 1 : routeStates[r];
+                if (routeDelays[r] == 0) {
+                    values[state] += jump;
+                } else {
+                    schedule((cursor + routeDelays[r]) % slots, state, jump);
+                }
+            }
+        }
+        cursor = (cursor + 1) % slots;
+    }
+
+    /**
+     * Adds an event to a ring buffer slot.
+     *
+     * @param slot the slot of the update the event arrives on
+     * @param state the state the event adds to
+     * @param amount the amount it adds
+     */
+    private void schedule(final int slot, final int state,
+            final double amount) {
+        int count = pendingCounts[slot];
+        if (count == pendingStates[slot].length) {
+            int capacity = Math.max(16, count * 2);
+            pendingStates[slot] = Arrays.copyOf(pendingStates[slot],
+                    capacity);
+            pendingAmounts[slot] = Arrays.copyOf(pendingAmounts[slot],
+                    capacity);
+        }
+        pendingStates[slot][count] = state;
+        pendingAmounts[slot][count] = amount;
+        pendingCounts[slot] = count + 1;
+    }
+
+    /**
+     * Sums the post-synaptic responses impinging on a neuron. The neuron's
+     * external input is not included.
+     *
+     * @param neuron a neuron for which {@link #isTarget(Neuron)} holds
+     * @return the summed responses
+     */
+    double getSynapticInput(final Neuron neuron) {
+        int i = neuron.getSpikeEventIndex();
+        double sum = 0;
+        for (int j = stateStart[i], end = stateStart[i + 1]; j < end; j++) {
+            sum += values[j];
+        }
+        for (int j = otherStart[i], end = otherStart[i + 1]; j < end; j++) {
+            sum += otherSynapses[j].calcPSR();
+        }
+        return sum;
+    }
+
+    /**
+     * Sums the excitatory and inhibitory post-synaptic responses impinging
+     * on a neuron separately, as
+     * {@link NeuronUpdateRule.InputType#getSeparatedInput(Neuron)} does.
+     *
+     * @param neuron a neuron for which {@link #isTarget(Neuron)} holds
+     * @param normalized whether to divide each sum by the number of synapses
+     *            contributing to it, where routed synapses count by the sign
+     *            of their strength
+     * @return the excitatory and inhibitory sums
+     */
+    double[] getSeparatedInput(final Neuron neuron,
+            final boolean normalized) {
+        int i = neuron.getSpikeEventIndex();
+        double[] ei = new double[2];
+        for (int j = stateStart[i], end = stateStart[i + 1]; j < end;
+                j += 2) {
+            ei[0] += values[j];
+            ei[1] += values[j + 1];
+        }
+        double e = excitatoryCounts[i];
+        double in = inhibitoryCounts[i];
+        for (int j = otherStart[i], end = otherStart[i + 1]; j < end; j++) {
+            double psr = otherSynapses[j].calcPSR();
+            if (psr > 0) {
+                ei[0] += psr;
+                e++;
+            } else {
+                ei[1] += psr;
+                in++;
+            }
+        }
+        if (normalized) {
+            if (e > 1) {
+                ei[0] /= e;
+            }
+            if (in > 1) {
+                ei[1] /= in;
+            }
+        }
+        return ei;
+    }
+
+    /**
+     * Rebuilds the routing from the current neurons and synapses, carrying
+     * over the states and pending events of neurons which were routed
+     * before.
+     */
+    private void rebuild() {
+        dirty = false;
+        structureVersion = network.getStructureVersion();
+        List<Neuron> neuronList = network.getFlatNeuronView();
+        int numNeurons = neuronList.size();
+
+        Neuron[] oldNeurons = neurons;
+        ResponderKind[] oldKinds = kinds;
+        int[] oldStateStart = stateStart;
+        int[] oldStateKinds = stateKinds;
+        double[] oldValues = values;
+        int[] oldIndices = new int[numNeurons];
+        neurons = neuronList.toArray(new Neuron[numNeurons]);
+        int totalFanIn = 0;
+        for (int i = 0; i < numNeurons; i++) {
+            Neuron neuron = neurons[i];
+            int old = neuron.getSpikeEventIndex();
+            oldIndices[i] = old >= 0 && old < oldNeurons.length
+                    && oldNeurons[old] == neuron ? old : -1;
+            neuron.setSpikeEventIndex(i);
+            totalFanIn += neuron.getFanIn().size();
+        }
+
+        // Sort each neuron's afferent synapses into routed and other ones,
+        // giving the neuron a pair of states per kind of responder.
+        Map<ResponderKind, Integer> kindIndices =
+                new HashMap<ResponderKind, Integer>();
+        ResponderKind[] newKinds = new ResponderKind[4];
+        int numKinds = 0;
+        stateStart = new int[numNeurons + 1];
+        int[] newStateKinds = new int[16];
+        double[] newBaselines = new double[16];
+        int numStates = 0;
+        otherStart = new int[numNeurons + 1];
+        Synapse[] others = new Synapse[16];
+        int numOthers = 0;
+        excitatoryCounts = new int[numNeurons];
+        inhibitoryCounts = new int[numNeurons];
+        int[] sourceOf = new int[totalFanIn];
+        Synapse[] synapses = new Synapse[totalFanIn];
+        int[] stateOf = new int[totalFanIn];
+        int numRoutes = 0;
+        int maxDelay = 0;
+        ResponderKind last = null;
+        int lastKind = -1;
+        for (int i = 0; i < numNeurons; i++) {
+            stateStart[i] = numStates;
+            otherStart[i] = numOthers;
+            List<Synapse> fanIn = neurons[i].getFanIn();
+            for (int f = 0, n = fanIn.size(); f < n; f++) {
+                Synapse synapse = fanIn.get(f);
+                SpikeResponder responder = synapse.getSpikeResponder();
+                int source = synapse.getSource().getSpikeEventIndex();
+                if (!(responder instanceof ExponentialResponder)
+                        || source < 0 || source >= numNeurons
+                        || neurons[source] != synapse.getSource()) {
+                    if (numOthers == others.length) {
+                        others = Arrays.copyOf(others, numOthers * 2);
+                    }
+                    others[numOthers++] = synapse;
+                    continue;
+                }
+                ExponentialResponder exponential =
+                        (ExponentialResponder) responder;
+                if (last == null || !last.matches(responder)) {
+                    last = new ResponderKind(responder.getClass(),
+                            exponential.getTimeConstant(),
+                            exponential.getBaseLine());
+                    Integer index = kindIndices.get(last);
+                    if (index == null) {
+                        index = numKinds;
+                        kindIndices.put(last, index);
+                        if (numKinds == newKinds.length) {
+                            newKinds = Arrays.copyOf(newKinds, numKinds * 2);
+                        }
+                        newKinds[numKinds++] = last;
+                    }
+                    lastKind = index;
+                }
+                int state = stateStart[i];
+                while (state < numStates && newStateKinds[state] != lastKind) {
+                    state += 2;
+                }
+                if (state == numStates) {
+                    if (numStates + 2 > newStateKinds.length) {
+                        newStateKinds = Arrays.copyOf(newStateKinds,
+                                newStateKinds.length * 2);
+                        newBaselines = Arrays.copyOf(newBaselines,
+                                newBaselines.length * 2);
+                    }
+                    newStateKinds[numStates] = lastKind;
+                    newStateKinds[numStates + 1] = lastKind;
+                    numStates += 2;
+                }
+                double baseline = exponential.getBaseLine();
+                newBaselines[baseline < 0 ? state + 1 : state] += baseline;
+                if (synapse.getStrength() < 0) {
+                    inhibitoryCounts[i]++;
+                } else {
+                    excitatoryCounts[i]++;
+                }
+                sourceOf[numRoutes] = source;
+                synapses[numRoutes] = synapse;
+                stateOf[numRoutes++] = state;
+                maxDelay = Math.max(maxDelay, synapse.getDelay());
+            }
+        }
+        stateStart[numNeurons] = numStates;
+        otherStart[numNeurons] = numOthers;
+        otherSynapses = Arrays.copyOf(others, numOthers);
+        kinds = Arrays.copyOf(newKinds, numKinds);
+        rates = new double[numKinds];
+        stateKinds = Arrays.copyOf(newStateKinds, numStates);
+        baselines = Arrays.copyOf(newBaselines, numStates);
+        values = new double[numStates];
+
+        // Group the routed synapses by source with a counting sort.
+        routeStart = new int[numNeurons + 1];
+        for (int r = 0; r < numRoutes; r++) {
+            routeStart[sourceOf[r] + 1]++;
+        }
+        int numSources = 0;
+        for (int i = 0; i < numNeurons; i++) {
+            if (routeStart[i + 1] > 0) {
+                numSources++;
+            }
+            routeStart[i + 1] += routeStart[i];
+        }
+        sources = new int[numSources];
+        for (int i = 0, p = 0; i < numNeurons; i++) {
+            if (routeStart[i + 1] > routeStart[i]) {
+                sources[p++] = i;
+            }
+        }
+        routeSynapses = new Synapse[numRoutes];
+        routeStates = new int[numRoutes];
+        routeDelays = new int[numRoutes];
+        int[] next = Arrays.copyOf(routeStart, numNeurons);
+        for (int r = 0; r < numRoutes; r++) {
+            int k = next[sourceOf[r]]++;
+            routeSynapses[k] = synapses[r];
+            routeStates[k] = stateOf[r];
+            routeDelays[k] = Math.max(0, synapses[r].getDelay());
+        }
+
+        // Carry over the states, or fill them in on the first build.
+        int[] stateMap = new int[oldValues.length];
+        Arrays.fill(stateMap, -1);
+        if (built) {
+            int[] kindMap = new int[oldKinds.length];
+            for (int k = 0; k < oldKinds.length; k++) {
+                Integer index = kindIndices.get(oldKinds[k]);
+                kindMap[k] = index == null ? -1 : index;
+            }
+            for (int i = 0; i < numNeurons; i++) {
+                int old = oldIndices[i];
+                if (old < 0) {
+                    continue;
+                }
+                for (int j = oldStateStart[old]; j < oldStateStart[old + 1];
+                        j += 2) {
+                    int kind = kindMap[oldStateKinds[j]];
+                    for (int s = stateStart[i]; s < stateStart[i + 1];
+                            s += 2) {
+                        if (stateKinds[s] == kind) {
+                            stateMap[j] = s;
+                            stateMap[j + 1] = s + 1;
+                            values[s] = oldValues[j];
+                            values[s + 1] = oldValues[j + 1];
+                        }
+                    }
+                }
+            }
+        } else {
+            for (int r = 0; r < numRoutes; r++) {
+                double psr = routeSynapses[r].getPsr();
+                values[psr < 0 ? routeStates[r] + 1 : routeStates[r]] += psr;
+            }
+        }
+        built = true;
+
+        // Move pending events to a ring buffer long enough for the longest
+        // delay, starting from its first slot.
+        int oldSlots = pendingCounts.length;
+        int slots = Math.max(maxDelay + 1, oldSlots);
+        int[][] oldPendingStates = pendingStates;
+        double[][] oldPendingAmounts = pendingAmounts;
+        int[] oldPendingCounts = pendingCounts;
+        pendingStates = new int[slots][0];
+        pendingAmounts = new double[slots][0];
+        pendingCounts = new int[slots];
+        for (int d = 0; d < oldSlots; d++) {
+            int slot = (cursor + d) % oldSlots;
+            for (int e = 0; e < oldPendingCounts[slot]; e++) {
+                int state = stateMap[oldPendingStates[slot][e]];
+                if (state >= 0) {
+                    schedule(d, state, oldPendingAmounts[slot][e]);
+                }
+            }
+        }
+        cursor = 0;
+    }
+
+    /**
+     * A kind of exponential responder. Responses of the same kind decay at
+     * the same rate towards the same baseline, so they can share a state.
+     */
+    private static final class ResponderKind {
+
+        /** The class of the responders. */
+        private final Class<?> type;
+
+        /** Their time constant. */
+        private final double timeConstant;
+
+        /** Their baseline. */
+        private final double baseline;
+
+        /**
+         * @param type the class of the responders
+         * @param timeConstant their time constant
+         * @param baseline their baseline
+         */
+        ResponderKind(final Class<?> type, final double timeConstant,
+                final double baseline) {
+            this.type = type;
+            this.timeConstant = timeConstant;
+            this.baseline = baseline;
+        }
+
+        /**
+         * @param responder an exponential responder
+         * @return whether the responder is of this kind
+         */
+        boolean matches(final SpikeResponder responder) {
+            ExponentialResponder exponential =
+                    (ExponentialResponder) responder;
+            return responder.getClass() == type
+                    && exponential.getTimeConstant() == timeConstant
+                    && exponential.getBaseLine() == baseline;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof ResponderKind)) {
+                return false;
+            }
+            ResponderKind other = (ResponderKind) o;
+            return type == other.type
+                    && Double.compare(timeConstant, other.timeConstant) == 0
+                    && Double.compare(baseline, other.baseline) == 0;
+        }
+
+        @Override
+        public int hashCode() {
+            long bits = Double.doubleToLongBits(timeConstant) * 31
+                    + Double.doubleToLongBits(baseline);
+            return type.hashCode() * 31 + (int) (bits ^ (bits >>> 32));
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.simbrain.network.synapse_update_rules.spikeresponders.JumpAndDecay;
 import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>Synapse</b> objects represent "connections" between neurons, which learn
@@ -45,7 +46,11 @@ public class Synapse {
     /** A default update rule for the synapse. */
     private static final SynapseUpdateRule DEFAULT_LEARNING_RULE = new StaticSynapseRule();
 
-    /** A default spike responder. */
+    /**
+     * A default spike responder, shared by every synapse which is not given
+     * another. Responders keep no state of their own, so this is safe as long
+     * as its parameters are not changed.
+     */
     private static final SpikeResponder DEFAULT_SPIKE_RESPONDER = new JumpAndDecay();
 
     /** Default upper bound. */
@@ -87,6 +92,13 @@ public class Synapse {
     /** Post-Synaptic Response */
     private double psr;
 
+    /**
+     * State kept for this synapse by its spike responder, besides the
+     * post-synaptic response, or null if none has been needed yet. See
+     * {@link SpikeResponder#getStateSize()}.
+     */
+    private double[] responderState;
+
     /** Amount to increment the neuron. */
     private double increment = 1;
 
@@ -137,6 +149,12 @@ public class Synapse {
      */
     private final boolean isTemplate;
 
+    /**
+     * Set on the copies handed out by a compressed synapse group, whose
+     * changes would otherwise be silently lost. See {@link #makeReadOnly()}.
+     */
+    private boolean readOnly;
+
     /** Initialize properties */
     static {
         Properties properties = Utils.getSimbrainProperties();
@@ -267,6 +285,81 @@ public class Synapse {
      * @param s Synapse to used as a template for constructing a new synapse.
      */
     public Synapse(final Synapse s) {
+        copyParameters(s);
+        s.initSpikeResponder();
+        isTemplate = s.isTemplate;
+    }
+
+    /**
+     * Construct a synapse between two neurons with the parameters of a
+     * template synapse, without adding it to the fan-out of the source or
+     * the fan-in of the target. See
+     * {@link #createDetached(Synapse, Neuron, Neuron)}.
+     *
+     * @param template the synapse whose parameters are copied
+     * @param source source neuron
+     * @param target target neuron
+     */
+    private Synapse(final Synapse template, final Neuron source,
+            final Neuron target) {
+        copyParameters(template);
+        this.source = source;
+        this.target = target;
+        parentNetwork = source.getNetwork();
+        isTemplate = false;
+    }
+
+    /**
+     * Makes a synapse between two neurons with the parameters of a template
+     * synapse, but does not add it to the fan-out of the source or the fan-in
+     * of the target, so it takes no part in updating the network. Used to
+     * describe connections which are stored in some other form, e.g. the
+     * weights of a compressed synapse group.
+     *
+     * @param template the synapse whose parameters are copied
+     * @param source source neuron
+     * @param target target neuron
+     * @return a synapse which is not attached to its neurons
+     */
+    public static Synapse createDetached(final Synapse template,
+            final Neuron source, final Neuron target) {
+        return new Synapse(template, source, target);
+    }
+
+    /**
+     * Marks this synapse as a read-only description of a connection stored
+     * elsewhere, e.g. one made by {@link #createDetached(Synapse, Neuron,
+     * Neuron)}. From then on any attempt to change its parameters throws an
+     * {@link UnsupportedOperationException}.
+     */
+    public void makeReadOnly() {
+        readOnly = true;
+    }
+
+    /**
+     * @return true if the parameters of this synapse cannot be changed
+     */
+    public boolean isReadOnly() {
+        return readOnly;
+    }
+
+    /**
+     * Throws if this synapse has been made read-only.
+     */
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("This is a read-only"
+                    + " copy of a synapse in a compressed synapse group;"
+                    + " decompress the group to change it.");
+        }
+    }
+
+    /**
+     * Sets the parameters of this synapse to those of another one.
+     *
+     * @param s the synapse to copy the parameters of
+     */
+    private void copyParameters(final Synapse s) {
         setLearningRule(s.getLearningRule().deepCopy());
         forceSetStrength(s.getStrength());
         setUpperBound(s.getUpperBound());
@@ -276,8 +369,6 @@ public class Synapse {
         setEnabled(s.isEnabled());
         setDelay(s.getDelay());
         setFrozen(s.isFrozen());
-        s.initSpikeResponder();
-        isTemplate = s.isTemplate;
     }
 
     /**
@@ -431,6 +522,7 @@ public class Synapse {
      * @param wt Strength value
      */
     public void setStrength(final double wt) {
+        checkWritable();
         if (isTemplate) {
             forceSetStrength(wt);
             return;
@@ -445,6 +537,7 @@ public class Synapse {
      * @param wt the value to set the strength of the synapse to
      */
     public void forceSetStrength(final double wt) {
+        checkWritable();
         strength = wt;
     }
 
@@ -461,6 +554,7 @@ public class Synapse {
      * @param d bound
      */
     public void setUpperBound(final double d) {
+        checkWritable();
         upperBound = d;
     }
 
@@ -477,6 +571,7 @@ public class Synapse {
      * @param d bound
      */
     public void setLowerBound(final double d) {
+        checkWritable();
         lowerBound = d;
     }
 
@@ -493,6 +588,7 @@ public class Synapse {
      * @param d Increment amount
      */
     public void setIncrement(final double d) {
+        checkWritable();
         increment = d;
     }
 
@@ -500,6 +596,7 @@ public class Synapse {
      * Increment this weight by increment.
      */
     public void incrementWeight() {
+        checkWritable();
         if (strength < upperBound) {
             strength += increment;
         }
@@ -511,6 +608,7 @@ public class Synapse {
      * Decrement this weight by increment.
      */
     public void decrementWeight() {
+        checkWritable();
         if (strength > lowerBound) {
             strength -= increment;
         }
@@ -582,7 +680,9 @@ public class Synapse {
      * Randomize this weight to a value between its upper and lower bounds.
      */
     public void randomize() {
-        strength = (getUpperBound() - getLowerBound()) * Math.random()
+        checkWritable();
+        strength = (getUpperBound() - getLowerBound())
+                * RandomStreams.current().nextDouble()
                 + getLowerBound();
         getNetwork().fireSynapseChanged(this);
     }
@@ -634,6 +734,7 @@ public class Synapse {
      * @param id The id to set.
      */
     public void setId(final String id) {
+        checkWritable();
         this.id = id;
     }
 
@@ -648,7 +749,16 @@ public class Synapse {
      * @param sr The spikeResponder to set.
      */
     public void setSpikeResponder(final SpikeResponder sr) {
+        checkWritable();
         this.spikeResponder = sr;
+        // A responder of the same kind carries on from the current state
+        if (responderState != null
+                && (sr == null || sr.getStateSize() != responderState.length)) {
+            responderState = null;
+        }
+        if (parentNetwork != null) {
+            parentNetwork.spikeRoutingChanged();
+        }
     }
 
     /**
@@ -657,10 +767,14 @@ public class Synapse {
      * @param dly Amount of delay
      */
     public void setDelay(final int dly) {
+        checkWritable();
         if (dly < 0 && source != null) {
             return;
         }
         delay = dly;
+        if (parentNetwork != null) {
+            parentNetwork.spikeRoutingChanged();
+        }
 
         if (delay <= 0) {
             delayManager = null;
@@ -757,6 +871,7 @@ public class Synapse {
      * @param enabled true if enabled, false otherwise.
      */
     public void setEnabled(final boolean enabled) {
+        checkWritable();
         this.enabled = enabled;
     }
 
@@ -816,6 +931,7 @@ public class Synapse {
      * @param newLearningRule the learningRule to set
      */
     public void setLearningRule(SynapseUpdateRule newLearningRule) {
+        checkWritable();
         SynapseUpdateRule oldRule = learningRule;
         this.learningRule = newLearningRule;
         initSpikeResponder();
@@ -913,6 +1029,7 @@ public class Synapse {
      * @param parentGroup the parentGroup to set
      */
     public void setParentGroup(SynapseGroup parentGroup) {
+        checkWritable();
         this.parentGroup = parentGroup;
     }
 
@@ -938,6 +1055,7 @@ public class Synapse {
      * @param frozen sets whether or not this synapses strength will be frozen
      */
     public void setFrozen(boolean frozen) {
+        checkWritable();
         this.frozen = frozen;
     }
 
@@ -955,6 +1073,36 @@ public class Synapse {
         this.psr = psr;
     }
 
+    /**
+     * Returns the values a spike responder keeps for this synapse besides the
+     * post-synaptic response, such as timers. The array is created, filled
+     * with zeros, the first time it is asked for. Only the thread updating
+     * this synapse should use it.
+     *
+     * @return the responder state, with {@link SpikeResponder#getStateSize()}
+     *         values, or null if there is no spike responder
+     */
+    public double[] getResponderState() {
+        if (spikeResponder == null) {
+            return null;
+        }
+        int size = spikeResponder.getStateSize();
+        if (responderState == null || responderState.length != size) {
+            responderState = new double[size];
+        }
+        return responderState;
+    }
+
+    /**
+     * Replaces the values a spike responder keeps for this synapse, for
+     * example when reading a saved network.
+     *
+     * @param responderState the responder state, or null to start over
+     */
+    public void setResponderState(final double[] responderState) {
+        this.responderState = responderState;
+    }
+
     public byte[] getNumericValuesAsByteArray() {
         // 4 for delay, 8 for strength, 8 for psr.
         // One byte to store enabled and frozen
@@ -79,6 +79,8 @@ public class DesktopNetworkDialog extends NetworkDialog {
         SimbrainPreferences.restoreDefaultSetting("networkSynapseMaxSize");
         SimbrainPreferences.restoreDefaultSetting("networkSynapseMinSize");
         SimbrainPreferences.restoreDefaultSetting("networkNudgeAmount");
+        SimbrainPreferences.restoreDefaultSetting("networkTargetFrameRate");
+        SimbrainPreferences.restoreDefaultSetting("networkGroupRasterThreshold");
         SimbrainPreferences.restoreDefaultSetting("networkSynapseVisibilityThreshold");
 
         //Make sure new settings are visible
@@ -99,6 +101,10 @@ public class DesktopNetworkDialog extends NetworkDialog {
                 .getBackgroundColor().getRGB());
         SimbrainPreferences.putDouble("networkNudgeAmount",
                 NetworkPanel.getNudgeAmount());
+        SimbrainPreferences.putInt("networkTargetFrameRate",
+                NetworkPanel.getTargetFrameRate());
+        SimbrainPreferences.putInt("networkGroupRasterThreshold",
+                NetworkPanel.getGroupRasterThreshold());
         SimbrainPreferences.putInt("networkSynapseVisibilityThreshold",
                 Network.getSynapseVisibilityThreshold());
         SimbrainPreferences.putInt("networkWandRadius",
@@ -114,6 +114,10 @@ public class NetworkPanelDesktop extends NetworkPanel {
                     .getInt("networkWandRadius"));
             NetworkPanel.setNudgeAmount(SimbrainPreferences
                     .getDouble("networkNudgeAmount"));
+            NetworkPanel.setTargetFrameRate(SimbrainPreferences
+                    .getInt("networkTargetFrameRate"));
+            NetworkPanel.setGroupRasterThreshold(SimbrainPreferences
+                    .getInt("networkGroupRasterThreshold"));
             Network.setSynapseVisibilityThreshold(SimbrainPreferences
                     .getInt("networkSynapseVisibilityThreshold"));
             NeuronNode.setHotColor(SimbrainPreferences
@@ -0,0 +1,307 @@
+/*
+ * Copyright (C) 2005,2007 The Authors. See http://www.simbrain.net/credits This
+ * program is free software; you can redistribute it and/or modify it under the
+ * terms of the GNU General Public License as published by the Free Software
+ * Foundation; either version 2 of the License, or (at your option) any later
+ * version. This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details. You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software Foundation, Inc.,
+ * 59 Temple Place - Suite 330, Boston, MA 02111-1307, USA.
+ */
+package org.simbrain.network.groups;
+
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+/**
+ * A compressed sparse representation of the weights of a synapse group. Each
+ * synapse is identified by the index of its source neuron in the source
+ * neuron group and the index of its target neuron in the target neuron
+ * group. Weights are stored in a single primitive array in compressed sparse
+ * column (CSC) order, i.e. grouped by target neuron, so that the total input
+ * to each target can be computed with a single linear pass over contiguous
+ * memory. A compressed sparse row (CSR) index over the same weights is also
+ * kept so that the fan-out of a source neuron can be walked without a search.
+ *
+ * Within the fan-in of a target neuron, source indices are stored in
+ * ascending order.
+ */
+public class CompressedWeightMatrix {
+
+    /**
+     * The number of synapses above which {@link #propagate(double[], double[])}
+     * divides the work over the available processors.
+     */
+    public static final int PARALLEL_THRESHOLD = 1 << 18;
+
+    /** The number of source neurons (rows). */
+    private final int numSources;
+
+    /** The number of target neurons (columns). */
+    private final int numTargets;
+
+    /**
+     * Column pointers. The fan-in of target j occupies the indices
+     * [colPtr[j], colPtr[j+1]) of {@link #srcIndices} and {@link #weights}.
+     */
+    private final int[] colPtr;
+
+    /** The source index of each synapse, in CSC order. */
+    private final int[] srcIndices;
+
+    /** The strength of each synapse, in CSC order. */
+    private final double[] weights;
+
+    /**
+     * Row pointers. The fan-out of source i occupies the indices
+     * [rowPtr[i], rowPtr[i+1]) of {@link #tarIndices} and {@link #csrToCsc}.
+     */
+    private final int[] rowPtr;
+
+    /** The target index of each synapse, in CSR order. */
+    private final int[] tarIndices;
+
+    /**
+     * For each synapse in CSR order, the position of its weight in
+     * {@link #weights}.
+     */
+    private final int[] csrToCsc;
+
+    /**
+     * Builds a compressed weight matrix from a list of (source, target,
+     * weight) triplets in no particular order.
+     *
+     * @param numSources the number of source neurons
+     * @param numTargets the number of target neurons
+     * @param sources the source index of each synapse
+     * @param targets the target index of each synapse
+     * @param strengths the strength of each synapse
+     * @param numSynapses the number of valid entries in the three arrays
+     * @throws IllegalArgumentException if an index is out of bounds
+     */
+    public CompressedWeightMatrix(final int numSources, final int numTargets,
+            final int[] sources, final int[] targets, final double[] strengths,
+            final int numSynapses) throws IllegalArgumentException {
+        this.numSources = numSources;
+        this.numTargets = numTargets;
+        colPtr = new int[numTargets + 1];
+        rowPtr = new int[numSources + 1];
+        srcIndices = new int[numSynapses];
+        weights = new double[numSynapses];
+        tarIndices = new int[numSynapses];
+        csrToCsc = new int[numSynapses];
+
+        // Counting sort by source (stable), which gives the CSR order.
+        for (int k = 0; k < numSynapses; k++) {
+            if (sources[k] < 0 || sources[k] >= numSources
+                    || targets[k] < 0 || targets[k] >= numTargets) {
+                throw new IllegalArgumentException("Synapse (" + sources[k]
+                        + ", " + targets[k] + ") is outside of a "
+                        + numSources + "x" + numTargets + " weight matrix.");
+            }
+            rowPtr[sources[k] + 1]++;
+            colPtr[targets[k] + 1]++;
+        }
+        for (int i = 0; i < numSources; i++) {
+            rowPtr[i + 1] += rowPtr[i];
+        }
+        for (int j = 0; j < numTargets; j++) {
+            colPtr[j + 1] += colPtr[j];
+        }
+        int[] csrOrder = new int[numSynapses];
+        int[] next = Arrays.copyOf(rowPtr, numSources);
+        for (int k = 0; k < numSynapses; k++) {
+            int p = next[sources[k]]++;
+            csrOrder[p] = k;
+            tarIndices[p] = targets[k];
+        }
+
+        // Walking the CSR order (ascending source) and scattering by target
+        // gives the CSC order with sorted sources inside each column.
+        next = Arrays.copyOf(colPtr, numTargets);
+        for (int i = 0; i < numSources; i++) {
+            for (int p = rowPtr[i], end = rowPtr[i + 1]; p < end; p++) {
+                int k = csrOrder[p];
+                int q = next[targets[k]]++;
+                srcIndices[q] = i;
+                weights[q] = strengths[k];
+                csrToCsc[p] = q;
+            }
+        }
+    }
+
+    /**
+     * Computes the weighted input to every target neuron, i.e. the product
+     * of the transposed weight matrix and the source activation vector.
+     *
+     * @param srcActivations the activations of the source neurons, at least
+     *            {@link #getNumSources()} long
+     * @param out the array into which the weighted input to each target is
+     *            written, at least {@link #getNumTargets()} long
+     */
+    public void propagate(final double[] srcActivations, final double[] out) {
+        if (weights.length >= PARALLEL_THRESHOLD) {
+            IntStream.range(0, numTargets).parallel()
+                    .forEach(j -> out[j] = dot(j, srcActivations));
+        } else {
+            for (int j = 0; j < numTargets; j++) {
+                out[j] = dot(j, srcActivations);
+            }
+        }
+    }
+
+    /**
+     * The weighted sum of the fan-in of a single target neuron.
+     *
+     * @param tar the index of the target neuron
+     * @param srcActivations the activations of the source neurons
+     * @return the weighted input to the target neuron
+     */
+    private double dot(final int tar, final double[] srcActivations) {
+        double sum = 0;
+        for (int k = colPtr[tar], end = colPtr[tar + 1]; k < end; k++) {
+            sum += weights[k] * srcActivations[srcIndices[k]];
+        }
+        return sum;
+    }
+
+    /**
+     * Finds the position of the synapse from the given source to the given
+     * target in {@link #getWeights()} using a binary search over the fan-in
+     * of the target.
+     *
+     * @param src the source index
+     * @param tar the target index
+     * @return the position of the synapse, or -1 if there is no such synapse
+     */
+    public int indexOf(final int src, final int tar) {
+        int lo = colPtr[tar];
+        int hi = colPtr[tar + 1] - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (srcIndices[mid] < src) {
+                lo = mid + 1;
+            } else if (srcIndices[mid] > src) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param src the source index
+     * @param tar the target index
+     * @return the strength of the synapse from the source to the target or 0
+     *         if they are not connected
+     */
+    public double getWeight(final int src, final int tar) {
+        int k = indexOf(src, tar);
+        return k < 0 ? 0 : weights[k];
+    }
+
+    /**
+     * Whether a weight belongs to an excitatory or an inhibitory synapse.
+     * Weights of zero count as excitatory, so every weight is one or the
+     * other.
+     *
+     * @param w the weight
+     * @return true if the weight is not negative
+     */
+    public static boolean isExcitatory(final double w) {
+        return w >= 0;
+    }
+
+    /**
+     * @return the number of synapses whose strength is not negative
+     */
+    public int getNumExcitatory() {
+        int count = 0;
+        for (double w : weights) {
+            if (isExcitatory(w)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of synapses whose strength is negative
+     */
+    public int getNumInhibitory() {
+        int count = 0;
+        for (double w : weights) {
+            if (!isExcitatory(w)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return the number of synapses stored in this matrix
+     */
+    public int size() {
+        return weights.length;
+    }
+
+    public int getNumSources() {
+        return numSources;
+    }
+
+    public int getNumTargets() {
+        return numTargets;
+    }
+
+    /**
+     * Returns the backing weight array (not a copy) in CSC order so that
+     * learning and randomization can operate on it in place.
+     *
+     * @return the synapse strengths
+     */
+    public double[] getWeights() {
+        return weights;
+    }
+
+    /**
+     * @return the source index of each synapse in CSC order (not a copy)
+     */
+    public int[] getSourceIndices() {
+        return srcIndices;
+    }
+
+    /**
+     * @return the CSC column pointers (not a copy), {@link #getNumTargets()}
+     *         + 1 long
+     */
+    public int[] getColumnPointers() {
+        return colPtr;
+    }
+
+    /**
+     * @return the CSR row pointers (not a copy), {@link #getNumSources()} + 1
+     *         long
+     */
+    public int[] getRowPointers() {
+        return rowPtr;
+    }
+
+    /**
+     * @return the target index of each synapse in CSR order (not a copy)
+     */
+    public int[] getTargetIndices() {
+        return tarIndices;
+    }
+
+    /**
+     * @return for each synapse in CSR order, the position of its strength in
+     *         {@link #getWeights()} (not a copy)
+     */
+    public int[] getRowToWeightIndices() {
+        return csrToCsc;
+    }
+
+}
@@ -19,6 +19,9 @@
 package org.simbrain.network.groups;
 
 import org.simbrain.network.core.Network;
+import org.simbrain.util.math.SimbrainMath;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  * <b>Group</b>: a logical group of neurons and / or synapses. Its gui
@@ -54,6 +57,15 @@ public abstract class Group {
      */
     private Group parentGroup;
 
+    /**
+     * Random numbers drawn by this group, see {@link #getRandomStream()}. Null
+     * until needed.
+     */
+    private RandomStream randomStream;
+
+    /** The seed {@link #randomStream} was made from. */
+    private long randomStreamSeed;
+
     /**
      * Construct a model group with a reference to its root network.
      *
@@ -112,6 +124,35 @@ public abstract class Group {
         return parentNetwork;
     }
 
+    /**
+     * Tells the parent network, if any, that neurons, synapses or subgroups
+     * have been added to or removed from this group. See
+     * {@link Network#structureChanged()}.
+     */
+    protected void fireStructureChanged() {
+        if (parentNetwork != null) {
+            parentNetwork.structureChanged();
+        }
+    }
+
+    /**
+     * Returns the random stream of this group, used for drawing things such as
+     * new weights. Its seed is derived from the seed of the network and the id
+     * of the group (see {@link Network#getGroupSeed(Group)}), so a group draws
+     * the same numbers each time its network is loaded, and it starts again
+     * when the seed of the network changes.
+     *
+     * @return the random stream of this group
+     */
+    public RandomStream getRandomStream() {
+        long seed = parentNetwork.getGroupSeed(this);
+        if (randomStream == null || seed != randomStreamSeed) {
+            randomStream = SimbrainMath.seededStream(seed, 0);
+            randomStreamSeed = seed;
+        }
+        return randomStream;
+    }
+
     /**
      * @return the id
      */
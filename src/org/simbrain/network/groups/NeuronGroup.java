@@ -32,6 +32,7 @@ import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
 import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.layouts.GridLayout;
@@ -39,6 +40,7 @@ import org.simbrain.network.layouts.Layout;
 import org.simbrain.network.layouts.LineLayout;
 import org.simbrain.network.layouts.LineLayout.LineOrientation;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.util.SpatialIndex;
 import org.simbrain.util.Utils;
 import org.simbrain.util.math.SimbrainMath;
 
@@ -72,6 +74,31 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
     /** The neurons in this group. */
     private List<Neuron> neuronList = new ArrayList<Neuron>(500);
 
+    /**
+     * Whether the state variables of the neurons in this group are kept in
+     * contiguous arrays. See {@link #setUseStateArrays(boolean)}.
+     */
+    private boolean useStateArrays = false;
+
+    /**
+     * The arrays holding the neurons' state when {@link #useStateArrays} is
+     * true. Created lazily and discarded whenever the neuron list changes.
+     */
+    private NeuronStateArrays stateArrays;
+
+    /**
+     * An index of the positions of the neurons, used by
+     * {@link #getNeuronsInRadius(Neuron, int)}. Made when first needed and
+     * made again after neurons are added, removed or moved.
+     */
+    private SpatialIndex spatialIndex;
+
+    /** The position version of the network when the index was made. */
+    private int spatialIndexVersion;
+
+    /** The radius the spatial index was made for. */
+    private int spatialIndexRadius;
+
     /** Default layout for neuron groups. */
     public static final Layout DEFAULT_LAYOUT = new LineLayout(50,
             LineOrientation.HORIZONTAL);
@@ -264,6 +291,19 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
         } else {
             setMarkedForDeletion(true);
         }
+        // Compressed synapse groups have no synapses which would be removed
+        // along with the neurons, so delete them directly.
+        for (SynapseGroup sg : getIncomingSgs()) {
+            if (sg.isUseCompressedMatrix()) {
+                sg.delete();
+            }
+        }
+        for (SynapseGroup sg : getOutgoingSg()) {
+            if (sg.isUseCompressedMatrix()) {
+                sg.delete();
+            }
+        }
+        releaseStateArrays();
         for (Neuron neuron : neuronList) {
             neuron.setParentGroup(null);
             neuron.getNetwork().removeNeuron(neuron);
@@ -278,6 +318,7 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
         }
         stopRecording();
         neuronList.clear();
+        fireStructureChanged();
         Runtime.getRuntime().gc();
     }
 
@@ -298,12 +339,118 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
             // Surrounded by checks, so actually safe.
             readNextInputUnsafe();
         } else {
-            Network.updateNeurons(neuronList);
+            if (useStateArrays && stateArrays == null) {
+                stateArrays = new NeuronStateArrays(neuronList);
+            }
+            for (SynapseGroup sg : incomingSgs) {
+                sg.propagateCompressed();
+            }
+            if (stateArrays != null) {
+                stateArrays.update();
+            } else {
+                Network.updateNeurons(neuronList);
+            }
         }
         if (isRecording()) {
             writeActsToFile();
         }
     }
+
+    /**
+     * Returns whether compressed synapse groups (see
+     * {@link SynapseGroup#setUseCompressedMatrix(boolean)}) can end at this
+     * group. Compressed groups add their input to the target neurons just
+     * before {@link #update()} updates them, so groups whose update reads the
+     * afferent synapses themselves return false.
+     *
+     * @return whether this group can be the target of a compressed group
+     */
+    public boolean acceptsCompressedInput() {
+        return true;
+    }
+
+    /**
+     * Sets whether the activations, buffers, inputs, spikes and clamping of
+     * the neurons in this group are stored in contiguous arrays (see
+     * {@link NeuronStateArrays}) rather than in each neuron. The neurons'
+     * accessors keep working either way. When all neurons use one update
+     * rule that has a batch kernel, the whole group is then updated in a
+     * single loop.
+     *
+     * @param useStateArrays whether to use array based state storage
+     */
+    public void setUseStateArrays(boolean useStateArrays) {
+        this.useStateArrays = useStateArrays;
+        if (useStateArrays) {
+            if (stateArrays == null) {
+                stateArrays = new NeuronStateArrays(neuronList);
+            }
+        } else {
+            releaseStateArrays();
+        }
+    }
+
+    /**
+     * @return whether the state of the neurons in this group is stored in
+     *         contiguous arrays
+     */
+    public boolean isUseStateArrays() {
+        return useStateArrays;
+    }
+
+    /**
+     * @return the arrays holding the state of this group's neurons, or null
+     *         if they are not in use
+     */
+    public NeuronStateArrays getStateArrays() {
+        return stateArrays;
+    }
+
+    /**
+     * Moves the neurons' state back into the neurons. Called when the neuron
+     * list changes; the arrays are rebuilt on the next update.
+     */
+    private void releaseStateArrays() {
+        if (stateArrays != null) {
+            stateArrays.release();
+            stateArrays = null;
+        }
+    }
+
+    /**
+     * Perform operations required before saving a neuron group.
+     */
+    public void preSaveInit() {
+        if (stateArrays != null) {
+            stateArrays.writeBack();
+        }
+    }
+
+    /**
+     * Perform operations required after opening a neuron group.
+     */
+    public void postUnmarshallingInit() {
+        for (Neuron neuron : neuronList) {
+            neuron.setParentGroup(this);
+        }
+        if (useStateArrays) {
+            stateArrays = new NeuronStateArrays(neuronList);
+        }
+    }
+
+    /**
+     * Turns off compression for all incoming and outgoing synapse groups,
+     * which index their weights by neuron position. Must be called before
+     * a neuron is removed from this group.
+     */
+    public void decompressSynapseGroups() {
+        for (SynapseGroup sg : incomingSgs) {
+            sg.setUseCompressedMatrix(false);
+        }
+        for (SynapseGroup sg : outgoingSgs) {
+            sg.setUseCompressedMatrix(false);
+        }
+    }
     
     /**
      * A forwarding method surrounding {@link #readNextInputUnsafe()} in the
@@ -624,7 +771,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            whether to fire a neuron added event
      */
     public void addNeuron(Neuron neuron, boolean fireEvent) {
+        releaseStateArrays();
         neuronList.add(neuron);
+        fireStructureChanged();
         neuron.setParentGroup(this);
         if (getParentNetwork() != null) {
             neuron.setId(getParentNetwork().getNeuronIdGenerator().getId());
@@ -654,7 +803,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      *            the neuron to delete
      */
     public void removeNeuron(Neuron toDelete) {
+        releaseStateArrays();
         neuronList.remove(toDelete);
+        fireStructureChanged();
         if (isEmpty()) {
             delete();
         }
@@ -666,12 +817,14 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      */
     public void prune() {
         Iterator<Neuron> reaper = neuronList.iterator();
+        releaseStateArrays();
         while (reaper.hasNext()) {
             Neuron n = reaper.next();
             if (n.getFanIn().size() == 0 && n.getFanOut().size() == 0) {
                 reaper.remove();
             }
         }
+        fireStructureChanged();
     }
 
     @Override
@@ -754,6 +907,9 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * @return the activation array
      */
     public double[] getActivations() {
+        if (stateArrays != null) {
+            return stateArrays.getActivations().clone();
+        }
         double[] retArray = new double[neuronList.size()];
         int i = 0;
         for (Neuron neuron : neuronList) {
@@ -850,15 +1006,43 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      * @return neurons in the group within a certain radius
      */
     public List<Neuron> getNeuronsInRadius(Neuron n, int radius) {
-        ArrayList<Neuron> ret = new ArrayList<Neuron>((int)(size()/0.75f));
-        for (Neuron potN : neuronList) {
-            double dist = Network.getEuclideanDist(n, potN); 
-            if (dist <= radius && dist != 0) {
-                ret.add(potN);
+        if (getParentNetwork() == null) {
+            // Moves can't be tracked, so don't keep an index.
+            ArrayList<Neuron> ret = new ArrayList<Neuron>();
+            for (Neuron potN : neuronList) {
+                double dist = Network.getEuclideanDist(n, potN);
+                if (dist <= radius && dist != 0) {
+                    ret.add(potN);
+                }
+            }
+            return ret;
+        }
+        int version = getParentNetwork().getPositionVersion();
+        if (spatialIndex == null || spatialIndexVersion != version
+                || radius > 4 * spatialIndexRadius
+                || 4 * radius < spatialIndexRadius) {
+            spatialIndexRadius = Math.max(1, radius);
+            spatialIndex = new SpatialIndex(neuronList, spatialIndexRadius);
+            spatialIndexVersion = version;
+        }
+        List<Neuron> ret = spatialIndex.getNeuronsInRadius(n, radius);
+        for (Iterator<Neuron> iter = ret.iterator(); iter.hasNext();) {
+            if (Network.getEuclideanDist(n, iter.next()) == 0) {
+                iter.remove();
             }
-         }
+        }
         return ret;
     }
+
+    /**
+     * Discards the spatial index, which is out of date once neurons are added
+     * or removed.
+     */
+    @Override
+    protected void fireStructureChanged() {
+        spatialIndex = null;
+        super.fireStructureChanged();
+    }
     
     // TODO: Below don't take account of the actual width of neurons themselves.
     // Treats them as points.
@@ -1448,6 +1632,7 @@ public class NeuronGroup extends Group implements CopyableGroup<NeuronGroup> {
      */
     public void clearNeuronList() {
         neuronList.clear();
+        fireStructureChanged();
     }
 
     /**
@@ -104,6 +104,7 @@ public abstract class Subnetwork extends Group {
     public void addSynapseGroup(SynapseGroup group) {
         numMembers += group.size();
         synapseGroupList.add(group);
+        fireStructureChanged();
         group.setParentGroup(this);
     }
 
@@ -116,6 +117,7 @@ public abstract class Subnetwork extends Group {
     public void addNeuronGroup(NeuronGroup group) {
         numMembers += group.size();
         neuronGroupList.add(group);
+        fireStructureChanged();
         group.setParentGroup(this);
     }
 
@@ -233,6 +235,7 @@ public abstract class Subnetwork extends Group {
     public void removeNeuronGroup(NeuronGroup neuronGroup) {
         numMembers -= neuronGroup.size();
         neuronGroupList.remove(neuronGroup);
+        fireStructureChanged();
         getParentNetwork().fireGroupRemoved(neuronGroup);
     }
 
@@ -245,6 +248,7 @@ public abstract class Subnetwork extends Group {
     public void removeSynapseGroup(SynapseGroup synapseGroup) {
         numMembers -= synapseGroup.size();
         synapseGroupList.remove(synapseGroup);
+        fireStructureChanged();
         getParentNetwork().fireGroupRemoved(synapseGroup);
     }
 
@@ -420,7 +424,11 @@ public abstract class Subnetwork extends Group {
     public List<Synapse> getFlatSynapseList() {
         List<Synapse> ret = new ArrayList<Synapse>();
         for (SynapseGroup group : synapseGroupList) {
-            ret.addAll(group.getAllSynapses());
+            // Compressed groups have no synapse objects in the network, only
+            // read-only copies.
+            if (!group.isUseCompressedMatrix()) {
+                ret.addAll(group.getAllSynapses());
+            }
         }
         return Collections.unmodifiableList(ret);
     }
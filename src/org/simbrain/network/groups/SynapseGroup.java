@@ -19,25 +19,37 @@ import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import org.simbrain.network.connections.AllToAll;
+import org.simbrain.network.connections.BulkConnector;
 import org.simbrain.network.connections.ConnectNeurons;
 import org.simbrain.network.connections.ConnectionUtilities;
 import org.simbrain.network.connections.ConnectionUtilities.SynapseParameterGetter;
 import org.simbrain.network.connections.ConnectionUtilities.SynapseParameterSetter;
 import org.simbrain.network.connections.Sparse;
 import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.synapse_update_rules.BatchSynapseUpdateRule;
+import org.simbrain.network.synapse_update_rules.STDPRule;
+import org.simbrain.network.synapse_update_rules.SpikeTraceUpdater;
 import org.simbrain.network.synapse_update_rules.StaticSynapseRule;
+import org.simbrain.network.synapse_update_rules.SynapseBatch;
+import org.simbrain.network.update_actions.PriorityUpdate;
 import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
 import org.simbrain.network.util.io_utilities.GroupDeserializer;
 import org.simbrain.network.util.io_utilities.GroupSerializer;
@@ -45,8 +57,12 @@ import org.simbrain.network.util.io_utilities.GroupSerializer.Precision;
 import org.simbrain.util.SimbrainConstants;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.Utils;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SimbrainMath;
 import org.simbrain.util.randomizer.PolarizedRandomizer;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  *
  * A group of synapses. Must connect a source and target neuron group.
@@ -80,6 +96,14 @@ public class SynapseGroup extends Group {
     public static final ConnectNeurons DEFAULT_CONNECTION_MANAGER =
             new AllToAll();
 
+    /**
+     * The number of source neurons whose targets are chosen together, from
+     * one random stream, by {@link #connectBulk(BulkConnector, long)}. Fixed
+     * so that the synapses made from a seed don't depend on the number of
+     * threads.
+     */
+    public static final int BULK_BLOCK_SIZE = 256;
+
     /** A set containing all the excitatory (wt > 0) synapses in the group. */
     private Set<Synapse> exSynapseSet = new HashSet<Synapse>();
 
@@ -231,6 +255,72 @@ public class SynapseGroup extends Group {
     /** Whether or not to use the compressed rep or the full rep. */
     private boolean useFullRepOnSave = false;
 
+    /**
+     * Whether or not the weights of this group are held in
+     * {@link #compressedWeights} instead of as individual synapses. See
+     * {@link #setUseCompressedMatrix(boolean)}.
+     */
+    private boolean useCompressedMatrix = false;
+
+    /**
+     * The compressed sparse weights of this group. Only non-null if
+     * {@link #useCompressedMatrix} is true, in which case the synapse sets are
+     * empty and no synapse objects connect the source and target neurons.
+     */
+    private CompressedWeightMatrix compressedWeights;
+
+    /**
+     * The ids of the synapses of a compressed group, in the order of
+     * {@link CompressedWeightMatrix#getWeights()}, so that the synapses
+     * rebuilt when the group is decompressed keep their ids.
+     */
+    private String[] compressedIds;
+
+    /**
+     * The spike responders of the synapses of a compressed group, in the same
+     * order as {@link #compressedIds}.
+     */
+    private SpikeResponder[] compressedResponders;
+
+    /**
+     * The learning rules of the synapses of a compressed group, in the same
+     * order as {@link #compressedIds}. Null for a {@link StaticSynapseRule},
+     * which holds no state and so need not be kept for every synapse.
+     */
+    private SynapseUpdateRule[] compressedRules;
+
+    /**
+     * Whether each synapse of a compressed group was frozen, in the same
+     * order as {@link #compressedIds}.
+     */
+    private boolean[] compressedFrozen;
+
+    /** Source activations gathered during compressed propagation. */
+    private double[] srcActivationBuffer;
+
+    /** Target inputs produced during compressed propagation. */
+    private double[] tarInputBuffer;
+
+    /**
+     * Applies a trace based STDP rule to the excitatory synapses, see
+     * {@link STDPRule#isTraceBased()}. Null until needed, and reset whenever
+     * the excitatory synapses change.
+     */
+    private SpikeTraceUpdater exTraceUpdater;
+
+    /** As {@link #exTraceUpdater}, for the inhibitory synapses. */
+    private SpikeTraceUpdater inTraceUpdater;
+
+    /**
+     * Applies a {@link BatchSynapseUpdateRule} to the excitatory synapses in a
+     * single loop. Null until needed, and reset whenever the excitatory
+     * synapses change.
+     */
+    private SynapseBatch exBatch;
+
+    /** As {@link #exBatch}, for the inhibitory synapses. */
+    private SynapseBatch inBatch;
+
     /**
      * Completely creates a synapse group between the two neuron groups with all
      * default parameters. This method creates the individual connections.
@@ -325,6 +415,37 @@ public class SynapseGroup extends Group {
         return synGroup;
     }
 
+    /**
+     * Completely creates a synapse group with the desired parameters,
+     * building it reproducibly and in bulk, see {@link #makeConnections(long)}.
+     *
+     * @param source the source neuron group.
+     * @param target the target neuron group.
+     * @param connectionManager the connection manager used to establish which
+     * neurons in the group are connected
+     * @param excitatoryRatio the ratio of excitatory to inhibitory synapses
+     * [0, 1].
+     * @param exciteRand the randomizer to be used to determine the weights
+     * of excitatory synapses.
+     * @param inhibRand the randomizer to be used to determine the weights of
+     * inhibitory synapses.
+     * @param seed the seed all random numbers used are derived from
+     * @return a synapse group with the above parameters.
+     * @throws IllegalStateException if no synapses were made
+     */
+    public static SynapseGroup createSynapseGroup(final NeuronGroup source,
+            final NeuronGroup target, final BulkConnector connectionManager,
+            double excitatoryRatio, final PolarizedRandomizer exciteRand,
+            final PolarizedRandomizer inhibRand, final long seed) {
+        SynapseGroup synGroup = new SynapseGroup(source, target,
+                connectionManager);
+        synGroup.setExcitatoryRatio(excitatoryRatio);
+        synGroup.setRandomizers(exciteRand, inhibRand);
+        synGroup.makeConnections(seed);
+        synGroup.excitatoryRatio = synGroup.getExcitatoryRatioPrecise();
+        return synGroup;
+    }
+
     /**
      * Creates a blank synapse group between a source and target neuron group
      * using the default connection manager. Until {@link #makeConnections()} is
@@ -387,6 +508,196 @@ public class SynapseGroup extends Group {
         }
     }
 
+    /**
+     * Like {@link #makeConnections()}, but builds the group reproducibly and
+     * in bulk (see {@link #connectBulk(BulkConnector, long)}), which requires
+     * the connection manager to be a {@link BulkConnector}.
+     *
+     * @param seed the seed all random numbers used are derived from
+     * @throws IllegalStateException if the connection manager of this group
+     *             is not a {@link BulkConnector}, or if no synapses were
+     *             made, in which case the group is deleted
+     */
+    public void makeConnections(final long seed)
+            throws IllegalStateException {
+        if (!(connectionManager instanceof BulkConnector)) {
+            throw new IllegalStateException("Connection manager "
+                    + connectionManager + " cannot connect in bulk.");
+        }
+        clear();
+        sourceNeuronGroup.addOutgoingSg(this);
+        targetNeuronGroup.addIncomingSg(this);
+        connectBulk((BulkConnector) connectionManager, seed);
+        if (size() == 0) {
+            delete();
+            throw new IllegalStateException("Creation failed, conditions of"
+                    + " connection resulted in zero synapses being created.");
+        }
+    }
+
+    /**
+     * Adds synapses to this (empty) group, choosing their targets with the
+     * given connector. The targets, polarities and strengths of the synapses
+     * are first worked out in primitive arrays, in parallel over blocks of
+     * {@link #BULK_BLOCK_SIZE} source neurons, each block drawing from its
+     * own random stream made from the seed and the index of the block, so
+     * the same seed and parameters give the same synapses whatever the number
+     * of threads. Strengths are drawn from the randomizers of the group a
+     * source neuron at a time. Only then are the synapse objects made, with
+     * the fan-in and fan-out of their neurons already sized, and added to the
+     * group, which fires one structural event at the end rather than one per
+     * synapse.
+     * <p>
+     * Unlike {@link #addNewSynapse(Synapse)}, the polarity of each synapse
+     * from an unpolarized source neuron is drawn independently with
+     * probability equal to the excitatory ratio, without being corrected
+     * towards the ratio as the group fills.
+     *
+     * @param connector chooses the targets of each source neuron
+     * @param seed the seed all random numbers used are derived from
+     */
+    public void connectBulk(final BulkConnector connector, final long seed) {
+        final List<Neuron> srcList = getSourceNeurons();
+        final List<Neuron> tarList = getTargetNeurons();
+        final int numSrc = srcList.size();
+        final int numTar = tarList.size();
+        final int[][] targets = new int[numSrc][];
+        final double[][] strengths = new double[numSrc][];
+        final boolean[][] excitatory = new boolean[numSrc][];
+        final RandomStream[] streams = new RandomStream[(numSrc
+                + BULK_BLOCK_SIZE - 1) / BULK_BLOCK_SIZE];
+        for (int b = 0; b < streams.length; b++) {
+            streams[b] = SimbrainMath.seededStream(seed, b);
+        }
+        IntStream.range(0, streams.length).parallel().forEach(b -> {
+            for (int i = b * BULK_BLOCK_SIZE, end = Math.min(numSrc,
+                    i + BULK_BLOCK_SIZE); i < end; i++) {
+                targets[i] = connector.chooseTargets(i, numSrc, numTar,
+                        recurrent, streams[b]);
+                excitatory[i] = new boolean[targets[i].length];
+                strengths[i] = drawStrengths(srcList.get(i), excitatory[i],
+                        streams[b]);
+            }
+        });
+
+        // Size everything before making the synapses.
+        int[] numAfferents = new int[numTar];
+        int numEx = 0;
+        int numSyns = 0;
+        for (int i = 0; i < numSrc; i++) {
+            for (int k = 0; k < targets[i].length; k++) {
+                numAfferents[targets[i][k]]++;
+                if (excitatory[i][k]) {
+                    numEx++;
+                }
+            }
+            numSyns += targets[i].length;
+            Neuron src = srcList.get(i);
+            src.ensureFanOutCapacity(src.getFanOut().size()
+                    + targets[i].length);
+        }
+        for (int j = 0; j < numTar; j++) {
+            Neuron tar = tarList.get(j);
+            tar.ensureFanInCapacity(tar.getFanIn().size() + numAfferents[j]);
+        }
+        setUseCompressedMatrix(false);
+        exSynapseSet = new HashSet<Synapse>((int) (numEx / 0.75) + 1);
+        inSynapseSet = new HashSet<Synapse>(
+                (int) ((numSyns - numEx) / 0.75) + 1);
+
+        Network net = getParentNetwork();
+        for (int i = 0; i < numSrc; i++) {
+            Neuron src = srcList.get(i);
+            for (int k = 0; k < targets[i].length; k++) {
+                Synapse synapse = new Synapse(src,
+                        tarList.get(targets[i][k]));
+                synapse.setId(net.getSynapseIdGenerator().getId());
+                synapse.setParentGroup(this);
+                synapse.setStrength(strengths[i][k]);
+                if (excitatory[i][k]) {
+                    conformToPrototype(synapse, excitatoryPrototype);
+                    exSynapseSet.add(synapse);
+                } else {
+                    conformToPrototype(synapse, inhibitoryPrototype);
+                    inSynapseSet.add(synapse);
+                }
+            }
+            // Let the arrays go as their synapses are made.
+            targets[i] = null;
+            strengths[i] = null;
+            excitatory[i] = null;
+        }
+        ConnectionUtilities.finalizeConnectivity(srcList);
+        if (!recurrent) {
+            ConnectionUtilities.finalizeConnectivity(tarList);
+        }
+        fireStructureChanged();
+        net.fireGroupChanged(this, this, "synapseAdded");
+    }
+
+    /**
+     * Draws the polarities and strengths of the synapses from a source
+     * neuron. Polarized sources give their polarity to all of their synapses.
+     *
+     * @param source the source neuron
+     * @param excitatory filled with whether each synapse is excitatory; its
+     *            length is the number of synapses
+     * @param stream the random stream to draw from
+     * @return the strengths of the synapses
+     */
+    private double[] drawStrengths(final Neuron source,
+            final boolean[] excitatory, final RandomStream stream) {
+        int numEx = 0;
+        for (int k = 0; k < excitatory.length; k++) {
+            if (source.isPolarized()) {
+                excitatory[k] = Polarity.EXCITATORY.equals(source
+                        .getPolarity());
+            } else {
+                excitatory[k] = stream.nextDouble() < excitatoryRatio;
+            }
+            if (excitatory[k]) {
+                numEx++;
+            }
+        }
+        double[] exWts = new double[numEx];
+        double[] inWts = new double[excitatory.length - numEx];
+        if (exciteRand != null) {
+            exciteRand.fillRandom(exWts, 0, exWts.length, stream);
+        } else {
+            Arrays.fill(exWts, ConnectionUtilities.DEFAULT_EXCITATORY_STRENGTH);
+        }
+        if (inhibRand != null) {
+            inhibRand.fillRandom(inWts, 0, inWts.length, stream);
+        } else {
+            Arrays.fill(inWts, ConnectionUtilities.DEFAULT_INHIBITORY_STRENGTH);
+        }
+        double[] wts = new double[excitatory.length];
+        for (int k = 0, e = 0, n = 0; k < wts.length; k++) {
+            wts[k] = excitatory[k] ? exWts[e++] : inWts[n++];
+        }
+        return wts;
+    }
+
+    /**
+     * Gives a synapse the parameters of a prototype synapse, except for its
+     * strength. Used by the methods which add new synapses to the group or
+     * move synapses from one polarity to the other.
+     *
+     * @param synapse the synapse
+     * @param prototype the prototype synapse
+     */
+    private static void conformToPrototype(final Synapse synapse,
+            final Synapse prototype) {
+        synapse.setLearningRule(prototype.getLearningRule().deepCopy());
+        synapse.setFrozen(prototype.isFrozen());
+        synapse.setEnabled(prototype.isEnabled());
+        synapse.setDelay(prototype.getDelay());
+        synapse.setIncrement(prototype.getIncrement());
+        synapse.setUpperBound(prototype.getUpperBound());
+        synapse.setLowerBound(prototype.getLowerBound());
+        synapse.setSpikeResponder(prototype.getSpikeResponder());
+    }
+
     /**
      * Pre-allocates, that is sets the initial capacity of the arraylist
      * containing this synapse group's synapses. This allows expectedNumber of
@@ -422,6 +733,10 @@ public class SynapseGroup extends Group {
      * be called to sort synapses into their appropriate sets.
      */
     public void revalidateSynapseSets() {
+        if (useCompressedMatrix) {
+            // Polarity is read directly from the weights.
+            return;
+        }
         Iterator<Synapse> exIterator = exSynapseSet.iterator();
         ArrayList<Synapse> exSwitches = new ArrayList<Synapse>(
                 exSynapseSet.size());
@@ -444,6 +759,7 @@ public class SynapseGroup extends Group {
         }
         exSynapseSet.addAll(inSwitches);
         inSynapseSet.addAll(exSwitches);
+        resetTraceUpdaters();
         excitatoryRatio = exSynapseSet.size() / (double) (size());
 
     }
@@ -453,6 +769,11 @@ public class SynapseGroup extends Group {
      * call super.update() some time during the custom update.
      */
     public void update() {
+        if (useCompressedMatrix) {
+            // Compressed groups are static; their weighted inputs are sent
+            // by the target neuron group, see propagateCompressed().
+            return;
+        }
         if (useGroupLevelSettings) {
             if (!exStatic) { // Only iterate if excitatory synapses aren't
                              // static
@@ -481,6 +802,22 @@ public class SynapseGroup extends Group {
      *
      */
     private void updateExcitatorySynapses() {
+        SynapseUpdateRule rule = excitatoryPrototype.getLearningRule();
+        if (useGroupLevelSettings && isTraceBased(rule)) {
+            if (exTraceUpdater == null) {
+                exTraceUpdater = new SpikeTraceUpdater(exSynapseSet);
+            }
+            exTraceUpdater.update((STDPRule) rule,
+                    getParentNetwork().getTime());
+            return;
+        }
+        if (useGroupLevelSettings && rule instanceof BatchSynapseUpdateRule) {
+            if (exBatch == null) {
+                exBatch = new SynapseBatch(exSynapseSet);
+            }
+            exBatch.update((BatchSynapseUpdateRule) rule);
+            return;
+        }
         for (Synapse synapse : exSynapseSet) {
             synapse.update();
         }
@@ -490,13 +827,81 @@ public class SynapseGroup extends Group {
      *
      */
     private void updateInhibitorySynapses() {
+        SynapseUpdateRule rule = inhibitoryPrototype.getLearningRule();
+        if (useGroupLevelSettings && isTraceBased(rule)) {
+            if (inTraceUpdater == null) {
+                inTraceUpdater = new SpikeTraceUpdater(inSynapseSet);
+            }
+            inTraceUpdater.update((STDPRule) rule,
+                    getParentNetwork().getTime());
+            return;
+        }
+        if (useGroupLevelSettings && rule instanceof BatchSynapseUpdateRule) {
+            if (inBatch == null) {
+                inBatch = new SynapseBatch(inSynapseSet);
+            }
+            inBatch.update((BatchSynapseUpdateRule) rule);
+            return;
+        }
         for (Synapse synapse : inSynapseSet) {
             synapse.update();
         }
     }
 
+    /**
+     * Returns whether {@link #update()} applies a learning kernel to the
+     * whole group (a {@link SpikeTraceUpdater} or a {@link SynapseBatch})
+     * for at least one polarity. The synapses of such a group should be
+     * updated through the group only, not one by one as well.
+     *
+     * @return whether the group updates with a learning kernel
+     */
+    public boolean usesLearningKernel() {
+        return !useCompressedMatrix && useGroupLevelSettings
+                && (isKernelRule(excitatoryPrototype.getLearningRule())
+                        || isKernelRule(inhibitoryPrototype
+                                .getLearningRule()));
+    }
+
+    /**
+     * @param rule a group level learning rule
+     * @return whether the rule is applied to the whole group at once
+     */
+    private static boolean isKernelRule(final SynapseUpdateRule rule) {
+        return isTraceBased(rule) || rule instanceof BatchSynapseUpdateRule;
+    }
+
+    /**
+     * @param rule a group level learning rule
+     * @return whether the rule is applied with a {@link SpikeTraceUpdater}
+     *         instead of synapse by synapse
+     */
+    private static boolean isTraceBased(final SynapseUpdateRule rule) {
+        return rule instanceof STDPRule && ((STDPRule) rule).isTraceBased();
+    }
+
+    /**
+     * Discards the trace updaters and batches, which index the synapses of
+     * each polarity, so that they are rebuilt on the next update.
+     */
+    private void resetTraceUpdaters() {
+        exTraceUpdater = null;
+        inTraceUpdater = null;
+        exBatch = null;
+        inBatch = null;
+    }
+
+    @Override
+    protected void fireStructureChanged() {
+        resetTraceUpdaters();
+        super.fireStructureChanged();
+    }
+
     /** {@inheritDoc} */
     public int size() {
+        if (useCompressedMatrix) {
+            return compressedWeights.size();
+        }
         return exSynapseSet.size() + inSynapseSet.size();
     }
 
@@ -505,6 +910,9 @@ public class SynapseGroup extends Group {
      */
     @Override
     public boolean isEmpty() {
+        if (useCompressedMatrix) {
+            return compressedWeights.size() == 0;
+        }
         return exSynapseSet.isEmpty() && inSynapseSet.isEmpty();
     }
 
@@ -602,6 +1010,7 @@ public class SynapseGroup extends Group {
     public Synapse removeSynapse(Synapse toDelete) {
         exSynapseSet.remove(toDelete);
         inSynapseSet.remove(toDelete);
+        fireStructureChanged();
         toDelete.getSource().removeEfferent(toDelete);
         toDelete.getTarget().removeAfferent(toDelete);
         this.excitatoryRatio = getExcitatoryRatioPrecise();
@@ -619,6 +1028,7 @@ public class SynapseGroup extends Group {
      * Removes all synapses with weight 0 from the group.
      */
     public void prune() {
+        setUseCompressedMatrix(false);
         for (Synapse s : this.getAllSynapses()) {
             if (s.getStrength() == 0) {
                 removeSynapse(s);
@@ -649,6 +1059,13 @@ public class SynapseGroup extends Group {
         }
         exSynapseSet.clear();
         inSynapseSet.clear();
+        fireStructureChanged();
+        compressedWeights = null;
+        compressedIds = null;
+        compressedResponders = null;
+        compressedRules = null;
+        compressedFrozen = null;
+        useCompressedMatrix = false;
     }
 
     /**
@@ -670,7 +1087,7 @@ public class SynapseGroup extends Group {
                 addNewInhibitorySynapse(synapse);
             }
         } else {
-            double rand = Math.random();
+            double rand = RandomStreams.current().nextDouble();
             double correctionTerm = size() == 0 ? 0 : excitatoryRatio
                     - (exSynapseSet.size() / (double) size());
             if (rand < (excitatoryRatio + correctionTerm)) {
@@ -686,6 +1103,7 @@ public class SynapseGroup extends Group {
      * group and have its parameters set based on the parameters of this group.
      */
     public void addNewExcitatorySynapse(final Synapse synapse) {
+        setUseCompressedMatrix(false);
         getParentNetwork().fireGroupChanged(this, this, "synapseAdded");
         synapse.setId(getParentNetwork().getSynapseIdGenerator().getId());
         synapse.setParentGroup(this);
@@ -695,16 +1113,9 @@ public class SynapseGroup extends Group {
             synapse.setStrength(ConnectionUtilities
                     .DEFAULT_EXCITATORY_STRENGTH);
         }
-        synapse.setLearningRule(excitatoryPrototype.getLearningRule()
-                .deepCopy());
-        synapse.setFrozen(excitatoryPrototype.isFrozen());
-        synapse.setEnabled(excitatoryPrototype.isEnabled());
-        synapse.setDelay(excitatoryPrototype.getDelay());
-        synapse.setIncrement(excitatoryPrototype.getIncrement());
-        synapse.setUpperBound(excitatoryPrototype.getUpperBound());
-        synapse.setLowerBound(excitatoryPrototype.getLowerBound());
-        synapse.setSpikeResponder(excitatoryPrototype.getSpikeResponder());
+        conformToPrototype(synapse, excitatoryPrototype);
         exSynapseSet.add(synapse);
+        fireStructureChanged();
     }
 
     /**
@@ -712,6 +1123,7 @@ public class SynapseGroup extends Group {
      * group and have its parameters set based on the parameters of this group.
      */
     public void addNewInhibitorySynapse(final Synapse synapse) {
+        setUseCompressedMatrix(false);
         getParentNetwork().fireGroupChanged(this, this, "synapseAdded");
         synapse.setId(getParentNetwork().getSynapseIdGenerator().getId());
         synapse.setParentGroup(this);
@@ -721,16 +1133,9 @@ public class SynapseGroup extends Group {
             synapse.setStrength(ConnectionUtilities
                     .DEFAULT_INHIBITORY_STRENGTH);
         }
-        synapse.setLearningRule(inhibitoryPrototype.getLearningRule()
-                .deepCopy());
-        synapse.setFrozen(inhibitoryPrototype.isFrozen());
-        synapse.setEnabled(inhibitoryPrototype.isEnabled());
-        synapse.setDelay(inhibitoryPrototype.getDelay());
-        synapse.setIncrement(inhibitoryPrototype.getIncrement());
-        synapse.setUpperBound(inhibitoryPrototype.getUpperBound());
-        synapse.setLowerBound(inhibitoryPrototype.getLowerBound());
-        synapse.setSpikeResponder(inhibitoryPrototype.getSpikeResponder());
+        conformToPrototype(synapse, inhibitoryPrototype);
         inSynapseSet.add(synapse);
+        fireStructureChanged();
     }
 
     /**
@@ -769,7 +1174,9 @@ public class SynapseGroup extends Group {
      *            the synapse to add.
      */
     public void addExcitatorySynapseUnsafe(final Synapse synapse) {
+        setUseCompressedMatrix(false);
         exSynapseSet.add(synapse);
+        fireStructureChanged();
         excitatoryRatio = exSynapseSet.size() / (double) size();
         if (getParentNetwork() != null) {
             synapse.setId(getParentNetwork().getSynapseIdGenerator().getId());
@@ -786,7 +1193,9 @@ public class SynapseGroup extends Group {
      *            the synapse to add.
      */
     public void addInhibitorySynapseUnsafe(final Synapse synapse) {
+        setUseCompressedMatrix(false);
         inSynapseSet.add(synapse);
+        fireStructureChanged();
         excitatoryRatio = exSynapseSet.size() / (double) size();
         if (getParentNetwork() != null) {
             synapse.setId(getParentNetwork().getSynapseIdGenerator().getId());
@@ -818,6 +1227,7 @@ public class SynapseGroup extends Group {
                     + " must be on [0, 1]");
         }
 
+        setUseCompressedMatrix(false);
         // Return if there is no change or the group is empty.
         if (excitatoryRatio == getExcitatoryRatioPrecise()) {
             return;
@@ -841,16 +1251,7 @@ public class SynapseGroup extends Group {
                         s.setStrength(ConnectionUtilities
                                 .DEFAULT_INHIBITORY_STRENGTH);
                     }
-                    s.setLearningRule(inhibitoryPrototype.getLearningRule()
-                            .deepCopy());
-                    s.setFrozen(inhibitoryPrototype.isFrozen());
-                    s.setEnabled(inhibitoryPrototype.isEnabled());
-                    s.setDelay(inhibitoryPrototype.getDelay());
-                    s.setIncrement(inhibitoryPrototype.getIncrement());
-                    s.setUpperBound(inhibitoryPrototype.getUpperBound());
-                    s.setLowerBound(inhibitoryPrototype.getLowerBound());
-                    s.setSpikeResponder(inhibitoryPrototype
-                            .getSpikeResponder());
+                    conformToPrototype(s, inhibitoryPrototype);
                     inSynapseSet.add(s);
                     numSwitch--;
                 }
@@ -869,16 +1270,7 @@ public class SynapseGroup extends Group {
                         s.setStrength(ConnectionUtilities
                                 .DEFAULT_EXCITATORY_STRENGTH);
                     }
-                    s.setLearningRule(excitatoryPrototype.getLearningRule()
-                            .deepCopy());
-                    s.setFrozen(excitatoryPrototype.isFrozen());
-                    s.setEnabled(excitatoryPrototype.isEnabled());
-                    s.setDelay(excitatoryPrototype.getDelay());
-                    s.setIncrement(excitatoryPrototype.getIncrement());
-                    s.setUpperBound(excitatoryPrototype.getUpperBound());
-                    s.setLowerBound(excitatoryPrototype.getLowerBound());
-                    s.setSpikeResponder(excitatoryPrototype
-                            .getSpikeResponder());
+                    conformToPrototype(s, excitatoryPrototype);
                     exSynapseSet.add(s);
                     numSwitch--;
                 }
@@ -903,40 +1295,397 @@ public class SynapseGroup extends Group {
      *         excitatory synapses divided by the total.
      */
     public double getExcitatoryRatioPrecise() {
+        if (useCompressedMatrix) {
+            return compressedWeights.getNumExcitatory() / (double) size();
+        }
         return exSynapseSet.size() / (double) size();
     }
 
+    /**
+     * Returns whether the weights of this group are stored in compressed
+     * sparse form rather than as individual synapse objects.
+     *
+     * @return true if this group is in compressed mode
+     */
+    public boolean isUseCompressedMatrix() {
+        return useCompressedMatrix;
+    }
+
+    /**
+     * Switches this group between storing its weights as individual
+     * {@link Synapse} objects and storing them in a
+     * {@link CompressedWeightMatrix}. In compressed mode the synapse objects
+     * are removed from the fan-in and fan-out of their neurons and the
+     * weighted input to the target neurons is instead computed in a single
+     * pass over primitive arrays when the target neuron group updates (see
+     * {@link #propagateCompressed()}). This is only sensible for static
+     * groups transmitting a simple weighted sum, so every synapse must be
+     * enabled, undelayed and either frozen or static, with the bounds and
+     * increment of its prototype synapse, no source neuron can be a spiking
+     * neuron, and no target reading post-synaptic responses can be fed
+     * through a spike responder. The target group must accept compressed
+     * input (see {@link NeuronGroup#acceptsCompressedInput()}), and the
+     * network can not be updated with a {@link PriorityUpdate}, which updates
+     * neurons one at a time.
+     *
+     * Calls which change synapses (e.g. any of the group level setters) turn
+     * compression off, rebuilding the synapses from the compressed weights and
+     * the prototype synapses, with the ids, spike responders, learning rules
+     * and frozen flags they had when the group was compressed. Calls which
+     * only read synapses (e.g. {@link #getAllSynapses()}) leave the group
+     * compressed.
+     *
+     * @param useCompressedMatrix whether to compress this group
+     * @throws IllegalStateException if the group can not be compressed
+     */
+    public void setUseCompressedMatrix(boolean useCompressedMatrix)
+            throws IllegalStateException {
+        if (this.useCompressedMatrix == useCompressedMatrix) {
+            return;
+        }
+        if (useCompressedMatrix) {
+            compress();
+        } else {
+            decompress();
+        }
+        if (getParentNetwork() != null) {
+            getParentNetwork().fireGroupChanged(this, this,
+                    "compressionChanged");
+        }
+    }
+
+    /**
+     * Moves all synapses in this group into a compressed weight matrix and
+     * detaches them from their source and target neurons.
+     *
+     * @throws IllegalStateException if a synapse or neuron in the group
+     *             requires the behavior of individual synapse objects
+     */
+    private void compress() throws IllegalStateException {
+        if (!targetNeuronGroup.acceptsCompressedInput()) {
+            throw new IllegalStateException("Synapse group " + getLabel()
+                    + " ends at a group which reads its synapses directly"
+                    + " and cannot be compressed.");
+        }
+        Network net = getParentNetwork();
+        if (net != null) {
+            for (NetworkUpdateAction action : net.getUpdateManager()
+                    .getActionList()) {
+                if (action instanceof PriorityUpdate) {
+                    throw new IllegalStateException("Synapse group "
+                            + getLabel() + " cannot be compressed while the"
+                            + " network updates its neurons by priority.");
+                }
+            }
+        }
+        for (Neuron n : getSourceNeurons()) {
+            if (n.getUpdateRule().isSpikingNeuron()) {
+                throw new IllegalStateException("Synapse group "
+                        + getLabel() + " has spiking source neurons and"
+                        + " cannot be compressed.");
+            }
+        }
+        Map<Neuron, Integer> srcMap = new HashMap<Neuron, Integer>(
+                (int) (sourceNeuronGroup.size() / 0.75));
+        Map<Neuron, Integer> tarMap = new HashMap<Neuron, Integer>(
+                (int) (targetNeuronGroup.size() / 0.75));
+        int i = 0;
+        for (Neuron n : getSourceNeurons()) {
+            srcMap.put(n, i++);
+        }
+        i = 0;
+        for (Neuron n : getTargetNeurons()) {
+            tarMap.put(n, i++);
+        }
+        int numSyns = size();
+        int[] srcs = new int[numSyns];
+        int[] tars = new int[numSyns];
+        double[] wts = new double[numSyns];
+        Synapse[] syns = new Synapse[numSyns];
+        int k = 0;
+        for (Set<Synapse> set : Arrays.asList(exSynapseSet, inSynapseSet)) {
+            for (Synapse s : set) {
+                if (s.getDelay() != 0 || !s.isEnabled()
+                        || !(s.isFrozen() || s.getLearningRule()
+                                instanceof StaticSynapseRule)) {
+                    throw new IllegalStateException("Synapse group "
+                            + getLabel() + " contains delayed, disabled or"
+                            + " plastic synapses and cannot be compressed.");
+                }
+                // Targets reading post-synaptic responses would see the
+                // spike responder's output, not a weighted sum.
+                if (s.getSpikeResponder() != null && s.getTarget()
+                        .getUpdateRule().getInputType() == InputType.SYNAPTIC) {
+                    throw new IllegalStateException("Synapse group "
+                            + getLabel() + " sends post-synaptic responses"
+                            + " and cannot be compressed.");
+                }
+                // Bounds and increment are rebuilt from the prototypes.
+                Synapse proto = CompressedWeightMatrix.isExcitatory(s
+                        .getStrength()) ? excitatoryPrototype
+                                : inhibitoryPrototype;
+                if (s.getIncrement() != proto.getIncrement()
+                        || s.getUpperBound() != proto.getUpperBound()
+                        || s.getLowerBound() != proto.getLowerBound()) {
+                    throw new IllegalStateException("Synapse group "
+                            + getLabel() + " has synapses whose bounds or"
+                            + " increment differ from its prototype synapses"
+                            + " and cannot be compressed.");
+                }
+                srcs[k] = srcMap.get(s.getSource());
+                tars[k] = tarMap.get(s.getTarget());
+                syns[k] = s;
+                wts[k++] = s.getStrength();
+            }
+        }
+        compressedWeights = new CompressedWeightMatrix(srcMap.size(),
+                tarMap.size(), srcs, tars, wts, numSyns);
+        compressedIds = new String[numSyns];
+        compressedResponders = new SpikeResponder[numSyns];
+        compressedRules = new SynapseUpdateRule[numSyns];
+        compressedFrozen = new boolean[numSyns];
+        for (k = 0; k < numSyns; k++) {
+            int p = compressedWeights.indexOf(srcs[k], tars[k]);
+            compressedIds[p] = syns[k].getId();
+            compressedResponders[p] = syns[k].getSpikeResponder();
+            if (!(syns[k].getLearningRule() instanceof StaticSynapseRule)) {
+                compressedRules[p] = syns[k].getLearningRule();
+            }
+            compressedFrozen[p] = syns[k].isFrozen();
+        }
+        for (Set<Synapse> set : Arrays.asList(exSynapseSet, inSynapseSet)) {
+            for (Synapse s : set) {
+                s.getSource().removeEfferent(s);
+                s.getTarget().removeAfferent(s);
+                if (isDisplaySynapses()) {
+                    s.getNetwork().fireSynapseRemoved(s);
+                }
+            }
+        }
+        exSynapseSet = new HashSet<Synapse>();
+        inSynapseSet = new HashSet<Synapse>();
+        fireStructureChanged();
+        useGroupLevelSettings = true;
+        useCompressedMatrix = true;
+    }
+
+    /**
+     * Rebuilds the individual synapses of this group from the compressed
+     * weight matrix, taking bounds and increment from the prototype synapse of
+     * its polarity and restoring its id, spike responder, learning rule and
+     * frozen flag. Synapses with a weight of zero are excitatory, see
+     * {@link CompressedWeightMatrix#isExcitatory(double)}.
+     */
+    private void decompress() {
+        CompressedWeightMatrix cw = compressedWeights;
+        String[] ids = compressedIds;
+        SpikeResponder[] responders = compressedResponders;
+        SynapseUpdateRule[] rules = compressedRules;
+        boolean[] frozen = compressedFrozen;
+        compressedWeights = null;
+        compressedIds = null;
+        compressedResponders = null;
+        compressedRules = null;
+        compressedFrozen = null;
+        useCompressedMatrix = false;
+        srcActivationBuffer = null;
+        tarInputBuffer = null;
+        List<Neuron> srcList = getSourceNeurons();
+        List<Neuron> tarList = getTargetNeurons();
+        int numEx = cw.getNumExcitatory();
+        exSynapseSet = new HashSet<Synapse>((int) (numEx / 0.75) + 1);
+        inSynapseSet = new HashSet<Synapse>(
+                (int) ((cw.size() - numEx) / 0.75) + 1);
+        int[] colPtr = cw.getColumnPointers();
+        int[] srcIndices = cw.getSourceIndices();
+        double[] wts = cw.getWeights();
+        for (int j = 0, m = cw.getNumTargets(); j < m; j++) {
+            Neuron tar = tarList.get(j);
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                Synapse s = new Synapse(srcList.get(srcIndices[k]), tar);
+                boolean excitatory = CompressedWeightMatrix
+                        .isExcitatory(wts[k]);
+                Synapse proto = excitatory ? excitatoryPrototype
+                        : inhibitoryPrototype;
+                // Only enabled, undelayed synapses are compressed.
+                s.setLearningRule(rules[k] != null ? rules[k]
+                        : new StaticSynapseRule());
+                s.setFrozen(frozen[k]);
+                s.setIncrement(proto.getIncrement());
+                s.setUpperBound(proto.getUpperBound());
+                s.setLowerBound(proto.getLowerBound());
+                s.setSpikeResponder(responders[k]);
+                s.forceSetStrength(wts[k]);
+                if (excitatory) {
+                    addExcitatorySynapseUnsafe(s);
+                } else {
+                    addInhibitorySynapseUnsafe(s);
+                }
+                s.setId(ids[k]);
+                if (isDisplaySynapses()) {
+                    getParentNetwork().fireSynapseAdded(s);
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the weighted input this group sends to each of its target neurons
+     * to the input value of that neuron. Only does anything when this group
+     * is in compressed mode, in which case it is called by the target neuron
+     * group just before its neurons update, standing in for the per-synapse
+     * weighted sums the neurons would otherwise compute themselves.
+     */
+    public void propagateCompressed() {
+        if (!useCompressedMatrix) {
+            return;
+        }
+        int numSrc = compressedWeights.getNumSources();
+        int numTar = compressedWeights.getNumTargets();
+        if (srcActivationBuffer == null
+                || srcActivationBuffer.length != numSrc) {
+            srcActivationBuffer = new double[numSrc];
+        }
+        if (tarInputBuffer == null || tarInputBuffer.length != numTar) {
+            tarInputBuffer = new double[numTar];
+        }
+        // Read from and write to the neuron groups' state arrays directly
+        // when they have them.
+        NeuronStateArrays srcState = sourceNeuronGroup.getStateArrays();
+        double[] srcActs;
+        if (srcState != null && srcState.size() >= numSrc) {
+            srcActs = srcState.getActivations();
+        } else {
+            List<Neuron> srcList = getSourceNeurons();
+            for (int i = 0; i < numSrc; i++) {
+                srcActivationBuffer[i] = srcList.get(i).getActivation();
+            }
+            srcActs = srcActivationBuffer;
+        }
+        compressedWeights.propagate(srcActs, tarInputBuffer);
+        NeuronStateArrays tarState = targetNeuronGroup.getStateArrays();
+        if (tarState != null && tarState.size() >= numTar) {
+            double[] inputs = tarState.getInputs();
+            for (int j = 0; j < numTar; j++) {
+                inputs[j] += tarInputBuffer[j];
+            }
+            tarState.markInputsSet();
+        } else {
+            List<Neuron> tarList = getTargetNeurons();
+            for (int j = 0; j < numTar; j++) {
+                tarList.get(j).addInputValue(tarInputBuffer[j]);
+            }
+        }
+    }
+
+    /**
+     * @return the compressed weights of this group, or null if the group is
+     *         not in compressed mode
+     */
+    public CompressedWeightMatrix getCompressedWeights() {
+        return compressedWeights;
+    }
+
     /**
      * @return a flat list representation of all the synapses in this synapse
-     *         group. This list is a defensive copy.
+     *         group. This list is a defensive copy. If the group is in
+     *         compressed mode the list is unmodifiable and the synapses are
+     *         read-only copies, see {@link #compressedSynapses(boolean)}.
      */
     public List<Synapse> getAllSynapses() {
         ArrayList<Synapse> flatList = new ArrayList<Synapse>(size());
         flatList.addAll(getExcitatorySynapses());
         flatList.addAll(getInhibitorySynapses());
+        if (useCompressedMatrix) {
+            return Collections.unmodifiableList(flatList);
+        }
         return flatList;
     }
 
     /**
-     * @return the set of excitatory synapses
+     * @return the set of excitatory synapses. If the group is in compressed
+     *         mode the set is unmodifiable and the synapses are read-only
+     *         copies, see {@link #compressedSynapses(boolean)}.
      */
     public Set<Synapse> getExcitatorySynapses() {
+        if (useCompressedMatrix) {
+            return Collections.unmodifiableSet(compressedSynapses(true));
+        }
         return new HashSet<Synapse>(exSynapseSet);
     }
 
     /**
-     * @return the set of inhibitory synapses
+     * @return the set of inhibitory synapses. If the group is in compressed
+     *         mode the set is unmodifiable and the synapses are read-only
+     *         copies, see {@link #compressedSynapses(boolean)}.
      */
     public Set<Synapse> getInhibitorySynapses() {
+        if (useCompressedMatrix) {
+            return Collections.unmodifiableSet(compressedSynapses(false));
+        }
         return new HashSet<Synapse>(inSynapseSet);
     }
 
+    /**
+     * Makes a synapse for each of the positive or negative weights of a
+     * compressed group, with the parameters of the matching prototype synapse
+     * and the id and spike responder the synapse had when the group was
+     * compressed. The synapses are not attached to their source and target
+     * neurons, so they can be read without the group being decompressed, and
+     * are read-only, so that changes which could not reach the group throw
+     * instead of being lost. To change the synapses of a compressed group
+     * first call {@link #setUseCompressedMatrix(boolean)} with false.
+     *
+     * @param excitatory whether to make the synapses of the positive or the
+     *            negative weights
+     * @return the synapses
+     */
+    private Set<Synapse> compressedSynapses(boolean excitatory) {
+        List<Neuron> srcList = getSourceNeurons();
+        List<Neuron> tarList = getTargetNeurons();
+        Synapse proto = excitatory ? excitatoryPrototype
+                : inhibitoryPrototype;
+        int num = excitatory ? compressedWeights.getNumExcitatory()
+                : compressedWeights.getNumInhibitory();
+        Set<Synapse> ret = new HashSet<Synapse>((int) (num / 0.75) + 1);
+        int[] colPtr = compressedWeights.getColumnPointers();
+        int[] srcIndices = compressedWeights.getSourceIndices();
+        double[] wts = compressedWeights.getWeights();
+        for (int j = 0, m = compressedWeights.getNumTargets(); j < m; j++) {
+            Neuron tar = tarList.get(j);
+            for (int k = colPtr[j], end = colPtr[j + 1]; k < end; k++) {
+                if (excitatory != CompressedWeightMatrix
+                        .isExcitatory(wts[k])) {
+                    continue;
+                }
+                Synapse s = Synapse.createDetached(proto,
+                        srcList.get(srcIndices[k]), tar);
+                s.setLearningRule(compressedRules[k] != null
+                        ? compressedRules[k].deepCopy()
+                        : new StaticSynapseRule());
+                s.setFrozen(compressedFrozen[k]);
+                s.setEnabled(true);
+                s.setDelay(0);
+                s.setSpikeResponder(compressedResponders[k]);
+                s.forceSetStrength(wts[k]);
+                s.setId(compressedIds[k]);
+                s.setParentGroup(this);
+                s.makeReadOnly();
+                ret.add(s);
+            }
+        }
+        return ret;
+    }
+
     /**
      * Return weight strengths as a double vector.
      *
      * @return weights
      */
     public double[] getWeightVector() {
+        if (useCompressedMatrix) {
+            return compressedWeights.getWeights().clone();
+        }
         double[] retArray = new double[size()];
         int i = 0;
         for (Synapse synapse : exSynapseSet) {
@@ -952,6 +1701,9 @@ public class SynapseGroup extends Group {
      * @return the strengths of all the inhibitory synapses as a double array
      */
     public double[] getInhibitoryStrengths() {
+        if (useCompressedMatrix) {
+            return compressedStrengths(false);
+        }
         double[] retArray = new double[inSynapseSet.size()];
         int i = 0;
         for (Synapse synapse : inSynapseSet) {
@@ -964,6 +1716,9 @@ public class SynapseGroup extends Group {
      * @return the strengths of all the excitatory synapses as a double array
      */
     public double[] getExcitatoryStrengths() {
+        if (useCompressedMatrix) {
+            return compressedStrengths(true);
+        }
         double[] retArray = new double[exSynapseSet.size()];
         int i = 0;
         for (Synapse synapse : exSynapseSet) {
@@ -972,6 +1727,23 @@ public class SynapseGroup extends Group {
         return retArray;
     }
 
+    /**
+     * @param excitatory whether to collect the positive or negative weights
+     * @return the positive or negative strengths in the compressed weights
+     */
+    private double[] compressedStrengths(boolean excitatory) {
+        double[] wts = compressedWeights.getWeights();
+        double[] retArray = new double[excitatory ? compressedWeights
+                .getNumExcitatory() : compressedWeights.getNumInhibitory()];
+        int i = 0;
+        for (double w : wts) {
+            if (excitatory == CompressedWeightMatrix.isExcitatory(w)) {
+                retArray[i++] = w;
+            }
+        }
+        return retArray;
+    }
+
     //TODO: Consider putting some of the below methods or part of their bodies
     // into SimbrainMath or Utils
     
@@ -986,6 +1758,18 @@ public class SynapseGroup extends Group {
         double[][] weightMatrix =
                 new double[getSourceNeurons().size()][getTargetNeurons()
                         .size()];
+        if (useCompressedMatrix) {
+            int[] colPtr = compressedWeights.getColumnPointers();
+            int[] srcIndices = compressedWeights.getSourceIndices();
+            double[] wts = compressedWeights.getWeights();
+            for (int j = 0, m = compressedWeights.getNumTargets(); j < m;
+                    j++) {
+                for (int k = colPtr[j]; k < colPtr[j + 1]; k++) {
+                    weightMatrix[srcIndices[k]][j] = wts[k];
+                }
+            }
+            return weightMatrix;
+        }
         int i = 0;
         int j = 0;
         // Create numbers for neurons... less expensive than constant
@@ -1011,7 +1795,79 @@ public class SynapseGroup extends Group {
         }
         return weightMatrix;
     }
-    
+
+    /**
+     * Returns a coarse version of the weight matrix, for drawing thumbnails of
+     * groups too large for {@link #getWeightMatrix()}. The source neurons are
+     * divided into consecutive blocks, one per row, and the target neurons
+     * into consecutive blocks, one per column. Each entry is the mean strength
+     * of the synapses from its row's block to its column's block, or NaN if
+     * there are none. Neither mode of the group is changed.
+     *
+     * @param rows the maximum number of rows, used when there are at least as
+     *            many source neurons
+     * @param cols the maximum number of columns, used when there are at least
+     *            as many target neurons
+     * @return the mean strengths, with rows for source blocks and columns for
+     *         target blocks
+     * @throws IllegalArgumentException if rows or cols is not positive
+     */
+    public double[][] getDownsampledWeightMatrix(final int rows,
+            final int cols) throws IllegalArgumentException {
+        if (rows <= 0 || cols <= 0) {
+            throw new IllegalArgumentException("The downsampled matrix must"
+                    + " have at least one row and one column.");
+        }
+        int numSrc = getSourceNeurons().size();
+        int numTar = getTargetNeurons().size();
+        int r = Math.max(1, Math.min(rows, numSrc));
+        int c = Math.max(1, Math.min(cols, numTar));
+        double[][] sums = new double[r][c];
+        int[][] counts = new int[r][c];
+        if (useCompressedMatrix) {
+            int[] colPtr = compressedWeights.getColumnPointers();
+            int[] srcIndices = compressedWeights.getSourceIndices();
+            double[] wts = compressedWeights.getWeights();
+            for (int j = 0; j < numTar; j++) {
+                int col = (int) ((long) j * c / numTar);
+                for (int k = colPtr[j]; k < colPtr[j + 1]; k++) {
+                    int row = (int) ((long) srcIndices[k] * r / numSrc);
+                    sums[row][col] += wts[k];
+                    counts[row][col]++;
+                }
+            }
+        } else {
+            Map<Neuron, Integer> rowMap = new HashMap<Neuron, Integer>();
+            Map<Neuron, Integer> colMap = new HashMap<Neuron, Integer>();
+            int i = 0;
+            for (Neuron n : getSourceNeurons()) {
+                rowMap.put(n, (int) ((long) i++ * r / numSrc));
+            }
+            i = 0;
+            for (Neuron n : getTargetNeurons()) {
+                colMap.put(n, (int) ((long) i++ * c / numTar));
+            }
+            for (Set<Synapse> set : Arrays.asList(exSynapseSet,
+                    inSynapseSet)) {
+                for (Synapse s : set) {
+                    Integer row = rowMap.get(s.getSource());
+                    Integer col = colMap.get(s.getTarget());
+                    if (row != null && col != null) {
+                        sums[row][col] += s.getStrength();
+                        counts[row][col]++;
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < r; i++) {
+            for (int j = 0; j < c; j++) {
+                sums[i][j] = counts[i][j] == 0 ? Double.NaN
+                        : sums[i][j] / counts[i][j];
+            }
+        }
+        return sums;
+    }
+
     /**
      * A more compressed version of a weight matrix for cases where a weight
      * matrix is needed, but may cause memory issues if fully instantiated. Eg,
@@ -1030,6 +1886,30 @@ public class SynapseGroup extends Group {
      *      1   2   .9
      */
     public double [][] getNumericIndices() {
+        if (useCompressedMatrix) {
+            // Walk the compressed weights in row order, which is already
+            // sorted by source and needs no lookup tables.
+            double[][] pairs = new double[size()][];
+            int[] rowPtr = compressedWeights.getRowPointers();
+            int[] tarIndices = compressedWeights.getTargetIndices();
+            int[] wtIndices = compressedWeights.getRowToWeightIndices();
+            double[] wts = compressedWeights.getWeights();
+            for (int i = 0, n = compressedWeights.getNumSources(); i < n;
+                    i++) {
+                for (int p = rowPtr[i]; p < rowPtr[i + 1]; p++) {
+                    pairs[p] = new double[] { i, tarIndices[p],
+                            wts[wtIndices[p]] };
+                }
+                Arrays.sort(pairs, rowPtr[i], rowPtr[i + 1],
+                        new Comparator<double[]>() {
+                            @Override
+                            public int compare(double[] o1, double[] o2) {
+                                return Double.compare(o1[1], o2[1]);
+                            }
+                        });
+            }
+            return pairs;
+        }
         double[][] pairs = new double[size()][3];
         int i = 0;
         int j = 0;
@@ -1261,6 +2141,7 @@ public class SynapseGroup extends Group {
             if (newWeight < 0) {
                 exSynapseSet.remove(synapse);
                 inSynapseSet.add(synapse);
+                resetTraceUpdaters();
             }
             return true;
         }
@@ -1269,6 +2150,7 @@ public class SynapseGroup extends Group {
             if (newWeight > 0) {
                 inSynapseSet.remove(synapse);
                 exSynapseSet.add(synapse);
+                resetTraceUpdaters();
             }
             return true;
         }
@@ -1295,8 +2177,19 @@ public class SynapseGroup extends Group {
      * {@link #revalidateSynapseSets()} first.
      */
     public void randomizeExcitatoryConnections() {
-        ConnectionUtilities.randomizeExcitatorySynapsesUnsafe(exSynapseSet,
-                exciteRand);
+        if (exciteRand != null) {
+            randomizeStrengths(Polarity.EXCITATORY, exciteRand);
+        } else if (useCompressedMatrix) {
+            double[] wts = compressedWeights.getWeights();
+            for (int k = 0; k < wts.length; k++) {
+                if (CompressedWeightMatrix.isExcitatory(wts[k])) {
+                    wts[k] = ConnectionUtilities.DEFAULT_EXCITATORY_STRENGTH;
+                }
+            }
+        } else {
+            ConnectionUtilities.randomizeExcitatorySynapsesUnsafe(
+                    exSynapseSet, null);
+        }
     }
 
     /**
@@ -1307,8 +2200,120 @@ public class SynapseGroup extends Group {
      * {@link #revalidateSynapseSets()} first.
      */
     public void randomizeInhibitoryConnections() {
-        ConnectionUtilities.randomizeInhibitorySynapsesUnsafe(inSynapseSet,
-                inhibRand);
+        if (inhibRand != null) {
+            randomizeStrengths(Polarity.INHIBITORY, inhibRand);
+        } else if (useCompressedMatrix) {
+            double[] wts = compressedWeights.getWeights();
+            for (int k = 0; k < wts.length; k++) {
+                if (!CompressedWeightMatrix.isExcitatory(wts[k])) {
+                    wts[k] = ConnectionUtilities.DEFAULT_INHIBITORY_STRENGTH;
+                }
+            }
+        } else {
+            ConnectionUtilities.randomizeInhibitorySynapsesUnsafe(
+                    inSynapseSet, null);
+        }
+    }
+
+    /**
+     * Draws new strengths for the synapses of one polarity in bulk, with a
+     * seed drawn from the random stream of this group (see
+     * {@link PolarizedRandomizer#fill(double[], long)}). The synapses are given
+     * their strengths in the order of {@link #inNeuronOrder(Collection)},
+     * which does not depend on how the synapse sets happen to be stored, so
+     * the strengths are the same on every run from the same network seed.
+     *
+     * @param polarity the polarity of the synapses to randomize
+     * @param rand the randomizer to draw the strengths with
+     * @throws IllegalArgumentException if the polarity of the randomizer is
+     *             not the polarity of the synapses
+     */
+    private void randomizeStrengths(final Polarity polarity,
+            final PolarizedRandomizer rand) throws IllegalArgumentException {
+        if (!polarity.equals(rand.getPolarity())) {
+            throw new IllegalArgumentException("Randomizer's polarity does"
+                    + " not match its implied polarity");
+        }
+        final boolean excitatory = polarity == Polarity.EXCITATORY;
+        final long seed = RandomStreams.nextSeed(getRandomStream());
+        if (useCompressedMatrix) {
+            double[] wts = compressedWeights.getWeights();
+            int count = 0;
+            for (int k = 0; k < wts.length; k++) {
+                if (excitatory == CompressedWeightMatrix.isExcitatory(wts[k])) {
+                    count++;
+                }
+            }
+            double[] drawn = new double[count];
+            rand.fill(drawn, seed);
+            for (int k = 0, c = 0; k < wts.length; k++) {
+                if (excitatory == CompressedWeightMatrix.isExcitatory(wts[k])) {
+                    wts[k] = drawn[c++];
+                }
+            }
+            return;
+        }
+        Synapse[] synapses = inNeuronOrder(excitatory ? exSynapseSet
+                : inSynapseSet);
+        double[] drawn = new double[synapses.length];
+        rand.fill(drawn, seed);
+        for (int k = 0; k < synapses.length; k++) {
+            synapses[k].setStrength(drawn[k]);
+        }
+    }
+
+    /**
+     * Orders synapses of this group by the position of their target among the
+     * target neurons and then by the position of their source among the
+     * source neurons. Unlike the order of the synapse sets this is the same
+     * every time the network is loaded.
+     *
+     * @param synapses synapses of this group
+     * @return the synapses in order
+     */
+    private Synapse[] inNeuronOrder(final Collection<Synapse> synapses) {
+        List<Neuron> srcList = getSourceNeurons();
+        List<Neuron> tarList = getTargetNeurons();
+        Map<Neuron, Integer> srcIndex = new IdentityHashMap<Neuron, Integer>(
+                srcList.size() * 2);
+        for (int i = 0; i < srcList.size(); i++) {
+            srcIndex.put(srcList.get(i), i);
+        }
+        Map<Neuron, Integer> tarIndex = new IdentityHashMap<Neuron, Integer>(
+                tarList.size() * 2);
+        for (int j = 0; j < tarList.size(); j++) {
+            tarIndex.put(tarList.get(j), j);
+        }
+        int n = synapses.size();
+        Synapse[] unordered = synapses.toArray(new Synapse[n]);
+        int[] tar = new int[n];
+        int[] starts = new int[tarList.size() + 1];
+        for (int k = 0; k < n; k++) {
+            tar[k] = tarIndex.get(unordered[k].getTarget());
+            starts[tar[k] + 1]++;
+        }
+        for (int j = 0; j < tarList.size(); j++) {
+            starts[j + 1] += starts[j];
+        }
+        // Group by target, then sort each target's synapses by source,
+        // keeping the position of each in the low bits of its key.
+        int[] fill = starts.clone();
+        Synapse[] byTarget = new Synapse[n];
+        long[] keys = new long[n];
+        for (int k = 0; k < n; k++) {
+            int i = fill[tar[k]]++;
+            byTarget[i] = unordered[k];
+            keys[i] = ((long) srcIndex.get(unordered[k].getSource()) << 32)
+                    | (i - starts[tar[k]]);
+        }
+        Synapse[] ordered = new Synapse[n];
+        for (int j = 0; j < tarList.size(); j++) {
+            Arrays.sort(keys, starts[j], starts[j + 1]);
+            for (int i = starts[j]; i < starts[j + 1]; i++) {
+                ordered[i] = byTarget[starts[j] + (int) keys[i]];
+            }
+        }
+        return ordered;
     }
 
     /**
@@ -1495,6 +2500,9 @@ public class SynapseGroup extends Group {
      * @param useGroupLevelSettings
      */
     public void setUseGroupLevelSettings(boolean useGroupLevelSettings) {
+        if (!useGroupLevelSettings) {
+            setUseCompressedMatrix(false);
+        }
         this.useGroupLevelSettings = useGroupLevelSettings;
     }
 
@@ -1622,6 +2630,9 @@ public class SynapseGroup extends Group {
     }
 
     /**
+     * Sets the spike responder of the synapses of a polarity to a single copy
+     * of the given responder, which they share. Responders hold only
+     * parameters, so sharing one costs nothing per synapse.
      *
      * @param spr
      * @param polarity
@@ -1630,10 +2641,10 @@ public class SynapseGroup extends Group {
         SynapseParameterSetter<SpikeResponder> setSPR = new SynapseParameterSetter<SpikeResponder>() {
             @Override
             public void setSynapseParameter(Synapse synapse, SpikeResponder val) {
-                synapse.setSpikeResponder(val.deepCopy());
+                synapse.setSpikeResponder(val);
             }
         };
-        setSynapses(setSPR, spr, polarity);
+        setSynapses(setSPR, spr == null ? null : spr.deepCopy(), polarity);
     }
 
     /**
@@ -1660,6 +2671,7 @@ public class SynapseGroup extends Group {
                 exSynapseSet.clear();
                 excitatoryRatio = 0;
             }
+            resetTraceUpdaters();
         }
     }
 
@@ -1831,6 +2843,11 @@ public class SynapseGroup extends Group {
                 return check.getParameterFromSynapse(prototype);
             }
         } else {
+            if (useCompressedMatrix) {
+                T ex = check.getParameterFromSynapse(excitatoryPrototype);
+                T in = check.getParameterFromSynapse(inhibitoryPrototype);
+                return ex != null && ex.equals(in) ? ex : null;
+            }
             synapses = getAllSynapses();
             if (synapses.isEmpty()) {
                 return null;
@@ -1861,6 +2878,7 @@ public class SynapseGroup extends Group {
      */
     public <T> void setSynapses(SynapseParameterSetter<T> set, T val,
             Polarity polarity) {
+        setUseCompressedMatrix(false);
         Collection<Synapse> synapses;
         if (Polarity.EXCITATORY == polarity) {
             synapses = exSynapseSet;
@@ -1890,7 +2908,7 @@ public class SynapseGroup extends Group {
      * Perform operations required before saving a synapse group.
      */
     public void preSaveInit() {
-        if (isUseFullRepOnSave()) {
+        if (isUseFullRepOnSave() && !useCompressedMatrix) {
             preSaveInitFull();
             return;
         }
@@ -1977,6 +2995,10 @@ public class SynapseGroup extends Group {
      * Perform operations required after opening a synapse group.
      */
     public void postUnmarshallingInit() {
+        // The compression flag is saved but the compressed weights are not,
+        // so the synapses are rebuilt first and then compressed again.
+        boolean recompress = useCompressedMatrix;
+        useCompressedMatrix = false;
 
         // Rebuild weight matrix if needed.
         if (this.isUseGroupLevelSettings() && compressedMatrixRep != null) {
@@ -2040,11 +3062,16 @@ public class SynapseGroup extends Group {
             fullSynapseRep = null;
         } else {
             for (Synapse synapse : this.getAllSynapses()) {
+                synapse.setParentGroup(this);
                 synapse.postUnmarshallingInit();
             }
         }
         if (connectionManager instanceof Sparse) {
             ((Sparse) connectionManager).setPermitDensityEditing(false);
         }
+        if (recompress) {
+            compress();
+        }
+        fireStructureChanged();
     }
 }
\ No newline at end of file
@@ -22,7 +22,6 @@ import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Cursor;
 import java.awt.Dialog;
-import java.awt.EventQueue;
 import java.awt.FlowLayout;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
@@ -278,6 +277,20 @@ public class NetworkPanel extends JPanel {
     /** How much to nudge objects per key click. */
     private static double nudgeAmount = 2;
 
+    /** The most times a second the network is redrawn while it runs. */
+    private static int targetFrameRate = 30;
+
+    /**
+     * Neuron groups with more neurons than this are drawn as a heatmap, with
+     * nodes only for the neurons in view once there are no more than this
+     * many of them, and synapse groups with more synapses than this show a
+     * thumbnail of their weights.
+     */
+    private static int groupRasterThreshold = 2000;
+
+    /** Coalesces network updates into frames. */
+    private final RenderScheduler renderScheduler = new RenderScheduler(this);
+
     /**
      * Source elements (when setting a source node or group and then connecting
      * to a target).
@@ -360,9 +373,9 @@ public class NetworkPanel extends JPanel {
     private Point2D.Double whereToAdd = new Point2D.Double(0, 0);
 
     
-    /** 
-     * Set to 3 since update neurons, synapses, and groups each decrement it by 1. If 0, update
-     * is complete.
+    /**
+     * Set to 3 when the network starts an update and to 0 once a frame has
+     * been drawn. If 0, update is complete.
      */
     private AtomicInteger updateComplete = new AtomicInteger(0);
     
@@ -436,10 +449,21 @@ public class NetworkPanel extends JPanel {
 
         addNetworkListeners();
 
-        // Don't show text when the canvas is sufficiently zoomed in
+        // Don't show text when the canvas is sufficiently zoomed in, and
+        // show the neurons in view of large groups once few enough are
         PropertyChangeListener zoomListener = new PropertyChangeListener() {
             @Override
             public void propertyChange(PropertyChangeEvent evt) {
+                List<NeuronGroupNode> groupNodes =
+                        new ArrayList<NeuronGroupNode>();
+                for (PNode node : objectNodeMap.values()) {
+                    if (node instanceof NeuronGroupNode) {
+                        groupNodes.add((NeuronGroupNode) node);
+                    }
+                }
+                for (NeuronGroupNode node : groupNodes) {
+                    node.updateLevelOfDetail();
+                }
                 for (NeuronNode node : getNeuronNodes()) {
                     node.updateTextVisibility();
                 }
@@ -499,11 +523,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateNeuronNodes();
-                    }
-                });
+                renderScheduler.allNeuronsChanged();
             }
 
             @Override
@@ -511,11 +531,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateNeuronNodes(neurons);
-                    }
-                });
+                renderScheduler.neuronsChanged(neurons);
             }
 
             @Override
@@ -523,11 +539,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateSynapseNodes();
-                    }
-                });
+                renderScheduler.allSynapsesChanged();
             }
 
             @Override
@@ -535,11 +547,7 @@ public class NetworkPanel extends JPanel {
                 if(!guiOn) {
                     return;
                 }
-                EventQueue.invokeLater(new Runnable() {
-                    public void run() {
-                        NetworkPanel.this.updateSynapseNodes(synapses);
-                    }
-                });
+                renderScheduler.synapsesChanged(synapses);
             }
 
 			@Override
@@ -566,7 +574,9 @@ public class NetworkPanel extends JPanel {
             @Override
             public void neuronChanged(final NetworkEvent<Neuron> e) {
                 NeuronNode node = (NeuronNode) objectNodeMap.get(e.getObject());
-                node.update();
+                if (node != null) {
+                    node.update();
+                }
             }
 
             @Override
@@ -668,8 +678,10 @@ public class NetworkPanel extends JPanel {
                 	NetworkPanel.this.setRunning(false);
                 	updateComplete.decrementAndGet();
                 }
+                // Compressed groups are drawn without their synapses.
                 if (description
-                    .equals(SynapseGroupNode.SYNAPSE_VISIBILITY_CHANGED)) {
+                    .equals(SynapseGroupNode.SYNAPSE_VISIBILITY_CHANGED)
+                    || description.equals("compressionChanged")) {
                     if (group instanceof SynapseGroup) {
                         toggleSynapseVisibility(((SynapseGroup) group));
                     }
@@ -726,10 +738,7 @@ public class NetworkPanel extends JPanel {
                 if (!guiOn) {
                     return;
                 }
-                PNode groupNode = objectNodeMap.get(group);
-                if (groupNode != null) {
-                    ((GroupNode) groupNode).updateConstituentNodes();
-                }
+                renderScheduler.groupChanged(group);
             }
 
         });
@@ -747,8 +756,6 @@ public class NetworkPanel extends JPanel {
         for (NeuronNode node : getNeuronNodes()) {
             node.update();
         }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
     }
 
     public void updateTime() {
@@ -769,8 +776,6 @@ public class NetworkPanel extends JPanel {
                 neuronNode.update();
             }
         }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
     }
 
     /**
@@ -786,7 +791,6 @@ public class NetworkPanel extends JPanel {
     			((GroupNode) groupNode).updateConstituentNodes();
     		}
     	}
-    	updateComplete.decrementAndGet();
     }
     
     /**
@@ -803,8 +807,6 @@ public class NetworkPanel extends JPanel {
                 node.updateDiameter();
             }
         }
-        timeLabel.update();
-        updateComplete.decrementAndGet();
     }
 
     /**
@@ -823,8 +825,32 @@ public class NetworkPanel extends JPanel {
                 node.updateDiameter();
             }
         }
+    }
+
+    /**
+     * Redraws the parts of the network which changed since the last frame.
+     * Called by the {@link RenderScheduler} on the event dispatch thread.
+     *
+     * @param frame the changed parts of the network
+     */
+    void render(final RenderScheduler.Frame frame) {
+        if (frame.allNeurons) {
+            updateNeuronNodes();
+        } else {
+            for (Collection<Neuron> neurons : frame.neurons) {
+                updateNeuronNodes(neurons);
+            }
+        }
+        if (frame.allSynapses) {
+            updateSynapseNodes();
+        } else {
+            for (Collection<Synapse> synapses : frame.synapses) {
+                updateSynapseNodes(synapses);
+            }
+        }
+        updateGroupNodes(frame.groups);
         timeLabel.update();
-        updateComplete.decrementAndGet();
+        updateComplete.set(0);
     }
 
     /**
@@ -1086,6 +1112,17 @@ public class NetworkPanel extends JPanel {
      */
     private void addNeuronGroup(NeuronGroup neuronGroup) {
 
+        // Large groups are drawn as a heatmap, with nodes only for the
+        // neurons in view when zoomed in.
+        if (neuronGroup.size() > groupRasterThreshold) {
+            NeuronGroupNode neuronGroupNode = createNeuronGroupNode(
+                    neuronGroup);
+            canvas.getLayer().addChild(neuronGroupNode);
+            objectNodeMap.put(neuronGroup, neuronGroupNode);
+            neuronGroupNode.showRaster();
+            return;
+        }
+
         List<NeuronNode> neuronNodes = new ArrayList<NeuronNode>();
 
         // Create neuron nodes and add them to the canvas. This is done
@@ -1117,7 +1154,12 @@ public class NetworkPanel extends JPanel {
      * @param synapseGroup the synapse group to add
      */
     private void addSynapseGroup(final SynapseGroup synapseGroup) {
-        if (synapseGroup.isDisplaySynapses()) {
+        // Neurons drawn as part of a raster may have no node to attach a
+        // synapse node to, and compressed groups have no synapses to draw.
+        if (synapseGroup.isDisplaySynapses()
+                && !synapseGroup.isUseCompressedMatrix()
+                && !isRaster(synapseGroup.getSourceNeuronGroup())
+                && !isRaster(synapseGroup.getTargetNeuronGroup())) {
             addSynapseGroupVisible(synapseGroup);
         } else {
             if (synapseGroup.getTargetNeuronGroup().equals(
@@ -1184,6 +1226,17 @@ public class NetworkPanel extends JPanel {
 
     }
 
+    /**
+     * @param neuronGroup a neuron group
+     * @return true if the group is drawn as a raster rather than with a node
+     *         for each neuron
+     */
+    private boolean isRaster(final NeuronGroup neuronGroup) {
+        PNode node = objectNodeMap.get(neuronGroup);
+        return node instanceof NeuronGroupNode
+                && ((NeuronGroupNode) node).isRaster();
+    }
+
     /**
      * Add a synapse group representation for case where all constituent
      * synapses are visible.
@@ -1395,6 +1448,10 @@ public class NetworkPanel extends JPanel {
      * @param group the synapse group whose synapses should be removed
      */
     private void removeSynapseGroupNodes(SynapseGroup group) {
+        // Compressed groups have no synapse nodes.
+        if (group.isUseCompressedMatrix()) {
+            return;
+        }
         SynapseNode node;
         for (Synapse synapse : group.getExcitatorySynapses()) {
             node = (SynapseNode) objectNodeMap.get(synapse);
@@ -2869,10 +2926,10 @@ public class NetworkPanel extends JPanel {
      */
     public void setGuiOn(final boolean guiOn) {
         if (guiOn) {
-        	this.setUpdateComplete(false);
             this.updateNeuronNodes();
             this.updateSynapseNodes();
-            updateComplete.decrementAndGet();
+            timeLabel.update();
+            updateComplete.set(0);
             network.setFireUpdates(true);
         } else {
         	network.setFireUpdates(false);
@@ -3160,6 +3217,47 @@ public class NetworkPanel extends JPanel {
         NetworkPanel.nudgeAmount = nudgeAmount;
     }
 
+    /**
+     * @return the most times a second a running network is redrawn
+     */
+    public static int getTargetFrameRate() {
+        return targetFrameRate;
+    }
+
+    /**
+     * @param targetFrameRate the most times a second a running network is
+     *            redrawn
+     * @throws IllegalArgumentException if the rate is not positive
+     */
+    public static void setTargetFrameRate(int targetFrameRate) {
+        if (targetFrameRate <= 0) {
+            throw new IllegalArgumentException(
+                    "Frame rate must be positive.");
+        }
+        NetworkPanel.targetFrameRate = targetFrameRate;
+    }
+
+    /**
+     * @return the size above which groups are drawn as a whole rather than
+     *         with a node per neuron or synapse
+     */
+    public static int getGroupRasterThreshold() {
+        return groupRasterThreshold;
+    }
+
+    /**
+     * @param groupRasterThreshold the size above which groups are drawn as a
+     *            whole rather than with a node per neuron or synapse
+     * @throws IllegalArgumentException if the threshold is negative
+     */
+    public static void setGroupRasterThreshold(int groupRasterThreshold) {
+        if (groupRasterThreshold < 0) {
+            throw new IllegalArgumentException(
+                    "Raster threshold can not be negative.");
+        }
+        NetworkPanel.groupRasterThreshold = groupRasterThreshold;
+    }
+
     /**
      * Creates the context menu for neurons. Overridden by
      * {@link org.simbrain.network.desktop.NetworkPanelDesktop} which adds a
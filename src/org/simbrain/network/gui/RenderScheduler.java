@@ -0,0 +1,194 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui;
+
+import java.awt.EventQueue;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.Group;
+
+/**
+ * Collects the parts of a network which have changed and has a network panel
+ * redraw them at most {@link NetworkPanel#getTargetFrameRate()} times a
+ * second, however often the network updates. Changes are marked from any
+ * thread. The first change after a frame schedules the next frame on the
+ * event dispatch thread, no sooner than one frame interval after the last one
+ * started, and later changes are merged into it, so there is never more than
+ * one frame waiting and the simulation never waits for the screen. Nodes are
+ * read when the frame is drawn, so a frame always shows the latest state.
+ */
+final class RenderScheduler {
+
+    /**
+     * Waits out the frame interval for frames which are due later, for all
+     * panels. A Swing timer is not used because restarting one from the
+     * thread its last event is being delivered on can lose the next event.
+     */
+    private static final ScheduledExecutorService DELAYER = Executors
+            .newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "Network render scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    /**
+     * The parts of a network to redraw in one frame. Collections are kept by
+     * identity, since the network marks the same lists on every update.
+     */
+    static final class Frame {
+
+        /** Whether every neuron node is to be redrawn. */
+        boolean allNeurons;
+
+        /** Collections of neurons whose nodes are to be redrawn. */
+        final Set<Collection<Neuron>> neurons = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+
+        /** Whether every synapse node is to be redrawn. */
+        boolean allSynapses;
+
+        /** Collections of synapses whose nodes are to be redrawn. */
+        final Set<Collection<Synapse>> synapses = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+
+        /** Groups whose nodes are to be redrawn. */
+        final Set<Group> groups = Collections
+                .newSetFromMap(new IdentityHashMap<>());
+    }
+
+    /** The panel which draws the frames. */
+    private final NetworkPanel panel;
+
+    /** Guards {@link #dirty} and {@link #scheduled}. */
+    private final Object lock = new Object();
+
+    /** The changes since the last frame was started. */
+    private Frame dirty = new Frame();
+
+    /** Whether a frame has been scheduled and not yet started. */
+    private boolean scheduled;
+
+    /** The earliest time, in nanoseconds, the next frame may start. */
+    private volatile long nextFrameTime;
+
+    /**
+     * @param panel the panel which draws the frames
+     */
+    RenderScheduler(final NetworkPanel panel) {
+        this.panel = panel;
+    }
+
+    /**
+     * Marks every neuron node for redrawing.
+     */
+    void allNeuronsChanged() {
+        synchronized (lock) {
+            dirty.allNeurons = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Marks the nodes of some neurons for redrawing.
+     *
+     * @param neurons the neurons
+     */
+    void neuronsChanged(final Collection<Neuron> neurons) {
+        synchronized (lock) {
+            dirty.neurons.add(neurons);
+            schedule();
+        }
+    }
+
+    /**
+     * Marks every synapse node for redrawing.
+     */
+    void allSynapsesChanged() {
+        synchronized (lock) {
+            dirty.allSynapses = true;
+            schedule();
+        }
+    }
+
+    /**
+     * Marks the nodes of some synapses for redrawing.
+     *
+     * @param synapses the synapses
+     */
+    void synapsesChanged(final Collection<Synapse> synapses) {
+        synchronized (lock) {
+            dirty.synapses.add(synapses);
+            schedule();
+        }
+    }
+
+    /**
+     * Marks the node of a group, and those of its members, for redrawing.
+     *
+     * @param group the group
+     */
+    void groupChanged(final Group group) {
+        synchronized (lock) {
+            dirty.groups.add(group);
+            schedule();
+        }
+    }
+
+    /**
+     * Schedules a frame unless one is already waiting. Called holding the
+     * lock.
+     */
+    private void schedule() {
+        if (scheduled) {
+            return;
+        }
+        scheduled = true;
+        long delay = nextFrameTime - System.nanoTime();
+        if (delay <= 0) {
+            EventQueue.invokeLater(this::render);
+        } else {
+            DELAYER.schedule(() -> EventQueue.invokeLater(this::render), delay,
+                    TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Takes the changes marked so far and has the panel draw them. Runs on the
+     * event dispatch thread.
+     */
+    private void render() {
+        Frame frame;
+        synchronized (lock) {
+            frame = dirty;
+            dirty = new Frame();
+            scheduled = false;
+        }
+        nextFrameTime = System.nanoTime()
+                + 1000000000L / NetworkPanel.getTargetFrameRate();
+        panel.render(frame);
+    }
+}
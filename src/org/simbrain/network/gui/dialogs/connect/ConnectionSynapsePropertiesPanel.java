@@ -176,6 +176,9 @@ public class ConnectionSynapsePropertiesPanel extends JPanel implements
                 }
             }
         } else {
+            // The synapses are edited one by one, which a compressed group
+            // does not allow
+            synapseGroup.setUseCompressedMatrix(false);
             excitatorySynapses = synapseGroup.getExcitatorySynapses();
             // Ensures that the template is also edited
             excitatorySynapses.add(templateExcitatorySynapse);
@@ -192,6 +195,7 @@ public class ConnectionSynapsePropertiesPanel extends JPanel implements
                 }
             }
         } else {
+            synapseGroup.setUseCompressedMatrix(false);
             inhibitorySynapses = synapseGroup.getInhibitorySynapses();
             // Ensures that the template is also edited
             inhibitorySynapses.add(templateInhibitorySynapse);
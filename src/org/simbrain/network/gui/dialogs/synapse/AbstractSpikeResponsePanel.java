@@ -21,7 +21,9 @@ package org.simbrain.network.gui.dialogs.synapse;
 import java.awt.BorderLayout;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.swing.JComponent;
 import javax.swing.JLabel;
@@ -168,6 +170,32 @@ public abstract class AbstractSpikeResponsePanel extends JPanel {
     protected abstract void writeValuesToRules(
             final Collection<Synapse> synapses);
 
+    /**
+     * Gives synapses copies of their spike responders before the responders
+     * are edited. A responder may be shared, also with synapses which are not
+     * being edited, so it is never changed in place. Synapses which shared a
+     * responder share its copy.
+     *
+     * @param synapses
+     *            the synapses whose spike responders are about to be edited
+     */
+    protected static void copyResponders(final Collection<Synapse> synapses) {
+        Map<SpikeResponder, SpikeResponder> copies =
+                new IdentityHashMap<SpikeResponder, SpikeResponder>();
+        for (Synapse s : synapses) {
+            SpikeResponder responder = s.getSpikeResponder();
+            if (responder == null) {
+                continue;
+            }
+            SpikeResponder copy = copies.get(responder);
+            if (copy == null) {
+                copy = responder.deepCopy();
+                copies.put(responder, copy);
+            }
+            s.setSpikeResponder(copy);
+        }
+    }
+
     /**
      * Tells this panel whether it is going to be editing spike responders, or
      * creating new ones and replacing the spike responders of each of the
@@ -158,6 +158,8 @@ public class ConvolvedJumpAndDecayPanel extends AbstractSpikeResponsePanel {
     @Override
     protected void writeValuesToRules(Collection<Synapse> synapses) {
 
+        copyResponders(synapses);
+
         // Jump Height
         double jumpHeight = Utils.doubleParsable(tfJumpHeight);
         if (!Double.isNaN(jumpHeight)) {
@@ -155,6 +155,8 @@ public class JumpAndDecayPanel extends AbstractSpikeResponsePanel {
     @Override
     protected void writeValuesToRules(Collection<Synapse> synapses) {
 
+        copyResponders(synapses);
+
         // Jump Height
         double jumpHeight = Utils.doubleParsable(tfJumpHeight);
         if (!Double.isNaN(jumpHeight)) {
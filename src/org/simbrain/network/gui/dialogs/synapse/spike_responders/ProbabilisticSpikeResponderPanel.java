@@ -146,6 +146,8 @@ public class ProbabilisticSpikeResponderPanel extends
     @Override
     protected void writeValuesToRules(Collection<Synapse> synapses) {
 
+        copyResponders(synapses);
+
         // Activation Probability
         double actProb = Utils.doubleParsable(tfActivationProbability);
         if (!Double.isNaN(actProb)) {
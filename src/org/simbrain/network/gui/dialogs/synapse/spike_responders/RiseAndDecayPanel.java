@@ -147,6 +147,8 @@ public class RiseAndDecayPanel extends AbstractSpikeResponsePanel {
     @Override
     protected void writeValuesToRules(Collection<Synapse> synapses) {
 
+        copyResponders(synapses);
+
         // Max Response
         double maxResponse = Utils.doubleParsable(tfMaximumResponse);
         if (!Double.isNaN(maxResponse)) {
@@ -144,6 +144,8 @@ public class StepSpikerPanel extends AbstractSpikeResponsePanel {
     @Override
     protected void writeValuesToRules(Collection<Synapse> synapses) {
 
+        copyResponders(synapses);
+
         // Response Height
         double responseHeight = Utils.doubleParsable(tfResponseHeight);
         if (!Double.isNaN(responseHeight)) {
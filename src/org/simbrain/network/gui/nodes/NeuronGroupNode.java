@@ -30,6 +30,7 @@ import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 
@@ -42,6 +43,7 @@ import javax.swing.JOptionPane;
 import javax.swing.JPopupMenu;
 
 import org.piccolo2d.PNode;
+import org.piccolo2d.util.PBounds;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
 import org.simbrain.network.groups.NeuronGroup;
@@ -111,6 +113,12 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 	/** The outlined objects (neurons) for this neuron group. */
 	private final OutlinedObjects outlinedObjects;
 
+	/**
+	 * The heatmap of the neurons, for groups too large to draw with a node per
+	 * neuron, or null if every neuron has a node. See {@link #showRaster()}.
+	 */
+	private NeuronGroupRaster raster;
+
 	/** List of custom menu items added by subclasses. */
 	private final List<JMenuItem> customMenuItems = new ArrayList<JMenuItem>();
 
@@ -165,9 +173,12 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 	private void selectNeurons() {
 		List<NeuronNode> nodes = new ArrayList<NeuronNode>();
 		for (Neuron neuron : neuronGroup.getNeuronList()) {
-			nodes.add((NeuronNode) getNetworkPanel().getObjectNodeMap().get(
-					neuron));
-
+			NeuronNode node = (NeuronNode) getNetworkPanel().getObjectNodeMap()
+					.get(neuron);
+			// Only the neurons in view have nodes when drawn as a raster
+			if (node != null) {
+				nodes.add(node);
+			}
 		}
 		getNetworkPanel().clearSelection();
 		getNetworkPanel().setSelection(nodes);
@@ -216,14 +227,21 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 			return;
 		}
 		for (Object node : outlinedObjects.getChildrenReference()) {
-			((NeuronNode) node).updateSynapseNodePositions();
+			if (node instanceof NeuronNode) {
+				((NeuronNode) node).updateSynapseNodePositions();
+			}
 		}
 	}
 
 	@Override
 	public void updateConstituentNodes() {
+		if (raster != null) {
+			raster.update();
+		}
 		for (Object object : outlinedObjects.getChildrenReference()) {
-			((NeuronNode) object).update();
+			if (object instanceof NeuronNode) {
+				((NeuronNode) object).update();
+			}
 		}
 		if (networkPanel.isRunning()) {
 			return;
@@ -236,11 +254,89 @@ public class NeuronGroupNode extends PNode implements GroupNode, PropertyChangeL
 		if (networkPanel.isRunning()) {
 			return;
 		}
+		if (raster != null) {
+			// Most neurons have no node, so move them in the model. Those
+			// nodes which exist follow their neurons.
+			neuronGroup.offset(dx, dy);
+			raster.update();
+			return;
+		}
 		for (Object object : outlinedObjects.getChildrenReference()) {
 			((NeuronNode) object).offset(dx, dy);
 		}
 	}
 
+	/**
+	 * Draws the group as a heatmap of its neurons instead of with a node for
+	 * each neuron. Nodes are then only made for the neurons in view, and only
+	 * once there are no more of those than
+	 * {@link NetworkPanel#getGroupRasterThreshold()}; see
+	 * {@link #updateLevelOfDetail()}. Synapse nodes are not made for the
+	 * synapses of these neurons, whose synapse groups are shown as a whole.
+	 */
+	public void showRaster() {
+		if (raster != null) {
+			return;
+		}
+		raster = new NeuronGroupRaster(neuronGroup);
+		outlinedObjects.addChild(0, raster);
+		raster.update();
+		updateLevelOfDetail();
+	}
+
+	/**
+	 * @return true if the group is drawn as a heatmap rather than with a node
+	 *         for each neuron
+	 */
+	public boolean isRaster() {
+		return raster != null;
+	}
+
+	/**
+	 * Makes nodes for the neurons of a raster group which are in view, if
+	 * there are few enough of them, and removes the nodes of neurons which are
+	 * not. Called when the view is zoomed or panned. Does nothing if every
+	 * neuron has a node anyway.
+	 */
+	public void updateLevelOfDetail() {
+		if (raster == null) {
+			return;
+		}
+		PBounds view = networkPanel.getCanvas().getCamera().getViewBounds();
+		int limit = NetworkPanel.getGroupRasterThreshold();
+		Set<Neuron> inView = new HashSet<Neuron>();
+		for (Neuron neuron : neuronGroup.getNeuronList()) {
+			if (view.contains(neuron.getX(), neuron.getY())) {
+				inView.add(neuron);
+				if (inView.size() > limit) {
+					inView.clear();
+					break;
+				}
+			}
+		}
+		Map<Object, PNode> nodeMap = networkPanel.getObjectNodeMap();
+		List<NeuronNode> stale = new ArrayList<NeuronNode>();
+		for (Object object : outlinedObjects.getChildrenReference()) {
+			if (object instanceof NeuronNode
+					&& !inView.remove(((NeuronNode) object).getNeuron())) {
+				stale.add((NeuronNode) object);
+			}
+		}
+		for (NeuronNode node : stale) {
+			if (networkPanel.isSelected(node)) {
+				networkPanel.toggleSelection(node);
+			}
+			nodeMap.remove(node.getNeuron());
+			removeNeuronNode(node);
+		}
+		// Those left in view have no node yet
+		for (Neuron neuron : inView) {
+			NeuronNode node = new NeuronNode(networkPanel, neuron);
+			nodeMap.put(neuron, node);
+			addNeuronNode(node);
+		}
+	}
+
 	/**
 	 * Add a neuron node to the group node.
 	 *
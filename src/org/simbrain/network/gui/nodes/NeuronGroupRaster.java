@@ -0,0 +1,163 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui.nodes;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.groups.NeuronGroup;
+
+/**
+ * Draws the neurons of a large group as a heatmap with one cell per neuron,
+ * colored as its neuron node would be. The cells are arranged on a grid
+ * following the positions of the neurons, so a group laid out as a grid is
+ * drawn with one cell per grid position and other layouts are drawn at about
+ * one cell per neuron. Drawing the group then costs one pass over its neurons
+ * and one image, however many neurons it has.
+ * <p>
+ * The grid is worked out again whenever the group gains or loses neurons or a
+ * neuron of the network moves.
+ */
+public class NeuronGroupRaster extends RasterNode {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The most cells along either side of the image. */
+    private static final int MAX_SIDE = 1024;
+
+    /** The group drawn. */
+    private final NeuronGroup neuronGroup;
+
+    /** The index of the cell of each neuron, in the order of the group. */
+    private int[] cells = new int[0];
+
+    /** The position version of the network when the grid was made. */
+    private int positionVersion;
+
+    /**
+     * Create a raster for a neuron group.
+     *
+     * @param neuronGroup the group to draw
+     */
+    public NeuronGroupRaster(final NeuronGroup neuronGroup) {
+        this.neuronGroup = neuronGroup;
+        layout();
+    }
+
+    /**
+     * Colors the cells from the current state of the neurons, first placing
+     * them again if the neurons have been added, removed or moved.
+     */
+    public void update() {
+        List<Neuron> neurons = neuronGroup.getNeuronList();
+        Network network = neuronGroup.getParentNetwork();
+        if (neurons.size() != cells.length || (network != null
+                && network.getPositionVersion() != positionVersion)) {
+            layout();
+        }
+        int[] pixels = getPixels();
+        for (int i = 0; i < cells.length; i++) {
+            pixels[cells[i]] = NeuronNode.getFillRGB(neurons.get(i));
+        }
+        invalidatePaint();
+    }
+
+    /**
+     * Chooses the grid of cells from the positions of the neurons, gives each
+     * neuron its cell and sets the bounds of this node to cover them.
+     */
+    private void layout() {
+        List<Neuron> neurons = neuronGroup.getNeuronList();
+        Network network = neuronGroup.getParentNetwork();
+        positionVersion = network == null ? 0 : network.getPositionVersion();
+        int n = neurons.size();
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = neurons.get(i).getX();
+            ys[i] = neurons.get(i).getY();
+        }
+        double[] sortedX = xs.clone();
+        double[] sortedY = ys.clone();
+        Arrays.sort(sortedX);
+        Arrays.sort(sortedY);
+        double minX = n == 0 ? 0 : sortedX[0];
+        double minY = n == 0 ? 0 : sortedY[0];
+        double width = n == 0 ? 0 : sortedX[n - 1] - minX;
+        double height = n == 0 ? 0 : sortedY[n - 1] - minY;
+
+        // The typical distance between neurons, were they spread evenly
+        double spacing;
+        if (width > 0 && height > 0) {
+            spacing = Math.sqrt(width * height / n);
+        } else {
+            spacing = Math.max(width, height) / Math.max(1, n - 1);
+        }
+        int cols = numCells(sortedX, width, spacing);
+        int rows = numCells(sortedY, height, spacing);
+        setImageSize(cols, rows);
+        int[] pixels = getPixels();
+        Arrays.fill(pixels, 0);
+
+        cells = new int[n];
+        for (int i = 0; i < n; i++) {
+            int col = cols == 1 ? 0
+                    : (int) Math.round((xs[i] - minX) / width * (cols - 1));
+            int row = rows == 1 ? 0
+                    : (int) Math.round((ys[i] - minY) / height * (rows - 1));
+            cells[i] = row * cols + col;
+        }
+
+        // Center each cell on the neurons it is drawn for
+        double cellWidth = cols == 1 ? NeuronNode.getDIAMETER()
+                : width / (cols - 1);
+        double cellHeight = rows == 1 ? NeuronNode.getDIAMETER()
+                : height / (rows - 1);
+        setBounds(minX - cellWidth / 2, minY - cellHeight / 2,
+                cellWidth * cols, cellHeight * rows);
+    }
+
+    /**
+     * Returns the number of cells to use along one axis: the number of
+     * distinct coordinates, so that neurons in a grid get a cell each, but no
+     * more than the even spacing of the neurons calls for.
+     *
+     * @param sorted the coordinates of the neurons along the axis, sorted
+     * @param extent the distance between the lowest and highest coordinate
+     * @param spacing the typical distance between neurons
+     * @return the number of cells
+     */
+    private static int numCells(final double[] sorted, final double extent,
+            final double spacing) {
+        if (!(extent > 0) || !(spacing > 0)) {
+            return 1;
+        }
+        int distinct = 1;
+        for (int i = 1; i < sorted.length; i++) {
+            if (sorted[i] != sorted[i - 1]) {
+                distinct++;
+            }
+        }
+        long even = Math.round(extent / spacing) + 1;
+        return (int) Math.max(1, Math.min(MAX_SIDE, Math.min(distinct, even)));
+    }
+
+}
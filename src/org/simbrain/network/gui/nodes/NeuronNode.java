@@ -282,25 +282,51 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
         double activation = neuron.getActivation();
         // Force to blank if 0 (or close to it)
         if ((activation > -.1) && (activation < .1)) {
-            mainShape.setPaint(Color.white);
+            setPaintIfChanged(mainShape, Color.white);
         } else if (activation > 0) {
             float saturation = checkSaturationValid((float) Math.abs(activation
                     / neuron.getUpdateRule().getGraphicalUpperBound()));
-            mainShape.setPaint(Color.getHSBColor(hotColor, saturation, 1));
+            setPaintIfChanged(mainShape,
+                    Color.getHSBColor(hotColor, saturation, 1));
         } else if (activation < 0) {
             float saturation = checkSaturationValid((float) Math.abs(activation
                     / neuron.getUpdateRule().getGraphicalLowerBound()));
-            mainShape.setPaint(Color.getHSBColor(coolColor, saturation, 1));
+            setPaintIfChanged(mainShape,
+                    Color.getHSBColor(coolColor, saturation, 1));
         }
 
         if (neuron.isSpike()) {
-            mainShape.setStrokePaint(spikingColor);
-            mainShape.setPaint(spikingColor);
+            setStrokePaintIfChanged(mainShape, spikingColor);
+            setPaintIfChanged(mainShape, spikingColor);
         } else {
-            mainShape.setStrokePaint(SynapseNode.getLineColor());
+            setStrokePaintIfChanged(mainShape, SynapseNode.getLineColor());
         }
     }
 
+    /**
+     * Returns the color a neuron node would be filled with, for views which
+     * draw many neurons without creating nodes for them.
+     *
+     * @param neuron the neuron
+     * @return the fill color as a packed ARGB value
+     */
+    static int getFillRGB(final Neuron neuron) {
+        if (neuron.isSpike()) {
+            return spikingColor.getRGB();
+        }
+        double activation = neuron.getActivation();
+        if (activation >= .1) {
+            float saturation = checkSaturationValid((float) Math.abs(activation
+                    / neuron.getUpdateRule().getGraphicalUpperBound()));
+            return Color.HSBtoRGB(hotColor, saturation, 1);
+        } else if (activation <= -.1) {
+            float saturation = checkSaturationValid((float) Math.abs(activation
+                    / neuron.getUpdateRule().getGraphicalLowerBound()));
+            return Color.HSBtoRGB(coolColor, saturation, 1);
+        }
+        return Color.white.getRGB();
+    }
+
     /**
      * Update the text label.
      */
@@ -332,7 +358,7 @@ public class NeuronNode extends ScreenElement implements PropertyChangeListener
      * @param val the saturation value to check.
      * @return whether it is valid or not.
      */
-    private float checkSaturationValid(final float val) {
+    private static float checkSaturationValid(final float val) {
         float tempval = val;
 
         if (val > 1) {
@@ -0,0 +1,123 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui.nodes;
+
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+import org.piccolo2d.PNode;
+import org.piccolo2d.util.PBounds;
+import org.piccolo2d.util.PPaintContext;
+
+/**
+ * A PNode which draws an image of colored cells stretched over its bounds,
+ * used to show a large group as one picture instead of one node per member.
+ * The cells are set by writing packed ARGB values into {@link #getPixels()}
+ * and then calling {@link #invalidatePaint()}, so an update does not create
+ * any objects. Cells are drawn without smoothing so that each stays a sharp
+ * block at any zoom.
+ */
+public class RasterNode extends PNode {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The image drawn. */
+    private BufferedImage image;
+
+    /** The pixels of the image, one packed ARGB value per cell by row. */
+    private int[] pixels;
+
+    /**
+     * Create a raster node with a single transparent cell.
+     */
+    public RasterNode() {
+        setImageSize(1, 1);
+        setPickable(false);
+    }
+
+    /**
+     * Replaces the image with a transparent one of the given size. The bounds
+     * of the node are not changed.
+     *
+     * @param width the number of columns of cells
+     * @param height the number of rows of cells
+     */
+    public void setImageSize(final int width, final int height) {
+        if (image != null && image.getWidth() == width
+                && image.getHeight() == height) {
+            return;
+        }
+        image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        invalidatePaint();
+    }
+
+    /**
+     * @return the number of columns of cells
+     */
+    public int getImageWidth() {
+        return image.getWidth();
+    }
+
+    /**
+     * @return the number of rows of cells
+     */
+    public int getImageHeight() {
+        return image.getHeight();
+    }
+
+    /**
+     * Returns the pixels of the image, so that they can be set in place. The
+     * cell in column x and row y is at index y * width + x.
+     *
+     * @return the packed ARGB values of the cells
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    @Override
+    protected void paint(final PPaintContext paintContext) {
+        PBounds b = getBoundsReference();
+        if (b.isEmpty()) {
+            return;
+        }
+        Graphics2D g = paintContext.getGraphics();
+        Object oldInterpolationHint = g
+                .getRenderingHint(RenderingHints.KEY_INTERPOLATION);
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+        double iw = image.getWidth();
+        double ih = image.getHeight();
+        g.translate(b.x, b.y);
+        g.scale(b.width / iw, b.height / ih);
+        g.drawImage(image, 0, 0, null);
+        g.scale(iw / b.width, ih / b.height);
+        g.translate(-b.x, -b.y);
+        if (oldInterpolationHint != null) {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    oldInterpolationHint);
+        } else {
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+    }
+}
@@ -18,13 +18,16 @@
  */
 package org.simbrain.network.gui.nodes;
 
+import java.awt.Paint;
 import java.awt.event.InputEvent;
 import java.awt.geom.Point2D;
+import java.util.Objects;
 
 import javax.swing.JDialog;
 import javax.swing.JPopupMenu;
 import javax.swing.SwingUtilities;
 
+import org.piccolo2d.PNode;
 import org.piccolo2d.event.PBasicInputEventHandler;
 import org.piccolo2d.event.PInputEvent;
 import org.piccolo2d.event.PInputEventFilter;
@@ -390,4 +393,33 @@ public abstract class ScreenElement extends PPath.Float {
     public void setGrouped(boolean isGrouped) {
         this.isGrouped = isGrouped;
     }
+
+    /**
+     * Sets the paint of a node unless it is equal to the current paint.
+     * Piccolo repaints a node whenever it is given a different paint object,
+     * even one which draws the same, so nodes which work out their colors
+     * again on every update should set them through this.
+     *
+     * @param node the node to paint
+     * @param paint the new paint
+     */
+    protected static void setPaintIfChanged(final PNode node,
+            final Paint paint) {
+        if (!Objects.equals(node.getPaint(), paint)) {
+            node.setPaint(paint);
+        }
+    }
+
+    /**
+     * Sets the stroke paint of a path unless it is equal to the current one.
+     *
+     * @param path the path to paint
+     * @param paint the new stroke paint
+     */
+    protected static void setStrokePaintIfChanged(final PPath path,
+            final Paint paint) {
+        if (!Objects.equals(path.getStrokePaint(), paint)) {
+            path.setStrokePaint(paint);
+        }
+    }
 }
@@ -24,6 +24,7 @@ import java.util.Collections;
 import java.util.List;
 
 import org.piccolo2d.PNode;
+import org.piccolo2d.util.PBounds;
 import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.gui.NetworkPanel;
 
@@ -58,6 +59,22 @@ public class SynapseGroupNode extends PNode implements GroupNode,
     public static final String SYNAPSE_VISIBILITY_CHANGED =
         "synapseVisibilityChanged";
 
+    /**
+     * The fewest milliseconds between redraws of the weight thumbnail while
+     * the network runs, since each redraw visits every synapse.
+     */
+    private static final long THUMBNAIL_INTERVAL = 1000;
+
+    /**
+     * A picture of the weights shown under the interaction box of groups with
+     * more synapses than {@link NetworkPanel#getGroupRasterThreshold()}, or
+     * null.
+     */
+    private WeightMatrixThumbnail thumbnail;
+
+    /** When the thumbnail was last redrawn. */
+    private long lastThumbnailUpdate;
+
     /**
      * Create a Synapse Group PNode.
      *
@@ -77,6 +94,8 @@ public class SynapseGroupNode extends PNode implements GroupNode,
         addChild(interactionBox);
         // Must do this after it's added to properly locate it
         interactionBox.updateText();
+        interactionBox.addPropertyChangeListener(PROPERTY_FULL_BOUNDS,
+                evt -> placeThumbnail());
     }
 
     @Override
@@ -118,9 +137,48 @@ public class SynapseGroupNode extends PNode implements GroupNode,
 
     @Override
     public void updateConstituentNodes() {
-        // Do nothing since there are no constituent nodes. Synapses are
-        // invisible.
-    }    
+        // There are no constituent nodes since synapses are invisible, but a
+        // large group shows its weights as a thumbnail.
+        updateThumbnail();
+    }
+
+    /**
+     * Shows, redraws or hides the weight thumbnail depending on the size of
+     * the group. While the network runs it is redrawn at most once every
+     * {@link #THUMBNAIL_INTERVAL} milliseconds.
+     */
+    protected void updateThumbnail() {
+        if (synapseGroup.size() <= NetworkPanel.getGroupRasterThreshold()) {
+            if (thumbnail != null) {
+                removeChild(thumbnail);
+                thumbnail = null;
+            }
+            return;
+        }
+        long now = System.currentTimeMillis();
+        if (thumbnail == null) {
+            thumbnail = new WeightMatrixThumbnail(synapseGroup);
+            addChild(thumbnail);
+            placeThumbnail();
+        } else if (networkPanel.isRunning()
+                && now - lastThumbnailUpdate < THUMBNAIL_INTERVAL) {
+            return;
+        }
+        lastThumbnailUpdate = now;
+        thumbnail.update();
+    }
+
+    /**
+     * Centers the thumbnail, if any, just below the interaction box.
+     */
+    private void placeThumbnail() {
+        if (thumbnail == null) {
+            return;
+        }
+        PBounds box = interactionBox.getFullBoundsReference();
+        thumbnail.setOffset(box.getCenterX() - WeightMatrixThumbnail.SIZE / 2,
+                box.getMaxY() + 2);
+    }
 
     @Override
     public List<InteractionBox> getInteractionBoxes() {
@@ -201,16 +201,16 @@ public final class SynapseNode extends ScreenElement {
      */
     public void updateColor() {
         if (synapse.getStrength() < 0) {
-            circle.setPaint(inhibitoryColor);
+            setPaintIfChanged(circle, inhibitoryColor);
         } else if (synapse.getStrength() == 0) {
-            circle.setPaint(zeroWeightColor);
+            setPaintIfChanged(circle, zeroWeightColor);
         } else {
-            circle.setPaint(excitatoryColor);
+            setPaintIfChanged(circle, excitatoryColor);
         }
         if (source.getNeuron().isSpike()) {
-        	line.setStrokePaint(NeuronNode.getSpikingColor());
+            setStrokePaintIfChanged(line, NeuronNode.getSpikingColor());
         } else {
-        	line.setStrokePaint(lineColor);
+            setStrokePaintIfChanged(line, lineColor);
         }
     }
 
@@ -254,6 +254,9 @@ public final class SynapseNode extends ScreenElement {
         }
 
         double delta = (circle.getBounds().getWidth() - diameter) / 2;
+        if (delta == 0) {
+            return;
+        }
 
         circle.setWidth(diameter);
         circle.setHeight(diameter);
@@ -0,0 +1,103 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.gui.nodes;
+
+import java.awt.Color;
+
+import org.simbrain.network.groups.SynapseGroup;
+
+/**
+ * A small picture of the weight matrix of a synapse group, with a row for each
+ * block of source neurons and a column for each block of target neurons. Each
+ * cell shows the mean strength of the synapses between its blocks, shading
+ * from white towards the excitatory color for positive means and towards the
+ * inhibitory color for negative ones, relative to the strongest mean. Cells
+ * with no synapses are left transparent.
+ */
+public class WeightMatrixThumbnail extends RasterNode {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The most rows or columns of cells. */
+    private static final int MAX_CELLS = 64;
+
+    /** The width and height of the thumbnail. */
+    public static final double SIZE = 40;
+
+    /** The group drawn. */
+    private final SynapseGroup synapseGroup;
+
+    /**
+     * Create a thumbnail of the weights of a synapse group.
+     *
+     * @param synapseGroup the group to draw
+     */
+    public WeightMatrixThumbnail(final SynapseGroup synapseGroup) {
+        this.synapseGroup = synapseGroup;
+        setBounds(0, 0, SIZE, SIZE);
+    }
+
+    /**
+     * Redraws the thumbnail from the current weights of the group. This
+     * visits every synapse of the group.
+     */
+    public void update() {
+        double[][] means = synapseGroup.getDownsampledWeightMatrix(MAX_CELLS,
+                MAX_CELLS);
+        int rows = means.length;
+        int cols = means[0].length;
+        double max = 0;
+        for (double[] row : means) {
+            for (double w : row) {
+                if (Math.abs(w) > max) {
+                    max = Math.abs(w);
+                }
+            }
+        }
+        setImageSize(cols, rows);
+        int[] pixels = getPixels();
+        Color ex = SynapseNode.getExcitatoryColor();
+        Color in = SynapseNode.getInhibitoryColor();
+        for (int i = 0; i < rows; i++) {
+            for (int j = 0; j < cols; j++) {
+                double w = means[i][j];
+                if (Double.isNaN(w)) {
+                    pixels[i * cols + j] = 0;
+                } else {
+                    double t = max == 0 ? 0 : Math.abs(w) / max;
+                    pixels[i * cols + j] = blend(w < 0 ? in : ex, t);
+                }
+            }
+        }
+        invalidatePaint();
+    }
+
+    /**
+     * @param color a color
+     * @param t how far from white towards the color to go, from 0 to 1
+     * @return the blended color as a packed ARGB value
+     */
+    private static int blend(final Color color, final double t) {
+        int r = (int) Math.round(255 + t * (color.getRed() - 255));
+        int g = (int) Math.round(255 + t * (color.getGreen() - 255));
+        int b = (int) Math.round(255 + t * (color.getBlue() - 255));
+        return 0xFF000000 | (r << 16) | (g << 8) | b;
+    }
+
+}
@@ -18,11 +18,10 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>BinaryNeuron</b> takes one of two values.
@@ -80,8 +79,8 @@ public class BinaryRule extends NeuronUpdateRule {
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
-        return rand.nextBoolean() ? getUpperBound() : getLowerBound();
+        return RandomStreams.current().nextDouble() < 0.5 ? getUpperBound()
+                : getLowerBound();
     }
 
     /**
@@ -21,6 +21,7 @@ package org.simbrain.network.neuron_update_rules;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.randomizer.Randomizer;
 
 
@@ -104,7 +105,7 @@ public class FitzhughNagumo extends SpikingNeuronUpdateRule implements
     public double getRandomValue() {
         // Equal chance of spiking or not spiking, taking on any value between
         // the resting potential and the threshold if not.
-        return 2 * (threshold - c) * Math.random() + c;
+        return 2 * (threshold - c) * RandomStreams.current().nextDouble() + c;
     }
 
     /**
@@ -18,9 +18,14 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
+import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
+import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BatchUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -34,7 +39,7 @@ import org.simbrain.util.randomizer.Randomizer;
  * TODO: Add custom tooltip
  */
 public class IntegrateAndFireRule extends SpikingNeuronUpdateRule implements
-    NoisyUpdateRule {
+    NoisyUpdateRule, BatchUpdateRule {
 
     /** Resistance (M ohms). */
     private double resistance = 1;
@@ -130,6 +135,48 @@ public class IntegrateAndFireRule extends SpikingNeuronUpdateRule implements
         neuron.setBuffer(memPotential);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateBatch(NeuronStateArrays state) {
+        Neuron[] neurons = state.getNeurons();
+        if (neurons.length == 0) {
+            return;
+        }
+        NeuronUpdateRule[] rules = state.getRules();
+        double[] activations = state.getActivations();
+        double[] buffers = state.getBuffers();
+        boolean[] spikeBuffers = state.getSpikeBuffers();
+        boolean[] clamped = state.getClamped();
+        Network network = neurons[0].getNetwork();
+        final double timeStep = network.getTimeStep();
+        final double time = network.getTime();
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            if (clamped[i]) {
+                continue;
+            }
+            IntegrateAndFireRule rule = (IntegrateAndFireRule) rules[i];
+            double iSyn = rule.inputType.getInput(neurons[i]);
+            if (rule.addNoise) {
+                iSyn += rule.noiseGenerator.getRandom();
+            }
+            double memPotential = activations[i];
+            memPotential += timeStep
+                * (-(memPotential - rule.restingPotential) + rule.resistance
+                    * (iSyn + rule.backgroundCurrent))
+                / rule.timeConstant;
+            if (memPotential >= rule.threshold) {
+                spikeBuffers[i] = true;
+                rule.setLastSpikeTime(time);
+                memPotential = rule.resetPotential;
+            } else {
+                spikeBuffers[i] = false;
+            }
+            buffers[i] = memPotential;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -137,7 +184,8 @@ public class IntegrateAndFireRule extends SpikingNeuronUpdateRule implements
     public double getRandomValue() {
         // Equal chance of spiking or not spiking, taking on any value between
         // the resting potential and the threshold if not.
-        return 2 * (threshold - restingPotential) * Math.random()
+        return 2 * (threshold - restingPotential)
+            * RandomStreams.current().nextDouble()
             + restingPotential;
     }
 
@@ -18,9 +18,14 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
+import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
+import org.simbrain.network.core.NeuronUpdateRule;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BatchUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -30,7 +35,7 @@ import org.simbrain.util.randomizer.Randomizer;
  * faster/cooler. Just a thought.
  */
 public class IzhikevichRule extends SpikingNeuronUpdateRule implements
-    NoisyUpdateRule {
+    NoisyUpdateRule, BatchUpdateRule {
 
     /** Recovery. */
     private double recovery;
@@ -120,6 +125,49 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
         neuron.setBuffer(val);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void updateBatch(NeuronStateArrays state) {
+        Neuron[] neurons = state.getNeurons();
+        if (neurons.length == 0) {
+            return;
+        }
+        NeuronUpdateRule[] rules = state.getRules();
+        double[] activations = state.getActivations();
+        double[] buffers = state.getBuffers();
+        boolean[] spikeBuffers = state.getSpikeBuffers();
+        boolean[] clamped = state.getClamped();
+        Network network = neurons[0].getNetwork();
+        final double dt = network.getTimeStep();
+        final double time = network.getTime();
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            if (clamped[i]) {
+                continue;
+            }
+            IzhikevichRule rule = (IzhikevichRule) rules[i];
+            double act = activations[i];
+            double in = rule.inputType.getInput(neurons[i]);
+            if (rule.addNoise) {
+                in += rule.noiseGenerator.getRandom();
+            }
+            in += rule.iBg;
+            rule.recovery += dt * (rule.a * ((rule.b * act) - rule.recovery));
+            double v = act + (dt * (((.04 * (act * act)) + (5 * act) + 140)
+                - rule.recovery + in));
+            if (v >= rule.threshold) {
+                v = rule.c;
+                rule.recovery += rule.d;
+                spikeBuffers[i] = true;
+                rule.setLastSpikeTime(time);
+            } else {
+                spikeBuffers[i] = false;
+            }
+            buffers[i] = v;
+        }
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -127,7 +175,7 @@ public class IzhikevichRule extends SpikingNeuronUpdateRule implements
     public double getRandomValue() {
         // Equal chance of spiking or not spiking, taking on any value between
         // the resting potential and the threshold if not.
-        return 2 * (threshold - c) * Math.random() + c;
+        return 2 * (threshold - c) * RandomStreams.current().nextDouble() + c;
     }
 
     /**
@@ -20,7 +20,9 @@ package org.simbrain.network.neuron_update_rules;
 
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
 import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BatchUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.BoundedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.ClippableUpdateRule;
@@ -33,7 +35,7 @@ import org.simbrain.util.randomizer.Randomizer;
  */
 public class LinearRule extends NeuronUpdateRule implements BiasedUpdateRule,
     DifferentiableUpdateRule, BoundedUpdateRule, ClippableUpdateRule,
-    NoisyUpdateRule {
+    NoisyUpdateRule, BatchUpdateRule {
 
     /** The Default upper bound. */
     private static final double DEFAULT_UPPER_BOUND = 1.0;
@@ -81,6 +83,29 @@ public class LinearRule extends NeuronUpdateRule implements BiasedUpdateRule,
         neuron.setBuffer(val);
     }
 
+    @Override
+    public void updateBatch(NeuronStateArrays state) {
+        Neuron[] neurons = state.getNeurons();
+        NeuronUpdateRule[] rules = state.getRules();
+        double[] buffers = state.getBuffers();
+        boolean[] clamped = state.getClamped();
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            if (clamped[i]) {
+                continue;
+            }
+            LinearRule rule = (LinearRule) rules[i];
+            double val = (rule.slope * rule.inputType.getInput(neurons[i]))
+                + rule.bias;
+            if (rule.addNoise) {
+                val += rule.noiseGenerator.getRandom();
+            }
+            if (rule.clipping) {
+                val = rule.clip(val);
+            }
+            buffers[i] = val;
+        }
+    }
+
     @Override
     public double clip(double val) {
         if (val > getUpperBound()) {
@@ -19,7 +19,6 @@
 package org.simbrain.network.neuron_update_rules;
 
 import java.util.ArrayList;
-import java.util.Random;
 
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
@@ -29,8 +28,11 @@ import org.simbrain.network.core.SynapseUpdateRule;
 import org.simbrain.network.listeners.NetworkEvent;
 import org.simbrain.network.listeners.SynapseListener;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.math.SimbrainMath;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  * <b>PointNeuron</b> from O'Reilley and Munakata, Computational Explorations in
  * Cognitive Neuroscience, chapter 2. All page references below are are to this
@@ -340,9 +342,9 @@ public class PointNeuronRule extends NeuronUpdateRule implements
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
+        RandomStream rand = RandomStreams.current();
         if (outputFunction == OutputFunction.DISCRETE_SPIKING) {
-            return rand.nextBoolean() ? 1.0 : 0.0;
+            return rand.nextDouble() < 0.5 ? 1.0 : 0.0;
         } else if (outputFunction == OutputFunction.RATE_CODE) {
             return rand.nextDouble();
         } else if (outputFunction == OutputFunction.LINEAR) {
@@ -20,6 +20,9 @@ package org.simbrain.network.neuron_update_rules;
 
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BatchUpdateRule;
 import org.simbrain.util.math.SquashingFunction;
 import org.simbrain.util.randomizer.Randomizer;
 
@@ -33,7 +36,8 @@ import org.simbrain.util.randomizer.Randomizer;
  * @author Zach Tosi
  * @author Jeff Yoshimi
  */
-public class SigmoidalRule extends AbstractSigmoidalRule {
+public class SigmoidalRule extends AbstractSigmoidalRule implements
+    BatchUpdateRule {
 
     /**
      * Default sigmoidal.
@@ -73,6 +77,26 @@ public class SigmoidalRule extends AbstractSigmoidalRule {
         neuron.setBuffer(val);
     }
 
+    @Override
+    public final void updateBatch(NeuronStateArrays state) {
+        Neuron[] neurons = state.getNeurons();
+        NeuronUpdateRule[] rules = state.getRules();
+        double[] buffers = state.getBuffers();
+        boolean[] clamped = state.getClamped();
+        for (int i = 0, n = neurons.length; i < n; i++) {
+            if (clamped[i]) {
+                continue;
+            }
+            SigmoidalRule rule = (SigmoidalRule) rules[i];
+            double val = rule.inputType.getInput(neurons[i]) + rule.bias;
+            if (rule.addNoise) {
+                val += rule.noiseGenerator.getRandom();
+            }
+            buffers[i] = rule.sFunction.valueOf(val, rule.upperBound,
+                rule.lowerBound, rule.slope);
+        }
+    }
+
     @Override
     public final SigmoidalRule deepCopy() {
         SigmoidalRule sr = new SigmoidalRule();
@@ -18,11 +18,10 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.SpikingNeuronUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.NoisyUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.util.randomizer.Randomizer;
 
 /**
@@ -69,8 +68,7 @@ public class SpikingThresholdRule extends SpikingNeuronUpdateRule implements
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
-        return rand.nextBoolean() ? 1 : 0;
+        return RandomStreams.current().nextDouble() < 0.5 ? 1 : 0;
     }
 
     /**
@@ -18,11 +18,10 @@
  */
 package org.simbrain.network.neuron_update_rules;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network.TimeType;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>ThreeValuedNeuron</b> is a natural extension of a binary neuron, which
@@ -91,8 +90,7 @@ public class ThreeValueRule extends NeuronUpdateRule {
      */
     @Override
     public double getRandomValue() {
-        Random rand = new Random();
-        int d = rand.nextInt(3);
+        int d = RandomStreams.current().nextInt(0, 2);
         if (d == 0) {
             return lowerValue;
         } else if (d == 1) {
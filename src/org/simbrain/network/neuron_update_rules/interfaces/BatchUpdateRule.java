@@ -0,0 +1,41 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.neuron_update_rules.interfaces;
+
+import org.simbrain.network.core.NeuronStateArrays;
+
+/**
+ * <b>Batch Update Rule</b> is for neuron update rules which can update a whole
+ * group of neurons stored in {@link NeuronStateArrays} in a single loop over
+ * the state arrays, instead of being called once per neuron.
+ */
+public interface BatchUpdateRule {
+
+    /**
+     * Updates every unclamped neuron in the given state arrays, writing the
+     * results to the buffer arrays (the buffers are moved into place by the
+     * caller afterwards). Every neuron's rule is of the same class as this
+     * one; per-neuron parameters are read from
+     * {@link NeuronStateArrays#getRules()}.
+     *
+     * @param state the state of the neurons to update
+     */
+    void updateBatch(NeuronStateArrays state);
+
+}
@@ -198,10 +198,11 @@ public class CompetitiveGroup extends NeuronGroup {
      * @param neuron winning neuron.
      */
     private void squireAlvarezWeightUpdate(final Neuron neuron) {
+        double averageInput = neuron.getFanInStatistics()
+                .getAverageActivation();
         for (Synapse synapse : neuron.getFanIn()) {
             double deltaw = learningRate * synapse.getTarget().getActivation()
-                    * (synapse.getSource().getActivation()
-                            - synapse.getTarget().getAverageInput());
+                    * (synapse.getSource().getActivation() - averageInput);
             synapse.setStrength(synapse.clip(synapse.getStrength() + deltaw));
         }
     }
@@ -212,7 +213,8 @@ public class CompetitiveGroup extends NeuronGroup {
      * @param neuron winning neuron.
      */
     private void rummelhartZipser(final Neuron neuron) {
-        double sumOfInputs = neuron.getTotalInput();
+        double sumOfInputs = neuron.getFanInStatistics()
+                .getActivationSum();
         // Apply learning rule
         for (Synapse synapse : neuron.getFanIn()) {
             activation = synapse.getSource().getActivation();
@@ -247,7 +249,8 @@ public class CompetitiveGroup extends NeuronGroup {
      * @param neuron neuron to apply leaky learning to
      */
     private void leakyLearning(final Neuron neuron) {
-        double sumOfInputs = neuron.getTotalInput();
+        double sumOfInputs = neuron.getFanInStatistics()
+                .getActivationSum();
         for (Synapse incoming : neuron.getFanIn()) {
             activation = incoming.getSource().getActivation();
             if (normalizeInputs) {
@@ -474,4 +477,9 @@ public class CompetitiveGroup extends NeuronGroup {
         }
     }
 
+    @Override
+    public boolean acceptsCompressedInput() {
+        // The winner is found and trained through the afferent synapses.
+        return false;
+    }
 }
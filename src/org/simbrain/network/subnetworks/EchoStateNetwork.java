@@ -34,6 +34,7 @@ import org.simbrain.network.groups.SynapseGroup;
 import org.simbrain.network.neuron_update_rules.LinearRule;
 import org.simbrain.network.neuron_update_rules.SigmoidalRule;
 import org.simbrain.network.trainers.LMSOffline;
+import org.simbrain.network.trainers.StreamingRidgeTrainer;
 import org.simbrain.network.trainers.Trainable;
 import org.simbrain.network.trainers.Trainer;
 import org.simbrain.network.trainers.TrainerListener;
@@ -103,6 +104,9 @@ public class EchoStateNetwork extends Subnetwork {
     /** Initial position of network (from bottom left). */
     private Point2D initialPosition;
 
+    /** Number of states left out while the reservoir settles when streaming. */
+    private static final int STREAMING_WASHOUT = 100;
+
     /** Default space between layers */
     private static final int DEFAULT_LAYER_INTERVAL = 300;
 
@@ -214,8 +218,7 @@ public class EchoStateNetwork extends Subnetwork {
         addNeuronGroup(neuronGroup);
         addSynapseGroup(synapseGroup);
         // Scale the reservoir's weights to have the desired spectral radius
-        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
-            reservoirLayer.getNeuronList(), spectralRadius);
+        SimnetUtils.scaleSpectralRadius(synapseGroup, spectralRadius);
     }
 
     /**
@@ -278,8 +281,9 @@ public class EchoStateNetwork extends Subnetwork {
         Sparse outToRes) {
 
         addSynapseGroup(connectNeuronGroups(inputLayer, reservoirLayer, inToRes));
-        addSynapseGroup(connectNeuronGroups(reservoirLayer, reservoirLayer,
-            resRecurrent));
+        SynapseGroup recurrent = connectNeuronGroups(reservoirLayer,
+            reservoirLayer, resRecurrent);
+        addSynapseGroup(recurrent);
 
         if (backWeights) {
             addSynapseGroup(connectNeuronGroups(outputLayer, reservoirLayer,
@@ -303,8 +307,7 @@ public class EchoStateNetwork extends Subnetwork {
         }
 
         // Scale the reservoir's weights to have the desired spectral radius
-        SimnetUtils.scaleEigenvalue(reservoirLayer.getNeuronList(),
-            reservoirLayer.getNeuronList(), spectralRadius);
+        SimnetUtils.scaleSpectralRadius(recurrent, spectralRadius);
 
     }
 
@@ -346,20 +349,7 @@ public class EchoStateNetwork extends Subnetwork {
         }
 
         // Build the network to be used in state harvesting
-        final ArrayList<Neuron> full = new ArrayList<Neuron>();
-        if (directInOutWeights) {
-            for (Neuron node : getInputLayer().getNeuronList()) {
-                full.add(node);
-            }
-        }
-        for (Neuron node : reservoirLayer.getNeuronList()) {
-            full.add(node);
-        }
-        if (recurrentOutWeights) {
-            for (Neuron node : this.getOutputLayer().getNeuronList()) {
-                full.add(node);
-            }
-        }
+        final List<Neuron> full = getReadoutSources();
 
         // Handle non-linearities in the outputs.
         // If output layer neurons are sigmoidal, transform the desired
@@ -423,99 +413,167 @@ public class EchoStateNetwork extends Subnetwork {
     }
 
     /**
-     * A general method for harvesting state data for an arbitrary Echo-State
-     * Network. This method iterates through each row of input and teacher data
-     * (if the network possesses back weights and/or recurrent output weights),
-     * and updates the reservoir. Depending on the ESN's un-frozen connectivity
-     * the resulting return matrix will have rows consisting of concatenated
-     * input, reservoir, and (teacher-forced) output states in that order.
+     * Return a trainer which trains the readout by ridge regression on states
+     * harvested one time step at a time, so that the state matrix is never
+     * held in memory. Unlike {@link #getTrainer()}, which runs over the data
+     * twice to let the reservoir settle, the data is run over once and the
+     * first 100 states are left out (see
+     * {@link StreamingRidgeTrainer#setWashout(int)}). The input and target
+     * data are read when the trainer is applied.
      *
-     * @return a matrix of data to be used for training
+     * @return the trainer
      */
-    private double[][] harvestData() {
-
-        // The minimum number of state matrix columns
-        int columnNumber = numResNodes;
+    public StreamingRidgeTrainer getStreamingTrainer() {
+        Trainable trainable = Trainer.getTrainable(this, getReadoutSources(),
+            outputLayer.getNeuronList(), inputData, targetData);
+        StreamingRidgeTrainer trainer = new StreamingRidgeTrainer(trainable) {
+            @Override
+            protected void stream() throws DataNotInitializedException {
+                harvestStates(this);
+            }
+        };
+        trainer.setWashout(STREAMING_WASHOUT);
+        return trainer;
+    }
 
+    /**
+     * @return the neurons whose states are harvested for training the
+     *         readout: the inputs if there are direct input to output
+     *         weights, the reservoir, and the outputs if there are recurrent
+     *         output weights, in that order
+     */
+    private List<Neuron> getReadoutSources() {
+        List<Neuron> full = new ArrayList<Neuron>();
         if (directInOutWeights) {
-            // Add columns for the input layer states
-            columnNumber += numInputs;
+            full.addAll(inputLayer.getNeuronList());
         }
+        full.addAll(reservoirLayer.getNeuronList());
         if (recurrentOutWeights) {
-            // Add columns for output layer states
-            columnNumber += numOutputs;
+            full.addAll(outputLayer.getNeuronList());
         }
+        return full;
+    }
 
-        // State matrix
-        double[][] returnMatrix = new double[inputData.length][columnNumber];
-
-        boolean harvest = false;
+    /**
+     * Runs the reservoir over the input and teacher data once, passing the
+     * state at each time step to a streaming trainer.
+     *
+     * @param trainer the trainer
+     * @throws Trainer.DataNotInitializedException if the input or target
+     *             data have not been set
+     */
+    private void harvestStates(final StreamingRidgeTrainer trainer)
+        throws Trainer.DataNotInitializedException {
+        if (inputData == null) {
+            throw trainer.new DataNotInitializedException(
+                "Input data not initalized");
+        }
+        if (targetData == null) {
+            throw trainer.new DataNotInitializedException(
+                "Target data not initalized");
+        }
+        if (targetData.length != inputData.length) {
+            throw new IllegalArgumentException("Input and target data have"
+                + " different numbers of rows");
+        }
+        double[] state = new double[getReadoutSources().size()];
+        for (int row = 0; row < inputData.length; row++) {
+            driveReservoir(row, state);
+            trainer.accumulate(state, targetData[row]);
+        }
+    }
 
-        // Two full passes over the data, one where states are being harvested
-        // and one where internal dynamics are being allowed to settle.
-        for (int t = 0; t < 2; t++) {
+    /**
+     * Runs the reservoir for one time step: clamps the input neurons to a row
+     * of input data, teacher forces the output neurons to the previous row of
+     * target data if there are back weights, and updates the reservoir. Then
+     * writes the concatenated input, reservoir, and (teacher-forced) output
+     * states to a state vector, as for {@link #getReadoutSources()}.
+     *
+     * @param row the row of input data
+     * @param state the state vector to write to
+     */
+    private void driveReservoir(final int row, final double[] state) {
+        int col = 0;
+
+        // Clamp input neurons based on input data. The input layer is
+        // clamped, so its activations have to be forced.
+        List<Neuron> inputs = getInputLayer().getNeuronList();
+        for (int i = 0, n = inputs.size(); i < n; i++) {
+            inputs.get(i).forceSetActivation(inputData[row][i]);
+            if (directInOutWeights) {
+                // Add input states to state matrix if direct in to out
+                // connections are desired
+                state[col++] = inputs.get(i).getActivation();
+            }
+        }
 
-            // Iterate through each row of input data
-            for (int row = 0; row < inputData.length; row++) {
+        if (backWeights) {
+            int count = 0;
+            double clampValue = 0.5;
+            for (Neuron neuron : getOutputLayer().getNeuronList()) {
+                // Teacher forcing
+                if (row > 0) {
+                    clampValue = targetData[row - 1][count];
+                }
+                neuron.setActivation(clampValue);
+                count++;
+            }
+        }
 
-                int col = 0;
+        // Update the reservoir: handles teacher-forced back-weights
+        for (Neuron n : getReservoirLayer().getNeuronList()) {
+            n.update();
+        }
+        for (Neuron n : getReservoirLayer().getNeuronList()) {
+            double val = n.getBuffer();
 
-                // Clamp input neurons based on input data
-                for (Neuron neuron : getInputLayer().getNeuronList()) {
-                    double clampValue = inputData[row][col];
-                    neuron.setActivation(clampValue);
-                    if (directInOutWeights && harvest) {
-                        // Add input states to state matrix if direct in to out
-                        // connections are desired
-                        returnMatrix[row][col] = neuron.getActivation();
-                        col++;
-                    }
+            if (noise) {
+                n.setActivation(val + reservoirNoise());
+            } else {
+                n.setActivation(val);
+            }
+            state[col++] = n.getActivation();
+        }
 
-                }
+        // Add output states to state matrix if there are recurrent
+        // outputs
+        if (recurrentOutWeights) {
+            for (int i = 0; i < targetData[0].length; i++) {
+                // Teacher-forcing
+                state[col++] = targetData[row][i];
+            }
+        }
+    }
 
-                if (backWeights) {
-                    int count = 0;
-                    double clampValue = 0.5;
-                    for (Neuron neuron : getOutputLayer().getNeuronList()) {
-                        // Teacher forcing
-                        if (row > 0) {
-                            clampValue = targetData[row - 1][count];
-                        }
-                        neuron.setActivation(clampValue);
-                        count++;
-                    }
-                }
+    /**
+     * A general method for harvesting state data for an arbitrary Echo-State
+     * Network. This method iterates through each row of input and teacher data
+     * (if the network possesses back weights and/or recurrent output weights),
+     * and updates the reservoir. Depending on the ESN's un-frozen connectivity
+     * the resulting return matrix will have rows consisting of concatenated
+     * input, reservoir, and (teacher-forced) output states in that order.
+     *
+     * @return a matrix of data to be used for training
+     */
+    private double[][] harvestData() {
 
-                // Update the reservoir: handles teacher-forced back-weights
-                for (Neuron n : getReservoirLayer().getNeuronList()) {
-                    n.update();
-                }
-                for (Neuron n : getReservoirLayer().getNeuronList()) {
-                    double val = n.getBuffer();
-
-                    if (noise) {
-                        n.setActivation(val + reservoirNoise());
-                    } else {
-                        n.setActivation(val);
-                    }
-
-                    if (harvest) {
-                        returnMatrix[row][col] = n.getActivation();
-                    }
-                    col++;
-                }
+        // State matrix
+        double[][] returnMatrix = new double[inputData.length][];
+        int columnNumber = getReadoutSources().size();
+        double[] settling = new double[columnNumber];
 
-                // Add output states to state matrix if there are recurrent
-                // outputs
-                if (recurrentOutWeights && harvest) {
-                    for (int i = 0; i < targetData[0].length; i++) {
-                        // Teacher-forcing
-                        returnMatrix[row][col] = targetData[row][i];
-                        col++;
-                    }
+        // Two full passes over the data, one where internal dynamics are
+        // being allowed to settle and one where states are being harvested.
+        for (int t = 0; t < 2; t++) {
+            for (int row = 0; row < inputData.length; row++) {
+                if (t == 0) {
+                    driveReservoir(row, settling);
+                } else {
+                    returnMatrix[row] = new double[columnNumber];
+                    driveReservoir(row, returnMatrix[row]);
                 }
             }
-            harvest = true;
         }
 
         return returnMatrix;
@@ -181,6 +181,7 @@ public class Hopfield extends Subnetwork implements Trainable {
      * main training algorithm, which directly makes use of the input data.
      */
     public void trainOnCurrentPattern() {
+        getSynapseGroup().setUseCompressedMatrix(false);
         for (Synapse w : this.getSynapseGroup().getAllSynapses()) {
             Neuron src = w.getSource();
             Neuron tar = w.getTarget();
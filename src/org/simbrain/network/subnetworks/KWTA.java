@@ -144,4 +144,10 @@ public class KWTA extends NeuronGroup {
             this.k = k;
         }
     }
+
+    @Override
+    public boolean acceptsCompressedInput() {
+        // Point neurons read their conductances from the afferent synapses.
+        return false;
+    }
 }
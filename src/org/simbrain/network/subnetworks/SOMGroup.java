@@ -28,6 +28,7 @@ import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.layouts.HexagonalGridLayout;
 import org.simbrain.network.layouts.Layout;
 import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>SOM</b> implements a Self-Organizing Map network.
@@ -147,7 +148,8 @@ public class SOMGroup extends NeuronGroup {
         for (Neuron n : getNeuronList()) {
             for (Synapse s : n.getFanIn()) {
                 s.setLowerBound(0);
-                s.setStrength(s.getUpperBound() * Math.random());
+                s.setStrength(s.getUpperBound()
+                        * RandomStreams.current().nextDouble());
             }
         }
     }
@@ -429,4 +431,9 @@ public class SOMGroup extends NeuronGroup {
         this.numNeurons = numNeurons;
     }
 
+    @Override
+    public boolean acceptsCompressedInput() {
+        // The winner is found from the weights of the afferent synapses.
+        return false;
+    }
 }
@@ -18,13 +18,12 @@
  */
 package org.simbrain.network.subnetworks;
 
-import java.util.Random;
-
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.groups.CopyableGroup;
 import org.simbrain.network.groups.NeuronGroup;
 import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>WinnerTakeAll</b>.The neuron with the highest weighted input in a
@@ -98,7 +97,7 @@ public class WinnerTakeAll extends NeuronGroup {
         // Determine the winning neuron
         int winnerIndex;
         if (useRandom) {
-            if (Math.random() < randomProb) {
+            if (RandomStreams.current().nextDouble() < randomProb) {
                 winnerIndex = getRandomWinnerIndex();
             } else {
                 winnerIndex = getWinningIndex();
@@ -124,7 +123,8 @@ public class WinnerTakeAll extends NeuronGroup {
      * @return index of random winner
      */
     private int getRandomWinnerIndex() {
-        return new Random().nextInt(getNeuronList().size());
+        return RandomStreams.current().nextInt(0,
+                getNeuronList().size() - 1);
     }
 
     /**
@@ -219,4 +219,10 @@ public class WinnerTakeAll extends NeuronGroup {
     public void setRandomProb(double randomProb) {
         this.randomProb = randomProb;
     }
+
+    @Override
+    public boolean acceptsCompressedInput() {
+        // The winner is found from the afferent synapses.
+        return false;
+    }
 }
@@ -0,0 +1,53 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.synapse_update_rules;
+
+/**
+ * <b>Batch Synapse Update Rule</b> is for synapse update rules which can
+ * update a whole set of synapses, such as those of a synapse group, in a
+ * single loop over a {@link SynapseBatch} instead of being called once per
+ * synapse. The activations and spikes of the neurons are read from the
+ * batch's arrays rather than through each synapse.
+ */
+public interface BatchSynapseUpdateRule {
+
+    /**
+     * Updates the synapses of a batch with indices from <code>from</code> up
+     * to but not including <code>to</code>, in place of calling
+     * {@link org.simbrain.network.core.Synapse#update()} on each. Frozen
+     * synapses must be left alone. Per-synapse parameters are read from each
+     * synapse's own learning rule. A synapse whose rule is of another class,
+     * including a subclass which may update differently, is updated with
+     * {@link org.simbrain.network.core.Synapse#update()} instead.
+     *
+     * @param batch the synapses and the state of their neurons
+     * @param from the index of the first synapse to update
+     * @param to one past the index of the last synapse to update
+     */
+    void updateBatch(SynapseBatch batch, int from, int to);
+
+    /**
+     * @return true if ranges of synapses with disjoint targets may be
+     *         updated on different threads at the same time
+     */
+    default boolean isThreadSafe() {
+        return true;
+    }
+
+}
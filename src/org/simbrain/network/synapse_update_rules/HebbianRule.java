@@ -24,7 +24,8 @@ import org.simbrain.network.core.SynapseUpdateRule;
 /**
  * <b>Hebbian</b> implements a standard Hebbian learning rule.
  */
-public class HebbianRule extends SynapseUpdateRule {
+public class HebbianRule extends SynapseUpdateRule implements
+        BatchSynapseUpdateRule {
 
     /** Default learning rate. */
     public static final double DEFAULT_LEARNING_RATE = .1;
@@ -57,6 +58,28 @@ public class HebbianRule extends SynapseUpdateRule {
         synapse.setStrength(strength);
     }
 
+    @Override
+    public void updateBatch(SynapseBatch batch, int from, int to) {
+        Synapse[] synapses = batch.getSynapses();
+        int[] src = batch.getSourceIndices();
+        int[] tar = batch.getTargetIndices();
+        double[] input = batch.getSourceActivations();
+        double[] output = batch.getTargetActivations();
+        for (int k = from; k < to; k++) {
+            Synapse synapse = synapses[k];
+            if (synapse.isFrozen()) {
+                continue;
+            }
+            if (synapse.getLearningRule().getClass() != HebbianRule.class) {
+                synapse.update();
+                continue;
+            }
+            HebbianRule rule = (HebbianRule) synapse.getLearningRule();
+            batch.setStrength(k, synapse.getStrength()
+                    + (rule.learningRate * input[src[k]] * output[tar[k]]));
+        }
+    }
+
     /**
      * @return Returns the momentum.
      */
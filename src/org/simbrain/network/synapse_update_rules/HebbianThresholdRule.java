@@ -24,7 +24,8 @@ import org.simbrain.network.core.SynapseUpdateRule;
 /**
  * <b>HebbianThresholdSynapse</b>.
  */
-public class HebbianThresholdRule extends SynapseUpdateRule {
+public class HebbianThresholdRule extends SynapseUpdateRule implements
+        BatchSynapseUpdateRule {
 
     /** Learning rate. */
     public static final double DEFAULT_LEARNING_RATE = .1;
@@ -82,6 +83,39 @@ public class HebbianThresholdRule extends SynapseUpdateRule {
         synapse.setStrength(synapse.clip(strength));
     }
 
+    /**
+     * {@inheritDoc} A sliding output threshold is kept by each synapse's own
+     * rule, as in {@link #update(Synapse)}.
+     */
+    @Override
+    public void updateBatch(SynapseBatch batch, int from, int to) {
+        Synapse[] synapses = batch.getSynapses();
+        int[] src = batch.getSourceIndices();
+        int[] tar = batch.getTargetIndices();
+        double[] input = batch.getSourceActivations();
+        double[] output = batch.getTargetActivations();
+        for (int k = from; k < to; k++) {
+            Synapse synapse = synapses[k];
+            if (synapse.isFrozen()) {
+                continue;
+            }
+            if (synapse.getLearningRule()
+                    .getClass() != HebbianThresholdRule.class) {
+                synapse.update();
+                continue;
+            }
+            HebbianThresholdRule rule = (HebbianThresholdRule) synapse
+                    .getLearningRule();
+            double out = output[tar[k]];
+            if (rule.useSlidingOutputThreshold) {
+                rule.outputThreshold += (rule.outputThresholdMomentum
+                        * ((out * out) - rule.outputThreshold));
+            }
+            batch.setStrength(k, synapse.getStrength() + (rule.learningRate
+                    * input[src[k]] * out * (out - rule.outputThreshold)));
+        }
+    }
+
     /**
      * @return Returns the momentum.
      */
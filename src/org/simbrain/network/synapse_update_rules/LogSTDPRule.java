@@ -74,6 +74,71 @@ public class LogSTDPRule extends STDPRule {
      */
     private double noiseVar = 0.6;
 
+    @Override
+    public LogSTDPRule deepCopy() {
+        LogSTDPRule copy = new LogSTDPRule();
+        copy.setTau_minus(tau_minus);
+        copy.setTau_plus(tau_plus);
+        copy.setLearningRate(learningRate);
+        copy.setHebbian(isHebbian());
+        copy.setTraceBased(isTraceBased());
+        copy.setSmallWtThreshold(smallWtThreshold);
+        copy.setW_plus(w_plus);
+        copy.setW_minus(w_minus);
+        copy.setLogSaturation(logSaturation);
+        copy.setLtpMod(ltpMod);
+        copy.setNoiseVar(noiseVar);
+        return copy;
+    }
+
+    /**
+     * Potentiation as in the cited paper: c_+ * exp(-J / (beta * J_0)), scaled
+     * by the trace, the learning rate and multiplicative noise. Used when the
+     * rule is applied with spike traces, once per spike.
+     */
+    @Override
+    protected void potentiate(Synapse synapse, double trace) {
+        double wt = Math.abs(synapse.getStrength());
+        double ltp = w_plus * Math.exp(-wt / (smallWtThreshold * ltpMod));
+        changeMagnitude(synapse, learningRate * ltp * trace * noise());
+    }
+
+    /**
+     * Depression as in the cited paper: c_- * J / J_0 for weights below J_0
+     * and c_- * (1 + log(1 + alpha * (J / J_0 - 1)) / alpha) above it,
+     * scaled by the trace, the learning rate and multiplicative noise. Used
+     * when the rule is applied with spike traces, once per spike.
+     */
+    @Override
+    protected void depress(Synapse synapse, double trace) {
+        double wt = Math.abs(synapse.getStrength());
+        double ltd;
+        if (wt <= smallWtThreshold) {
+            ltd = w_minus * wt / smallWtThreshold;
+        } else {
+            ltd = w_minus * (1 + Math.log(1 + logSaturation
+                    * ((wt / smallWtThreshold) - 1)) / logSaturation);
+        }
+        changeMagnitude(synapse, -learningRate * ltd * trace * noise());
+    }
+
+    /**
+     * @return a multiplicative noise factor around 1, drawn with
+     *         {@link #noiseVar} as in {@link #update(Synapse)}
+     */
+    private double noise() {
+        return 1 + ProbDistribution.NORMAL.nextRand(0, noiseVar);
+    }
+
+    /**
+     * The synapses of this rule are updated one by one, drawing their noise
+     * from a shared random stream, so they are not updated in parallel.
+     */
+    @Override
+    public boolean isThreadSafe() {
+        return false;
+    }
+
     /**
      * Updates the synapse's strength using Log-STDP.
      */
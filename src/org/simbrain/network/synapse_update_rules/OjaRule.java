@@ -25,7 +25,8 @@ import org.simbrain.network.core.SynapseUpdateRule;
  * <b>OjaSynapse</b> is a synapse which asymptotically normalizes the sum of
  * squares of the weights attaching to a neuron to a user-defined value.
  */
-public class OjaRule extends SynapseUpdateRule {
+public class OjaRule extends SynapseUpdateRule implements
+        BatchSynapseUpdateRule {
 
     /** Learning rate. */
     public static final double DEFAULT_LEARNING_RATE = .1;
@@ -67,6 +68,32 @@ public class OjaRule extends SynapseUpdateRule {
         synapse.setStrength(synapse.clip(strength));
     }
 
+    @Override
+    public void updateBatch(SynapseBatch batch, int from, int to) {
+        Synapse[] synapses = batch.getSynapses();
+        int[] src = batch.getSourceIndices();
+        int[] tar = batch.getTargetIndices();
+        double[] input = batch.getSourceActivations();
+        double[] output = batch.getTargetActivations();
+        for (int k = from; k < to; k++) {
+            Synapse synapse = synapses[k];
+            if (synapse.isFrozen()) {
+                continue;
+            }
+            if (synapse.getLearningRule().getClass() != OjaRule.class) {
+                synapse.update();
+                continue;
+            }
+            OjaRule rule = (OjaRule) synapse.getLearningRule();
+            double in = input[src[k]];
+            double out = output[tar[k]];
+            double strength = synapse.getStrength();
+            batch.setStrength(k, strength + (rule.learningRate
+                    * ((in * out) - ((out * out * strength)
+                            / rule.normalizationFactor))));
+        }
+    }
+
     /**
      * @return Returns the momentum.
      */
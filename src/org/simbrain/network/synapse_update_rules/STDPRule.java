@@ -35,7 +35,8 @@ import org.simbrain.network.neuron_update_rules.IntegrateAndFireRule;
  * Spiking Neurons. Also drew on the Scholarpedia article.
  *
  */
-public class STDPRule extends SynapseUpdateRule {
+public class STDPRule extends SynapseUpdateRule implements
+        BatchSynapseUpdateRule {
 
     /** Default tau plus. */
     public static final double TAU_PLUS_DEFAULT = 30;
@@ -89,11 +90,22 @@ public class STDPRule extends SynapseUpdateRule {
         duplicateSynapse.setW_plus(this.getW_plus());
         duplicateSynapse.setLearningRate(this.getLearningRate());
         duplicateSynapse.setHebbian(hebbian);
+        duplicateSynapse.setTraceBased(traceBased);
         return duplicateSynapse;
     }
 
     private boolean hebbian = true;
 
+    /**
+     * Whether synapse groups using this rule should apply it with a
+     * {@link SpikeTraceUpdater}, visiting only the synapses of neurons which
+     * spike, instead of calling {@link #update(Synapse)} for every synapse on
+     * every step. Subclasses which override {@link #update(Synapse)} should
+     * leave this off unless they also override {@link #potentiate(Synapse,
+     * double)} and {@link #depress(Synapse, double)} to match.
+     */
+    private boolean traceBased;
+
     private double delta_w = 0;
 
     @Override
@@ -126,6 +138,141 @@ public class STDPRule extends SynapseUpdateRule {
         }
     }
 
+    /**
+     * {@inheritDoc} Only synapses whose source or target is spiking are
+     * changed, and only if both have spiking update rules. Unlike
+     * {@link #update(Synapse)}, synapses whose source and target last spiked
+     * at the same time are left unchanged rather than given the previous
+     * change again, as with a {@link SpikeTraceUpdater}.
+     */
+    @Override
+    public void updateBatch(SynapseBatch batch, int from, int to) {
+        Synapse[] synapses = batch.getSynapses();
+        int[] src = batch.getSourceIndices();
+        int[] tar = batch.getTargetIndices();
+        boolean[] sourceSpikes = batch.getSourceSpikes();
+        boolean[] targetSpikes = batch.getTargetSpikes();
+        double[] sourceTimes = batch.getSourceSpikeTimes();
+        double[] targetTimes = batch.getTargetSpikeTimes();
+        for (int k = from; k < to; k++) {
+            if (!sourceSpikes[src[k]] && !targetSpikes[tar[k]]) {
+                continue;
+            }
+            Synapse synapse = synapses[k];
+            if (synapse.isFrozen()) {
+                continue;
+            }
+            if (synapse.getLearningRule().getClass() != STDPRule.class) {
+                synapse.update();
+                continue;
+            }
+            STDPRule rule = (STDPRule) synapse.getLearningRule();
+            // NaN if either neuron is not a spiking neuron
+            final double delta_t = (sourceTimes[src[k]] - targetTimes[tar[k]])
+                    * (rule.hebbian ? 1 : -1);
+            double delta;
+            if (delta_t < 0) {
+                delta = rule.W_plus * Math.exp(delta_t / rule.tau_plus)
+                        * rule.learningRate;
+            } else if (delta_t > 0) {
+                delta = -rule.W_minus * Math.exp(-delta_t / rule.tau_minus)
+                        * rule.learningRate;
+            } else {
+                continue;
+            }
+            rule.delta_w = delta;
+            final double str = synapse.getStrength();
+            if (Math.signum(str) == -1) {
+                batch.setStrength(k, str - delta);
+            } else {
+                batch.setStrength(k, str + delta);
+            }
+        }
+    }
+
+    /**
+     * Applies the rule to a synapse whose target neuron is spiking.
+     *
+     * @param synapse the synapse
+     * @param sourceTrace the spike trace of the source neuron, that is
+     *            exp(-(t - t_source) / tau), where tau is
+     *            {@link #getSourceTraceTimeConstant()}
+     */
+    public void targetSpiked(Synapse synapse, double sourceTrace) {
+        if (hebbian) {
+            potentiate(synapse, sourceTrace);
+        } else {
+            depress(synapse, sourceTrace);
+        }
+    }
+
+    /**
+     * Applies the rule to a synapse whose source neuron is spiking.
+     *
+     * @param synapse the synapse
+     * @param targetTrace the spike trace of the target neuron, that is
+     *            exp(-(t - t_target) / tau), where tau is
+     *            {@link #getTargetTraceTimeConstant()}
+     */
+    public void sourceSpiked(Synapse synapse, double targetTrace) {
+        if (hebbian) {
+            depress(synapse, targetTrace);
+        } else {
+            potentiate(synapse, targetTrace);
+        }
+    }
+
+    /**
+     * Strengthens a synapse, moving its strength away from zero.
+     *
+     * @param synapse the synapse
+     * @param trace the spike trace of the other neuron, the one not spiking
+     */
+    protected void potentiate(Synapse synapse, double trace) {
+        changeMagnitude(synapse, W_plus * trace * learningRate);
+    }
+
+    /**
+     * Weakens a synapse, moving its strength toward zero.
+     *
+     * @param synapse the synapse
+     * @param trace the spike trace of the other neuron, the one not spiking
+     */
+    protected void depress(Synapse synapse, double trace) {
+        changeMagnitude(synapse, -W_minus * trace * learningRate);
+    }
+
+    /**
+     * Adds to the magnitude of the strength of a synapse, keeping its sign.
+     *
+     * @param synapse the synapse
+     * @param delta the amount to add
+     */
+    protected static void changeMagnitude(Synapse synapse, double delta) {
+        final double str = synapse.getStrength();
+        if (Math.signum(str) == -1) {
+            synapse.setStrength(str - delta);
+        } else {
+            synapse.setStrength(str + delta);
+        }
+    }
+
+    /**
+     * @return the time constant of the source traces passed to
+     *         {@link #targetSpiked(Synapse, double)}
+     */
+    public double getSourceTraceTimeConstant() {
+        return hebbian ? tau_plus : tau_minus;
+    }
+
+    /**
+     * @return the time constant of the target traces passed to
+     *         {@link #sourceSpiked(Synapse, double)}
+     */
+    public double getTargetTraceTimeConstant() {
+        return hebbian ? tau_minus : tau_plus;
+    }
+
     /**
      * @return the tau_plus
      */
@@ -209,4 +356,20 @@ public class STDPRule extends SynapseUpdateRule {
         this.hebbian = hebbian;
     }
 
+    /**
+     * @return whether synapse groups apply this rule with spike traces, see
+     *         {@link SpikeTraceUpdater}
+     */
+    public boolean isTraceBased() {
+        return traceBased;
+    }
+
+    /**
+     * @param traceBased whether synapse groups should apply this rule with
+     *            spike traces, see {@link SpikeTraceUpdater}
+     */
+    public void setTraceBased(boolean traceBased) {
+        this.traceBased = traceBased;
+    }
+
 }
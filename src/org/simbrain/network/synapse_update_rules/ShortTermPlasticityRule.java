@@ -25,7 +25,8 @@ import org.simbrain.network.core.SynapseUpdateRule;
 /**
  * <b>ShortTermPlasticitySynapse</b>.
  */
-public class ShortTermPlasticityRule extends SynapseUpdateRule {
+public class ShortTermPlasticityRule extends SynapseUpdateRule implements
+        BatchSynapseUpdateRule {
 
     // TODO: Enum
 
@@ -124,6 +125,53 @@ public class ShortTermPlasticityRule extends SynapseUpdateRule {
         synapse.setStrength(synapse.clip(strength));
     }
 
+    /**
+     * {@inheritDoc} Whether a synapse is activated is decided from the
+     * batch's spikes and activations exactly as in {@link #update(Synapse)}.
+     */
+    @Override
+    public void updateBatch(SynapseBatch batch, int from, int to) {
+        Synapse[] synapses = batch.getSynapses();
+        int[] src = batch.getSourceIndices();
+        double[] input = batch.getSourceActivations();
+        boolean[] spikes = batch.getSourceSpikes();
+        double[] spikeTimes = batch.getSourceSpikeTimes();
+        for (int k = from; k < to; k++) {
+            Synapse synapse = synapses[k];
+            if (synapse.isFrozen()) {
+                continue;
+            }
+            if (synapse.getLearningRule()
+                    .getClass() != ShortTermPlasticityRule.class) {
+                synapse.update();
+                continue;
+            }
+            ShortTermPlasticityRule rule = (ShortTermPlasticityRule) synapse
+                    .getLearningRule();
+            int i = src[k];
+            // Sources without a spiking update rule have no spike time
+            if (Double.isNaN(spikeTimes[i])) {
+                rule.activated = input[i] > rule.firingThreshold;
+            } else {
+                rule.activated = spikes[i];
+            }
+            double strength = synapse.getStrength();
+            if (rule.activated) {
+                if (rule.plasticityType == STD) {
+                    strength -= (rule.bumpRate
+                            * (strength - synapse.getLowerBound()));
+                } else {
+                    strength += (rule.bumpRate
+                            * (synapse.getUpperBound() - strength));
+                }
+            } else {
+                strength -= (rule.decayRate
+                        * (strength - rule.baseLineStrength));
+            }
+            batch.setStrength(k, strength);
+        }
+    }
+
     /**
      * @return Returns the baseLineStrength.
      */
@@ -0,0 +1,256 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.synapse_update_rules;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.SpikingNeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+
+/**
+ * Applies an {@link STDPRule} to a fixed set of synapses, such as those of a
+ * synapse group, doing work only for the neurons which spike. Each source
+ * neuron keeps a trace of its spikes and so does each target neuron. A trace
+ * is set to 1 when its neuron spikes and decays exponentially in between, so
+ * it equals exp(-(t - lastSpikeTime) / tau) without being recomputed for every
+ * synapse. When a target spikes only its fan-in within the set is visited and
+ * the rule reads the source traces. When a source spikes only its fan-out is
+ * visited and the rule reads the target traces. The cost of a step is then the
+ * number of neurons plus the number of synapses of the neurons which spiked,
+ * rather than the number of synapses.
+ * <p>
+ * The synapses are indexed when the updater is created, so a new updater must
+ * be made when synapses are added or removed. Neurons which are not spiking
+ * neurons are ignored. A synapse whose source and target spike on the same
+ * step is not changed here, which differs from
+ * {@link STDPRule#update(Synapse)}: there the spike times cancel, so it applies
+ * again whatever weight change it last computed for the synapse.
+ */
+public final class SpikeTraceUpdater {
+
+    /** The source neurons of the synapses. */
+    private final Neuron[] sources;
+
+    /** The target neurons of the synapses. */
+    private final Neuron[] targets;
+
+    /** For each source, where its fan-out starts in {@link #outSynapses}. */
+    private final int[] outStart;
+
+    /** The synapses ordered by source. */
+    private final Synapse[] outSynapses;
+
+    /** The target index of each synapse in {@link #outSynapses}. */
+    private final int[] outTargets;
+
+    /** For each target, where its fan-in starts in {@link #inSynapses}. */
+    private final int[] inStart;
+
+    /** The synapses ordered by target. */
+    private final Synapse[] inSynapses;
+
+    /** The source index of each synapse in {@link #inSynapses}. */
+    private final int[] inSources;
+
+    /** The spike trace of each source, read when a target spikes. */
+    private final double[] sourceTraces;
+
+    /** The spike trace of each target, read when a source spikes. */
+    private final double[] targetTraces;
+
+    /** The time constant the source traces decay with. */
+    private double sourceTau = Double.NaN;
+
+    /** The time constant the target traces decay with. */
+    private double targetTau = Double.NaN;
+
+    /** The time of the last update, or NaN before the first. */
+    private double lastTime = Double.NaN;
+
+    /**
+     * Indexes a set of synapses by source and by target.
+     *
+     * @param synapses the synapses to update
+     */
+    public SpikeTraceUpdater(final Collection<Synapse> synapses) {
+        Map<Neuron, Integer> sourceIndex = new IdentityHashMap<Neuron, Integer>();
+        Map<Neuron, Integer> targetIndex = new IdentityHashMap<Neuron, Integer>();
+        int numSynapses = synapses.size();
+        int[] src = new int[numSynapses];
+        int[] tar = new int[numSynapses];
+        Synapse[] all = new Synapse[numSynapses];
+        int k = 0;
+        for (Synapse s : synapses) {
+            src[k] = index(sourceIndex, s.getSource());
+            tar[k] = index(targetIndex, s.getTarget());
+            all[k++] = s;
+        }
+        sources = keys(sourceIndex);
+        targets = keys(targetIndex);
+        outStart = new int[sources.length + 1];
+        outSynapses = new Synapse[numSynapses];
+        outTargets = new int[numSynapses];
+        inStart = new int[targets.length + 1];
+        inSynapses = new Synapse[numSynapses];
+        inSources = new int[numSynapses];
+        for (k = 0; k < numSynapses; k++) {
+            outStart[src[k] + 1]++;
+            inStart[tar[k] + 1]++;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            outStart[i + 1] += outStart[i];
+        }
+        for (int j = 0; j < targets.length; j++) {
+            inStart[j + 1] += inStart[j];
+        }
+        int[] outFill = outStart.clone();
+        int[] inFill = inStart.clone();
+        for (k = 0; k < numSynapses; k++) {
+            int o = outFill[src[k]]++;
+            outSynapses[o] = all[k];
+            outTargets[o] = tar[k];
+            int i = inFill[tar[k]]++;
+            inSynapses[i] = all[k];
+            inSources[i] = src[k];
+        }
+        sourceTraces = new double[sources.length];
+        targetTraces = new double[targets.length];
+    }
+
+    /**
+     * @param indices the indices given so far
+     * @param neuron a neuron
+     * @return the index of the neuron, which is given the next index if it
+     *         has none yet
+     */
+    private static int index(final Map<Neuron, Integer> indices,
+            final Neuron neuron) {
+        Integer index = indices.get(neuron);
+        if (index == null) {
+            index = indices.size();
+            indices.put(neuron, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param indices neurons and their indices
+     * @return the neurons ordered by index
+     */
+    private static Neuron[] keys(final Map<Neuron, Integer> indices) {
+        Neuron[] neurons = new Neuron[indices.size()];
+        for (Map.Entry<Neuron, Integer> e : indices.entrySet()) {
+            neurons[e.getValue()] = e.getKey();
+        }
+        return neurons;
+    }
+
+    /**
+     * Decays the traces to the given time, applies the rule to the synapses of
+     * the neurons which are spiking and then resets the traces of those
+     * neurons.
+     *
+     * @param rule the rule to apply
+     * @param time the current time of the network
+     */
+    public void update(final STDPRule rule, final double time) {
+        double sTau = rule.getSourceTraceTimeConstant();
+        double tTau = rule.getTargetTraceTimeConstant();
+        if (sTau != sourceTau || tTau != targetTau || !(time >= lastTime)) {
+            sourceTau = sTau;
+            targetTau = tTau;
+            initTraces(sources, sourceTraces, sTau, time);
+            initTraces(targets, targetTraces, tTau, time);
+        } else if (time > lastTime) {
+            decay(sourceTraces, Math.exp((lastTime - time) / sTau));
+            decay(targetTraces, Math.exp((lastTime - time) / tTau));
+        }
+        lastTime = time;
+        for (int j = 0; j < targets.length; j++) {
+            if (!targets[j].isSpike()) {
+                continue;
+            }
+            for (int k = inStart[j], end = inStart[j + 1]; k < end; k++) {
+                int i = inSources[k];
+                if (!sources[i].isSpike() && !inSynapses[k].isFrozen()) {
+                    rule.targetSpiked(inSynapses[k], sourceTraces[i]);
+                }
+            }
+        }
+        for (int i = 0; i < sources.length; i++) {
+            if (!sources[i].isSpike()) {
+                continue;
+            }
+            for (int k = outStart[i], end = outStart[i + 1]; k < end; k++) {
+                int j = outTargets[k];
+                if (!targets[j].isSpike() && !outSynapses[k].isFrozen()) {
+                    rule.sourceSpiked(outSynapses[k], targetTraces[j]);
+                }
+            }
+            sourceTraces[i] = 1;
+        }
+        for (int j = 0; j < targets.length; j++) {
+            if (targets[j].isSpike()) {
+                targetTraces[j] = 1;
+            }
+        }
+    }
+
+    /**
+     * Sets traces from the last spike times of their neurons.
+     *
+     * @param neurons the neurons
+     * @param traces their traces
+     * @param tau the time constant of the traces
+     * @param time the current time
+     */
+    private static void initTraces(final Neuron[] neurons,
+            final double[] traces, final double tau, final double time) {
+        for (int i = 0; i < neurons.length; i++) {
+            if (neurons[i].getUpdateRule() instanceof SpikingNeuronUpdateRule) {
+                double last = ((SpikingNeuronUpdateRule) neurons[i]
+                        .getUpdateRule()).getLastSpikeTime();
+                traces[i] = neurons[i].isSpike() ? 1
+                        : Math.exp((last - time) / tau);
+            } else {
+                traces[i] = 0;
+            }
+        }
+    }
+
+    /**
+     * @param traces traces to decay
+     * @param factor the factor to multiply them by
+     */
+    private static void decay(final double[] traces, final double factor) {
+        for (int i = 0; i < traces.length; i++) {
+            traces[i] *= factor;
+        }
+    }
+
+    /**
+     * @return the number of synapses updated
+     */
+    public int size() {
+        return outSynapses.length;
+    }
+}
@@ -52,7 +52,8 @@ public class SubtractiveNormalizationRule extends SynapseUpdateRule {
     public void update(Synapse synapse) {
         double input = synapse.getSource().getActivation();
         double output = synapse.getTarget().getActivation();
-        double averageInput = synapse.getTarget().getAverageInput();
+        double averageInput = synapse.getTarget().getFanInStatistics()
+                .getAverageActivation();
         double strength = synapse.getStrength()
                 + ((learningRate * output * input) - (learningRate * output * averageInput));
         synapse.setStrength(synapse.clip(strength));
@@ -0,0 +1,350 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.synapse_update_rules;
+
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.SpikingNeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.util.SimbrainConstants.Polarity;
+
+/**
+ * A fixed set of synapses, such as those of a synapse group, laid out for
+ * {@link BatchSynapseUpdateRule}s. The synapses are ordered by target and each
+ * knows the index of its source and target neuron. Before each update the
+ * activations, spikes and last spike times of the neurons are gathered into
+ * arrays, so a rule reads them with one array access per synapse instead of
+ * following the synapse to its neurons and their update rules. The strengths
+ * stay in the synapses, and are written with {@link #setStrength(int,
+ * double)}, which clips them as {@link Synapse#setStrength(double)} does.
+ * <p>
+ * Large batches are split into blocks of whole targets which are updated on
+ * the common fork join pool, so no synapse or target is touched by two
+ * threads. As with {@link SpikeTraceUpdater}, the synapses are indexed when the
+ * batch is made, so a new batch must be made when synapses are added or
+ * removed.
+ */
+public final class SynapseBatch {
+
+    /** The fewest synapses for which a batch is split across threads. */
+    public static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /** The source neurons of the synapses. */
+    private final Neuron[] sources;
+
+    /** The target neurons of the synapses. */
+    private final Neuron[] targets;
+
+    /** The synapses ordered by target. */
+    private final Synapse[] synapses;
+
+    /** The source index of each synapse. */
+    private final int[] sourceIndices;
+
+    /** The target index of each synapse. */
+    private final int[] targetIndices;
+
+    /**
+     * Where each block of synapses updated together starts, ending with the
+     * number of synapses. Blocks start at the first synapse of a target.
+     */
+    private final int[] blockStarts;
+
+    /** The activation of each source neuron. */
+    private final double[] sourceActivations;
+
+    /** The activation of each target neuron. */
+    private final double[] targetActivations;
+
+    /** Whether each source neuron is spiking. */
+    private final boolean[] sourceSpikes;
+
+    /** Whether each target neuron is spiking. */
+    private final boolean[] targetSpikes;
+
+    /**
+     * The last spike time of each source neuron, or NaN if its update rule is
+     * not a spiking rule.
+     */
+    private final double[] sourceSpikeTimes;
+
+    /** As {@link #sourceSpikeTimes}, for the target neurons. */
+    private final double[] targetSpikeTimes;
+
+    /** The lowest strength the polarity of each source allows. */
+    private final double[] minStrengths;
+
+    /** The highest strength the polarity of each source allows. */
+    private final double[] maxStrengths;
+
+    /**
+     * Indexes a set of synapses by target.
+     *
+     * @param synapses the synapses to update
+     */
+    public SynapseBatch(final Collection<Synapse> synapses) {
+        Map<Neuron, Integer> sourceIndex = new IdentityHashMap<Neuron, Integer>();
+        Map<Neuron, Integer> targetIndex = new IdentityHashMap<Neuron, Integer>();
+        int numSynapses = synapses.size();
+        int[] src = new int[numSynapses];
+        int[] tar = new int[numSynapses];
+        Synapse[] all = new Synapse[numSynapses];
+        int k = 0;
+        for (Synapse s : synapses) {
+            src[k] = index(sourceIndex, s.getSource());
+            tar[k] = index(targetIndex, s.getTarget());
+            all[k++] = s;
+        }
+        sources = keys(sourceIndex);
+        targets = keys(targetIndex);
+        int[] targetStarts = new int[targets.length + 1];
+        for (k = 0; k < numSynapses; k++) {
+            targetStarts[tar[k] + 1]++;
+        }
+        for (int j = 0; j < targets.length; j++) {
+            targetStarts[j + 1] += targetStarts[j];
+        }
+        int[] fill = targetStarts.clone();
+        this.synapses = new Synapse[numSynapses];
+        sourceIndices = new int[numSynapses];
+        targetIndices = new int[numSynapses];
+        for (k = 0; k < numSynapses; k++) {
+            int i = fill[tar[k]]++;
+            this.synapses[i] = all[k];
+            sourceIndices[i] = src[k];
+            targetIndices[i] = tar[k];
+        }
+        blockStarts = blocks(targetStarts, numSynapses);
+        sourceActivations = new double[sources.length];
+        targetActivations = new double[targets.length];
+        sourceSpikes = new boolean[sources.length];
+        targetSpikes = new boolean[targets.length];
+        sourceSpikeTimes = new double[sources.length];
+        targetSpikeTimes = new double[targets.length];
+        minStrengths = new double[sources.length];
+        maxStrengths = new double[sources.length];
+    }
+
+    /**
+     * @param indices the indices given so far
+     * @param neuron a neuron
+     * @return the index of the neuron, which is given the next index if it
+     *         has none yet
+     */
+    private static int index(final Map<Neuron, Integer> indices,
+            final Neuron neuron) {
+        Integer index = indices.get(neuron);
+        if (index == null) {
+            index = indices.size();
+            indices.put(neuron, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param indices neurons and their indices
+     * @return the neurons ordered by index
+     */
+    private static Neuron[] keys(final Map<Neuron, Integer> indices) {
+        Neuron[] neurons = new Neuron[indices.size()];
+        for (Map.Entry<Neuron, Integer> e : indices.entrySet()) {
+            neurons[e.getValue()] = e.getKey();
+        }
+        return neurons;
+    }
+
+    /**
+     * Splits the synapses into blocks of about equal size, each starting at
+     * the first synapse of a target.
+     *
+     * @param targetStarts where the synapses of each target start, ending
+     *            with the number of synapses
+     * @param numSynapses the number of synapses
+     * @return where each block starts, ending with the number of synapses
+     */
+    private static int[] blocks(final int[] targetStarts,
+            final int numSynapses) {
+        if (numSynapses < PARALLEL_THRESHOLD) {
+            return new int[] { 0, numSynapses };
+        }
+        int numBlocks = 4 * ForkJoinPool.getCommonPoolParallelism();
+        int[] starts = new int[numBlocks + 1];
+        int count = 1;
+        int j = 0;
+        for (int b = 1; b < numBlocks; b++) {
+            long goal = (long) numSynapses * b / numBlocks;
+            while (targetStarts[j] < goal) {
+                j++;
+            }
+            if (targetStarts[j] > starts[count - 1]
+                    && targetStarts[j] < numSynapses) {
+                starts[count++] = targetStarts[j];
+            }
+        }
+        starts[count++] = numSynapses;
+        int[] trimmed = new int[count];
+        System.arraycopy(starts, 0, trimmed, 0, count);
+        return trimmed;
+    }
+
+    /**
+     * Gathers the state of the neurons and applies a rule to every synapse,
+     * splitting the work across threads for large batches if the rule allows.
+     *
+     * @param rule the rule to apply
+     */
+    public void update(final BatchSynapseUpdateRule rule) {
+        gather(sources, sourceActivations, sourceSpikes, sourceSpikeTimes);
+        gather(targets, targetActivations, targetSpikes, targetSpikeTimes);
+        for (int i = 0; i < sources.length; i++) {
+            Polarity polarity = sources[i].getPolarity();
+            minStrengths[i] = polarity == Polarity.EXCITATORY ? 0
+                    : Double.NEGATIVE_INFINITY;
+            maxStrengths[i] = polarity == Polarity.INHIBITORY ? 0
+                    : Double.POSITIVE_INFINITY;
+        }
+        int numBlocks = blockStarts.length - 1;
+        if (numBlocks > 1 && rule.isThreadSafe()) {
+            IntStream.range(0, numBlocks).parallel().forEach(
+                    b -> rule.updateBatch(this, blockStarts[b],
+                            blockStarts[b + 1]));
+        } else {
+            rule.updateBatch(this, 0, synapses.length);
+        }
+    }
+
+    /**
+     * Copies the state of some neurons into arrays.
+     *
+     * @param neurons the neurons
+     * @param activations their activations
+     * @param spikes whether they are spiking
+     * @param spikeTimes their last spike times, NaN for non-spiking neurons
+     */
+    private static void gather(final Neuron[] neurons,
+            final double[] activations, final boolean[] spikes,
+            final double[] spikeTimes) {
+        for (int i = 0; i < neurons.length; i++) {
+            Neuron n = neurons[i];
+            activations[i] = n.getActivation();
+            spikes[i] = n.isSpike();
+            if (n.getUpdateRule() instanceof SpikingNeuronUpdateRule) {
+                spikeTimes[i] = ((SpikingNeuronUpdateRule) n.getUpdateRule())
+                        .getLastSpikeTime();
+            } else {
+                spikeTimes[i] = Double.NaN;
+            }
+        }
+    }
+
+    /**
+     * Sets the strength of a synapse of the batch, clipping it to the
+     * polarity of its source and then to its own bounds.
+     *
+     * @param k the index of the synapse
+     * @param strength the new strength
+     */
+    public void setStrength(final int k, final double strength) {
+        int i = sourceIndices[k];
+        double wt = strength;
+        if (wt < minStrengths[i]) {
+            wt = minStrengths[i];
+        } else if (wt > maxStrengths[i]) {
+            wt = maxStrengths[i];
+        }
+        synapses[k].forceSetStrength(synapses[k].clip(wt));
+    }
+
+    /**
+     * @return the synapses, ordered by target
+     */
+    public Synapse[] getSynapses() {
+        return synapses;
+    }
+
+    /**
+     * @return the index of the source of each synapse
+     */
+    public int[] getSourceIndices() {
+        return sourceIndices;
+    }
+
+    /**
+     * @return the index of the target of each synapse
+     */
+    public int[] getTargetIndices() {
+        return targetIndices;
+    }
+
+    /**
+     * @return the activations of the sources, by source index
+     */
+    public double[] getSourceActivations() {
+        return sourceActivations;
+    }
+
+    /**
+     * @return the activations of the targets, by target index
+     */
+    public double[] getTargetActivations() {
+        return targetActivations;
+    }
+
+    /**
+     * @return whether each source is spiking, by source index
+     */
+    public boolean[] getSourceSpikes() {
+        return sourceSpikes;
+    }
+
+    /**
+     * @return whether each target is spiking, by target index
+     */
+    public boolean[] getTargetSpikes() {
+        return targetSpikes;
+    }
+
+    /**
+     * @return the last spike times of the sources, NaN for sources without a
+     *         spiking update rule
+     */
+    public double[] getSourceSpikeTimes() {
+        return sourceSpikeTimes;
+    }
+
+    /**
+     * @return the last spike times of the targets, NaN for targets without a
+     *         spiking update rule
+     */
+    public double[] getTargetSpikeTimes() {
+        return targetSpikeTimes;
+    }
+
+    /**
+     * @return the number of synapses in the batch
+     */
+    public int size() {
+        return synapses.length;
+    }
+}
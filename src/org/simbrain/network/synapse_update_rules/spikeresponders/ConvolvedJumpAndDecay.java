@@ -7,7 +7,8 @@ import org.simbrain.network.core.Synapse;
  * @author Zach Tosi
  *
  */
-public class ConvolvedJumpAndDecay extends SpikeResponder {
+public class ConvolvedJumpAndDecay extends SpikeResponder
+        implements ExponentialResponder {
 
     /** Jump height value. */
     private double jumpHeight = 1;
@@ -34,25 +35,24 @@ public class ConvolvedJumpAndDecay extends SpikeResponder {
      * {@inheritDoc}
      */
     public void update(final Synapse s) {
-        value = s.getPsr();
-        if (s.getSource().isSpike()) {
-            value += jumpHeight * s.getStrength();
-        } else {
-            double timeStep = s.getParentNetwork().getTimeStep();
-            value += timeStep * (baseLine - value) / timeConstant;
-        }
-        s.setPsr(value);
+        update(s, jumpHeight * s.getStrength());
     }
 
+    /**
+     * Update the synapse, adding a given jump to its response if its source
+     * spiked.
+     *
+     * @param s the synapse being updated
+     * @param jump the amount to add to the response on a spike
+     */
     public void update(final Synapse s, double jump) {
-        value = s.getPsr();
+        double psr = s.getPsr();
         if (s.getSource().isSpike()) {
-            value += jump;
+            s.setPsr(psr + jump);
         } else {
             double timeStep = s.getParentNetwork().getTimeStep();
-            value += timeStep * (baseLine - value) / timeConstant;
+            s.setPsr(psr + timeStep * (baseLine - psr) / timeConstant);
         }
-        s.setPsr(value);
     }
 
     /**
@@ -0,0 +1,48 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.synapse_update_rules.spikeresponders;
+
+/**
+ * <b>ExponentialResponder</b> is for spike responders whose response jumps by
+ * a multiple of the synapse strength when the source neuron spikes and
+ * otherwise decays exponentially towards a baseline. Since the response is
+ * linear in the spikes, the responses of all such synapses onto a neuron
+ * which share a time constant and baseline can be summed into one decaying
+ * value, which is what event-driven spike propagation does (see
+ * {@link org.simbrain.network.core.Network#setEventDrivenSpikes(boolean)}).
+ */
+public interface ExponentialResponder {
+
+    /**
+     * @return the amount the response jumps by per unit of synapse strength
+     *         when the source neuron spikes
+     */
+    double getJumpHeight();
+
+    /**
+     * @return the time constant of the exponential decay of the response
+     */
+    double getTimeConstant();
+
+    /**
+     * @return the value the response decays towards
+     */
+    double getBaseLine();
+
+}
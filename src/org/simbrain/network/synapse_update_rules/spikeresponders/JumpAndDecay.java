@@ -23,7 +23,8 @@ import org.simbrain.network.core.Synapse;
 /**
  * <b>JumpAndDecay</b>.
  */
-public class JumpAndDecay extends SpikeResponder {
+public class JumpAndDecay extends SpikeResponder
+        implements ExponentialResponder {
 
     /** Jump height value. */
     private double jumpHeight = 1;
@@ -50,14 +51,13 @@ public class JumpAndDecay extends SpikeResponder {
      * {@inheritDoc}
      */
     public void update(final Synapse s) {
-        value = s.getPsr();
         if (s.getSource().isSpike()) {
-            value = jumpHeight * s.getStrength();
+            s.setPsr(jumpHeight * s.getStrength());
         } else {
+            double psr = s.getPsr();
             double timeStep = s.getParentNetwork().getTimeStep();
-            value += timeStep * (baseLine - value) / timeConstant;
+            s.setPsr(psr + timeStep * (baseLine - psr) / timeConstant);
         }
-        s.setPsr(value);
     }
 
     /**
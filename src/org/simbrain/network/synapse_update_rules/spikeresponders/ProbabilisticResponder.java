@@ -19,6 +19,7 @@
 package org.simbrain.network.synapse_update_rules.spikeresponders;
 
 import org.simbrain.network.core.Synapse;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * <b>Probabilistic</b> spike responders produces a response with some
@@ -51,16 +52,12 @@ public class ProbabilisticResponder extends SpikeResponder {
      * {@inheritDoc}
      */
     public void update(Synapse s) {
-        if (s.getSource().isSpike()) {
-            if (Math.random() > (1 - activationProbability)) {
-                value = responseValue * s.getStrength();
-            } else {
-                value = 0;
-            }
+        if (s.getSource().isSpike() && RandomStreams.current()
+                .nextDouble() > (1 - activationProbability)) {
+            s.setPsr(responseValue * s.getStrength());
         } else {
-            value = 0; // In case it did not spike at all;
+            s.setPsr(0); // In case it did not spike at all;
         }
-        s.setPsr(value);
     }
 
     /**
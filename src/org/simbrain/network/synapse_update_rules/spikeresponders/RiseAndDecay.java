@@ -31,8 +31,11 @@ public class RiseAndDecay extends SpikeResponder {
     /** The time constant of decay and recovery (ms). */
     private double timeConstant = 3;
 
-    /** Recovery value. */
-    private double recovery;
+    /** Position of the recovery value in a synapse's responder state. */
+    private static final int RECOVERY = 0;
+
+    /** Position of the unscaled response in a synapse's responder state. */
+    private static final int RESPONSE = 1;
 
     /**
      * {@inheritDoc}
@@ -49,17 +52,30 @@ public class RiseAndDecay extends SpikeResponder {
      * {@inheritDoc}
      */
     public void update(Synapse s) {
+        double[] state = s.getResponderState();
         double timeStep = s.getParentNetwork().getTimeStep();
+        double recovery = state[RECOVERY];
+        double response = state[RESPONSE];
         if (s.getSource().isSpike()) {
             recovery = 1;
         }
 
         recovery += ((timeStep / timeConstant) * (-recovery));
-        value += ((timeStep / timeConstant) * ((Math.E * maximumResponse
-                * recovery * (1 - value)) - value));
+        response += ((timeStep / timeConstant) * ((Math.E * maximumResponse
+                * recovery * (1 - response)) - response));
+
+        state[RECOVERY] = recovery;
+        state[RESPONSE] = response;
+        s.setPsr(response * s.getStrength());
 
-        s.setPsr(value * s.getStrength());
+    }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getStateSize() {
+        return 2;
     }
 
     /**
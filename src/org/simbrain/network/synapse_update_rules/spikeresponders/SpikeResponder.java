@@ -25,11 +25,24 @@ import java.util.List;
 import org.simbrain.network.core.Synapse;
 
 /**
- * <b>SpikeResponder</b>.
+ * <b>SpikeResponder</b> turns the spikes of a synapse's source neuron into a
+ * post-synaptic response. A responder holds only parameters, so one instance
+ * can be shared by many synapses and updated from several threads at once.
+ * Everything which changes as the network runs is kept by the synapse: the
+ * response itself in {@link Synapse#getPsr()} and, for responders which need
+ * more, the values in {@link Synapse#getResponderState()}. A responder which
+ * is in use should not have its parameters changed; give the synapses a
+ * modified copy instead.
  */
 public abstract class SpikeResponder {
 
-    /** Value. */
+    /**
+     * Value.
+     *
+     * @deprecated responders no longer store their response, which is kept
+     *             by each synapse; see {@link Synapse#getPsr()}
+     */
+    @Deprecated
     protected double value;
 
     /**
@@ -38,13 +51,24 @@ public abstract class SpikeResponder {
     public abstract SpikeResponder deepCopy();
 
     /**
-     * Update the synapse.
+     * Update the synapse's post-synaptic response. Implementations must not
+     * modify the responder itself, since it may be shared by synapses which
+     * are being updated on other threads.
      *
      * @param s
      *            the synapse being updated
      */
     public abstract void update(final Synapse s);
 
+    /**
+     * @return the number of values of state this responder keeps for each
+     *         synapse in {@link Synapse#getResponderState()}, in addition to
+     *         the post-synaptic response
+     */
+    public int getStateSize() {
+        return 0;
+    }
+
     /**
      * @return the name of the spike responder
      */
@@ -81,7 +105,9 @@ public abstract class SpikeResponder {
 
     /**
      * @return Returns the value.
+     * @deprecated see {@link #value}
      */
+    @Deprecated
     public double getValue() {
         return value;
     }
@@ -89,7 +115,9 @@ public abstract class SpikeResponder {
     /**
      * @param value
      *            The value to set.
+     * @deprecated see {@link #value}
      */
+    @Deprecated
     public void setValue(final double value) {
         this.value = value;
     }
@@ -25,8 +25,8 @@ import org.simbrain.network.core.Synapse;
  */
 public class Step extends SpikeResponder {
 
-    /** Timer. */
-    private double timer;
+    /** Position of the timer in a synapse's responder state. */
+    private static final int TIMER = 0;
 
     /**
      * Response height: The value by which the strength of the synapse is scaled
@@ -41,9 +41,12 @@ public class Step extends SpikeResponder {
      * {@inheritDoc}
      */
     public void update(Synapse s) {
+        double[] state = s.getResponderState();
+        double timer = state[TIMER];
+        double response = s.getPsr();
         if (s.getSource().isSpike()) {
             timer = responseDuration;
-            value = responseHeight * s.getStrength();
+            response = responseHeight * s.getStrength();
         } else {
             timer -= s.getNetwork().getTimeStep();
             if (timer < 0) {
@@ -52,13 +55,22 @@ public class Step extends SpikeResponder {
         }
 
         if (timer <= 0) {
-            value = 0;
+            response = 0;
         }
 
-        s.setPsr(value);
+        state[TIMER] = timer;
+        s.setPsr(response);
 
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getStateSize() {
+        return 1;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -31,38 +31,38 @@ import org.simbrain.util.randomizer.Randomizer;
  * @author Zach Tosi
  *
  */
-public class UDF extends JumpAndDecay {
+public class UDF extends SpikeResponder {
 
-    /** Use constant. */
-    private double U;
+    /** Position of the flag set once a synapse's state is initialized. */
+    private static final int INITIALIZED = 0;
 
-    /** Depression constant. */
-    private double D;
+    /** Position of the use constant in a synapse's responder state. */
+    private static final int USE = 1;
 
-    /** Facilitation constant. */
-    private double F;
+    /** Position of the depression constant. */
+    private static final int DEPRESSION = 2;
 
-    /**
-     * The time of the last spike (recorded here since
-     * SpikingNeuronUpdateRule writes over its own copy).
-     */
-    private double lastSpikeTime;
+    /** Position of the facilitation constant. */
+    private static final int FACILITATION = 3;
+
+    /** Position of the time of the last spike. */
+    private static final int LAST_SPIKE_TIME = 4;
 
-    /** Use/Facilitation variable */
-    private double u = 0.0;
+    /** Position of the use/facilitation variable. */
+    private static final int USE_VARIABLE = 5;
 
-    /** Depression variable. */
-    private double R = 1.0;
+    /** Position of the depression variable. */
+    private static final int DEPRESSION_VARIABLE = 6;
 
-    /** The actual spike responder for the post synaptic response for UDF. */
-    private final ConvolvedJumpAndDecay spikeDecay =
-            new ConvolvedJumpAndDecay();
+    /** Position of the time constant of the decay of the response. */
+    private static final int DECAY_TIME_CONSTANT = 7;
 
     /**
-     * Whether or not this is the first time this is being updated. If so it
-     * initializes the variables.
+     * The time constant for the decay of the post synaptic response, or 0 to
+     * use a time constant based on the polarities of the source and target
+     * neurons.
      */
-    private boolean firstTime = true;
+    private double psrDecayTimeConstant;
 
     /**
      * Default constructor.
@@ -71,63 +71,80 @@ public class UDF extends JumpAndDecay {
     }
 
     /**
-     * Does not actually copy this UDF object. Since UDF has values always
-     * drawn from a distribution, it simply gives a new UDF object which
-     * proceeds to draw its parameters from the same distributions.
+     * Copies the parameters of this UDF object. The values which UDF draws
+     * from distributions are drawn separately for each synapse.
      */
     @Override
     public UDF deepCopy() {
-        return new UDF();
+        UDF udf = new UDF();
+        udf.setPSRDecayTimeConstant(psrDecayTimeConstant);
+        return udf;
     }
 
     @Override
     public void update(Synapse s) {
-        if (firstTime) {
+        double[] state = s.getResponderState();
+        if (state[INITIALIZED] == 0) {
             init(s);
-            firstTime = false;
         }
-        final double A;
+        double psr = s.getPsr();
         if (s.getSource().isSpike()) {
-        	final double ISI = lastSpikeTime - s.getNetwork().getTime();
-            u = U + (u * (1 - U) * Math.exp(ISI / F));
-            R = 1 + ((R - (u * R) - 1) * Math.exp(ISI / D));
-            A = R * s.getStrength() * u;
-            lastSpikeTime = s.getNetwork().getTime();
-            spikeDecay.update(s, A);
+            final double U = state[USE];
+            final double ISI = state[LAST_SPIKE_TIME] - s.getNetwork().getTime();
+            double u = state[USE_VARIABLE];
+            double R = state[DEPRESSION_VARIABLE];
+            u = U + (u * (1 - U) * Math.exp(ISI / state[FACILITATION]));
+            R = 1 + ((R - (u * R) - 1) * Math.exp(ISI / state[DEPRESSION]));
+            state[USE_VARIABLE] = u;
+            state[DEPRESSION_VARIABLE] = R;
+            state[LAST_SPIKE_TIME] = s.getNetwork().getTime();
+            s.setPsr(psr + R * s.getStrength() * u);
         } else {
-            spikeDecay.update(s);
+            double timeStep = s.getParentNetwork().getTimeStep();
+            s.setPsr(psr - timeStep * psr / state[DECAY_TIME_CONSTANT]);
         }
     }
 
-//    @Override
-//    public String getDescription() {
-//        return "Use, Depression, Facilitation (UDF) Short-term Plasticity";
-//    }
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getStateSize() {
+        return 8;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Use, Depression, Facilitation (UDF) Short-term Plasticity";
+    }
 
     /**
-     * Sets the time constant for the decay of the PSR which is always
-     * governed by a ConvolvedJumpAndDecay spike responder.
-     * @param timeConstant the time constant for PSR decay
+     * Sets the time constant for the decay of the PSR, which otherwise
+     * depends on the polarities of the source and target neurons.
+     * @param timeConstant the time constant for PSR decay, or 0 to base it
+     * on polarity
      */
     public void setPSRDecayTimeConstant(double timeConstant) {
-        spikeDecay.setTimeConstant(timeConstant);
+        this.psrDecayTimeConstant = timeConstant;
     }
 
     /**
-     * @return the decay time constant for the PSR.
+     * @return the decay time constant for the PSR, or 0 if it is based on
+     * polarity.
      */
     public double getPSRDecayTimeConstant() {
-        return spikeDecay.getTimeConstant();
+        return psrDecayTimeConstant;
     }
 
     /**
-     * Initializes this UDF object based on the synapse it governs. UDF draws
+     * Initializes the state this UDF object keeps for a synapse. UDF draws
      * its values from different distributions based on the polarity of the
      * source and target neurons.
      * @param s the synapse which is used to determine what polarities of
      * neurons the synapse connects and draw values based on that.
      */
     public void init(Synapse s) {
+        double[] state = s.getResponderState();
         Randomizer rand = new Randomizer();
         rand.setPdf(ProbDistribution.NORMAL);
         rand.setClipping(true);
@@ -138,66 +155,72 @@ public class UDF extends JumpAndDecay {
         {
             rand.setParam1(0.5);
             rand.setParam2(0.25);
-            U = rand.getRandom();
+            state[USE] = rand.getRandom();
             rand.setParam1(1100);
             rand.setParam2(550);
-            D = rand.getRandom();
+            state[DEPRESSION] = rand.getRandom();
             rand.setParam1(50);
             rand.setParam2(25);
-            F = rand.getRandom();
-            spikeDecay.setTimeConstant(3);
+            state[FACILITATION] = rand.getRandom();
+            state[DECAY_TIME_CONSTANT] = 3;
         } else if (s.getSource().getPolarity() == Polarity.EXCITATORY
                 && s.getTarget().getPolarity() == Polarity.INHIBITORY)
         {
             rand.setParam1(0.05);
             rand.setParam2(0.025);
-            U = rand.getRandom();
+            state[USE] = rand.getRandom();
             rand.setParam1(125);
             rand.setParam2(62.5);
-            D = rand.getRandom();
+            state[DEPRESSION] = rand.getRandom();
             rand.setParam1(120);
             rand.setParam2(60);
-            F = rand.getRandom();
-            spikeDecay.setTimeConstant(3);
+            state[FACILITATION] = rand.getRandom();
+            state[DECAY_TIME_CONSTANT] = 3;
         } else if (s.getSource().getPolarity() == Polarity.INHIBITORY
                 && s.getTarget().getPolarity() == Polarity.EXCITATORY)
         {
             rand.setParam1(0.25);
             rand.setParam2(0.125);
-            U = rand.getRandom();
+            state[USE] = rand.getRandom();
             rand.setParam1(700);
             rand.setParam2(350);
-            D = rand.getRandom();
+            state[DEPRESSION] = rand.getRandom();
             rand.setParam1(20);
             rand.setParam2(10);
-            F = rand.getRandom();
-            spikeDecay.setTimeConstant(6);
+            state[FACILITATION] = rand.getRandom();
+            state[DECAY_TIME_CONSTANT] = 6;
         } else if (s.getSource().getPolarity() == Polarity.INHIBITORY
                 && s.getTarget().getPolarity() == Polarity.INHIBITORY)
         {
             rand.setParam1(0.32);
             rand.setParam2(0.16);
-            U = rand.getRandom();
+            state[USE] = rand.getRandom();
             rand.setParam1(144);
             rand.setParam2(72);
-            D = rand.getRandom();
+            state[DEPRESSION] = rand.getRandom();
             rand.setParam1(60);
             rand.setParam2(30);
-            F = rand.getRandom();
-            spikeDecay.setTimeConstant(6);
+            state[FACILITATION] = rand.getRandom();
+            state[DECAY_TIME_CONSTANT] = 6;
         } else {
             rand.setParam1(0.5);
             rand.setParam2(0.25);
-            U = rand.getRandom();
+            state[USE] = rand.getRandom();
             rand.setParam1(1100);
             rand.setParam2(550);
-            D = rand.getRandom();
+            state[DEPRESSION] = rand.getRandom();
             rand.setParam1(50);
             rand.setParam2(25);
-            F = rand.getRandom();
-            spikeDecay.setTimeConstant(3);
+            state[FACILITATION] = rand.getRandom();
+            state[DECAY_TIME_CONSTANT] = 3;
+        }
+        if (psrDecayTimeConstant > 0) {
+            state[DECAY_TIME_CONSTANT] = psrDecayTimeConstant;
         }
-        u = U;
+        state[USE_VARIABLE] = state[USE];
+        state[DEPRESSION_VARIABLE] = 1;
+        state[LAST_SPIKE_TIME] = 0;
+        state[INITIALIZED] = 1;
     }
 
 }
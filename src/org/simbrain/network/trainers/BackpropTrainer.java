@@ -27,11 +27,20 @@ import org.simbrain.network.core.Synapse;
 import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
 import org.simbrain.network.neuron_update_rules.interfaces.DifferentiableUpdateRule;
 import org.simbrain.network.subnetworks.BackpropNetwork;
+import org.simbrain.util.math.RandomStreams;
 
 /**
  * Backprop trainer. An implementation of the backpropagation learning
  * algorithm.
  *
+ * By default the network is trained one row at a time, neuron by neuron. With
+ * {@link #setUseMatrices(boolean)} the layers are instead copied into dense
+ * weight matrices (see {@link MatrixBackprop}) and trained in mini-batches of
+ * {@link #getBatchSize()} rows, which is much faster on large training sets.
+ * In that mode the weights are written back to the synapses at the end of
+ * each epoch, or only when {@link #commitMatrices()} is called if
+ * {@link #setCommitEachEpoch(boolean)} is turned off.
+ *
  * @author jyoshimi
  */
 public class BackpropTrainer extends IterableTrainer {
@@ -63,6 +72,24 @@ public class BackpropTrainer extends IterableTrainer {
     /** Internal representation of network. */
     private List<List<Neuron>> layers;
 
+    /** Whether to train with weight matrices and mini-batches. */
+    private boolean useMatrices;
+
+    /** Number of rows per mini-batch when training with matrices. */
+    private int batchSize = 1;
+
+    /**
+     * Whether to write the weight matrices back to the network after every
+     * epoch.
+     */
+    private boolean commitEachEpoch = true;
+
+    /**
+     * Matrix form of the network, or null if it has not been built or is out
+     * of date. Kept between epochs so that momentum carries over.
+     */
+    private MatrixBackprop matrices;
+
     /**
      * Construct the backprop trainer.
      *
@@ -113,6 +140,10 @@ public class BackpropTrainer extends IterableTrainer {
         }
 
         network.initNetwork();
+        if (useMatrices) {
+            applyMatrices(numRows);
+            return;
+        }
         for (int row = 0; row < numRows; row++) {
 
             // Set activations on input layer
@@ -154,6 +185,45 @@ public class BackpropTrainer extends IterableTrainer {
         fireErrorUpdated();
     }
 
+    /**
+     * One pass through the training data using the matrix form of the
+     * network.
+     *
+     * @param numRows the number of rows to train on
+     */
+    private void applyMatrices(int numRows) {
+        if (matrices == null) {
+            matrices = new MatrixBackprop(layers, network.getInputNeurons(),
+                    network.getOutputNeurons());
+        } else if (commitEachEpoch && !matrices.readNetwork()) {
+            // The connections have changed since the last epoch
+            matrices = new MatrixBackprop(layers, network.getInputNeurons(),
+                    network.getOutputNeurons());
+        }
+        mse = matrices.trainEpoch(network.getTrainingSet().getInputData(),
+                network.getTrainingSet().getTargetData(), numRows, batchSize,
+                learningRate, momentum);
+        if (commitEachEpoch) {
+            commitMatrices();
+        }
+        mse = mse / (numRows * network.getOutputNeurons().size());
+        incrementIteration();
+        fireErrorUpdated();
+    }
+
+    /**
+     * Write the weights and biases held in the matrix form of the network
+     * back to its synapses and neurons. Only needed when the weights are not
+     * committed after each epoch; does nothing if matrices are not in use.
+     */
+    public void commitMatrices() {
+        if (matrices == null) {
+            return;
+        }
+        matrices.writeBack();
+        revalidateSynapseGroups();
+    }
+
     /**
      * Compute error contribution for all nodes using backprop algorithm.
      *
@@ -245,6 +315,7 @@ public class BackpropTrainer extends IterableTrainer {
      * Randomize the network.
      */
     public void randomize() {
+        matrices = null;
         for (List<Neuron> layer : layers) {
             // Don't update input layer
             if (layers.indexOf(layer) > 0) {
@@ -265,10 +336,11 @@ public class BackpropTrainer extends IterableTrainer {
             // Randomize uniformly in -.05,.05.
             // TODO: Make this settable and use randomizer framework.
             for (Synapse synapse : neuron.getFanIn()) {
-                synapse.setStrength(.1 * Math.random() - .05);
+                synapse.setStrength(.1 * RandomStreams.current().nextDouble()
+                        - .05);
             }
-            ((BiasedUpdateRule) neuron.getUpdateRule()).setBias(.1 * Math
-                    .random() - .05);
+            ((BiasedUpdateRule) neuron.getUpdateRule()).setBias(.1
+                    * RandomStreams.current().nextDouble() - .05);
         }
         revalidateSynapseGroups();
     }
@@ -431,4 +503,69 @@ public class BackpropTrainer extends IterableTrainer {
         this.momentum = momentum;
     }
 
+    /**
+     * @return whether the network is trained with weight matrices
+     */
+    public boolean isUseMatrices() {
+        return useMatrices;
+    }
+
+    /**
+     * Sets whether to train with weight matrices and mini-batches. Only
+     * layered networks of linear and discrete sigmoidal neurons can be
+     * trained this way. Turning matrices off writes any uncommitted weights
+     * back to the network.
+     *
+     * @param useMatrices
+     *            whether to use matrices
+     */
+    public void setUseMatrices(boolean useMatrices) {
+        if (!useMatrices) {
+            commitMatrices();
+            matrices = null;
+        }
+        this.useMatrices = useMatrices;
+    }
+
+    /**
+     * @return the number of rows per mini-batch when training with matrices
+     */
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * @param batchSize
+     *            the number of rows per mini-batch when training with
+     *            matrices; 1 gives the same online updates as the default
+     *            trainer
+     * @throws IllegalArgumentException if batchSize is less than 1
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least"
+                    + " 1.");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @return whether weight matrices are written back after every epoch
+     */
+    public boolean isCommitEachEpoch() {
+        return commitEachEpoch;
+    }
+
+    /**
+     * Sets whether weight matrices are written back after every epoch. If
+     * not, the network is only updated by {@link #commitMatrices()}, and
+     * changes made to its weights in the meantime are overwritten.
+     *
+     * @param commitEachEpoch
+     *            whether to commit after every epoch
+     */
+    public void setCommitEachEpoch(boolean commitEachEpoch) {
+        this.commitEachEpoch = commitEachEpoch;
+    }
+
 }
@@ -0,0 +1,634 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.NeuronUpdateRule.InputType;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.neuron_update_rules.LinearRule;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.neuron_update_rules.interfaces.BiasedUpdateRule;
+import org.simbrain.network.neuron_update_rules.interfaces.DifferentiableUpdateRule;
+import org.simbrain.util.SimbrainConstants.Polarity;
+import org.simbrain.util.math.SquashingFunction;
+
+/**
+ * Dense matrix form of a layered feed-forward network, used by
+ * {@link BackpropTrainer} to train with whole mini-batches at a time. The
+ * weights of the synapses from each layer to the next are copied into a
+ * row-major matrix (one row per target neuron, zero where there is no
+ * synapse) and the biases into a vector; forward and backward passes are
+ * then loops over flat arrays, with no per-synapse lookups and no boxing.
+ * Nothing is allocated per batch once the buffers have grown to the batch
+ * size.
+ *
+ * The algorithm is that of {@link BackpropTrainer}: the same error signals,
+ * momentum on weights only, and the same clipping of weights to their bounds
+ * and their source neuron's polarity. With a batch size of one the results
+ * match the neuron-by-neuron trainer up to rounding. Weights and biases are
+ * written back to the network by {@link #writeBack()}.
+ *
+ * Only layers of discrete sigmoidal and linear neurons without noise,
+ * clamping or delays, each connected only from the layer before it, can be
+ * put in matrix form.
+ */
+final class MatrixBackprop {
+
+    /** The layers, the input layer first. */
+    private final Layer[] layers;
+
+    /**
+     * For each neuron of the input layer, its column in the input data, or
+     * -1 if it is not an input neuron.
+     */
+    private final int[] inputColumn;
+
+    /**
+     * For each neuron of the output layer, its column in the target data, or
+     * -1 if it is not an output neuron.
+     */
+    private final int[] targetColumn;
+
+    /** The number of rows the batch buffers can hold. */
+    private int capacity;
+
+    /**
+     * Put a network in matrix form, reading its current weights and biases.
+     *
+     * @param neuronLayers the layers, the input layer first
+     * @param inputs the input neurons, in the order of the input data
+     * @param outputs the output neurons, in the order of the target data
+     * @throws IllegalStateException if the network cannot be put in matrix
+     *             form
+     */
+    MatrixBackprop(final List<List<Neuron>> neuronLayers,
+            final List<Neuron> inputs, final List<Neuron> outputs) {
+        if (neuronLayers.size() < 2) {
+            throw new IllegalStateException("At least two layers are"
+                    + " required.");
+        }
+        layers = new Layer[neuronLayers.size()];
+        for (int l = 0; l < layers.length; l++) {
+            layers[l] = new Layer(neuronLayers.get(l), l == 0 ? null
+                    : layers[l - 1]);
+        }
+        inputColumn = columns(layers[0].neurons, inputs);
+        targetColumn = columns(layers[layers.length - 1].neurons, outputs);
+    }
+
+    /**
+     * @param neurons the neurons of a layer
+     * @param columns the neurons in data column order
+     * @return the data column of each neuron of the layer, or -1
+     */
+    private static int[] columns(final Neuron[] neurons,
+            final List<Neuron> columns) {
+        Map<Neuron, Integer> index = new IdentityHashMap<Neuron, Integer>();
+        for (int i = 0; i < columns.size(); i++) {
+            index.put(columns.get(i), i);
+        }
+        int[] result = new int[neurons.length];
+        for (int i = 0; i < neurons.length; i++) {
+            Integer column = index.get(neurons[i]);
+            result[i] = column == null ? -1 : column;
+        }
+        return result;
+    }
+
+    /**
+     * Read the weights and biases from the network again, for instance
+     * after they have been edited. Momentum is kept.
+     *
+     * @return false if the connections between the layers have changed, in
+     *         which case the matrices are out of date and must be rebuilt
+     */
+    boolean readNetwork() {
+        for (int l = 1; l < layers.length; l++) {
+            if (!layers[l].read()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Write the weights and biases to the network, and set the activations
+     * of the neurons to those of the last row trained on.
+     */
+    void writeBack() {
+        for (Layer layer : layers) {
+            layer.write();
+        }
+    }
+
+    /**
+     * Train on the rows of a data set once, in order, a batch at a time.
+     *
+     * @param inputData input rows
+     * @param targetData target rows
+     * @param numRows the number of rows to use
+     * @param batchSize the number of rows per batch
+     * @param learningRate the learning rate
+     * @param momentum the momentum
+     * @return the sum of the squared errors of the output neurons over all
+     *         rows
+     */
+    double trainEpoch(final double[][] inputData,
+            final double[][] targetData, final int numRows,
+            final int batchSize, final double learningRate,
+            final double momentum) {
+        ensureCapacity(Math.min(batchSize, numRows));
+        double sse = 0;
+        for (int start = 0; start < numRows; start += batchSize) {
+            int rows = Math.min(batchSize, numRows - start);
+            loadInputs(inputData, start, rows);
+            forward(rows);
+            sse += backward(targetData, start, rows);
+            for (int l = 1; l < layers.length; l++) {
+                layers[l].applyDeltas(rows, learningRate, momentum);
+            }
+        }
+        return sse;
+    }
+
+    /**
+     * @param rows the number of rows the batch buffers must hold
+     */
+    private void ensureCapacity(final int rows) {
+        if (rows > capacity) {
+            capacity = rows;
+            for (Layer layer : layers) {
+                layer.allocate(rows);
+            }
+        }
+    }
+
+    /**
+     * Copy a batch of input rows to the input layer's activations.
+     *
+     * @param inputData input rows
+     * @param start the first row of the batch
+     * @param rows the number of rows in the batch
+     */
+    private void loadInputs(final double[][] inputData, final int start,
+            final int rows) {
+        Layer input = layers[0];
+        int n = input.size;
+        for (int b = 0; b < rows; b++) {
+            double[] row = inputData[start + b];
+            for (int i = 0; i < n; i++) {
+                input.activations[b * n + i] = inputColumn[i] < 0
+                        ? input.fixedActivation[i] : row[inputColumn[i]];
+            }
+        }
+        input.rows = rows;
+    }
+
+    /**
+     * Propagate a batch from the input layer to the output layer.
+     *
+     * @param rows the number of rows in the batch
+     */
+    private void forward(final int rows) {
+        for (int l = 1; l < layers.length; l++) {
+            Layer prev = layers[l - 1];
+            Layer layer = layers[l];
+            int n = layer.size;
+            int m = prev.size;
+            double[] w = layer.weights;
+            for (int b = 0; b < rows; b++) {
+                int in = b * m;
+                for (int j = 0; j < n; j++) {
+                    int wj = j * m;
+                    double sum = 0;
+                    for (int k = 0; k < m; k++) {
+                        sum += prev.activations[in + k] * w[wj + k];
+                    }
+                    layer.inputs[b * n + j] = sum;
+                    layer.activations[b * n + j] = layer.activation(j, sum);
+                }
+            }
+            layer.rows = rows;
+        }
+    }
+
+    /**
+     * Compute the error signal of every neuron for a batch.
+     *
+     * @param targetData target rows
+     * @param start the first row of the batch
+     * @param rows the number of rows in the batch
+     * @return the sum of the squared output errors
+     */
+    private double backward(final double[][] targetData, final int start,
+            final int rows) {
+        double sse = 0;
+        Layer out = layers[layers.length - 1];
+        int n = out.size;
+        for (int b = 0; b < rows; b++) {
+            double[] row = targetData[start + b];
+            for (int j = 0; j < n; j++) {
+                int idx = b * n + j;
+                if (targetColumn[j] < 0) {
+                    out.errors[idx] = 0;
+                    continue;
+                }
+                double error = row[targetColumn[j]] - out.activations[idx];
+                sse += error * error;
+                out.errors[idx] = error * out.derivative(j, out.inputs[idx]);
+            }
+        }
+        for (int l = layers.length - 2; l > 0; l--) {
+            Layer layer = layers[l];
+            Layer next = layers[l + 1];
+            int m = layer.size;
+            int nn = next.size;
+            double[] w = next.weights;
+            for (int b = 0; b < rows; b++) {
+                int base = b * m;
+                for (int k = 0; k < m; k++) {
+                    layer.errors[base + k] = 0;
+                }
+                for (int j = 0; j < nn; j++) {
+                    double d = next.errors[b * nn + j];
+                    if (d == 0) {
+                        continue;
+                    }
+                    int wj = j * m;
+                    for (int k = 0; k < m; k++) {
+                        layer.errors[base + k] += d * w[wj + k];
+                    }
+                }
+                for (int k = 0; k < m; k++) {
+                    layer.errors[base + k] *= layer.derivative(k,
+                            layer.inputs[base + k]);
+                }
+            }
+        }
+        return sse;
+    }
+
+    /**
+     * One layer of the network in matrix form.
+     */
+    private static final class Layer {
+
+        /** The neurons of the layer. */
+        private final Neuron[] neurons;
+
+        /** The number of neurons. */
+        private final int size;
+
+        /** The layer feeding this one, or null for the input layer. */
+        private final Layer prev;
+
+        /** Weights from the previous layer, row-major, one row per neuron. */
+        private double[] weights;
+
+        /** The synapse behind each weight, or null where there is none. */
+        private Synapse[] synapses;
+
+        /** Whether each weight is trained. */
+        private boolean[] trainable;
+
+        /** Lower bound of each weight. */
+        private double[] lowerBounds;
+
+        /** Upper bound of each weight. */
+        private double[] upperBounds;
+
+        /** Polarity of the source of each column of weights. */
+        private Polarity[] polarities;
+
+        /** The last change of each weight, for momentum. */
+        private double[] lastDeltas;
+
+        /** Accumulated gradient of each weight over a batch. */
+        private double[] gradient;
+
+        /** The number of synapses in the fan-in of each neuron. */
+        private int[] fanInSizes;
+
+        /** The bias of each neuron. */
+        private final double[] biases;
+
+        /** The update rule of each neuron. */
+        private final NeuronUpdateRule[] rules;
+
+        /** Whether each neuron is sigmoidal, otherwise linear. */
+        private final boolean[] sigmoidal;
+
+        /** Squashing function of each sigmoidal neuron. */
+        private final SquashingFunction[] squashing;
+
+        /** Slope of each neuron. */
+        private final double[] slopes;
+
+        /** Upper bound of each neuron. */
+        private final double[] upper;
+
+        /** Lower bound of each neuron. */
+        private final double[] lower;
+
+        /** Whether each linear neuron is clipped. */
+        private final boolean[] clipped;
+
+        /** Activations of input neurons without a data column. */
+        private final double[] fixedActivation;
+
+        /** Weighted inputs of the current batch, row-major. */
+        private double[] inputs = new double[0];
+
+        /** Activations of the current batch, row-major. */
+        private double[] activations = new double[0];
+
+        /** Error signals of the current batch, row-major. */
+        private double[] errors = new double[0];
+
+        /** The number of rows of the current batch. */
+        private int rows;
+
+        /**
+         * Put a layer in matrix form.
+         *
+         * @param layer the neurons of the layer
+         * @param prev the previous layer, or null for the input layer
+         */
+        Layer(final List<Neuron> layer, final Layer prev) {
+            this.neurons = layer.toArray(new Neuron[layer.size()]);
+            this.size = neurons.length;
+            this.prev = prev;
+            biases = new double[size];
+            rules = new NeuronUpdateRule[size];
+            sigmoidal = new boolean[size];
+            squashing = new SquashingFunction[size];
+            slopes = new double[size];
+            upper = new double[size];
+            lower = new double[size];
+            clipped = new boolean[size];
+            fixedActivation = new double[size];
+            for (int j = 0; j < size; j++) {
+                fixedActivation[j] = neurons[j].getActivation();
+            }
+            if (prev == null) {
+                return;
+            }
+            for (int j = 0; j < size; j++) {
+                readRule(j);
+            }
+            int m = prev.size;
+            weights = new double[size * m];
+            synapses = new Synapse[size * m];
+            trainable = new boolean[size * m];
+            lowerBounds = new double[size * m];
+            upperBounds = new double[size * m];
+            lastDeltas = new double[size * m];
+            gradient = new double[size * m];
+            fanInSizes = new int[size];
+            polarities = new Polarity[m];
+            Map<Neuron, Integer> column =
+                    new IdentityHashMap<Neuron, Integer>();
+            for (int k = 0; k < m; k++) {
+                column.put(prev.neurons[k], k);
+                polarities[k] = prev.neurons[k].getPolarity();
+            }
+            for (int j = 0; j < size; j++) {
+                List<Synapse> fanIn = neurons[j].getFanIn();
+                fanInSizes[j] = fanIn.size();
+                for (int s = 0, n = fanIn.size(); s < n; s++) {
+                    Synapse synapse = fanIn.get(s);
+                    Integer k = column.get(synapse.getSource());
+                    if (k == null) {
+                        throw new IllegalStateException(neurons[j].getId()
+                                + " has inputs from outside the previous"
+                                + " layer.");
+                    }
+                    if (synapse.getDelay() != 0) {
+                        throw new IllegalStateException(synapse.getId()
+                                + " has a delay.");
+                    }
+                    if (!synapse.isEnabled()) {
+                        continue;
+                    }
+                    int idx = j * m + k;
+                    synapses[idx] = synapse;
+                    trainable[idx] = !synapse.isFrozen();
+                    lowerBounds[idx] = synapse.getLowerBound();
+                    upperBounds[idx] = synapse.getUpperBound();
+                    weights[idx] = synapse.getStrength();
+                }
+            }
+        }
+
+        /**
+         * Read the transfer function and bias of a neuron.
+         *
+         * @param j the neuron's index
+         * @throws IllegalStateException if the neuron's rule is not
+         *             supported
+         */
+        private void readRule(final int j) {
+            Neuron neuron = neurons[j];
+            NeuronUpdateRule rule = neuron.getUpdateRule();
+            if (neuron.isClamped()) {
+                throw new IllegalStateException(neuron.getId()
+                        + " is clamped.");
+            }
+            if (rule.getInputType() != InputType.WEIGHTED) {
+                throw new IllegalStateException(neuron.getId()
+                        + " does not use weighted inputs.");
+            }
+            rules[j] = rule;
+            if (rule instanceof SigmoidalRule) {
+                SigmoidalRule sr = (SigmoidalRule) rule;
+                if (sr.getAddNoise()) {
+                    throw new IllegalStateException(neuron.getId()
+                            + " is noisy.");
+                }
+                sigmoidal[j] = true;
+                squashing[j] = sr.getSquashFunctionType();
+                slopes[j] = sr.getSlope();
+                upper[j] = sr.getUpperBound();
+                lower[j] = sr.getLowerBound();
+            } else if (rule instanceof LinearRule) {
+                LinearRule lr = (LinearRule) rule;
+                if (lr.getAddNoise()) {
+                    throw new IllegalStateException(neuron.getId()
+                            + " is noisy.");
+                }
+                slopes[j] = lr.getSlope();
+                upper[j] = lr.getUpperBound();
+                lower[j] = lr.getLowerBound();
+                clipped[j] = lr.isClipped();
+            } else {
+                throw new IllegalStateException(neuron.getId()
+                        + " is neither linear nor discrete sigmoidal.");
+            }
+            biases[j] = ((BiasedUpdateRule) rule).getBias();
+        }
+
+        /**
+         * @param rows the number of rows the batch buffers must hold
+         */
+        void allocate(final int rows) {
+            inputs = new double[rows * size];
+            activations = new double[rows * size];
+            errors = new double[rows * size];
+        }
+
+        /**
+         * @param j a neuron's index
+         * @param input its weighted input
+         * @return its activation
+         */
+        double activation(final int j, final double input) {
+            if (sigmoidal[j]) {
+                return squashing[j].valueOf(input + biases[j], upper[j],
+                        lower[j], slopes[j]);
+            }
+            double val = slopes[j] * input + biases[j];
+            if (clipped[j]) {
+                if (val > upper[j]) {
+                    val = upper[j];
+                } else if (val < lower[j]) {
+                    val = lower[j];
+                }
+            }
+            return val;
+        }
+
+        /**
+         * @param j a neuron's index
+         * @param input its weighted input
+         * @return the derivative of its activation function at that input
+         */
+        double derivative(final int j, final double input) {
+            return ((DifferentiableUpdateRule) rules[j])
+                    .getDerivative(input);
+        }
+
+        /**
+         * Change the weights and biases by the error signals of a batch.
+         *
+         * @param batchRows the number of rows in the batch
+         * @param learningRate the learning rate
+         * @param momentum the momentum
+         */
+        void applyDeltas(final int batchRows, final double learningRate,
+                final double momentum) {
+            int m = prev.size;
+            Arrays.fill(gradient, 0);
+            for (int b = 0; b < batchRows; b++) {
+                int in = b * m;
+                for (int j = 0; j < size; j++) {
+                    double d = errors[b * size + j];
+                    if (d == 0) {
+                        continue;
+                    }
+                    int gj = j * m;
+                    for (int k = 0; k < m; k++) {
+                        gradient[gj + k] += d * prev.activations[in + k];
+                    }
+                }
+            }
+            double scale = learningRate / batchRows;
+            for (int idx = 0; idx < weights.length; idx++) {
+                if (synapses[idx] == null) {
+                    continue;
+                }
+                double delta = scale * gradient[idx] + momentum
+                        * lastDeltas[idx];
+                lastDeltas[idx] = delta;
+                if (!trainable[idx]) {
+                    continue;
+                }
+                double w = polarities[idx % m].clip(weights[idx] + delta);
+                if (w > upperBounds[idx]) {
+                    w = upperBounds[idx];
+                } else if (w < lowerBounds[idx]) {
+                    w = lowerBounds[idx];
+                }
+                weights[idx] = w;
+            }
+            for (int j = 0; j < size; j++) {
+                double sum = 0;
+                for (int b = 0; b < batchRows; b++) {
+                    sum += errors[b * size + j];
+                }
+                biases[j] += scale * sum;
+            }
+        }
+
+        /**
+         * Read the weights and biases from the network again.
+         *
+         * @return false if the layer's connections have changed
+         */
+        boolean read() {
+            int m = prev.size;
+            for (int j = 0; j < size; j++) {
+                if (neurons[j].getFanIn().size() != fanInSizes[j]
+                        || neurons[j].getUpdateRule() != rules[j]) {
+                    return false;
+                }
+                biases[j] = ((BiasedUpdateRule) rules[j]).getBias();
+            }
+            for (int idx = 0; idx < synapses.length; idx++) {
+                Synapse synapse = synapses[idx];
+                if (synapse == null) {
+                    continue;
+                }
+                if (synapse.getTarget() != neurons[idx / m]) {
+                    return false;
+                }
+                weights[idx] = synapse.getStrength();
+            }
+            return true;
+        }
+
+        /**
+         * Write the weights, biases and last activations to the network.
+         */
+        void write() {
+            if (prev != null) {
+                for (int idx = 0; idx < synapses.length; idx++) {
+                    if (synapses[idx] != null && trainable[idx]) {
+                        synapses[idx].setStrength(weights[idx]);
+                    }
+                }
+                for (int j = 0; j < size; j++) {
+                    ((BiasedUpdateRule) rules[j]).setBias(biases[j]);
+                }
+            }
+            if (rows > 0) {
+                int last = (rows - 1) * size;
+                for (int j = 0; j < size; j++) {
+                    neurons[j].forceSetActivation(activations[last + j]);
+                }
+            }
+        }
+    }
+
+}
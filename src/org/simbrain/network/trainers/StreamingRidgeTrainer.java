@@ -0,0 +1,418 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.trainers;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.groups.CompressedWeightMatrix;
+import org.simbrain.network.neuron_update_rules.SigmoidalRule;
+import org.simbrain.network.util.SimnetUtils;
+
+import Jama.Matrix;
+
+/**
+ * Least mean squares with ridge regression, computed from streamed samples.
+ * Instead of holding the whole matrix of input states X and target values Y,
+ * as {@link LMSOffline} does, each sample is added to the correlation
+ * matrices X'X and X'Y as it arrives and then thrown away, so memory depends
+ * only on the number of input and output neurons, not on the number of
+ * samples. At the end only the small system (X'X + ridge * I) W = X'Y is
+ * solved. The first {@link #getWashout()} samples after a reset can be
+ * skipped, which lets the states of a recurrent network settle before it is
+ * sampled.
+ * <p>
+ * By default {@link #apply()} streams the rows of the trainable's training
+ * set. Subclasses can override {@link #stream()} to produce samples some
+ * other way, e.g. by running a reservoir, or {@link #accumulate(double[],
+ * double[])} can be called directly, followed by {@link #solve()}.
+ */
+public class StreamingRidgeTrainer extends Trainer {
+
+    /**
+     * The default number of samples skipped after a reset. Rows of a training
+     * set are independent samples, so none are skipped unless asked for.
+     */
+    public static final int DEFAULT_WASHOUT = 0;
+
+    /**
+     * The number of samples buffered before they are added to the
+     * correlation matrices in one pass.
+     */
+    private static final int BLOCK_SIZE = 64;
+
+    /** The ridge parameter added to the diagonal of X'X. */
+    private double ridge;
+
+    /** The number of samples skipped after a reset. */
+    private int washout = DEFAULT_WASHOUT;
+
+    /** The number of inputs (columns of X). */
+    private int numFeatures;
+
+    /** The number of outputs (columns of Y). */
+    private int numTargets;
+
+    /** The upper triangle of X'X, complete up to the last flush. */
+    private double[][] xtx;
+
+    /** X'Y, complete up to the last flush. */
+    private double[][] xty;
+
+    /** The buffered input samples, one row per input. */
+    private double[][] blockX;
+
+    /** The buffered target samples, one row per output. */
+    private double[][] blockY;
+
+    /** The number of samples in the buffers. */
+    private int blockCount;
+
+    /** The number of samples seen since the last reset, washout included. */
+    private long numSeen;
+
+    /** The number of samples accumulated since the last reset. */
+    private long numSamples;
+
+    /**
+     * The update rule of each output whose targets are passed through its
+     * inverse before they are accumulated, or null.
+     */
+    private SigmoidalRule[] inverses;
+
+    /**
+     * Construct the trainer.
+     *
+     * @param network the network to train
+     */
+    public StreamingRidgeTrainer(Trainable network) {
+        super(network);
+    }
+
+    /**
+     * Clears the accumulated samples and sizes the correlation matrices to
+     * the current input and output neurons of the trainable.
+     */
+    public void reset() {
+        List<Neuron> outputs = network.getOutputNeurons();
+        numFeatures = network.getInputNeurons().size();
+        numTargets = outputs.size();
+        xtx = new double[numFeatures][numFeatures];
+        xty = new double[numFeatures][numTargets];
+        blockX = new double[numFeatures][BLOCK_SIZE];
+        blockY = new double[numTargets][BLOCK_SIZE];
+        blockCount = 0;
+        numSeen = 0;
+        numSamples = 0;
+        // If output nodes are sigmoidal, alter the effective targets such
+        // that the desired value will result when put through the sigmoidal,
+        // as in LMSOffline.
+        inverses = new SigmoidalRule[numTargets];
+        for (int k = 0; k < numTargets; k++) {
+            if (outputs.get(k).getUpdateRule() instanceof SigmoidalRule) {
+                inverses[k] = (SigmoidalRule) outputs.get(k).getUpdateRule();
+            }
+        }
+    }
+
+    /**
+     * Adds one sample to the correlation matrices, unless it falls within
+     * the washout. The arrays are copied, so they may be reused by the
+     * caller.
+     *
+     * @param features the values of the inputs
+     * @param targets the desired values of the outputs
+     * @throws IllegalArgumentException if an array is of the wrong length or
+     *             a target is not a finite number
+     */
+    public void accumulate(final double[] features, final double[] targets)
+            throws IllegalArgumentException {
+        if (xtx == null) {
+            reset();
+        }
+        if (features.length != numFeatures || targets.length != numTargets) {
+            throw new IllegalArgumentException("Sample of " + features.length
+                    + " inputs and " + targets.length + " targets does not"
+                    + " match the " + numFeatures + " inputs and "
+                    + numTargets + " outputs being trained.");
+        }
+        if (numSeen++ < washout) {
+            return;
+        }
+        for (int i = 0; i < numFeatures; i++) {
+            blockX[i][blockCount] = features[i];
+        }
+        for (int k = 0; k < numTargets; k++) {
+            double target = inverses[k] == null ? targets[k]
+                    : inverses[k].getInverse(targets[k]);
+            if (Double.isInfinite(target) || Double.isNaN(target)) {
+                throw new IllegalArgumentException("Invalid target value "
+                        + targets[k] + " for output " + k + ".");
+            }
+            blockY[k][blockCount] = target;
+        }
+        numSamples++;
+        if (++blockCount == BLOCK_SIZE) {
+            flush();
+        }
+    }
+
+    /**
+     * Adds the buffered samples to the correlation matrices. Each row of
+     * X'X and X'Y is a run of dot products over the buffers, so rows are
+     * done in parallel when there is enough work.
+     */
+    private void flush() {
+        final int count = blockCount;
+        if (count == 0) {
+            return;
+        }
+        if ((long) numFeatures * (numFeatures + numTargets)
+                * count < CompressedWeightMatrix.PARALLEL_THRESHOLD) {
+            for (int i = 0; i < numFeatures; i++) {
+                flushRow(i, count);
+            }
+        } else {
+            IntStream.range(0, numFeatures).parallel()
+                    .forEach(i -> flushRow(i, count));
+        }
+        blockCount = 0;
+    }
+
+    /**
+     * Adds the buffered samples to one row of X'X and X'Y.
+     *
+     * @param i the row
+     * @param count the number of buffered samples
+     */
+    private void flushRow(final int i, final int count) {
+        double[] xi = blockX[i];
+        double[] row = xtx[i];
+        for (int j = i; j < numFeatures; j++) {
+            row[j] += dot(xi, blockX[j], count);
+        }
+        for (int k = 0; k < numTargets; k++) {
+            xty[i][k] += dot(xi, blockY[k], count);
+        }
+    }
+
+    /**
+     * @param a a vector
+     * @param b a vector
+     * @param count the number of leading entries to use
+     * @return the dot product of the leading entries of the vectors
+     */
+    private static double dot(final double[] a, final double[] b,
+            final int count) {
+        double sum = 0;
+        for (int r = 0; r < count; r++) {
+            sum += a[r] * b[r];
+        }
+        return sum;
+    }
+
+    /**
+     * Solves for the weights from the samples accumulated so far, using a
+     * Cholesky decomposition of X'X + ridge * I, or an LU decomposition if
+     * that is not positive definite (which can only happen without a ridge).
+     * The accumulated samples are kept, so more can be added and the weights
+     * solved again.
+     *
+     * @return the weights, one row per input and one column per output
+     * @throws IllegalStateException if no samples have been accumulated or
+     *             the system is singular
+     */
+    public double[][] solve() throws IllegalStateException {
+        if (numSamples == 0) {
+            throw new IllegalStateException("No samples have been"
+                    + " accumulated past the washout of " + washout + ".");
+        }
+        flush();
+        double[][] w = new double[numFeatures][];
+        for (int i = 0; i < numFeatures; i++) {
+            w[i] = xty[i].clone();
+        }
+        if (choleskySolve(correlationMatrix(), w)) {
+            return w;
+        }
+        try {
+            return new Matrix(correlationMatrix()).solve(
+                    new Matrix(xty, numFeatures, numTargets)).getArray();
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("State correlation matrix is"
+                    + " singular. Try a larger ridge parameter.", e);
+        }
+    }
+
+    /**
+     * @return X'X + ridge * I as a full matrix
+     */
+    private double[][] correlationMatrix() {
+        double[][] a = new double[numFeatures][numFeatures];
+        for (int i = 0; i < numFeatures; i++) {
+            a[i][i] = xtx[i][i] + ridge;
+            for (int j = i + 1; j < numFeatures; j++) {
+                a[i][j] = xtx[i][j];
+                a[j][i] = xtx[i][j];
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Solves A W = B in place by Cholesky decomposition, A = L L'. (Jama's
+     * CholeskyDecomposition is not used, because its solve is wrong in the
+     * version on the classpath.)
+     *
+     * @param a a symmetric matrix, overwritten by L in its lower triangle
+     * @param b the right hand sides, overwritten by the solution
+     * @return false, leaving b partly overwritten, if the matrix is not
+     *         positive definite
+     */
+    private static boolean choleskySolve(final double[][] a,
+            final double[][] b) {
+        final int n = a.length;
+        for (int j = 0; j < n; j++) {
+            double[] lj = a[j];
+            double d = lj[j] - dot(lj, lj, j);
+            if (!(d > 0)) {
+                return false;
+            }
+            lj[j] = Math.sqrt(d);
+            for (int i = j + 1; i < n; i++) {
+                double[] li = a[i];
+                li[j] = (li[j] - dot(li, lj, j)) / lj[j];
+            }
+        }
+        final int m = n == 0 ? 0 : b[0].length;
+        // Forward substitution, L Z = B.
+        for (int i = 0; i < n; i++) {
+            for (int k = 0; k < i; k++) {
+                double l = a[i][k];
+                for (int c = 0; c < m; c++) {
+                    b[i][c] -= l * b[k][c];
+                }
+            }
+            for (int c = 0; c < m; c++) {
+                b[i][c] /= a[i][i];
+            }
+        }
+        // Back substitution, L' W = Z.
+        for (int i = n - 1; i >= 0; i--) {
+            for (int k = i + 1; k < n; k++) {
+                double l = a[k][i];
+                for (int c = 0; c < m; c++) {
+                    b[i][c] -= l * b[k][c];
+                }
+            }
+            for (int c = 0; c < m; c++) {
+                b[i][c] /= a[i][i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Produces the samples to train on by calling
+     * {@link #accumulate(double[], double[])}. By default streams the rows of
+     * the trainable's training set.
+     *
+     * @throws DataNotInitializedException if there is no data to stream
+     */
+    protected void stream() throws DataNotInitializedException {
+        TrainingSet trainingSet = network.getTrainingSet();
+        if (trainingSet.getInputData() == null) {
+            throw new DataNotInitializedException(
+                    "Input data not initalized");
+        }
+        if (trainingSet.getTargetData() == null) {
+            throw new DataNotInitializedException(
+                    "Target data not initalized");
+        }
+        double[][] inputs = trainingSet.getInputData();
+        double[][] targets = trainingSet.getTargetData();
+        for (int row = 0; row < inputs.length; row++) {
+            accumulate(inputs[row], targets[row]);
+        }
+    }
+
+    @Override
+    public void apply() throws DataNotInitializedException {
+        fireTrainingBegin();
+        reset();
+        fireProgressUpdate("Accumulating Correlations (X'X, X'Y)...", 0);
+        stream();
+        fireProgressUpdate("Solving for Weights...", 80);
+        double[][] wOut = solve();
+        fireProgressUpdate("Setting Weights...", 95);
+        SimnetUtils.setWeights(network.getInputNeurons(),
+                network.getOutputNeurons(), wOut);
+        fireProgressUpdate("Done!", 100);
+        fireTrainingEnd();
+        revalidateSynapseGroups();
+    }
+
+    /**
+     * @return the number of samples accumulated since the last reset, not
+     *         counting the washout
+     */
+    public long getNumSamples() {
+        return numSamples;
+    }
+
+    /**
+     * @return the ridge parameter added to the diagonal of X'X
+     */
+    public double getRidge() {
+        return ridge;
+    }
+
+    /**
+     * @param ridge the ridge parameter added to the diagonal of X'X; 0 for
+     *            plain least squares
+     * @throws IllegalArgumentException if the ridge is negative
+     */
+    public void setRidge(final double ridge) throws IllegalArgumentException {
+        if (!(ridge >= 0)) {
+            throw new IllegalArgumentException("Ridge must be non-negative.");
+        }
+        this.ridge = ridge;
+    }
+
+    /**
+     * @return the number of samples skipped after a reset
+     */
+    public int getWashout() {
+        return washout;
+    }
+
+    /**
+     * @param washout the number of samples skipped after a reset
+     * @throws IllegalArgumentException if the washout is negative
+     */
+    public void setWashout(final int washout)
+            throws IllegalArgumentException {
+        if (washout < 0) {
+            throw new IllegalArgumentException("Washout must be"
+                    + " non-negative.");
+        }
+        this.washout = washout;
+    }
+}
@@ -231,6 +231,14 @@ public class ConcurrentBufferedUpdate implements NetworkUpdateAction,
         for (int i = 0, n = inputGroups.size(); i < n; i++) {
             inputGroups.get(i).readNextInputs();
         }      
+        // Compressed synapse groups have no synapses for the tasks to visit,
+        // so their input is sent before the neurons update.
+        for (SynapseGroup sg : network.getSynapseGroups()) {
+            if (sg.isUseCompressedMatrix()
+                    && !sg.getTargetNeuronGroup().isInputMode()) {
+                sg.propagateCompressed();
+            }
+        }
         try {
         	synchronized(taskSet) {
 	        	//System.out.println(z++);
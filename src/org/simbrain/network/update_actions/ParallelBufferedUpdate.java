@@ -0,0 +1,626 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.update_actions;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.NetworkUpdateAction;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronStateArrays;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.Subnetwork;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.listeners.GroupListener;
+import org.simbrain.network.listeners.NetworkEvent;
+import org.simbrain.network.listeners.NeuronListener;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SimbrainMath;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
+
+/**
+ * A parallel buffered update of every neuron in the network, loose or in a
+ * group, along with the afferent synapses of each neuron. Like
+ * {@link ConcurrentBufferedUpdate} it is meant to replace the default update
+ * actions rather than run alongside them.
+ *
+ * The neurons are split once into contiguous partitions of roughly equal work
+ * (a neuron plus its afferent synapses), one per processor, and each
+ * partition is owned by the same thread on every step so that its neurons and
+ * synapses stay in that processor's cache. The invoking thread works on the
+ * first partition itself and a persistent daemon thread works on each of the
+ * others. A step has two phases separated by a reusable {@link Phaser}: in
+ * the integrate phase every thread updates its neurons' buffers and their
+ * fan-in, and in the commit phase every thread moves its neurons' buffers
+ * into their activations. No tasks or futures are created per step.
+ *
+ * Groups with their own update kernels are not split up. Neuron groups which
+ * hold their state in arrays (see {@link NeuronGroup#setUseStateArrays(
+ * boolean)}) are updated with {@link NeuronStateArrays} by the invoking
+ * thread, in the same two phases as the other neurons, and count towards the
+ * work of the first partition. Synapse groups which update with a learning
+ * kernel (see {@link SynapseGroup#usesLearningKernel()}) are left out of the
+ * fan-in updates and are updated through {@link SynapseGroup#update()} by the
+ * invoking thread once the step is done, as the default update would.
+ *
+ * Random numbers drawn by the neurons come from one stream per block of
+ * {@link #RANDOM_BLOCK_SIZE} neurons, made on each step from the network's
+ * update seed (see {@link Network#getUpdateSeed()}). Partitions are made of
+ * whole blocks, so the numbers each neuron draws depend on the seed of the
+ * network but not on the number of threads. Groups updated by the invoking
+ * thread draw from streams of their own, numbered after the blocks.
+ *
+ * Neurons and groups added or removed while the network runs are only noted
+ * when the change happens; the partitions are rebuilt at the start of the
+ * next step, so a step always sees a consistent set of neurons. Threads and
+ * listeners are created on the first step and released by
+ * {@link #shutdown()}, which the update manager calls when the action is
+ * removed. The action must be invoked and shut down from one thread at a
+ * time.
+ */
+public class ParallelBufferedUpdate implements NetworkUpdateAction,
+        NeuronListener, GroupListener {
+
+    /**
+     * The smallest amount of work (neurons plus afferent synapses) worth
+     * giving its own partition. Smaller networks use fewer partitions and
+     * are updated on the invoking thread alone if they are small enough.
+     */
+    private static final int MIN_PARTITION_COST = 4096;
+
+    /** The number of neurons which draw from each random stream. */
+    public static final int RANDOM_BLOCK_SIZE = 64;
+
+    /** The network being updated. */
+    private final Network network;
+
+    /** The number of partitions, including the invoking thread's. */
+    private final int numThreads;
+
+    /** The neurons updated by this action, in partition order. */
+    private Neuron[] neurons = new Neuron[0];
+
+    /**
+     * Partition boundaries: partition p covers the neurons in
+     * [bounds[p], bounds[p + 1]).
+     */
+    private int[] bounds = new int[] { 0, 0 };
+
+    /** Neuron groups in input mode, which read their inputs each step. */
+    private final List<NeuronGroup> inputGroups = new ArrayList<NeuronGroup>();
+
+    /** Neuron groups which are recording their activations. */
+    private final List<NeuronGroup> outputGroups =
+            new ArrayList<NeuronGroup>();
+
+    /**
+     * Compressed synapse groups, which are propagated before the integrate
+     * phase since they have no synapses for the fan-in update to visit.
+     */
+    private final List<SynapseGroup> compressedGroups =
+            new ArrayList<SynapseGroup>();
+
+    /**
+     * Neuron groups which hold their state in arrays, updated as a whole by
+     * the invoking thread.
+     */
+    private final List<NeuronGroup> kernelGroups = new ArrayList<NeuronGroup>();
+
+    /** The synapse groups ending at the neurons updated by this action. */
+    private final List<SynapseGroup> synapseGroups =
+            new ArrayList<SynapseGroup>();
+
+    /**
+     * Whether each of {@link #synapseGroups} used a learning kernel when the
+     * partitions were built.
+     */
+    private boolean[] usedKernel = new boolean[0];
+
+    /** The synapse groups which update with a learning kernel. */
+    private final Set<SynapseGroup> kernelSynapseGroups = Collections
+            .newSetFromMap(new IdentityHashMap<SynapseGroup, Boolean>());
+
+    /**
+     * For each neuron in {@link #neurons}, whether some of its afferent
+     * synapses belong to one of {@link #kernelSynapseGroups}.
+     */
+    private boolean[] checkFanIn = new boolean[0];
+
+    /** Set when a change in the network requires rebuilding partitions. */
+    private volatile boolean topologyChanged = true;
+
+    /** Synchronizes the invoking thread and the workers. */
+    private Phaser phaser;
+
+    /** The worker threads, or null before the first step. */
+    private Thread[] workers;
+
+    /**
+     * Set to stop the worker threads. Each start makes a new signal for its
+     * workers, so workers of an earlier start never see a later one.
+     */
+    private AtomicBoolean stopSignal;
+
+    /** The first exception thrown by any thread during the current step. */
+    private volatile Throwable failure;
+
+    /**
+     * Creates a parallel update action for a network, using one partition per
+     * available processor.
+     *
+     * @param network the network to update
+     */
+    public ParallelBufferedUpdate(final Network network) {
+        this(network, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a parallel update action for a network.
+     *
+     * @param network the network to update
+     * @param numThreads the number of threads to divide the work over,
+     *            including the thread invoking the update
+     * @throws IllegalArgumentException if numThreads is less than 1
+     */
+    public ParallelBufferedUpdate(final Network network, final int numThreads)
+            throws IllegalArgumentException {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("At least one thread is"
+                    + " required.");
+        }
+        this.network = network;
+        this.numThreads = numThreads;
+    }
+
+    @Override
+    public void invoke() {
+        if (workers == null) {
+            start();
+        }
+        // Learning rules can be changed without any event, so check whether
+        // a synapse group started or stopped using a kernel.
+        for (int i = 0, n = synapseGroups.size(); i < n && !topologyChanged;
+                i++) {
+            if (synapseGroups.get(i).usesLearningKernel() != usedKernel[i]) {
+                topologyChanged = true;
+            }
+        }
+        if (topologyChanged) {
+            rebuild();
+        }
+        for (int i = 0, n = inputGroups.size(); i < n; i++) {
+            inputGroups.get(i).readNextInputs();
+        }
+        for (int i = 0, n = compressedGroups.size(); i < n; i++) {
+            compressedGroups.get(i).propagateCompressed();
+        }
+        if (bounds.length <= 2) {
+            integrate(0);
+            integrateKernelGroups();
+            commit(0);
+            commitKernelGroups();
+        } else {
+            failure = null;
+            phaser.arriveAndAwaitAdvance();
+            try {
+                integrate(0);
+                integrateKernelGroups();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            phaser.arriveAndAwaitAdvance();
+            try {
+                commit(0);
+                commitKernelGroups();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            phaser.arriveAndAwaitAdvance();
+            if (failure != null) {
+                throw new IllegalStateException("Parallel update failed.",
+                        failure);
+            }
+        }
+        updateKernelSynapseGroups();
+        for (int i = 0, n = outputGroups.size(); i < n; i++) {
+            outputGroups.get(i).writeActsToFile();
+        }
+    }
+
+    /**
+     * Updates the buffers of the neurons in a partition and their fan-in.
+     *
+     * @param partition the partition
+     */
+    private void integrate(final int partition) {
+        if (partition + 1 >= bounds.length) {
+            return;
+        }
+        final long seed = network.getUpdateSeed();
+        final RandomStream previous = RandomStreams.bind(null);
+        try {
+            for (int i = bounds[partition], end = bounds[partition + 1];
+                    i < end; i++) {
+                if (i % RANDOM_BLOCK_SIZE == 0) {
+                    RandomStreams.bind(SimbrainMath.seededStream(seed,
+                            i / RANDOM_BLOCK_SIZE));
+                }
+                neurons[i].update();
+                if (checkFanIn[i]) {
+                    updateFanIn(neurons[i]);
+                } else {
+                    neurons[i].updateFanIn();
+                }
+            }
+        } finally {
+            RandomStreams.bind(previous);
+        }
+    }
+
+    /**
+     * Updates the afferent synapses of a neuron which are not updated through
+     * a learning kernel of their synapse group.
+     *
+     * @param neuron the neuron
+     */
+    private void updateFanIn(final Neuron neuron) {
+        List<Synapse> fanIn = neuron.getFanIn();
+        for (int i = 0, n = fanIn.size(); i < n; i++) {
+            Synapse synapse = fanIn.get(i);
+            if (!kernelSynapseGroups.contains(synapse.getParentGroup())) {
+                synapse.update();
+            }
+        }
+    }
+
+    /**
+     * Updates the buffers of the neurons in {@link #kernelGroups} and their
+     * fan-in, each group drawing from a random stream numbered after the
+     * blocks of {@link #neurons}.
+     */
+    private void integrateKernelGroups() {
+        if (kernelGroups.isEmpty()) {
+            return;
+        }
+        final long seed = network.getUpdateSeed();
+        final int firstStream = (neurons.length + RANDOM_BLOCK_SIZE - 1)
+                / RANDOM_BLOCK_SIZE;
+        final RandomStream previous = RandomStreams.bind(null);
+        try {
+            for (int g = 0, n = kernelGroups.size(); g < n; g++) {
+                NeuronGroup group = kernelGroups.get(g);
+                RandomStreams.bind(SimbrainMath.seededStream(seed,
+                        firstStream + g));
+                group.getStateArrays().updateBuffers();
+                for (Neuron neuron : group.getNeuronList()) {
+                    updateFanIn(neuron);
+                }
+            }
+        } finally {
+            RandomStreams.bind(previous);
+        }
+    }
+
+    /**
+     * Moves the buffers of the neurons in {@link #kernelGroups} into their
+     * activations.
+     */
+    private void commitKernelGroups() {
+        for (int g = 0, n = kernelGroups.size(); g < n; g++) {
+            kernelGroups.get(g).getStateArrays().commitBuffers();
+        }
+    }
+
+    /**
+     * Updates the synapse groups which use a learning kernel. Each group
+     * draws from a random stream numbered after those of
+     * {@link #integrateKernelGroups()}.
+     */
+    private void updateKernelSynapseGroups() {
+        if (kernelSynapseGroups.isEmpty()) {
+            return;
+        }
+        final long seed = network.getUpdateSeed();
+        int stream = (neurons.length + RANDOM_BLOCK_SIZE - 1)
+                / RANDOM_BLOCK_SIZE + kernelGroups.size();
+        final RandomStream previous = RandomStreams.bind(null);
+        try {
+            // Iterate in network order rather than set order.
+            for (int i = 0, n = synapseGroups.size(); i < n; i++) {
+                if (usedKernel[i]) {
+                    RandomStreams.bind(SimbrainMath.seededStream(seed,
+                            stream++));
+                    synapseGroups.get(i).update();
+                }
+            }
+        } finally {
+            RandomStreams.bind(previous);
+        }
+    }
+
+    /**
+     * Moves the buffers of the neurons in a partition into their activations.
+     *
+     * @param partition the partition
+     */
+    private void commit(final int partition) {
+        if (partition + 1 >= bounds.length) {
+            return;
+        }
+        for (int i = bounds[partition], end = bounds[partition + 1]; i < end;
+                i++) {
+            neurons[i].setToBufferVals();
+        }
+    }
+
+    /**
+     * Registers listeners and starts the worker threads.
+     */
+    private void start() {
+        network.addNeuronListener(this);
+        network.addGroupListener(this);
+        topologyChanged = true;
+        final Phaser stepPhaser = new Phaser(numThreads);
+        final AtomicBoolean stop = new AtomicBoolean();
+        phaser = stepPhaser;
+        stopSignal = stop;
+        workers = new Thread[numThreads - 1];
+        for (int t = 0; t < workers.length; t++) {
+            final int partition = t + 1;
+            workers[t] = new Thread(() -> work(partition, stepPhaser, stop),
+                    "Parallel update worker " + partition);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+    }
+
+    /**
+     * The loop run by each worker thread. The phaser and stop signal are
+     * passed in rather than read from {@link #phaser} and
+     * {@link #stopSignal}, which belong to the latest start.
+     *
+     * @param partition the partition owned by the thread
+     * @param stepPhaser the phaser the thread synchronizes on
+     * @param stop the signal which stops the thread
+     */
+    private void work(final int partition, final Phaser stepPhaser,
+            final AtomicBoolean stop) {
+        while (true) {
+            stepPhaser.arriveAndAwaitAdvance();
+            if (stop.get()) {
+                return;
+            }
+            try {
+                integrate(partition);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            stepPhaser.arriveAndAwaitAdvance();
+            try {
+                commit(partition);
+            } catch (RuntimeException | Error e) {
+                failure = e;
+            }
+            stepPhaser.arriveAndAwaitAdvance();
+        }
+    }
+
+    /**
+     * Stops the worker threads, waits for them to finish and removes this
+     * action's listeners from the network. The action can still be invoked
+     * afterwards, in which case it starts again with new threads.
+     */
+    public void shutdown() {
+        if (workers == null) {
+            return;
+        }
+        final Thread[] stopped = workers;
+        stopSignal.set(true);
+        phaser.arriveAndDeregister();
+        network.removeNeuronListener(this);
+        network.removeGroupListener(this);
+        workers = null;
+        phaser = null;
+        stopSignal = null;
+        boolean interrupted = false;
+        for (Thread worker : stopped) {
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Collects the neurons to update and splits them into partitions of
+     * roughly equal cost, where the cost of a neuron is one plus the size of
+     * its fan-in. The neurons of {@link #kernelGroups} count towards the first
+     * partition. Partitions start at multiples of {@link #RANDOM_BLOCK_SIZE}.
+     */
+    private void rebuild() {
+        topologyChanged = false;
+        inputGroups.clear();
+        outputGroups.clear();
+        compressedGroups.clear();
+        kernelGroups.clear();
+        synapseGroups.clear();
+        kernelSynapseGroups.clear();
+        List<Neuron> neuronList = new ArrayList<Neuron>(network.getNeuronList());
+        List<Boolean> checks = new ArrayList<Boolean>(Collections.nCopies(
+                neuronList.size(), Boolean.FALSE));
+        List<NeuronGroup> neuronGroups = new ArrayList<NeuronGroup>();
+        for (Group group : network.getGroupList()) {
+            if (group instanceof NeuronGroup) {
+                neuronGroups.add((NeuronGroup) group);
+            } else if (group instanceof Subnetwork) {
+                neuronGroups.addAll(((Subnetwork) group).getNeuronGroupList());
+            }
+        }
+        for (NeuronGroup ng : neuronGroups) {
+            if (ng.isRecording()) {
+                outputGroups.add(ng);
+            }
+            if (ng.isInputMode()) {
+                inputGroups.add(ng);
+                continue;
+            }
+            boolean check = false;
+            for (SynapseGroup sg : ng.getIncomingSgs()) {
+                synapseGroups.add(sg);
+                if (sg.isUseCompressedMatrix()) {
+                    compressedGroups.add(sg);
+                }
+                if (sg.usesLearningKernel()) {
+                    kernelSynapseGroups.add(sg);
+                    check = true;
+                }
+            }
+            if (ng.isUseStateArrays()) {
+                // Makes the arrays if they were released.
+                ng.setUseStateArrays(true);
+                kernelGroups.add(ng);
+            } else {
+                neuronList.addAll(ng.getNeuronList());
+                checks.addAll(Collections.nCopies(ng.size(), check));
+            }
+        }
+        neurons = neuronList.toArray(new Neuron[neuronList.size()]);
+        checkFanIn = new boolean[neurons.length];
+        for (int i = 0; i < neurons.length; i++) {
+            checkFanIn[i] = checks.get(i);
+        }
+        usedKernel = new boolean[synapseGroups.size()];
+        for (int i = 0; i < usedKernel.length; i++) {
+            usedKernel[i] = kernelSynapseGroups.contains(synapseGroups.get(i));
+        }
+
+        long[] cumulativeCost = new long[neurons.length + 1];
+        for (NeuronGroup ng : kernelGroups) {
+            for (Neuron n : ng.getNeuronList()) {
+                cumulativeCost[0] += 1 + n.getFanIn().size();
+            }
+        }
+        for (int i = 0; i < neurons.length; i++) {
+            cumulativeCost[i + 1] = cumulativeCost[i] + 1
+                    + neurons[i].getFanIn().size();
+        }
+        long totalCost = cumulativeCost[neurons.length];
+        int numPartitions = (int) Math.max(1,
+                Math.min(numThreads, totalCost / MIN_PARTITION_COST));
+        bounds = new int[numPartitions + 1];
+        int i = 0;
+        for (int p = 1; p < numPartitions; p++) {
+            long goal = totalCost * p / numPartitions;
+            while (cumulativeCost[i] < goal) {
+                i++;
+            }
+            bounds[p] = Math.min(neurons.length, Math.max(bounds[p - 1],
+                    (i + RANDOM_BLOCK_SIZE / 2) / RANDOM_BLOCK_SIZE
+                            * RANDOM_BLOCK_SIZE));
+        }
+        bounds[numPartitions] = neurons.length;
+    }
+
+    /**
+     * @return the number of partitions the neurons are currently divided into
+     */
+    public int getNumPartitions() {
+        return bounds.length - 1;
+    }
+
+    @Override
+    public String getDescription() {
+        return "Parallel Buffered Update (Fixed Partitions)";
+    }
+
+    @Override
+    public String getLongDescription() {
+        return "Parallel Buffered Update of all neurons, with a fixed"
+                + " partition of neurons per thread";
+    }
+
+    @Override
+    public void neuronAdded(NetworkEvent<Neuron> networkEvent) {
+        topologyChanged = true;
+    }
+
+    @Override
+    public void neuronRemoved(NetworkEvent<Neuron> networkEvent) {
+        topologyChanged = true;
+    }
+
+    @Override
+    public void neuronChanged(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronTypeChanged(NetworkEvent<NeuronUpdateRule> networkEvent) {
+    }
+
+    @Override
+    public void labelChanged(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void neuronMoved(NetworkEvent<Neuron> networkEvent) {
+    }
+
+    @Override
+    public void groupAdded(NetworkEvent<Group> e) {
+        topologyChanged = true;
+    }
+
+    @Override
+    public void groupRemoved(NetworkEvent<Group> e) {
+        topologyChanged = true;
+    }
+
+    @Override
+    public void groupChanged(NetworkEvent<Group> networkEvent,
+            String changeDescription) {
+        // Input mode, recording, compression and membership changes are all
+        // reported this way.
+        topologyChanged = true;
+    }
+
+    @Override
+    public void groupParameterChanged(NetworkEvent<Group> networkEvent) {
+    }
+
+    @Override
+    public void groupUpdated(Group group) {
+    }
+
+}
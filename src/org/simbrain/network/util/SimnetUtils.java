@@ -16,9 +16,12 @@ package org.simbrain.network.util;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.stream.IntStream;
 
 import org.ojalgo.access.Access2D.Builder;
 import org.ojalgo.matrix.BasicMatrix;
@@ -28,6 +31,11 @@ import org.ojalgo.scalar.ComplexNumber;
 import org.simbrain.network.core.Network;
 import org.simbrain.network.core.Neuron;
 import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.CompressedWeightMatrix;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.util.math.RandomStreams;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  * <b>SimnetUtils</b> provides utility classes relating to Simbrain networks.
@@ -37,6 +45,32 @@ import org.simbrain.network.core.Synapse;
  */
 public class SimnetUtils {
 
+    /**
+     * The relative change in the estimate below which
+     * {@link #estimateSpectralRadius(CompressedWeightMatrix)} stops.
+     */
+    public static final double SPECTRAL_RADIUS_TOLERANCE = 1E-4;
+
+    /**
+     * The largest Krylov subspace
+     * {@link #estimateSpectralRadius(CompressedWeightMatrix)} builds before
+     * giving its best estimate.
+     */
+    public static final int MAX_KRYLOV_DIMENSION = 300;
+
+    /**
+     * The fewest Arnoldi steps between checks of the estimate. Checks get
+     * further apart as the subspace grows, since each one costs a dense
+     * eigenvalue decomposition of the size of the subspace.
+     */
+    private static final int RITZ_CHECK_INTERVAL = 10;
+
+    /**
+     * The number of vector entries each task updates when a vector is
+     * orthogonalized in parallel.
+     */
+    private static final int ORTHOGONALIZE_BLOCK_SIZE = 4096;
+
     /**
      * Returns the weights connecting two lists of neurons as an N x M matrix of
      * doubles, where N is the number of source neurons, and M is the number of
@@ -190,6 +224,250 @@ public class SimnetUtils {
         scaleWeights(src, tar, desiredEigen / maxEigen);
     }
 
+    /**
+     * Estimates the spectral radius (the largest eigenvalue modulus) of the
+     * weight matrix of a recurrent synapse group without making a dense copy
+     * of it. See {@link #estimateSpectralRadius(CompressedWeightMatrix)}.
+     *
+     * @param group a synapse group whose source and target neurons are the
+     *            same
+     * @return the estimated spectral radius
+     * @throws IllegalArgumentException if the group is not recurrent
+     */
+    public static double estimateSpectralRadius(final SynapseGroup group)
+            throws IllegalArgumentException {
+        if (!group.isRecurrent()) {
+            throw new IllegalArgumentException("Synapse group "
+                    + group.getLabel() + " is not recurrent.");
+        }
+        if (group.isUseCompressedMatrix()) {
+            return estimateSpectralRadius(group.getCompressedWeights());
+        }
+        List<Neuron> neurons = group.getSourceNeurons();
+        Map<Neuron, Integer> index = new HashMap<Neuron, Integer>(
+                (int) (neurons.size() / 0.75) + 1);
+        for (int i = 0; i < neurons.size(); i++) {
+            index.put(neurons.get(i), i);
+        }
+        List<Synapse> synapses = group.getAllSynapses();
+        int numSyns = synapses.size();
+        int[] srcs = new int[numSyns];
+        int[] tars = new int[numSyns];
+        double[] wts = new double[numSyns];
+        for (int k = 0; k < numSyns; k++) {
+            Synapse s = synapses.get(k);
+            srcs[k] = index.get(s.getSource());
+            tars[k] = index.get(s.getTarget());
+            wts[k] = s.getStrength();
+        }
+        return estimateSpectralRadius(new CompressedWeightMatrix(
+                neurons.size(), neurons.size(), srcs, tars, wts, numSyns));
+    }
+
+    /**
+     * Estimates the spectral radius (the largest eigenvalue modulus) of a
+     * square sparse weight matrix by Arnoldi iteration. Starting from a random
+     * vector, an orthonormal basis of the Krylov subspace is built one
+     * matrix-vector product at a time, and the eigenvalues of the small
+     * Hessenberg matrix which the weights reduce to on that subspace are
+     * found every so often. The largest of them converges to the spectral
+     * radius even when it belongs to a complex pair, which is common for
+     * reservoirs and defeats the plain power method. Each step costs one pass
+     * over the synapses plus the orthogonalization against the basis, so for
+     * the sparse reservoirs of echo state networks the estimate takes time in
+     * proportion to the number of synapses rather than the cube of the number
+     * of neurons.
+     * <p>
+     * The iteration stops when the estimate changes by less than
+     * {@link #SPECTRAL_RADIUS_TOLERANCE} (relative) between checks, when the
+     * subspace stops growing (in which case the estimate is exact), or when
+     * it reaches {@link #MAX_KRYLOV_DIMENSION}.
+     *
+     * @param weights a square weight matrix
+     * @return the estimated spectral radius
+     * @throws IllegalArgumentException if the matrix is not square
+     */
+    public static double estimateSpectralRadius(
+            final CompressedWeightMatrix weights)
+            throws IllegalArgumentException {
+        final int n = weights.getNumTargets();
+        if (weights.getNumSources() != n) {
+            throw new IllegalArgumentException("Cannot find the eigenvalues"
+                    + " of a " + weights.getNumSources() + "x" + n
+                    + " matrix.");
+        }
+        if (n == 0 || weights.size() == 0) {
+            return 0;
+        }
+        final int maxDim = Math.min(n, MAX_KRYLOV_DIMENSION);
+        double[][] basis = new double[maxDim + 1][];
+        double[][] hessenberg = new double[maxDim + 1][maxDim];
+        RandomStream rand = RandomStreams.current();
+        double[] v = new double[n];
+        for (int i = 0; i < n; i++) {
+            v[i] = rand.nextDouble() - 0.5;
+        }
+        scale(v, 1 / Math.sqrt(dot(v, v)));
+        basis[0] = v;
+        double estimate = 0;
+        int nextCheck = RITZ_CHECK_INTERVAL;
+        for (int k = 0; k < maxDim; k++) {
+            // The eigenvalues of the weight matrix are those of its
+            // transpose, so propagating is as good as multiplying.
+            double[] w = new double[n];
+            weights.propagate(basis[k], w);
+            double productNorm = Math.sqrt(dot(w, w));
+            // Classical Gram-Schmidt, done twice to keep the basis
+            // orthogonal in floating point.
+            for (int pass = 0; pass < 2; pass++) {
+                double[] h = orthogonalize(w, basis, k + 1);
+                for (int j = 0; j <= k; j++) {
+                    hessenberg[j][k] += h[j];
+                }
+            }
+            double norm = Math.sqrt(dot(w, w));
+            hessenberg[k + 1][k] = norm;
+            // The subspace has stopped growing if almost nothing was left.
+            boolean invariant = norm <= 1E-10 * productNorm;
+            if (invariant || k + 1 == nextCheck || k + 1 == maxDim) {
+                nextCheck = Math.max(k + 1 + RITZ_CHECK_INTERVAL,
+                        (k + 1) * 5 / 4);
+                double prev = estimate;
+                estimate = maxEigenvalueModulus(hessenberg, k + 1);
+                if (invariant || Math.abs(estimate - prev)
+                        <= SPECTRAL_RADIUS_TOLERANCE * estimate) {
+                    break;
+                }
+            }
+            scale(w, 1 / norm);
+            basis[k + 1] = w;
+        }
+        return estimate;
+    }
+
+    /**
+     * Subtracts from a vector its projections onto the first vectors of an
+     * orthonormal basis. Done in parallel, like
+     * {@link CompressedWeightMatrix#propagate(double[], double[])}, when there
+     * is enough work.
+     *
+     * @param w the vector, which is overwritten
+     * @param basis the basis
+     * @param count the number of basis vectors to use
+     * @return the projection of the vector onto each basis vector
+     */
+    private static double[] orthogonalize(final double[] w,
+            final double[][] basis, final int count) {
+        final int n = w.length;
+        final double[] h = new double[count];
+        if ((long) n * count < CompressedWeightMatrix.PARALLEL_THRESHOLD) {
+            for (int j = 0; j < count; j++) {
+                h[j] = dot(w, basis[j]);
+            }
+            for (int j = 0; j < count; j++) {
+                double[] b = basis[j];
+                for (int i = 0; i < n; i++) {
+                    w[i] -= h[j] * b[i];
+                }
+            }
+            return h;
+        }
+        IntStream.range(0, count).parallel()
+                .forEach(j -> h[j] = dot(w, basis[j]));
+        final int blocks = (n + ORTHOGONALIZE_BLOCK_SIZE - 1)
+                / ORTHOGONALIZE_BLOCK_SIZE;
+        IntStream.range(0, blocks).parallel().forEach(blk -> {
+            int from = blk * ORTHOGONALIZE_BLOCK_SIZE;
+            int to = Math.min(n, from + ORTHOGONALIZE_BLOCK_SIZE);
+            for (int j = 0; j < count; j++) {
+                double[] b = basis[j];
+                for (int i = from; i < to; i++) {
+                    w[i] -= h[j] * b[i];
+                }
+            }
+        });
+        return h;
+    }
+
+    /**
+     * Scales the weights of a recurrent synapse group so that its weight
+     * matrix has the desired spectral radius, using
+     * {@link #estimateSpectralRadius(SynapseGroup)}. Weights stay in
+     * compressed form if they are compressed. If the spectral radius is 0
+     * (e.g. the group is empty) the weights are left alone, since no scaling
+     * can change it.
+     *
+     * @param group a synapse group whose source and target neurons are the
+     *            same
+     * @param desiredRadius the new spectral radius of the weight matrix
+     * @throws IllegalArgumentException if the group is not recurrent
+     */
+    public static void scaleSpectralRadius(final SynapseGroup group,
+            final double desiredRadius) throws IllegalArgumentException {
+        double radius = estimateSpectralRadius(group);
+        if (radius == 0) {
+            return;
+        }
+        double scalar = desiredRadius / radius;
+        if (group.isUseCompressedMatrix()) {
+            scale(group.getCompressedWeights().getWeights(), scalar);
+        } else {
+            for (Synapse s : group.getAllSynapses()) {
+                s.forceSetStrength(s.getStrength() * scalar);
+            }
+        }
+    }
+
+    /**
+     * Finds the largest eigenvalue modulus of the leading block of a matrix.
+     *
+     * @param matrix the matrix
+     * @param size the number of leading rows and columns to use
+     * @return the largest eigenvalue modulus of the block
+     */
+    private static double maxEigenvalueModulus(final double[][] matrix,
+            final int size) {
+        Builder<PrimitiveMatrix> tmpBuilder = PrimitiveMatrix.FACTORY
+                .getBuilder(size, size);
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < size; j++) {
+                tmpBuilder.set(i, j, matrix[i][j]);
+            }
+        }
+        PrimitiveMatrix mat = tmpBuilder.build();
+        List<ComplexNumber> eigs = mat.getEigenvalues();
+        double maxEig = 0.0;
+        for (int i = 0, n = eigs.size(); i < n; i++) {
+            maxEig = Math.max(maxEig, eigs.get(i).getModulus());
+        }
+        return maxEig;
+    }
+
+    /**
+     * @param a a vector
+     * @param b a vector at least as long
+     * @return the dot product of the vectors
+     */
+    private static double dot(final double[] a, final double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
+    /**
+     * Multiplies a vector by a scalar in place.
+     *
+     * @param a the vector
+     * @param scalar the scalar
+     */
+    private static void scale(final double[] a, final double scalar) {
+        for (int i = 0; i < a.length; i++) {
+            a[i] *= scalar;
+        }
+    }
+
     /**
      * Return the upper left corner of a list of objects, based on neurons.
      *
@@ -0,0 +1,282 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.simbrain.network.core.Neuron;
+
+/**
+ * A uniform grid over the positions of a collection of neurons, used to find
+ * the neurons within some distance of a point without measuring the distance
+ * to every neuron. Each neuron is put in the cubic cell containing it and a
+ * query only visits the cells overlapping the cube around the query sphere,
+ * so when the cell size is close to the query radius the cost of a query is
+ * close to the number of neurons found.
+ * <p>
+ * The positions are read once, when the index is made, so the index has to be
+ * made again after neurons move. If the neurons are spread so thinly that a
+ * grid of the requested cell size would have many more cells than neurons,
+ * the cells are made larger, which keeps the memory of the index linear in the
+ * number of neurons. Queries are read only, so one index may be shared by
+ * several threads.
+ */
+public final class SpatialIndex {
+
+    /** The neurons indexed. */
+    private final Neuron[] neurons;
+
+    /** The x coordinates of the neurons when the index was made. */
+    private final double[] xs;
+
+    /** The y coordinates of the neurons when the index was made. */
+    private final double[] ys;
+
+    /** The z coordinates of the neurons when the index was made. */
+    private final double[] zs;
+
+    /** The lowest x coordinate, the corner of the first cell. */
+    private final double minX;
+
+    /** The lowest y coordinate. */
+    private final double minY;
+
+    /** The lowest z coordinate. */
+    private final double minZ;
+
+    /** The edge length of the cells. */
+    private final double cellSize;
+
+    /** The number of cells along x. */
+    private final int nx;
+
+    /** The number of cells along y. */
+    private final int ny;
+
+    /** The number of cells along z. */
+    private final int nz;
+
+    /** For each cell, where its neurons start in {@link #order}. */
+    private final int[] cellStart;
+
+    /** The indices of the neurons ordered by cell. */
+    private final int[] order;
+
+    /**
+     * Indexes the current positions of some neurons.
+     *
+     * @param neurons the neurons
+     * @param cellSize the preferred edge length of the grid cells, usually the
+     *            radius of the queries which will be made
+     * @throws IllegalArgumentException if the cell size is not a positive
+     *             number
+     */
+    public SpatialIndex(final Collection<Neuron> neurons,
+            final double cellSize) throws IllegalArgumentException {
+        if (!(cellSize > 0) || Double.isInfinite(cellSize)) {
+            throw new IllegalArgumentException("Cell size must be positive.");
+        }
+        int n = neurons.size();
+        this.neurons = neurons.toArray(new Neuron[n]);
+        xs = new double[n];
+        ys = new double[n];
+        zs = new double[n];
+        double loX = Double.POSITIVE_INFINITY;
+        double loY = Double.POSITIVE_INFINITY;
+        double loZ = Double.POSITIVE_INFINITY;
+        double hiX = Double.NEGATIVE_INFINITY;
+        double hiY = Double.NEGATIVE_INFINITY;
+        double hiZ = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < n; i++) {
+            xs[i] = this.neurons[i].getX();
+            ys[i] = this.neurons[i].getY();
+            zs[i] = this.neurons[i].getZ();
+            loX = Math.min(loX, xs[i]);
+            loY = Math.min(loY, ys[i]);
+            loZ = Math.min(loZ, zs[i]);
+            hiX = Math.max(hiX, xs[i]);
+            hiY = Math.max(hiY, ys[i]);
+            hiZ = Math.max(hiZ, zs[i]);
+        }
+        if (n == 0) {
+            loX = loY = loZ = hiX = hiY = hiZ = 0;
+        }
+        minX = loX;
+        minY = loY;
+        minZ = loZ;
+        long maxCells = Math.max(1024, 2L * n);
+        double size = cellSize;
+        while ((double) cells(hiX - loX, size) * cells(hiY - loY, size)
+                * cells(hiZ - loZ, size) > maxCells) {
+            size *= 2;
+        }
+        this.cellSize = size;
+        nx = (int) cells(hiX - loX, size);
+        ny = (int) cells(hiY - loY, size);
+        nz = (int) cells(hiZ - loZ, size);
+        cellStart = new int[nx * ny * nz + 1];
+        int[] cellOf = new int[n];
+        for (int i = 0; i < n; i++) {
+            cellOf[i] = cell(xs[i], ys[i], zs[i]);
+            cellStart[cellOf[i] + 1]++;
+        }
+        for (int c = 0; c < cellStart.length - 1; c++) {
+            cellStart[c + 1] += cellStart[c];
+        }
+        int[] fill = cellStart.clone();
+        order = new int[n];
+        for (int i = 0; i < n; i++) {
+            order[fill[cellOf[i]]++] = i;
+        }
+    }
+
+    /**
+     * @param extent the extent of the positions along an axis
+     * @param size the edge length of a cell
+     * @return the number of cells needed to cover the extent
+     */
+    private static long cells(final double extent, final double size) {
+        return (long) Math.floor(extent / size) + 1;
+    }
+
+    /**
+     * @param x an x coordinate inside the grid
+     * @param y a y coordinate inside the grid
+     * @param z a z coordinate inside the grid
+     * @return the cell containing the point
+     */
+    private int cell(final double x, final double y, final double z) {
+        int cx = Math.min(nx - 1, (int) ((x - minX) / cellSize));
+        int cy = Math.min(ny - 1, (int) ((y - minY) / cellSize));
+        int cz = Math.min(nz - 1, (int) ((z - minZ) / cellSize));
+        return (cz * ny + cy) * nx + cx;
+    }
+
+    /**
+     * @param coordinate a coordinate
+     * @param min the lowest coordinate of the grid along the same axis
+     * @param count the number of cells along the axis
+     * @return the cell along the axis containing the coordinate, clamped to
+     *         the grid
+     */
+    private int clamp(final double coordinate, final double min,
+            final int count) {
+        double c = Math.floor((coordinate - min) / cellSize);
+        if (c < 0) {
+            return 0;
+        }
+        return c >= count ? count - 1 : (int) c;
+    }
+
+    /**
+     * Returns the neurons whose distance from a point is at most a radius.
+     *
+     * @param x the x coordinate of the point
+     * @param y the y coordinate of the point
+     * @param z the z coordinate of the point
+     * @param radius the radius
+     * @return the neurons within the radius, in no particular order
+     */
+    public List<Neuron> getNeuronsInRadius(final double x, final double y,
+            final double z, final double radius) {
+        List<Neuron> found = new ArrayList<Neuron>();
+        if (neurons.length == 0 || !(radius >= 0)) {
+            return found;
+        }
+        final double r2 = radius * radius;
+        if (x + radius < minX || y + radius < minY || z + radius < minZ) {
+            return found;
+        }
+        int x0 = clamp(x - radius, minX, nx);
+        int x1 = clamp(x + radius, minX, nx);
+        int y0 = clamp(y - radius, minY, ny);
+        int y1 = clamp(y + radius, minY, ny);
+        int z0 = clamp(z - radius, minZ, nz);
+        int z1 = clamp(z + radius, minZ, nz);
+        long visited = (long) (x1 - x0 + 1) * (y1 - y0 + 1) * (z1 - z0 + 1);
+        if (visited > neurons.length) {
+            // The query covers most of the grid, so just check every neuron.
+            for (int i = 0; i < neurons.length; i++) {
+                if (dist2(i, x, y, z) <= r2) {
+                    found.add(neurons[i]);
+                }
+            }
+            return found;
+        }
+        for (int cz = z0; cz <= z1; cz++) {
+            for (int cy = y0; cy <= y1; cy++) {
+                int row = (cz * ny + cy) * nx;
+                for (int k = cellStart[row + x0],
+                        end = cellStart[row + x1 + 1]; k < end; k++) {
+                    int i = order[k];
+                    if (dist2(i, x, y, z) <= r2) {
+                        found.add(neurons[i]);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the neurons whose distance from a neuron is at most a radius.
+     * The neuron itself is included if it is indexed.
+     *
+     * @param center the neuron at the center of the search
+     * @param radius the radius
+     * @return the neurons within the radius, in no particular order
+     */
+    public List<Neuron> getNeuronsInRadius(final Neuron center,
+            final double radius) {
+        return getNeuronsInRadius(center.getX(), center.getY(),
+                center.getZ(), radius);
+    }
+
+    /**
+     * @param i the index of a neuron
+     * @param x the x coordinate of a point
+     * @param y the y coordinate of a point
+     * @param z the z coordinate of a point
+     * @return the squared distance between the neuron and the point
+     */
+    private double dist2(final int i, final double x, final double y,
+            final double z) {
+        double dx = xs[i] - x;
+        double dy = ys[i] - y;
+        double dz = zs[i] - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+
+    /**
+     * @return the number of neurons indexed
+     */
+    public int size() {
+        return neurons.length;
+    }
+
+    /**
+     * @return the edge length of the cells, which may be larger than the one
+     *         requested
+     */
+    public double getCellSize() {
+        return cellSize;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Buffered reader of the values written by {@link BinaryOutput}.
+ */
+final class BinaryInput {
+
+    /** Size of the buffer, in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The channel read from. */
+    private final ReadableByteChannel channel;
+
+    /** Bytes read but not yet consumed. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * @param input the stream to read from
+     */
+    BinaryInput(final InputStream input) {
+        channel = Channels.newChannel(input);
+        buffer.limit(0);
+    }
+
+    /**
+     * Make sure the buffer holds at least a number of unread bytes.
+     *
+     * @param bytes the number of bytes, at most the buffer size
+     * @throws IOException if the stream ends first
+     */
+    private void ensure(final int bytes) throws IOException {
+        if (buffer.remaining() >= bytes) {
+            return;
+        }
+        buffer.compact();
+        while (buffer.position() < bytes) {
+            if (channel.read(buffer) < 0) {
+                throw new EOFException("Unexpected end of network data.");
+            }
+        }
+        buffer.flip();
+    }
+
+    /**
+     * @return the next byte
+     * @throws IOException if reading failed
+     */
+    byte readByte() throws IOException {
+        ensure(1);
+        return buffer.get();
+    }
+
+    /**
+     * @return the next int
+     * @throws IOException if reading failed
+     */
+    int readInt() throws IOException {
+        ensure(4);
+        return buffer.getInt();
+    }
+
+    /**
+     * @return the next long
+     * @throws IOException if reading failed
+     */
+    long readLong() throws IOException {
+        ensure(8);
+        return buffer.getLong();
+    }
+
+    /**
+     * @return the next double
+     * @throws IOException if reading failed
+     */
+    double readDouble() throws IOException {
+        ensure(8);
+        return buffer.getDouble();
+    }
+
+    /**
+     * @return the next string, or null
+     * @throws IOException if reading failed
+     */
+    String readString() throws IOException {
+        int length = readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        readBytes(bytes, 0, length);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @param values array to read into
+     * @param offset the first position to fill
+     * @param length the number of bytes
+     * @throws IOException if reading failed
+     */
+    void readBytes(final byte[] values, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            ensure(1);
+            int n = Math.min(length, buffer.remaining());
+            buffer.get(values, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * @param values array to read into
+     * @param offset the first position to fill
+     * @param length the number of values
+     * @throws IOException if reading failed
+     */
+    void readInts(final int[] values, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            ensure(4);
+            int n = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().get(values, offset, n);
+            buffer.position(buffer.position() + n * 4);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * @param values array to read into
+     * @param offset the first position to fill
+     * @param length the number of values
+     * @throws IOException if reading failed
+     */
+    void readDoubles(final double[] values, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            ensure(8);
+            int n = Math.min(length, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().get(values, offset, n);
+            buffer.position(buffer.position() + n * 8);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Read a column written by {@link BinaryOutput#writeDoubleColumn}.
+     *
+     * @param length the number of values
+     * @return the column
+     * @throws IOException if reading failed
+     */
+    double[] readDoubleColumn(final int length) throws IOException {
+        double[] values = new double[length];
+        if (readByte() == 0) {
+            Arrays.fill(values, readDouble());
+        } else {
+            readDoubles(values, 0, length);
+        }
+        return values;
+    }
+
+    /**
+     * Read a column written by {@link BinaryOutput#writeIntColumn}.
+     *
+     * @param length the number of values
+     * @return the column
+     * @throws IOException if reading failed
+     */
+    int[] readIntColumn(final int length) throws IOException {
+        int[] values = new int[length];
+        if (readByte() == 0) {
+            Arrays.fill(values, readInt());
+        } else {
+            readInts(values, 0, length);
+        }
+        return values;
+    }
+
+    /**
+     * Read a column written by {@link BinaryOutput#writeByteColumn}.
+     *
+     * @param length the number of values
+     * @return the column
+     * @throws IOException if reading failed
+     */
+    byte[] readByteColumn(final int length) throws IOException {
+        byte[] values = new byte[length];
+        if (readByte() == 0) {
+            Arrays.fill(values, readByte());
+        } else {
+            readBytes(values, 0, length);
+        }
+        return values;
+    }
+
+    /**
+     * Read a column written by {@link BinaryOutput#writeStringColumn}.
+     *
+     * @param length the number of values
+     * @return the column
+     * @throws IOException if reading failed
+     */
+    String[] readStringColumn(final int length) throws IOException {
+        String[] values = new String[length];
+        byte mode = readByte();
+        if (mode == 0) {
+            Arrays.fill(values, readString());
+        } else if (mode == 2) {
+            String prefix = readString();
+            int[] numbers = readIntColumn(length);
+            for (int i = 0; i < length; i++) {
+                values[i] = prefix + numbers[i];
+            }
+        } else {
+            for (int i = 0; i < length; i++) {
+                values[i] = readString();
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,382 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.neuron_update_rules.PointNeuronRule;
+
+import com.thoughtworks.xstream.XStream;
+import com.thoughtworks.xstream.converters.Converter;
+import com.thoughtworks.xstream.converters.MarshallingContext;
+import com.thoughtworks.xstream.converters.UnmarshallingContext;
+import com.thoughtworks.xstream.converters.collections.CollectionConverter;
+import com.thoughtworks.xstream.converters.reflection.ReflectionConverter;
+import com.thoughtworks.xstream.io.HierarchicalStreamReader;
+import com.thoughtworks.xstream.io.HierarchicalStreamWriter;
+
+/**
+ * A binary alternative to saving a network as XStream XML, for networks too
+ * large for XML to be practical. Neurons are stored as column arrays (one
+ * array per property, a single value when every neuron has the same one),
+ * the synapses of each synapse group as a compressed sparse row block over
+ * the group's source and target neurons followed by the same kind of
+ * columns, and update rules and spike responders in compact tables at the
+ * start (see {@link RuleTable}). Everything else, that is the groups,
+ * subnetworks, update actions and so on, is still written with
+ * {@link Network#getXStream()}, but with neurons replaced by their position
+ * in the neuron columns and the neuron and synapse collections by the
+ * position of their block, so the XML stays small. Data is streamed through
+ * NIO channels, and saving and loading take time linear in the size of the
+ * network.
+ *
+ * The parent group of each neuron and synapse is not stored; neurons and
+ * synapses belong to the group whose collection they are in.
+ */
+public final class BinaryNetworkFormat {
+
+    /** The file extension (and workspace component format) used. */
+    public static final String EXTENSION = "snb";
+
+    /** The first four bytes of the format, "SNB1". */
+    static final int MAGIC = 0x534E4231;
+
+    /**
+     * The version of the format. Version 2 added the state spike responders
+     * keep for each synapse.
+     */
+    static final int VERSION = 2;
+
+    /** Attribute holding a neuron's position in the neuron columns. */
+    static final String INDEX_ATTRIBUTE = "index";
+
+    /** Attribute holding a collection's block. */
+    static final String BLOCK_ATTRIBUTE = "block";
+
+    /**
+     * No instances.
+     */
+    private BinaryNetworkFormat() {
+    }
+
+    /**
+     * Write a network in the binary format. The stream is not closed.
+     *
+     * @param network the network
+     * @param output the stream to write to
+     * @throws IOException if writing failed
+     */
+    public static void write(final Network network, final OutputStream output)
+            throws IOException {
+        new BinaryNetworkWriter(network).write(output);
+    }
+
+    /**
+     * Read a network written by {@link #write(Network, OutputStream)}.
+     *
+     * @param input the stream to read from
+     * @return the network
+     * @throws IOException if reading failed or the data is not a binary
+     *             network
+     */
+    public static Network read(final InputStream input) throws IOException {
+        return new BinaryNetworkReader().read(input);
+    }
+
+    /**
+     * Check whether a stream holds a binary network, without consuming any of
+     * it.
+     *
+     * @param input a stream supporting mark and reset
+     * @return true if the stream starts with the binary network header
+     * @throws IOException if reading failed
+     */
+    public static boolean isBinary(final BufferedInputStream input)
+            throws IOException {
+        input.mark(4);
+        int magic = 0;
+        for (int i = 0; i < 4; i++) {
+            int b = input.read();
+            if (b < 0) {
+                input.reset();
+                return false;
+            }
+            magic = (magic << 8) | b;
+        }
+        input.reset();
+        return magic == MAGIC;
+    }
+
+    /**
+     * @return the XStream used for update rules and spike responders which
+     *         can not be encoded reflectively
+     */
+    static XStream createRuleXStream() {
+        XStream xstream = Network.getXStream();
+        // Rebuilt from the fan-in when the rule is initialized
+        xstream.omitField(PointNeuronRule.class, "excitatoryInputs");
+        xstream.omitField(PointNeuronRule.class, "inhibitoryInputs");
+        return xstream;
+    }
+
+    /**
+     * @param neuronIndex the position of each neuron when writing, or null
+     * @param neurons the neurons by position when reading, or null
+     * @param blockIndex the block of each collection when writing, or null
+     * @param blocks the contents of each block when reading, or null
+     * @return the XStream used for the structure of the network
+     */
+    static XStream createStructureXStream(
+            final Map<Neuron, Integer> neuronIndex, final Neuron[] neurons,
+            final Map<Object, Integer> blockIndex,
+            final List<? extends Collection<?>> blocks) {
+        XStream xstream = createRuleXStream();
+        // Synapses are stored in blocks, never in these
+        xstream.omitField(SynapseGroup.class, "compressedMatrixRep");
+        xstream.omitField(SynapseGroup.class, "fullSynapseRep");
+        xstream.registerConverter(new NumberArrayConverter());
+        xstream.registerConverter(new NeuronConverter(xstream, neuronIndex,
+                neurons), XStream.PRIORITY_VERY_HIGH);
+        BlockConverter blockConverter = new BlockConverter(xstream,
+                blockIndex, blocks);
+        xstream.registerLocalConverter(Network.class, "neuronList",
+                blockConverter);
+        xstream.registerLocalConverter(Network.class, "synapseList",
+                blockConverter);
+        xstream.registerLocalConverter(NeuronGroup.class, "neuronList",
+                blockConverter);
+        xstream.registerLocalConverter(SynapseGroup.class, "exSynapseSet",
+                blockConverter);
+        xstream.registerLocalConverter(SynapseGroup.class, "inSynapseSet",
+                blockConverter);
+        return xstream;
+    }
+
+    /**
+     * Read a private field the way XStream does when serializing it.
+     *
+     * @param xstream the XStream
+     * @param owner the object holding the field
+     * @param definedIn the class declaring the field
+     * @param name the name of the field
+     * @return the value of the field
+     */
+    static Object fieldValue(final XStream xstream, final Object owner,
+            final Class<?> definedIn, final String name) {
+        Field field = xstream.getReflectionProvider().getField(definedIn,
+                name);
+        try {
+            field.setAccessible(true);
+            return field.get(owner);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Writes int and double arrays, such as the subsampling indices of neuron
+     * groups, as a single line of text rather than an element per value.
+     */
+    private static final class NumberArrayConverter implements Converter {
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean canConvert(final Class type) {
+            return type == int[].class || type == double[].class;
+        }
+
+        @Override
+        public void marshal(final Object source,
+                final HierarchicalStreamWriter writer,
+                final MarshallingContext context) {
+            StringBuilder text = new StringBuilder();
+            if (source instanceof int[]) {
+                for (int value : (int[]) source) {
+                    text.append(value).append(' ');
+                }
+            } else {
+                for (double value : (double[]) source) {
+                    text.append(value).append(' ');
+                }
+            }
+            writer.setValue(text.toString().trim());
+        }
+
+        @Override
+        public Object unmarshal(final HierarchicalStreamReader reader,
+                final UnmarshallingContext context) {
+            String text = reader.getValue().trim();
+            String[] values = text.isEmpty() ? new String[0] : text
+                    .split(" ");
+            if (context.getRequiredType() == int[].class) {
+                int[] array = new int[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    array[i] = Integer.parseInt(values[i]);
+                }
+                return array;
+            }
+            double[] array = new double[values.length];
+            for (int i = 0; i < values.length; i++) {
+                array[i] = Double.parseDouble(values[i]);
+            }
+            return array;
+        }
+    }
+
+    /**
+     * Writes neurons of the network as their position in the neuron columns.
+     * Neurons which are not part of the network (e.g. templates) are written
+     * in full.
+     */
+    private static final class NeuronConverter implements Converter {
+
+        /** The position of each neuron when writing. */
+        private final Map<Neuron, Integer> neuronIndex;
+
+        /** The neurons by position when reading. */
+        private final Neuron[] neurons;
+
+        /** Converter for neurons outside the network. */
+        private final ReflectionConverter fallback;
+
+        /**
+         * @param xstream the XStream this converter is registered with
+         * @param neuronIndex the position of each neuron when writing
+         * @param neurons the neurons by position when reading
+         */
+        NeuronConverter(final XStream xstream,
+                final Map<Neuron, Integer> neuronIndex,
+                final Neuron[] neurons) {
+            this.neuronIndex = neuronIndex;
+            this.neurons = neurons;
+            fallback = new ReflectionConverter(xstream.getMapper(),
+                    xstream.getReflectionProvider());
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean canConvert(final Class type) {
+            return type == Neuron.class;
+        }
+
+        @Override
+        public void marshal(final Object source,
+                final HierarchicalStreamWriter writer,
+                final MarshallingContext context) {
+            Integer index = neuronIndex == null ? null : neuronIndex
+                    .get(source);
+            if (index == null) {
+                fallback.marshal(source, writer, context);
+            } else {
+                writer.addAttribute(INDEX_ATTRIBUTE, index.toString());
+            }
+        }
+
+        @Override
+        public Object unmarshal(final HierarchicalStreamReader reader,
+                final UnmarshallingContext context) {
+            String index = reader.getAttribute(INDEX_ATTRIBUTE);
+            if (index == null) {
+                return fallback.unmarshal(reader, context);
+            }
+            return neurons[Integer.parseInt(index)];
+        }
+    }
+
+    /**
+     * Writes the neuron and synapse collections of the network and its groups
+     * as the position of the block holding their contents.
+     */
+    private static final class BlockConverter implements Converter {
+
+        /** The block of each collection when writing. */
+        private final Map<Object, Integer> blockIndex;
+
+        /** The contents of each block when reading. */
+        private final List<? extends Collection<?>> blocks;
+
+        /** Converter for collections which are not in a block. */
+        private final CollectionConverter fallback;
+
+        /**
+         * @param xstream the XStream this converter is registered with
+         * @param blockIndex the block of each collection when writing
+         * @param blocks the contents of each block when reading
+         */
+        BlockConverter(final XStream xstream,
+                final Map<Object, Integer> blockIndex,
+                final List<? extends Collection<?>> blocks) {
+            this.blockIndex = blockIndex;
+            this.blocks = blocks;
+            fallback = new CollectionConverter(xstream.getMapper());
+        }
+
+        @Override
+        @SuppressWarnings("rawtypes")
+        public boolean canConvert(final Class type) {
+            return Collection.class.isAssignableFrom(type);
+        }
+
+        @Override
+        public void marshal(final Object source,
+                final HierarchicalStreamWriter writer,
+                final MarshallingContext context) {
+            Integer block = blockIndex == null ? null : blockIndex.get(source);
+            if (block == null) {
+                fallback.marshal(source, writer, context);
+            } else {
+                writer.addAttribute(BLOCK_ATTRIBUTE, block.toString());
+            }
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object unmarshal(final HierarchicalStreamReader reader,
+                final UnmarshallingContext context) {
+            String block = reader.getAttribute(BLOCK_ATTRIBUTE);
+            if (block == null) {
+                return fallback.unmarshal(reader, context);
+            }
+            Collection<?> contents = blocks.get(Integer.parseInt(block));
+            if (contents.getClass() == context.getRequiredType()) {
+                return contents;
+            }
+            Collection<Object> collection;
+            try {
+                collection = (Collection<Object>) context.getRequiredType()
+                        .newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+            collection.addAll(contents);
+            return collection;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.NeuronUpdateRule;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.core.SynapseUpdateRule;
+import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
+import org.simbrain.util.SimbrainConstants.Polarity;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Reads a network written by {@link BinaryNetworkWriter}. Neurons and
+ * synapses are created from their columns first, then the XML of the rest of
+ * the network is read with the neuron and synapse collections filled in from
+ * their blocks, after which the network initializes itself as it does when
+ * read from XML alone, registering synapses with their neurons and
+ * compressing synapse groups which were compressed when saved.
+ */
+final class BinaryNetworkReader {
+
+    /** The rule XStream, also used for the tables. */
+    private final XStream ruleXStream = BinaryNetworkFormat
+            .createRuleXStream();
+
+    /** Table of learning rules. */
+    private RuleTable learningRules;
+
+    /** Table of spike responders. */
+    private RuleTable spikeResponders;
+
+    /**
+     * Spike responders read so far, by position in their table. Responders
+     * keep no per-synapse state, so synapses with the same one share it.
+     */
+    private SpikeResponder[] responderInstances;
+
+    /** The version of the data being read. */
+    private int version;
+
+    /** The neurons by position in the columns. */
+    private Neuron[] neurons;
+
+    /** The contents of each block. */
+    private final List<Collection<?>> blocks = new ArrayList<Collection<?>>();
+
+    /**
+     * Read a network.
+     *
+     * @param input the stream to read from, which is not closed
+     * @return the network
+     * @throws IOException if reading failed or the data is not a binary
+     *             network
+     */
+    Network read(final InputStream input) throws IOException {
+        BinaryInput in = new BinaryInput(input);
+        if (in.readInt() != BinaryNetworkFormat.MAGIC) {
+            throw new IOException("Not a binary network.");
+        }
+        version = in.readInt();
+        if (version > BinaryNetworkFormat.VERSION) {
+            throw new IOException("Binary network version " + version
+                    + " is newer than this version of Simbrain supports.");
+        }
+        RuleTable neuronRules = RuleTable.read(in, ruleXStream);
+        learningRules = RuleTable.read(in, ruleXStream);
+        spikeResponders = RuleTable.read(in, ruleXStream);
+        responderInstances = new SpikeResponder[spikeResponders.size()];
+        Network network = new Network();
+        readNeurons(in, network, neuronRules);
+        readNeuronLists(in);
+        for (int b = 0, n = in.readInt(); b < n; b++) {
+            byte kind = in.readByte();
+            if (kind == BinaryNetworkWriter.LOOSE_BLOCK) {
+                readLooseBlock(in);
+            } else if (kind == BinaryNetworkWriter.GROUP_BLOCK) {
+                readGroupBlock(in);
+            } else {
+                throw new IOException("Unknown synapse block " + kind + ".");
+            }
+        }
+        byte[] xml = new byte[in.readInt()];
+        in.readBytes(xml, 0, xml.length);
+        BinaryNetworkFormat.createStructureXStream(null, neurons, null,
+                blocks).fromXML(new ByteArrayInputStream(xml), network);
+        return network;
+    }
+
+    /**
+     * Create the neurons from their columns.
+     *
+     * @param in where to read them from
+     * @param network the network they belong to
+     * @param rules the table of update rules
+     * @throws IOException if reading failed
+     */
+    private void readNeurons(final BinaryInput in, final Network network,
+            final RuleTable rules) throws IOException {
+        int n = in.readInt();
+        String[] ids = in.readStringColumn(n);
+        String[] labels = in.readStringColumn(n);
+        int[] ruleColumn = in.readIntColumn(n);
+        double[][] values = new double[8][];
+        for (int c = 0; c < values.length; c++) {
+            values[c] = in.readDoubleColumn(n);
+        }
+        int[] priorities = in.readIntColumn(n);
+        byte[] flags = in.readByteColumn(n);
+        byte[] polarities = in.readByteColumn(n);
+        Polarity[] allPolarities = Polarity.values();
+        neurons = new Neuron[n];
+        for (int i = 0; i < n; i++) {
+            Neuron neuron = new Neuron(network,
+                    (NeuronUpdateRule) rules.newRule(ruleColumn[i]));
+            neuron.setId(ids[i]);
+            neuron.setLabel(labels[i]);
+            neuron.setX(values[0][i]);
+            neuron.setY(values[1][i]);
+            neuron.setZ(values[2][i]);
+            neuron.forceSetActivation(values[3][i]);
+            neuron.setBuffer(values[4][i]);
+            neuron.setInputValue(values[5][i]);
+            neuron.setTargetValue(values[6][i]);
+            neuron.setAuxValue(values[7][i]);
+            if (priorities[i] != 0) {
+                neuron.setUpdatePriority(priorities[i]);
+            }
+            neuron.setClamped((flags[i] & BinaryNetworkWriter.CLAMPED) != 0);
+            neuron.setSpike((flags[i] & BinaryNetworkWriter.SPIKE) != 0);
+            neuron.setSpkBuffer(
+                    (flags[i] & BinaryNetworkWriter.SPIKE_BUFFER) != 0);
+            neuron.setPolarity(polarities[i] < 0 ? null
+                    : allPolarities[polarities[i]]);
+            neurons[i] = neuron;
+        }
+    }
+
+    /**
+     * Read the neuron lists into blocks.
+     *
+     * @param in where to read them from
+     * @throws IOException if reading failed
+     */
+    private void readNeuronLists(final BinaryInput in) throws IOException {
+        for (int l = 0, numLists = in.readInt(); l < numLists; l++) {
+            int size = in.readInt();
+            Neuron[] list = new Neuron[size];
+            if (in.readByte() == BinaryNetworkWriter.RANGE) {
+                System.arraycopy(neurons, in.readInt(), list, 0, size);
+            } else {
+                int[] positions = new int[size];
+                in.readInts(positions, 0, size);
+                for (int i = 0; i < size; i++) {
+                    list[i] = neurons[positions[i]];
+                }
+            }
+            blocks.add(Arrays.asList(list));
+        }
+    }
+
+    /**
+     * Read the network's loose synapses into a block.
+     *
+     * @param in where to read them from
+     * @throws IOException if reading failed
+     */
+    private void readLooseBlock(final BinaryInput in) throws IOException {
+        int n = in.readInt();
+        int[] sources = in.readIntColumn(n);
+        int[] targets = in.readIntColumn(n);
+        Synapse[] synapses = new Synapse[n];
+        for (int k = 0; k < n; k++) {
+            synapses[k] = new Synapse(neurons[sources[k]],
+                    neurons[targets[k]]);
+        }
+        readSynapseColumns(in, synapses, n);
+        blocks.add(Arrays.asList(synapses));
+    }
+
+    /**
+     * Read the synapses of a group into two blocks, the excitatory and the
+     * inhibitory synapses.
+     *
+     * @param in where to read them from
+     * @throws IOException if reading failed
+     */
+    @SuppressWarnings("unchecked")
+    private void readGroupBlock(final BinaryInput in) throws IOException {
+        List<Neuron> srcList = (List<Neuron>) blocks.get(in.readInt());
+        List<Neuron> tarList = (List<Neuron>) blocks.get(in.readInt());
+        byte mode = in.readByte();
+        int n = in.readInt();
+        int numRows = in.readInt();
+        int[] rowPtr = new int[numRows + 1];
+        in.readInts(rowPtr, 0, numRows + 1);
+        int[] columns = new int[n];
+        in.readInts(columns, 0, n);
+        Synapse[] synapses = new Synapse[n];
+        for (int i = 0; i < numRows; i++) {
+            Neuron src = srcList.get(i);
+            for (int k = rowPtr[i], end = rowPtr[i + 1]; k < end; k++) {
+                synapses[k] = new Synapse(src, tarList.get(columns[k]));
+            }
+        }
+        Set<Synapse> exSet = new HashSet<Synapse>((int) (n / 0.75) + 1);
+        Set<Synapse> inSet = new HashSet<Synapse>();
+        if (mode == BinaryNetworkWriter.PROTOTYPE_COLUMNS) {
+            // The group compresses these again as it is initialized, so
+            // they need nothing but their weights.
+            double[] weights = new double[n];
+            in.readDoubles(weights, 0, n);
+            for (int k = 0; k < n; k++) {
+                synapses[k].forceSetStrength(weights[k]);
+                (weights[k] < 0 ? inSet : exSet).add(synapses[k]);
+            }
+        } else {
+            byte[] flags = readSynapseColumns(in, synapses, n);
+            for (int k = 0; k < n; k++) {
+                ((flags[k] & BinaryNetworkWriter.INHIBITORY) != 0 ? inSet
+                        : exSet).add(synapses[k]);
+            }
+        }
+        blocks.add(exSet);
+        blocks.add(inSet);
+    }
+
+    /**
+     * Set the properties of synapses from their columns.
+     *
+     * @param in where to read the columns from
+     * @param synapses the synapses
+     * @param n the number of synapses
+     * @return the flags column
+     * @throws IOException if reading failed
+     */
+    private byte[] readSynapseColumns(final BinaryInput in,
+            final Synapse[] synapses, final int n) throws IOException {
+        double[] strengths = in.readDoubleColumn(n);
+        double[] increments = in.readDoubleColumn(n);
+        double[] upperBounds = in.readDoubleColumn(n);
+        double[] lowerBounds = in.readDoubleColumn(n);
+        double[] psrs = in.readDoubleColumn(n);
+        int[] delays = in.readIntColumn(n);
+        int[] ruleColumn = in.readIntColumn(n);
+        int[] responderColumn = in.readIntColumn(n);
+        byte[] flags = in.readByteColumn(n);
+        String[] ids = in.readStringColumn(n);
+        for (int k = 0; k < n; k++) {
+            Synapse s = synapses[k];
+            // Setting the rule resets the spike responder
+            s.setLearningRule((SynapseUpdateRule) learningRules
+                    .newRule(ruleColumn[k]));
+            s.setSpikeResponder(responder(responderColumn[k]));
+            s.setUpperBound(upperBounds[k]);
+            s.setLowerBound(lowerBounds[k]);
+            s.forceSetStrength(strengths[k]);
+            s.setIncrement(increments[k]);
+            s.setPsr(psrs[k]);
+            s.setDelay(delays[k]);
+            s.setEnabled((flags[k] & BinaryNetworkWriter.ENABLED) != 0);
+            s.setFrozen((flags[k] & BinaryNetworkWriter.FROZEN) != 0);
+            s.setId(ids[k]);
+        }
+        for (int d = 0, numDelayed = in.readInt(); d < numDelayed; d++) {
+            int k = in.readInt();
+            byte[] state = new byte[in.readInt()];
+            in.readBytes(state, 0, state.length);
+            synapses[k].decodeNumericByteArray(ByteBuffer.wrap(state));
+            // Decoding clips the strength to the bounds
+            synapses[k].forceSetStrength(strengths[k]);
+        }
+        if (version >= 2) {
+            for (int r = 0, num = in.readInt(); r < num; r++) {
+                int k = in.readInt();
+                double[] state = new double[in.readInt()];
+                in.readDoubles(state, 0, state.length);
+                synapses[k].setResponderState(state);
+            }
+        }
+        return flags;
+    }
+
+    /**
+     * @param index the position of a spike responder in its table, or -1
+     * @return the responder, or null for -1
+     * @throws IOException if the responder could not be created
+     */
+    private SpikeResponder responder(final int index) throws IOException {
+        if (index < 0) {
+            return null;
+        }
+        if (responderInstances[index] == null) {
+            responderInstances[index] = (SpikeResponder) spikeResponders
+                    .newRule(index);
+        }
+        return responderInstances[index];
+    }
+}
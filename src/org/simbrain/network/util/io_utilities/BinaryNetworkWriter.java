@@ -0,0 +1,574 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.simbrain.network.core.Network;
+import org.simbrain.network.core.Neuron;
+import org.simbrain.network.core.Synapse;
+import org.simbrain.network.groups.CompressedWeightMatrix;
+import org.simbrain.network.groups.Group;
+import org.simbrain.network.groups.NeuronGroup;
+import org.simbrain.network.groups.SynapseGroup;
+import org.simbrain.network.synapse_update_rules.spikeresponders.SpikeResponder;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * Writes a network in the binary network format. The layout is:
+ *
+ * <ol>
+ * <li>the magic number and version;</li>
+ * <li>the tables of neuron update rules, synapse learning rules and spike
+ * responders;</li>
+ * <li>the neuron columns;</li>
+ * <li>the neuron blocks, each the positions of the neurons in one neuron
+ * list (of the network or of a neuron group);</li>
+ * <li>the synapse blocks, one for the loose synapses of the network and one
+ * for each synapse group;</li>
+ * <li>the XML of everything else.</li>
+ * </ol>
+ *
+ * The rule tables, and the column of rule positions for each collection of
+ * synapses, are built in a first pass over the synapses. The other columns
+ * of each synapse block are then built and written one block at a time, so
+ * that no more than one block's columns of values are held in memory.
+ */
+final class BinaryNetworkWriter {
+
+    /** Synapse block kinds. */
+    static final byte LOOSE_BLOCK = 0, GROUP_BLOCK = 1;
+
+    /** Synapse block column modes. */
+    static final byte FULL_COLUMNS = 0, PROTOTYPE_COLUMNS = 1;
+
+    /** Synapse flags. */
+    static final byte ENABLED = 1, FROZEN = 2, INHIBITORY = 4;
+
+    /** Neuron flags. */
+    static final byte CLAMPED = 1, SPIKE = 2, SPIKE_BUFFER = 4;
+
+    /** Neuron list encodings. */
+    static final byte RANGE = 0, POSITIONS = 1;
+
+    /** The network. */
+    private final Network network;
+
+    /** XStream used to read private collection fields. */
+    private final XStream fieldReader = Network.getXStream();
+
+    /** Table of neuron update rules. */
+    private final RuleTable neuronRules;
+
+    /** Table of synapse learning rules. */
+    private final RuleTable learningRules;
+
+    /** Table of spike responders. */
+    private final RuleTable spikeResponders;
+
+    /** The neurons, in column order. */
+    private final List<Neuron> neurons = new ArrayList<Neuron>();
+
+    /** The position of each neuron in the columns. */
+    private final Map<Neuron, Integer> neuronIndex =
+            new IdentityHashMap<Neuron, Integer>();
+
+    /** The block of each neuron list and synapse collection. */
+    private final Map<Object, Integer> blockIndex =
+            new IdentityHashMap<Object, Integer>();
+
+    /** The neuron lists, in block order. */
+    private final List<List<Neuron>> neuronLists =
+            new ArrayList<List<Neuron>>();
+
+    /** The synapse groups, in block order after the loose synapses. */
+    private final List<SynapseGroup> synapseGroups =
+            new ArrayList<SynapseGroup>();
+
+    /** The network's loose synapses. */
+    private Set<Synapse> looseSynapses;
+
+    /**
+     * The positions of the learning rules and spike responders of each
+     * collection of synapses in their tables, in iteration order.
+     */
+    private final Map<Set<Synapse>, int[][]> ruleColumns =
+            new IdentityHashMap<Set<Synapse>, int[][]>();
+
+    /**
+     * Scratch map from neuron position to position in a source list, -1 for
+     * neurons not in it.
+     */
+    private int[] sourcePosition;
+
+    /** Scratch map from neuron position to position in a target list. */
+    private int[] targetPosition;
+
+    /**
+     * @param network the network to write
+     */
+    BinaryNetworkWriter(final Network network) {
+        this.network = network;
+        XStream ruleXStream = BinaryNetworkFormat.createRuleXStream();
+        neuronRules = new RuleTable(ruleXStream);
+        learningRules = new RuleTable(ruleXStream);
+        spikeResponders = new RuleTable(ruleXStream);
+    }
+
+    /**
+     * Write the network.
+     *
+     * @param output the stream to write to, which is not closed
+     * @throws IOException if writing failed
+     */
+    @SuppressWarnings("unchecked")
+    void write(final OutputStream output) throws IOException {
+        // Collect neuron lists and synapse collections, assigning blocks
+        addNeuronList((List<Neuron>) BinaryNetworkFormat.fieldValue(
+                fieldReader, network, Network.class, "neuronList"));
+        List<NeuronGroup> neuronGroups = new ArrayList<NeuronGroup>();
+        for (Group group : network.getFlatGroupList()) {
+            if (group instanceof NeuronGroup) {
+                neuronGroups.add((NeuronGroup) group);
+            } else if (group instanceof SynapseGroup) {
+                synapseGroups.add((SynapseGroup) group);
+            }
+        }
+        for (SynapseGroup sg : synapseGroups) {
+            neuronGroups.add(sg.getSourceNeuronGroup());
+            neuronGroups.add(sg.getTargetNeuronGroup());
+        }
+        for (NeuronGroup ng : neuronGroups) {
+            if (ng != null) {
+                ng.preSaveInit();
+                addNeuronList(neuronListOf(ng));
+            }
+        }
+        int block = neuronLists.size();
+        looseSynapses = (Set<Synapse>) BinaryNetworkFormat.fieldValue(
+                fieldReader, network, Network.class, "synapseList");
+        blockIndex.put(looseSynapses, block++);
+        Map<SynapseGroup, Boolean> seen =
+                new IdentityHashMap<SynapseGroup, Boolean>();
+        for (SynapseGroup sg : new ArrayList<SynapseGroup>(synapseGroups)) {
+            if (seen.put(sg, Boolean.TRUE) != null) {
+                synapseGroups.remove(sg);
+                continue;
+            }
+            blockIndex.put(synapseSet(sg, true), block++);
+            blockIndex.put(synapseSet(sg, false), block++);
+        }
+
+        // First pass: fill the rule tables
+        int[] neuronRuleColumn = new int[neurons.size()];
+        for (int i = 0; i < neuronRuleColumn.length; i++) {
+            neuronRuleColumn[i] = neuronRules.indexOf(neurons.get(i)
+                    .getUpdateRule());
+        }
+        addRules(looseSynapses);
+        for (SynapseGroup sg : synapseGroups) {
+            if (!sg.isUseCompressedMatrix()) {
+                addRules(synapseSet(sg, true));
+                addRules(synapseSet(sg, false));
+            }
+        }
+
+        BinaryOutput out = new BinaryOutput(output);
+        out.writeInt(BinaryNetworkFormat.MAGIC);
+        out.writeInt(BinaryNetworkFormat.VERSION);
+        neuronRules.write(out);
+        learningRules.write(out);
+        spikeResponders.write(out);
+        writeNeurons(out, neuronRuleColumn);
+        writeNeuronLists(out);
+
+        // Second pass: the synapse blocks
+        sourcePosition = new int[neurons.size()];
+        targetPosition = new int[neurons.size()];
+        Arrays.fill(sourcePosition, -1);
+        Arrays.fill(targetPosition, -1);
+        out.writeInt(1 + synapseGroups.size());
+        writeLooseBlock(out);
+        for (SynapseGroup sg : synapseGroups) {
+            writeGroupBlock(out, sg);
+        }
+
+        ByteArrayOutputStream xml = new ByteArrayOutputStream();
+        BinaryNetworkFormat.createStructureXStream(neuronIndex, null,
+                blockIndex, null).toXML(network, xml);
+        out.writeInt(xml.size());
+        out.writeBytes(xml.toByteArray(), 0, xml.size());
+        out.flush();
+    }
+
+    /**
+     * @param ng a neuron group
+     * @return its neuron list itself, not a copy
+     */
+    @SuppressWarnings("unchecked")
+    private List<Neuron> neuronListOf(final NeuronGroup ng) {
+        return (List<Neuron>) BinaryNetworkFormat.fieldValue(fieldReader, ng,
+                NeuronGroup.class, "neuronList");
+    }
+
+    /**
+     * @param sg a synapse group
+     * @param excitatory whether to return the excitatory or inhibitory set
+     * @return the set itself, not a copy
+     */
+    @SuppressWarnings("unchecked")
+    private Set<Synapse> synapseSet(final SynapseGroup sg,
+            final boolean excitatory) {
+        return (Set<Synapse>) BinaryNetworkFormat.fieldValue(fieldReader, sg,
+                SynapseGroup.class, excitatory ? "exSynapseSet"
+                        : "inSynapseSet");
+    }
+
+    /**
+     * Give a neuron list a block, adding its neurons to the columns.
+     *
+     * @param list the list
+     */
+    private void addNeuronList(final List<Neuron> list) {
+        if (list == null || blockIndex.containsKey(list)) {
+            return;
+        }
+        blockIndex.put(list, neuronLists.size());
+        neuronLists.add(list);
+        for (Neuron n : list) {
+            if (!neuronIndex.containsKey(n)) {
+                neuronIndex.put(n, neurons.size());
+                neurons.add(n);
+            }
+        }
+    }
+
+    /**
+     * Add the rules of a collection of synapses to the tables and record
+     * their positions.
+     *
+     * @param synapses the synapses
+     */
+    private void addRules(final Set<Synapse> synapses) {
+        int[] rules = new int[synapses.size()];
+        int[] responders = new int[rules.length];
+        int k = 0;
+        for (Synapse s : synapses) {
+            rules[k] = learningRules.indexOf(s.getLearningRule());
+            responders[k++] = spikeResponders.indexOf(s.getSpikeResponder());
+        }
+        ruleColumns.put(synapses, new int[][] { rules, responders });
+    }
+
+    /**
+     * @param neuron a neuron
+     * @return its position in the columns
+     * @throws IllegalStateException if it is not in any neuron list
+     */
+    private int positionOf(final Neuron neuron) {
+        Integer index = neuronIndex.get(neuron);
+        if (index == null) {
+            throw new IllegalStateException(neuron.getId() + " is connected"
+                    + " but is not part of the network.");
+        }
+        return index;
+    }
+
+    /**
+     * Write the neuron columns.
+     *
+     * @param out where to write them
+     * @param ruleColumn the position of each neuron's rule in its table
+     * @throws IOException if writing failed
+     */
+    private void writeNeurons(final BinaryOutput out, final int[] ruleColumn)
+            throws IOException {
+        int n = neurons.size();
+        String[] ids = new String[n];
+        String[] labels = new String[n];
+        double[][] values = new double[8][n];
+        int[] priorities = new int[n];
+        byte[] flags = new byte[n];
+        byte[] polarities = new byte[n];
+        for (int i = 0; i < n; i++) {
+            Neuron neuron = neurons.get(i);
+            ids[i] = neuron.getId();
+            labels[i] = neuron.getLabel();
+            values[0][i] = neuron.getX();
+            values[1][i] = neuron.getY();
+            values[2][i] = neuron.getZ();
+            values[3][i] = neuron.getActivation();
+            values[4][i] = neuron.getBuffer();
+            values[5][i] = neuron.getInputValue();
+            values[6][i] = neuron.getTargetValue();
+            values[7][i] = neuron.getAuxValue();
+            priorities[i] = neuron.getUpdatePriority();
+            flags[i] = (byte) ((neuron.isClamped() ? CLAMPED : 0)
+                    | (neuron.isSpike() ? SPIKE : 0)
+                    | (neuron.getSpkBuffer() ? SPIKE_BUFFER : 0));
+            polarities[i] = (byte) (neuron.getPolarity() == null ? -1
+                    : neuron.getPolarity().ordinal());
+        }
+        out.writeInt(n);
+        out.writeStringColumn(ids, n);
+        out.writeStringColumn(labels, n);
+        out.writeIntColumn(ruleColumn, n);
+        for (double[] column : values) {
+            out.writeDoubleColumn(column, n);
+        }
+        out.writeIntColumn(priorities, n);
+        out.writeByteColumn(flags, n);
+        out.writeByteColumn(polarities, n);
+    }
+
+    /**
+     * Write the neuron lists, each as a range of positions when its neurons
+     * were added to the columns together and as a list of positions
+     * otherwise.
+     *
+     * @param out where to write them
+     * @throws IOException if writing failed
+     */
+    private void writeNeuronLists(final BinaryOutput out) throws IOException {
+        out.writeInt(neuronLists.size());
+        for (List<Neuron> list : neuronLists) {
+            int size = list.size();
+            int[] positions = new int[size];
+            boolean range = true;
+            for (int i = 0; i < size; i++) {
+                positions[i] = neuronIndex.get(list.get(i));
+                range &= positions[i] == positions[0] + i;
+            }
+            out.writeInt(size);
+            if (range) {
+                out.writeByte(RANGE);
+                out.writeInt(size == 0 ? 0 : positions[0]);
+            } else {
+                out.writeByte(POSITIONS);
+                out.writeInts(positions, 0, size);
+            }
+        }
+    }
+
+    /**
+     * Write the network's loose synapses, with the positions of their source
+     * and target neurons in the columns.
+     *
+     * @param out where to write them
+     * @throws IOException if writing failed
+     */
+    private void writeLooseBlock(final BinaryOutput out) throws IOException {
+        int n = looseSynapses.size();
+        Synapse[] synapses = looseSynapses.toArray(new Synapse[n]);
+        int[] sources = new int[n];
+        int[] targets = new int[n];
+        for (int k = 0; k < n; k++) {
+            sources[k] = positionOf(synapses[k].getSource());
+            targets[k] = positionOf(synapses[k].getTarget());
+        }
+        out.writeByte(LOOSE_BLOCK);
+        out.writeInt(n);
+        out.writeIntColumn(sources, n);
+        out.writeIntColumn(targets, n);
+        int[][] rules = ruleColumns.get(looseSynapses);
+        writeSynapseColumns(out, synapses, rules[0], rules[1], null, n);
+    }
+
+    /**
+     * Write the synapses of a group as a compressed sparse row block over the
+     * group's source and target neurons. Compressed groups are written
+     * straight from their weight matrix, with weights only, since all their
+     * synapses conform to the group's prototypes.
+     *
+     * @param out where to write them
+     * @param sg the group
+     * @throws IOException if writing failed
+     */
+    private void writeGroupBlock(final BinaryOutput out,
+            final SynapseGroup sg) throws IOException {
+        List<Neuron> srcList = neuronListOf(sg.getSourceNeuronGroup());
+        List<Neuron> tarList = neuronListOf(sg.getTargetNeuronGroup());
+        out.writeByte(GROUP_BLOCK);
+        out.writeInt(blockIndex.get(srcList));
+        out.writeInt(blockIndex.get(tarList));
+        int numRows = srcList.size();
+        if (sg.isUseCompressedMatrix()) {
+            CompressedWeightMatrix cw = sg.getCompressedWeights();
+            int n = cw.size();
+            int[] csrToWeight = cw.getRowToWeightIndices();
+            double[] cscWeights = cw.getWeights();
+            double[] weights = new double[n];
+            for (int k = 0; k < n; k++) {
+                weights[k] = cscWeights[csrToWeight[k]];
+            }
+            out.writeByte(PROTOTYPE_COLUMNS);
+            out.writeInt(n);
+            out.writeInt(numRows);
+            out.writeInts(cw.getRowPointers(), 0, numRows + 1);
+            out.writeInts(cw.getTargetIndices(), 0, n);
+            out.writeDoubles(weights, 0, n);
+            return;
+        }
+        for (int i = 0; i < numRows; i++) {
+            sourcePosition[positionOf(srcList.get(i))] = i;
+        }
+        for (int j = 0, m = tarList.size(); j < m; j++) {
+            targetPosition[positionOf(tarList.get(j))] = j;
+        }
+        Set<Synapse> exSet = synapseSet(sg, true);
+        Set<Synapse> inSet = synapseSet(sg, false);
+        int numEx = exSet.size();
+        int n = numEx + inSet.size();
+        Synapse[] unsorted = new Synapse[n];
+        int[] rows = new int[n];
+        int[] unsortedColumns = new int[n];
+        int[] rowPtr = new int[numRows + 1];
+        int k = 0;
+        for (Set<Synapse> set : Arrays.asList(exSet, inSet)) {
+            for (Synapse s : set) {
+                int row = sourcePosition[positionOf(s.getSource())];
+                int column = targetPosition[positionOf(s.getTarget())];
+                if (row < 0 || column < 0) {
+                    throw new IllegalStateException(s.getId() + " in "
+                            + sg.getLabel() + " does not connect the"
+                            + " group's neurons.");
+                }
+                unsorted[k] = s;
+                unsortedColumns[k] = column;
+                rows[k++] = row;
+                rowPtr[row + 1]++;
+            }
+        }
+        for (int i = 0; i < numRows; i++) {
+            rowPtr[i + 1] += rowPtr[i];
+        }
+        // Counting sort into row order
+        int[][] exRules = ruleColumns.get(exSet);
+        int[][] inRules = ruleColumns.get(inSet);
+        int[] next = Arrays.copyOf(rowPtr, numRows);
+        Synapse[] synapses = new Synapse[n];
+        boolean[] inhibitory = new boolean[n];
+        int[] columns = new int[n];
+        int[] rules = new int[n];
+        int[] responders = new int[n];
+        for (k = 0; k < n; k++) {
+            int pos = next[rows[k]]++;
+            synapses[pos] = unsorted[k];
+            columns[pos] = unsortedColumns[k];
+            inhibitory[pos] = k >= numEx;
+            int[][] setRules = k < numEx ? exRules : inRules;
+            rules[pos] = setRules[0][k < numEx ? k : k - numEx];
+            responders[pos] = setRules[1][k < numEx ? k : k - numEx];
+        }
+        out.writeByte(FULL_COLUMNS);
+        out.writeInt(n);
+        out.writeInt(numRows);
+        out.writeInts(rowPtr, 0, numRows + 1);
+        out.writeInts(columns, 0, n);
+        writeSynapseColumns(out, synapses, rules, responders, inhibitory, n);
+        for (Neuron neuron : srcList) {
+            sourcePosition[neuronIndex.get(neuron)] = -1;
+        }
+        for (Neuron neuron : tarList) {
+            targetPosition[neuronIndex.get(neuron)] = -1;
+        }
+    }
+
+    /**
+     * Write the properties of synapses as columns, followed by the state of
+     * the delay queues of any delayed synapses and the state kept by the
+     * spike responders of any synapses which have some.
+     *
+     * @param out where to write them
+     * @param synapses the synapses
+     * @param rules the position of each synapse's learning rule
+     * @param responders the position of each synapse's spike responder
+     * @param inhibitory whether each synapse is in an inhibitory set, or null
+     * @param n the number of synapses
+     * @throws IOException if writing failed
+     */
+    private void writeSynapseColumns(final BinaryOutput out,
+            final Synapse[] synapses, final int[] rules,
+            final int[] responders, final boolean[] inhibitory, final int n)
+            throws IOException {
+        // One pass over the synapses, which are scattered in memory
+        double[][] values = new double[5][n];
+        int[] delays = new int[n];
+        byte[] flags = new byte[n];
+        String[] ids = new String[n];
+        int numDelayed = 0;
+        int numWithState = 0;
+        for (int k = 0; k < n; k++) {
+            Synapse s = synapses[k];
+            if (s.getSpikeResponder() != null
+                    && s.getSpikeResponder().getStateSize() > 0) {
+                numWithState++;
+            }
+            values[0][k] = s.getStrength();
+            values[1][k] = s.getIncrement();
+            values[2][k] = s.getUpperBound();
+            values[3][k] = s.getLowerBound();
+            values[4][k] = s.getPsr();
+            delays[k] = s.getDelay();
+            if (delays[k] > 0) {
+                numDelayed++;
+            }
+            flags[k] = (byte) ((s.isEnabled() ? ENABLED : 0)
+                    | (s.isFrozen() ? FROZEN : 0)
+                    | (inhibitory != null && inhibitory[k] ? INHIBITORY : 0));
+            ids[k] = s.getId();
+        }
+        for (double[] column : values) {
+            out.writeDoubleColumn(column, n);
+        }
+        out.writeIntColumn(delays, n);
+        out.writeIntColumn(rules, n);
+        out.writeIntColumn(responders, n);
+        out.writeByteColumn(flags, n);
+        out.writeStringColumn(ids, n);
+        out.writeInt(numDelayed);
+        for (int k = 0; k < n; k++) {
+            if (delays[k] > 0) {
+                byte[] state = synapses[k].getNumericValuesAsByteArray();
+                out.writeInt(k);
+                out.writeInt(state.length);
+                out.writeBytes(state, 0, state.length);
+            }
+        }
+        out.writeInt(numWithState);
+        for (int k = 0; k < n && numWithState > 0; k++) {
+            SpikeResponder responder = synapses[k].getSpikeResponder();
+            if (responder != null && responder.getStateSize() > 0) {
+                double[] state = synapses[k].getResponderState();
+                out.writeInt(k);
+                out.writeInt(state.length);
+                out.writeDoubles(state, 0, state.length);
+            }
+        }
+    }
+}
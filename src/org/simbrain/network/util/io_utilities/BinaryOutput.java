@@ -0,0 +1,336 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered writer of primitive values and arrays to a channel, used by the
+ * binary network format. Arrays are copied into the buffer in bulk through
+ * typed views, so writing a column of a million weights costs little more
+ * than the I/O itself. The underlying stream is never closed, since it is
+ * usually an entry of a workspace zip file.
+ */
+final class BinaryOutput {
+
+    /** Size of the buffer, in bytes. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** The channel written to. */
+    private final WritableByteChannel channel;
+
+    /** Bytes waiting to be written. */
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    /**
+     * @param output the stream to write to
+     */
+    BinaryOutput(final OutputStream output) {
+        channel = Channels.newChannel(output);
+    }
+
+    /**
+     * Make sure the buffer has room for a number of bytes.
+     *
+     * @param bytes the number of bytes, at most the buffer size
+     * @throws IOException if the buffer could not be flushed
+     */
+    private void ensure(final int bytes) throws IOException {
+        if (buffer.remaining() < bytes) {
+            drain();
+        }
+    }
+
+    /**
+     * Write out the buffered bytes.
+     *
+     * @throws IOException if writing failed
+     */
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Write out everything buffered so far. The stream is not closed.
+     *
+     * @throws IOException if writing failed
+     */
+    void flush() throws IOException {
+        drain();
+    }
+
+    /**
+     * @param value the low byte of the value
+     * @throws IOException if writing failed
+     */
+    void writeByte(final int value) throws IOException {
+        ensure(1);
+        buffer.put((byte) value);
+    }
+
+    /**
+     * @param value the value
+     * @throws IOException if writing failed
+     */
+    void writeInt(final int value) throws IOException {
+        ensure(4);
+        buffer.putInt(value);
+    }
+
+    /**
+     * @param value the value
+     * @throws IOException if writing failed
+     */
+    void writeLong(final long value) throws IOException {
+        ensure(8);
+        buffer.putLong(value);
+    }
+
+    /**
+     * @param value the value
+     * @throws IOException if writing failed
+     */
+    void writeDouble(final double value) throws IOException {
+        ensure(8);
+        buffer.putDouble(value);
+    }
+
+    /**
+     * Write a string as its length in bytes followed by its UTF-8 bytes.
+     * Null is written as length -1.
+     *
+     * @param value the string, or null
+     * @throws IOException if writing failed
+     */
+    void writeString(final String value) throws IOException {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeInt(bytes.length);
+        writeBytes(bytes, 0, bytes.length);
+    }
+
+    /**
+     * @param values bytes to write
+     * @param offset the first byte
+     * @param length the number of bytes
+     * @throws IOException if writing failed
+     */
+    void writeBytes(final byte[] values, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(length, buffer.remaining());
+            buffer.put(values, offset, n);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * @param values ints to write
+     * @param offset the first value
+     * @param length the number of values
+     * @throws IOException if writing failed
+     */
+    void writeInts(final int[] values, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            ensure(4);
+            int n = Math.min(length, buffer.remaining() / 4);
+            buffer.asIntBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 4);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * @param values doubles to write
+     * @param offset the first value
+     * @param length the number of values
+     * @throws IOException if writing failed
+     */
+    void writeDoubles(final double[] values, int offset, int length)
+            throws IOException {
+        while (length > 0) {
+            ensure(8);
+            int n = Math.min(length, buffer.remaining() / 8);
+            buffer.asDoubleBuffer().put(values, offset, n);
+            buffer.position(buffer.position() + n * 8);
+            offset += n;
+            length -= n;
+        }
+    }
+
+    /**
+     * Write the first values of a column, as a single value if they are all
+     * the same and in full otherwise.
+     *
+     * @param values the column
+     * @param length the number of values
+     * @throws IOException if writing failed
+     */
+    void writeDoubleColumn(final double[] values, final int length)
+            throws IOException {
+        boolean constant = true;
+        for (int i = 1; i < length && constant; i++) {
+            constant = Double.doubleToLongBits(values[i])
+                    == Double.doubleToLongBits(values[0]);
+        }
+        if (constant) {
+            writeByte(0);
+            writeDouble(length == 0 ? 0 : values[0]);
+        } else {
+            writeByte(1);
+            writeDoubles(values, 0, length);
+        }
+    }
+
+    /**
+     * Write the first values of a column, as a single value if they are all
+     * the same and in full otherwise.
+     *
+     * @param values the column
+     * @param length the number of values
+     * @throws IOException if writing failed
+     */
+    void writeIntColumn(final int[] values, final int length)
+            throws IOException {
+        boolean constant = true;
+        for (int i = 1; i < length && constant; i++) {
+            constant = values[i] == values[0];
+        }
+        if (constant) {
+            writeByte(0);
+            writeInt(length == 0 ? 0 : values[0]);
+        } else {
+            writeByte(1);
+            writeInts(values, 0, length);
+        }
+    }
+
+    /**
+     * Write the first values of a column, as a single value if they are all
+     * the same and in full otherwise.
+     *
+     * @param values the column
+     * @param length the number of values
+     * @throws IOException if writing failed
+     */
+    void writeByteColumn(final byte[] values, final int length)
+            throws IOException {
+        boolean constant = true;
+        for (int i = 1; i < length && constant; i++) {
+            constant = values[i] == values[0];
+        }
+        if (constant) {
+            writeByte(0);
+            writeByte(length == 0 ? 0 : values[0]);
+        } else {
+            writeByte(1);
+            writeBytes(values, 0, length);
+        }
+    }
+
+    /**
+     * Write the first values of a column of strings, as a single value if
+     * they are all the same, as a prefix and a column of numbers if they are
+     * all the same prefix followed by a number (as ids are) and in full
+     * otherwise.
+     *
+     * @param values the column
+     * @param length the number of values
+     * @throws IOException if writing failed
+     */
+    void writeStringColumn(final String[] values, final int length)
+            throws IOException {
+        boolean constant = true;
+        for (int i = 1; i < length && constant; i++) {
+            constant = values[i] == null ? values[0] == null
+                    : values[i].equals(values[0]);
+        }
+        if (constant) {
+            writeByte(0);
+            writeString(length == 0 ? null : values[0]);
+            return;
+        }
+        int prefixLength = numberStart(values[0]);
+        boolean numbered = prefixLength >= 0;
+        for (int i = 1; i < length && numbered; i++) {
+            numbered = numberStart(values[i]) == prefixLength
+                    && values[i].regionMatches(0, values[0], 0,
+                            prefixLength);
+        }
+        if (numbered) {
+            int[] numbers = new int[length];
+            for (int i = 0; i < length; i++) {
+                int number = 0;
+                for (int j = prefixLength; j < values[i].length(); j++) {
+                    number = number * 10 + values[i].charAt(j) - '0';
+                }
+                numbers[i] = number;
+            }
+            writeByte(2);
+            writeString(values[0].substring(0, prefixLength));
+            writeIntColumn(numbers, length);
+        } else {
+            writeByte(1);
+            for (int i = 0; i < length; i++) {
+                writeString(values[i]);
+            }
+        }
+    }
+
+    /**
+     * @param value a string
+     * @return the position of the number the string ends with, or -1 if it
+     *         does not end with a number which can be written back the same
+     *         way from an int
+     */
+    private static int numberStart(final String value) {
+        if (value == null) {
+            return -1;
+        }
+        int start = value.length();
+        while (start > 0 && value.charAt(start - 1) >= '0'
+                && value.charAt(start - 1) <= '9') {
+            start--;
+        }
+        int digits = value.length() - start;
+        if (digits == 0 || digits > 9
+                || (digits > 1 && value.charAt(start) == '0')) {
+            return -1;
+        }
+        return start;
+    }
+}
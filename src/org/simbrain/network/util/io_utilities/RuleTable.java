@@ -0,0 +1,641 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.network.util.io_utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.thoughtworks.xstream.XStream;
+
+/**
+ * The update rules (or spike responders) used by the neurons or synapses of a
+ * network, as stored in the binary network format. Rules with the same
+ * parameters and state are stored once, as a record which elements refer to
+ * by position, so a table is usually tiny even when every one of a million
+ * synapses has a rule of its own. Since every neuron and synapse has its own
+ * rule, each is given a new rule decoded from its record when loaded. The
+ * parameters of a rule are encoded reflectively as tagged values after a
+ * header naming each class and its fields once. A rule holding anything other
+ * than primitives, strings, enums, primitive arrays and other such simple
+ * objects is stored as XStream XML instead.
+ *
+ * On loading, fields which no longer exist are skipped and fields which did
+ * not exist keep the values given by the rule's constructor.
+ */
+final class RuleTable {
+
+    /** Value tags. */
+    private static final byte NULL = 0, BOOLEAN = 1, BYTE = 2, CHAR = 3,
+            SHORT = 4, INT = 5, LONG = 6, FLOAT = 7, DOUBLE = 8, STRING = 9,
+            ENUM = 10, OBJECT = 11, DOUBLES = 12, INTS = 13, BOOLEANS = 14;
+
+    /** Record kinds. */
+    private static final byte REFLECTED = 0, XML = 1;
+
+    /** Deepest nesting of objects encoded reflectively. */
+    private static final int MAX_DEPTH = 8;
+
+    /** Serializable fields of each class encoded so far, by class. */
+    private static final Map<Class<?>, Field[]> FIELDS =
+            new HashMap<Class<?>, Field[]>();
+
+    /** XStream used for rules which can not be encoded reflectively. */
+    private final XStream xstream;
+
+    /** Names of the classes in the records. */
+    private final List<Class<?>> classes = new ArrayList<Class<?>>();
+
+    /** Position of each class in {@link #classes}. */
+    private final Map<Class<?>, Integer> classIndex =
+            new HashMap<Class<?>, Integer>();
+
+    /** The distinct records. */
+    private final List<byte[]> records = new ArrayList<byte[]>();
+
+    /** Position of each record, keyed by its contents. */
+    private final Map<ByteBuffer, Integer> recordIndex =
+            new HashMap<ByteBuffer, Integer>();
+
+    /** The fields of each class of a table read back, as written. */
+    private Field[][] layouts;
+
+    /**
+     * The no-argument constructor of each class of a table read back, or
+     * null for classes without one.
+     */
+    private Constructor<?>[] constructors;
+
+    /**
+     * The values of the fields of each record of a table read back, for
+     * records holding only primitives, strings and enums, so that rules can
+     * be created from them without decoding the record again. Null for other
+     * records and records not yet used.
+     */
+    private Object[][] flatValues;
+
+    /** The class of each record with {@link #flatValues}. */
+    private int[] flatClasses;
+
+    /** Whether {@link #flatValues} has been worked out for each record. */
+    private boolean[] flatChecked;
+
+    /** Fields of the classes which have been encoded. */
+    private final Map<Class<?>, Field[]> encodedFields =
+            new HashMap<Class<?>, Field[]>();
+
+    /** Scratch stream records are encoded into. */
+    private final Scratch bytes = new Scratch();
+
+    /** Writes to {@link #bytes}. */
+    private final DataOutputStream data = new DataOutputStream(bytes);
+
+    /**
+     * @param xstream XStream used for rules which can not be encoded
+     *            reflectively
+     */
+    RuleTable(final XStream xstream) {
+        this.xstream = xstream;
+    }
+
+    /**
+     * Add a rule to the table if there is no record of a rule with the same
+     * parameters and state already.
+     *
+     * @param rule the rule, or null
+     * @return the position of its record, or -1 for null
+     */
+    int indexOf(final Object rule) {
+        if (rule == null) {
+            return -1;
+        }
+        encode(rule);
+        Integer index = recordIndex.get(bytes.view());
+        if (index == null) {
+            byte[] record = bytes.toByteArray();
+            index = records.size();
+            records.add(record);
+            recordIndex.put(ByteBuffer.wrap(record), index);
+        }
+        return index;
+    }
+
+    /**
+     * @return the number of records in the table
+     */
+    int size() {
+        return records.size();
+    }
+
+    /**
+     * @param index the position of a record in a table which has been read,
+     *            or -1
+     * @return a new rule decoded from the record, or null for -1
+     * @throws IOException if the record can not be decoded
+     */
+    Object newRule(final int index) throws IOException {
+        if (index < 0) {
+            return null;
+        }
+        if (!flatChecked[index]) {
+            flatChecked[index] = true;
+            decodeFlat(index);
+        }
+        Object[] values = flatValues[index];
+        if (values == null) {
+            return decode(records.get(index));
+        }
+        int c = flatClasses[index];
+        Object obj = newInstance(c);
+        Field[] fields = layouts[c];
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] != null) {
+                try {
+                    fields[i].set(obj, values[i]);
+                } catch (IllegalArgumentException
+                        | IllegalAccessException e) {
+                    // The field's type has changed; keep the default
+                }
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * Write the table.
+     *
+     * @param out where to write it
+     * @throws IOException if writing failed
+     */
+    void write(final BinaryOutput out) throws IOException {
+        out.writeInt(classes.size());
+        for (Class<?> c : classes) {
+            out.writeString(c.getName());
+            Field[] fields = c.isEnum() ? new Field[0] : fieldsOf(c);
+            out.writeInt(fields.length);
+            for (Field f : fields) {
+                out.writeString(f.getDeclaringClass().getName());
+                out.writeString(f.getName());
+            }
+        }
+        out.writeInt(records.size());
+        for (byte[] record : records) {
+            out.writeInt(record.length);
+            out.writeBytes(record, 0, record.length);
+        }
+    }
+
+    /**
+     * Read a table written by {@link #write(BinaryOutput)}.
+     *
+     * @param in where to read it from
+     * @param xstream XStream used for rules stored as XML
+     * @return the table
+     * @throws IOException if reading failed or a class no longer exists
+     */
+    static RuleTable read(final BinaryInput in, final XStream xstream)
+            throws IOException {
+        RuleTable table = new RuleTable(xstream);
+        int numClasses = in.readInt();
+        table.layouts = new Field[numClasses][];
+        table.constructors = new Constructor<?>[numClasses];
+        for (int c = 0; c < numClasses; c++) {
+            Class<?> cls = classForName(in.readString());
+            table.classes.add(cls);
+            int numFields = in.readInt();
+            table.layouts[c] = new Field[numFields];
+            for (int f = 0; f < numFields; f++) {
+                String declaringClass = in.readString();
+                String name = in.readString();
+                table.layouts[c][f] = findField(cls, declaringClass, name);
+            }
+            try {
+                table.constructors[c] = cls.getDeclaredConstructor();
+                table.constructors[c].setAccessible(true);
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                table.constructors[c] = null;
+            }
+        }
+        int numRecords = in.readInt();
+        for (int r = 0; r < numRecords; r++) {
+            byte[] record = new byte[in.readInt()];
+            in.readBytes(record, 0, record.length);
+            table.records.add(record);
+        }
+        table.flatValues = new Object[numRecords][];
+        table.flatClasses = new int[numRecords];
+        table.flatChecked = new boolean[numRecords];
+        return table;
+    }
+
+    /**
+     * @param name a class name
+     * @return the class
+     * @throws IOException if there is no such class
+     */
+    private static Class<?> classForName(final String name)
+            throws IOException {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Unknown class " + name + ".", e);
+        }
+    }
+
+    /**
+     * @param cls a class
+     * @param declaringClass the name of the class declaring the field
+     * @param name the name of the field
+     * @return the field, or null if it no longer exists
+     */
+    private static Field findField(final Class<?> cls,
+            final String declaringClass, final String name) {
+        for (Field f : fieldsOf(cls)) {
+            if (f.getName().equals(name)
+                    && f.getDeclaringClass().getName().equals(declaringClass)) {
+                return f;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param cls a class
+     * @return its non-static, non-transient fields, superclass fields first
+     */
+    private static Field[] fieldsOf(final Class<?> cls) {
+        synchronized (FIELDS) {
+            Field[] fields = FIELDS.get(cls);
+            if (fields == null) {
+                List<Field> list = new ArrayList<Field>();
+                collectFields(cls, list);
+                fields = list.toArray(new Field[list.size()]);
+                FIELDS.put(cls, fields);
+            }
+            return fields;
+        }
+    }
+
+    /**
+     * @param cls a class
+     * @param list the list to add its serializable fields to
+     */
+    private static void collectFields(final Class<?> cls,
+            final List<Field> list) {
+        if (cls == null || cls == Object.class) {
+            return;
+        }
+        collectFields(cls.getSuperclass(), list);
+        for (Field f : cls.getDeclaredFields()) {
+            int mod = f.getModifiers();
+            if (!Modifier.isStatic(mod) && !Modifier.isTransient(mod)
+                    && !f.isSynthetic()) {
+                f.setAccessible(true);
+                list.add(f);
+            }
+        }
+    }
+
+    /**
+     * Thrown internally when an object can not be encoded reflectively.
+     */
+    private static final class NotEncodable extends Exception {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A byte array stream whose contents can be looked at without copying.
+     */
+    private static final class Scratch extends ByteArrayOutputStream {
+
+        /**
+         * @return a view of the contents, valid until the next write
+         */
+        ByteBuffer view() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+
+    /**
+     * Encode a rule's record into {@link #bytes}.
+     *
+     * @param rule a rule
+     */
+    private void encode(final Object rule) {
+        int numClasses = classes.size();
+        try {
+            bytes.reset();
+            data.writeByte(REFLECTED);
+            encodeObject(rule, 0);
+            return;
+        } catch (NotEncodable e) {
+            // Forget classes added for the failed record
+            while (classes.size() > numClasses) {
+                classIndex.remove(classes.remove(classes.size() - 1));
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        try {
+            bytes.reset();
+            data.writeByte(XML);
+            byte[] xml = xstream.toXML(rule).getBytes("UTF-8");
+            data.writeInt(xml.length);
+            data.write(xml);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param cls a class
+     * @return its position in the class header, adding it if needed
+     */
+    private int classIndex(final Class<?> cls) {
+        Integer index = classIndex.get(cls);
+        if (index == null) {
+            index = classes.size();
+            classes.add(cls);
+            classIndex.put(cls, index);
+        }
+        return index;
+    }
+
+    /**
+     * @param obj a non-null object
+     * @param depth the nesting depth of the object
+     * @throws IOException never, data is written to memory
+     * @throws NotEncodable if the object can not be encoded
+     */
+    private void encodeObject(final Object obj, final int depth)
+            throws IOException, NotEncodable {
+        Class<?> cls = obj.getClass();
+        Field[] fields = encodedFields.get(cls);
+        if (fields == null) {
+            String name = cls.getName();
+            if (cls.isAnonymousClass() || name.startsWith("java.")
+                    || name.startsWith("javax.") || (cls.isMemberClass()
+                            && !Modifier.isStatic(cls.getModifiers()))) {
+                throw new NotEncodable();
+            }
+            fields = fieldsOf(cls);
+            encodedFields.put(cls, fields);
+        }
+        if (depth > MAX_DEPTH) {
+            throw new NotEncodable();
+        }
+        data.writeInt(classIndex(cls));
+        try {
+            for (Field f : fields) {
+                encodeValue(f.get(obj), depth);
+            }
+        } catch (IllegalAccessException e) {
+            throw new NotEncodable();
+        }
+    }
+
+    /**
+     * @param value a field value
+     * @param depth the nesting depth of the object holding the field
+     * @throws IOException never, data is written to memory
+     * @throws NotEncodable if the value can not be encoded
+     */
+    private void encodeValue(final Object value, final int depth)
+            throws IOException, NotEncodable {
+        if (value == null) {
+            data.writeByte(NULL);
+        } else if (value instanceof Double) {
+            data.writeByte(DOUBLE);
+            data.writeDouble((Double) value);
+        } else if (value instanceof Integer) {
+            data.writeByte(INT);
+            data.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+            data.writeByte(BOOLEAN);
+            data.writeBoolean((Boolean) value);
+        } else if (value instanceof Long) {
+            data.writeByte(LONG);
+            data.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            data.writeByte(FLOAT);
+            data.writeFloat((Float) value);
+        } else if (value instanceof Short) {
+            data.writeByte(SHORT);
+            data.writeShort((Short) value);
+        } else if (value instanceof Byte) {
+            data.writeByte(BYTE);
+            data.writeByte((Byte) value);
+        } else if (value instanceof Character) {
+            data.writeByte(CHAR);
+            data.writeChar((Character) value);
+        } else if (value instanceof String) {
+            data.writeByte(STRING);
+            data.writeUTF((String) value);
+        } else if (value instanceof Enum) {
+            data.writeByte(ENUM);
+            data.writeInt(classIndex(((Enum<?>) value).getDeclaringClass()));
+            data.writeUTF(((Enum<?>) value).name());
+        } else if (value instanceof double[]) {
+            double[] array = (double[]) value;
+            data.writeByte(DOUBLES);
+            data.writeInt(array.length);
+            for (double d : array) {
+                data.writeDouble(d);
+            }
+        } else if (value instanceof int[]) {
+            int[] array = (int[]) value;
+            data.writeByte(INTS);
+            data.writeInt(array.length);
+            for (int i : array) {
+                data.writeInt(i);
+            }
+        } else if (value instanceof boolean[]) {
+            boolean[] array = (boolean[]) value;
+            data.writeByte(BOOLEANS);
+            data.writeInt(array.length);
+            for (boolean b : array) {
+                data.writeBoolean(b);
+            }
+        } else if (value.getClass().isArray()) {
+            throw new NotEncodable();
+        } else {
+            data.writeByte(OBJECT);
+            encodeObject(value, depth + 1);
+        }
+    }
+
+    /**
+     * Work out the {@link #flatValues} of a record, if it has them.
+     *
+     * @param index the position of the record
+     * @throws IOException if the record can not be decoded
+     */
+    private void decodeFlat(final int index) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+                records.get(index)));
+        if (in.readByte() == XML) {
+            return;
+        }
+        int c = in.readInt();
+        Object[] values = new Object[layouts[c].length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = decodeValue(in);
+            if (values[i] != null && !(values[i] instanceof Number
+                    || values[i] instanceof Boolean
+                    || values[i] instanceof Character
+                    || values[i] instanceof String
+                    || values[i] instanceof Enum)) {
+                return;
+            }
+        }
+        flatClasses[index] = c;
+        flatValues[index] = values;
+    }
+
+    /**
+     * @param record a record
+     * @return a new object built from the record
+     * @throws IOException if the record can not be decoded
+     */
+    private Object decode(final byte[] record) throws IOException {
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(
+                record));
+        if (data.readByte() == XML) {
+            byte[] xml = new byte[data.readInt()];
+            data.readFully(xml);
+            return xstream.fromXML(new String(xml, "UTF-8"));
+        }
+        return decodeObject(data);
+    }
+
+    /**
+     * @param data the record, positioned at an object's class
+     * @return the decoded object
+     * @throws IOException if the object can not be decoded
+     */
+    private Object decodeObject(final DataInputStream data)
+            throws IOException {
+        int c = data.readInt();
+        Object obj = newInstance(c);
+        for (Field f : layouts[c]) {
+            Object value = decodeValue(data);
+            if (f == null) {
+                continue;
+            }
+            try {
+                f.set(obj, value);
+            } catch (IllegalArgumentException | IllegalAccessException e) {
+                // The field's type has changed; keep the default
+            }
+        }
+        return obj;
+    }
+
+    /**
+     * @param data the record, positioned at a value's tag
+     * @return the value
+     * @throws IOException if the value can not be decoded
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Object decodeValue(final DataInputStream data)
+            throws IOException {
+        byte tag = data.readByte();
+        switch (tag) {
+        case NULL:
+            return null;
+        case BOOLEAN:
+            return data.readBoolean();
+        case BYTE:
+            return data.readByte();
+        case CHAR:
+            return data.readChar();
+        case SHORT:
+            return data.readShort();
+        case INT:
+            return data.readInt();
+        case LONG:
+            return data.readLong();
+        case FLOAT:
+            return data.readFloat();
+        case DOUBLE:
+            return data.readDouble();
+        case STRING:
+            return data.readUTF();
+        case ENUM:
+            Class enumClass = classes.get(data.readInt());
+            String constant = data.readUTF();
+            try {
+                return Enum.valueOf(enumClass, constant);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        case OBJECT:
+            return decodeObject(data);
+        case DOUBLES:
+            double[] doubles = new double[data.readInt()];
+            for (int i = 0; i < doubles.length; i++) {
+                doubles[i] = data.readDouble();
+            }
+            return doubles;
+        case INTS:
+            int[] ints = new int[data.readInt()];
+            for (int i = 0; i < ints.length; i++) {
+                ints[i] = data.readInt();
+            }
+            return ints;
+        case BOOLEANS:
+            boolean[] booleans = new boolean[data.readInt()];
+            for (int i = 0; i < booleans.length; i++) {
+                booleans[i] = data.readBoolean();
+            }
+            return booleans;
+        default:
+            throw new IOException("Unknown value tag " + tag + ".");
+        }
+    }
+
+    /**
+     * Create an object with its no-argument constructor if it has one, so
+     * that fields missing from the record keep their defaults, and through
+     * XStream's reflection provider otherwise.
+     *
+     * @param c the position of the class in the header
+     * @return a new instance
+     */
+    private Object newInstance(final int c) {
+        if (constructors[c] != null) {
+            try {
+                return constructors[c].newInstance();
+            } catch (ReflectiveOperationException | RuntimeException e) {
+                // Fall through
+            }
+        }
+        return xstream.getReflectionProvider().newInstance(classes.get(c));
+    }
+}
@@ -18,8 +18,6 @@
  */
 package org.simbrain.util.math;
 
-import java.util.concurrent.ThreadLocalRandom;
-
 import umontreal.iro.lecuyer.probdist.Distribution;
 import umontreal.iro.lecuyer.probdist.ExponentialDist;
 import umontreal.iro.lecuyer.probdist.GammaDist;
@@ -30,7 +28,9 @@ import umontreal.iro.lecuyer.probdist.UniformDist;
 import umontreal.iro.lecuyer.randvar.ExponentialGen;
 import umontreal.iro.lecuyer.randvar.GammaGen;
 import umontreal.iro.lecuyer.randvar.LognormalGen;
+import umontreal.iro.lecuyer.randvar.NormalGen;
 import umontreal.iro.lecuyer.randvar.ParetoGen;
+import umontreal.iro.lecuyer.randvar.UniformGen;
 import umontreal.iro.lecuyer.rng.LFSR113;
 import umontreal.iro.lecuyer.rng.RandomStream;
 
@@ -40,7 +40,13 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double lambda, double nullVar) {
-            return ExponentialGen.nextDouble(DEFAULT_RANDOM_STREAM, lambda);
+            return ExponentialGen.nextDouble(RandomStreams.current(), lambda);
+        }
+
+        @Override
+        public double nextRand(RandomStream stream, double lambda,
+                double nullVar) {
+            return ExponentialGen.nextDouble(stream, lambda);
         }
 
         @Override
@@ -98,7 +104,13 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double shape, double scale) {
-            return GammaGen.nextDouble(DEFAULT_RANDOM_STREAM, shape, scale);
+            return GammaGen.nextDouble(RandomStreams.current(), shape, scale);
+        }
+
+        @Override
+        public double nextRand(RandomStream stream, double shape,
+                double scale) {
+            return GammaGen.nextDouble(stream, shape, scale);
         }
 
         @Override
@@ -156,10 +168,16 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double location, double scale) {
-            return LognormalGen.nextDouble(DEFAULT_RANDOM_STREAM, location,
+            return LognormalGen.nextDouble(RandomStreams.current(), location,
                     scale);
         }
 
+        @Override
+        public double nextRand(RandomStream stream, double location,
+                double scale) {
+            return LognormalGen.nextDouble(stream, location, scale);
+        }
+
         @Override
         public int nextRandInt(int mean, int std) {
             return (int) nextRand(mean, std);
@@ -219,7 +237,18 @@ public enum ProbDistribution {
          */
         @Override
         public double nextRand(double mean, double std) {
-            return (ThreadLocalRandom.current().nextGaussian() * std) + mean;
+            return nextRand(RandomStreams.current(), mean, std);
+        }
+
+        /**
+         * @param stream the random stream to draw from
+         * @param mean the mean for this normal distribution
+         * @param std the standard deviation for this normal distribution
+         */
+        @Override
+        public double nextRand(RandomStream stream, double mean,
+                double std) {
+            return NormalGen.nextDouble(stream, mean, std);
         }
 
         /**
@@ -281,7 +310,13 @@ public enum ProbDistribution {
 
         @Override
         public double nextRand(double slope, double min) {
-            return ParetoGen.nextDouble(DEFAULT_RANDOM_STREAM, slope, min);
+            return ParetoGen.nextDouble(RandomStreams.current(), slope, min);
+        }
+
+        @Override
+        public double nextRand(RandomStream stream, double slope,
+                double min) {
+            return ParetoGen.nextDouble(stream, slope, min);
         }
 
         @Override
@@ -343,7 +378,18 @@ public enum ProbDistribution {
          */
         @Override
         public double nextRand(double floor, double ceil) {
-            return ThreadLocalRandom.current().nextDouble(floor, ceil);
+            return nextRand(RandomStreams.current(), floor, ceil);
+        }
+
+        /**
+         * @param stream the random stream to draw from
+         * @param floor the lowest value of the interval
+         * @param ceil the highest value of the interval
+         */
+        @Override
+        public double nextRand(RandomStream stream, double floor,
+                double ceil) {
+            return UniformGen.nextDouble(stream, floor, ceil);
         }
 
         /**
@@ -413,6 +459,12 @@ public enum ProbDistribution {
             return 0;
         }
 
+        @Override
+        public double nextRand(RandomStream stream, double var1,
+                double var2) {
+            return 0;
+        }
+
         @Override
         public int nextRandInt(int var1, int var2) {
             return 0;
@@ -498,10 +550,37 @@ public enum ProbDistribution {
     // }
     // };
 
+    /**
+     * A shared random stream, which is not safe to draw from on several
+     * threads at once. {@link #nextRand(double, double)} draws from
+     * {@link RandomStreams#current()} instead.
+     */
     public static final RandomStream DEFAULT_RANDOM_STREAM = new LFSR113();
 
+    /**
+     * Draws a number from this distribution using the current random stream
+     * of the calling thread, see {@link RandomStreams#current()}.
+     *
+     * @param var1 the first parameter of the distribution
+     * @param var2 the second parameter of the distribution
+     * @return the next random number
+     */
     public abstract double nextRand(double var1, double var2);
 
+    /**
+     * Draws a number from this distribution using the given random stream
+     * rather than the current one, so that the numbers drawn can be reproduced
+     * by seeding the stream and so that streams owned by different threads
+     * can be drawn from at once.
+     *
+     * @param stream the random stream to draw from
+     * @param var1 the first parameter of the distribution
+     * @param var2 the second parameter of the distribution
+     * @return the next random number
+     */
+    public abstract double nextRand(RandomStream stream, double var1,
+            double var2);
+
     public abstract int nextRandInt(int var1, int var2);
 
     public abstract Distribution getBestFit(double[] observations, int numObs);
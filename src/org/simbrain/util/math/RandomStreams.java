@@ -0,0 +1,197 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.util.math;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
+
+/**
+ * <b>RandomStreams</b> hands out the random streams all of Simbrain's random
+ * numbers are drawn from, so that runs can be seeded and reproduced. Streams
+ * form a hierarchy: a seed is split into child seeds with
+ * {@link #childSeed(long, long)} (for example a workspace seed into one seed
+ * per network, and a network seed into one per group and one per update), and
+ * any seed gives a stream with {@link SimbrainMath#seededStream(long, long)}.
+ * <p>
+ * Code which draws numbers without being given a stream, such as
+ * {@link ProbDistribution#nextRand(double, double)}, draws from the current
+ * stream of its thread, see {@link #current()}. Each thread has a default
+ * stream of its own, derived from the master seed, and a network binds its own
+ * stream with {@link #bind(RandomStream)} while it updates, so that neurons
+ * with noise draw the same numbers on every run of a network with the same
+ * seed however many other threads are drawing at the same time.
+ */
+public final class RandomStreams {
+
+    /** The golden ratio scaled to 64 bits, used to spread out seeds. */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** The seed the default streams and new seeds are derived from. */
+    private static volatile long masterSeed = mix(System.nanoTime());
+
+    /**
+     * Incremented when the master seed is set, so that threads know to reseed
+     * their default streams.
+     */
+    private static final AtomicLong generation = new AtomicLong();
+
+    /** The number of default thread streams made from the master seed. */
+    private static final AtomicLong threadCount = new AtomicLong();
+
+    /** The number of seeds handed out by {@link #nextSeed()}. */
+    private static final AtomicLong seedCount = new AtomicLong();
+
+    /** The streams of each thread. */
+    private static final ThreadLocal<ThreadStreams> streams =
+            ThreadLocal.withInitial(ThreadStreams::new);
+
+    /** The default and bound streams of a thread. */
+    private static final class ThreadStreams {
+
+        /** The default stream of the thread. */
+        private RandomStream defaultStream;
+
+        /** The generation of the master seed the default stream is from. */
+        private long generation = -1;
+
+        /** The stream bound to the thread, or null to use the default. */
+        private RandomStream bound;
+    }
+
+    /**
+     * Not instantiable.
+     */
+    private RandomStreams() {
+    }
+
+    /**
+     * Returns the stream the calling thread should draw from when it is not
+     * given one: the stream bound to the thread, if any, or else the thread's
+     * default stream. The stream must not be shared with other threads.
+     *
+     * @return the current stream of the calling thread
+     */
+    public static RandomStream current() {
+        ThreadStreams ts = streams.get();
+        if (ts.bound != null) {
+            return ts.bound;
+        }
+        long gen = generation.get();
+        if (ts.generation != gen) {
+            ts.defaultStream = SimbrainMath.seededStream(
+                    childSeed(masterSeed, 0), threadCount.getAndIncrement());
+            ts.generation = gen;
+        }
+        return ts.defaultStream;
+    }
+
+    /**
+     * Makes a stream the current stream of the calling thread, until another
+     * stream is bound. Meant to be used around a piece of work:
+     *
+     * <pre>
+     * RandomStream previous = RandomStreams.bind(stream);
+     * try {
+     *     ...
+     * } finally {
+     *     RandomStreams.bind(previous);
+     * }
+     * </pre>
+     *
+     * @param stream the stream to bind, or null to go back to the thread's
+     *            default stream
+     * @return the stream bound before, or null if there was none
+     */
+    public static RandomStream bind(final RandomStream stream) {
+        ThreadStreams ts = streams.get();
+        RandomStream previous = ts.bound;
+        ts.bound = stream;
+        return previous;
+    }
+
+    /**
+     * Sets the master seed. Every thread's default stream is made again from
+     * the new seed the next time it is used, in the order the threads use
+     * them, and {@link #nextSeed()} starts its sequence again.
+     *
+     * @param seed the new master seed
+     */
+    public static void setMasterSeed(final long seed) {
+        masterSeed = seed;
+        threadCount.set(0);
+        seedCount.set(0);
+        generation.incrementAndGet();
+    }
+
+    /**
+     * @return the master seed, which is random unless it has been set
+     */
+    public static long getMasterSeed() {
+        return masterSeed;
+    }
+
+    /**
+     * Returns a new seed derived from the master seed, for things such as
+     * networks which need a seed of their own when they are made. The seeds
+     * follow the same sequence after each time the master seed is set.
+     *
+     * @return a new seed, which is never 0
+     */
+    public static long nextSeed() {
+        return childSeed(childSeed(masterSeed, 1),
+                seedCount.getAndIncrement());
+    }
+
+    /**
+     * Draws a seed from a stream.
+     *
+     * @param stream the stream to draw from
+     * @return a new seed, which is never 0
+     */
+    public static long nextSeed(final RandomStream stream) {
+        return childSeed((long) (stream.nextDouble() * 0x1p53), 0);
+    }
+
+    /**
+     * Derives the seed of a child, such as one network of a workspace or one
+     * step of a network's update, from the seed of its parent. Different
+     * indices give unrelated seeds.
+     *
+     * @param seed the parent seed
+     * @param index the index of the child
+     * @return the seed of the child, which is never 0
+     */
+    public static long childSeed(final long seed, final long index) {
+        long child = mix(mix(seed) + (index + 1) * GOLDEN_GAMMA);
+        return child == 0 ? GOLDEN_GAMMA : child;
+    }
+
+    /**
+     * The SplitMix64 finalizer, which scrambles the bits of a number.
+     *
+     * @param z the number
+     * @return the scrambled number
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
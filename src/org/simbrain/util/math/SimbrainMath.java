@@ -21,10 +21,11 @@ package org.simbrain.util.math;
 import java.awt.Point;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Random;
 
 import cern.colt.Arrays;
+import umontreal.iro.lecuyer.rng.LFSR113;
 import umontreal.iro.lecuyer.rng.LFSR258;
 import umontreal.iro.lecuyer.rng.RandomStream;
 
@@ -72,9 +73,9 @@ public class SimbrainMath {
      */
     public static int[] randPermute(int floor, int ceil) {
         int[] permute = new int[ceil - floor];
-        Random randi = new Random();
+        RandomStream randi = RandomStreams.current();
         for (int i = floor; i < ceil; i++) {
-            int j = randi.nextInt(i - floor + 1);
+            int j = randi.nextInt(0, i - floor);
             if (j != i - floor) {
                 permute[i - floor] = permute[j];
             }
@@ -98,7 +99,7 @@ public class SimbrainMath {
     public static int[] randPermuteWithExclusion(int floor, int ceil,
             int excluded) {
         int[] permute = new int[ceil - floor - 1];
-        Random randi = new Random();
+        RandomStream randi = RandomStreams.current();
         int k = floor - 1;
         for (int i = floor; i < ceil; i++) {
             if (i == excluded) {
@@ -106,7 +107,7 @@ public class SimbrainMath {
             } else {
                 k++;
             }
-            int j = randi.nextInt(k - floor + 1);
+            int j = randi.nextInt(0, k - floor);
             if (j != k - floor) {
                 permute[k - floor] = permute[j];
             }
@@ -116,6 +117,78 @@ public class SimbrainMath {
         return permute;
     }
 
+    /**
+     * Returns k distinct integers chosen uniformly at random from the integers
+     * between 0 (inclusive) and n (exclusive), in ascending order. Uses
+     * Floyd's algorithm, so only k random numbers are drawn however large n
+     * is (if k is more than half of n the n - k integers left out are chosen
+     * instead).
+     *
+     * @param n the number of integers to choose from
+     * @param k how many to choose
+     * @param stream the random stream to draw from
+     * @return the chosen integers in ascending order
+     * @throws IllegalArgumentException if k is negative or greater than n
+     */
+    public static int[] randSubset(final int n, final int k,
+            final RandomStream stream) throws IllegalArgumentException {
+        if (k < 0 || k > n) {
+            throw new IllegalArgumentException("Cannot choose " + k
+                    + " of " + n + " integers.");
+        }
+        boolean complement = k > n / 2;
+        int toDraw = complement ? n - k : k;
+        BitSet drawn = new BitSet(n);
+        for (int j = n - toDraw; j < n; j++) {
+            int t = stream.nextInt(0, j);
+            drawn.set(drawn.get(t) ? j : t);
+        }
+        int[] subset = new int[k];
+        int c = 0;
+        if (complement) {
+            for (int i = drawn.nextClearBit(0); i < n;
+                    i = drawn.nextClearBit(i + 1)) {
+                subset[c++] = i;
+            }
+        } else {
+            for (int i = drawn.nextSetBit(0); i >= 0;
+                    i = drawn.nextSetBit(i + 1)) {
+                subset[c++] = i;
+            }
+        }
+        return subset;
+    }
+
+    /**
+     * Creates a random stream whose numbers are fixed by a seed and an index,
+     * so that work split into numbered pieces (e.g. blocks of neurons handled
+     * by different threads) draws the same numbers for each piece whatever
+     * the number of threads. Streams with the same seed and different indices
+     * are statistically independent for all practical purposes.
+     *
+     * @param seed the seed of the whole computation
+     * @param index the index of the piece of work the stream is for
+     * @return a new random stream
+     */
+    public static RandomStream seededStream(final long seed,
+            final long index) {
+        long z = seed + index * 0x9E3779B97F4A7C15L;
+        int[] state = new int[4];
+        for (int i = 0; i < state.length; i++) {
+            // SplitMix64; LFSR113 needs each word of its state to be above
+            // 127 (and some to be above smaller bounds).
+            z += 0x9E3779B97F4A7C15L;
+            long x = z;
+            x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+            x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+            x = x ^ (x >>> 31);
+            state[i] = (int) (x >>> 33) | 0x80;
+        }
+        LFSR113 stream = new LFSR113();
+        stream.setSeed(state);
+        return stream;
+    }
+
     /**
      * Finds the entry-wise product of a vector and scalar.  Analogous
      * to matlab's .* operator.   E.g. a .* (b c) = (ab ac).
@@ -526,7 +599,7 @@ public class SimbrainMath {
         double sqrt2 = Math.sqrt(2);
 
         for (int i = 0; i < vector.length; i++) {
-            randUniform = Math.random();
+            randUniform = RandomStreams.current().nextDouble();
             vector[i] += (sigma * sqrt2 * SimbrainMath.inverf(randUniform));
         }
     }
@@ -546,7 +619,7 @@ public class SimbrainMath {
         double[] returnVector = new double[vector.length];
 
         for (int i = 0; i < vector.length; i++) {
-            randUniform = Math.random();
+            randUniform = RandomStreams.current().nextDouble();
             returnVector[i] = vector[i]
                     + (sigma * sqrt2 * SimbrainMath.inverf(randUniform));
         }
@@ -562,7 +635,7 @@ public class SimbrainMath {
     public static double[] randomVector(int length) {
         double[] returnVector = new double[length];
         for (int i = 0; i < returnVector.length; i++) {
-            returnVector[i] = Math.random();
+            returnVector[i] = RandomStreams.current().nextDouble();
         }
         return returnVector;
     }
@@ -579,7 +652,8 @@ public class SimbrainMath {
             final double max) {
         double[] returnVector = new double[length];
         for (int i = 0; i < returnVector.length; i++) {
-            returnVector[i] = min + Math.random() * Math.abs(max - min);
+            returnVector[i] = min + RandomStreams.current().nextDouble()
+                    * Math.abs(max - min);
         }
         return returnVector;
     }
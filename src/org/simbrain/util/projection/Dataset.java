@@ -56,7 +56,9 @@ public class Dataset {
     private int dimensions;
 
     /**
-     * Matrix of interpoint distances.
+     * Matrix of interpoint distances. Only grown when distances between
+     * indexed points are asked for, since it takes memory quadratic in the
+     * number of points.
      */
     private double[] distances = new double[10240];
 
@@ -127,6 +129,9 @@ public class Dataset {
     private void ensureDistances() {
         if (getDistanceEnd() > distances.length) {
             int newLength = distances.length * 4;
+            while (getDistanceEnd() > newLength) {
+                newLength *= 4;
+            }
             double[] newDistances = new double[newLength];
             System.arraycopy(distances, 0, newDistances, 0, distances.length);
             Arrays.fill(newDistances, distances.length, newLength, -1);
@@ -145,7 +150,6 @@ public class Dataset {
         if (existingPoint != null) {
             return existingPoint;
         }
-        ensureDistances();
         lastAddedPoint = point;
         return null;
     }
@@ -192,7 +196,6 @@ public class Dataset {
      */
     private void _setPoint(int index, DataPoint point) {
         ntree.set(index, point);
-        ensureDistances();
     }
 
     /**
@@ -280,6 +283,7 @@ public class Dataset {
      * @param point the point to calculate distances for
      */
     private void calculateDistances(int point) {
+        ensureDistances();
         int start = getDistanceIndex(point);
 
         for (int i = 0; i < point; i++) {
@@ -299,6 +303,7 @@ public class Dataset {
      * calculates all distances for the current set of points
      */
     private void calculateDistances() {
+        ensureDistances();
         for (int point = 0; point < ntree.size(); point++) {
             calculateDistances(point);
         }
@@ -513,8 +518,8 @@ public class Dataset {
      * @return the index of the point closest to this one in the dataset
      */
     public int getClosestIndex(final DataPoint point) {
-        DataPoint closest = ntree.getClosestPoint(point);
-        return ntree.getIndex(closest);
+        int[] closest = ntree.getClosestIndices(1, point.getVector());
+        return closest.length == 0 ? -1 : closest[0];
     }
 
     /**
@@ -530,13 +535,29 @@ public class Dataset {
             return null;
         }
 
-        int[] nearest = new int[k];
-        List<DataPoint> neighbors = ntree.getClosestPoints(k, point);
-        for (int i = 0; i < k; i++) {
-            nearest[i] = ntree.getIndex(neighbors.get(i));
+        return ntree.getClosestIndices(k, point.getVector());
+    }
+
+    /**
+     * Returns the k nearest neighbors of each of many points, nearest first.
+     * The points are searched for in parallel.
+     *
+     * @param k the number of points to retrieve for each point
+     * @param points the points to find neighbors for
+     * @return the indices of the neighbors of each point, or null if there
+     *         are not more than k points in the dataset
+     */
+    public int[][] getKNearestNeighbors(final int k, final DataPoint[] points) {
+        if (k >= this.getNumPoints()) {
+            return null;
         }
 
-        return nearest;
+        double[][] vectors = new double[points.length][];
+        for (int i = 0; i < points.length; i++) {
+            checkDimension(points[i]);
+            vectors[i] = points[i].getVector();
+        }
+        return ntree.getClosestIndices(k, vectors);
     }
 
     /**
@@ -572,6 +593,7 @@ public class Dataset {
             index1 = swap;
         }
 
+        ensureDistances();
         double d = distances[getDistanceIndex(index1) + index2];
 
         if (d < 0) {
@@ -687,10 +709,40 @@ public class Dataset {
      *         dimension
      */
     public Matrix getCovarianceMatrix() {
+        int numPoints = getNumPoints();
+        double[] mean = new double[dimensions];
+        for (int index = 0; index < numPoints; index++) {
+            double[] x = getPoint(index).getVector();
+            for (int i = 0; i < dimensions; i++) {
+                mean[i] += x[i];
+            }
+        }
+        for (int i = 0; i < dimensions; i++) {
+            mean[i] /= numPoints;
+        }
+
+        // One pass over the points for all the entries, rather than one (and
+        // two more for the means) for each entry.
+        double[][] sums = new double[dimensions][dimensions];
+        double[] centered = new double[dimensions];
+        for (int index = 0; index < numPoints; index++) {
+            double[] x = getPoint(index).getVector();
+            for (int i = 0; i < dimensions; i++) {
+                centered[i] = x[i] - mean[i];
+            }
+            for (int i = 0; i < dimensions; i++) {
+                double[] row = sums[i];
+                double ci = centered[i];
+                for (int j = i; j < dimensions; j++) {
+                    row[j] += ci * centered[j];
+                }
+            }
+        }
+
         Matrix m = new Matrix(dimensions, dimensions);
         for (int i = 0; i < dimensions; i++) {
             for (int j = i; j < dimensions; j++) {
-                m.set(i, j, getCovariance(i, j));
+                m.set(i, j, sums[i][j] / numPoints);
                 if (i != j) {
                     m.set(j, i, m.get(i, j)); // This is a symmetric matrix
                 }
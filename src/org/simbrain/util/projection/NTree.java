@@ -20,12 +20,11 @@ package org.simbrain.util.projection;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
 import org.apache.log4j.Logger;
 
@@ -47,8 +46,18 @@ import org.apache.log4j.Logger;
  * for correctness.
  *
  * <p>
+ * The coordinates of the points are copied into one flat array when they are
+ * added, and leaves hold indices into it, so searches read primitive arrays
+ * rather than following references to the points. Nearest neighbor searches
+ * keep the best points found so far in a bounded max-heap and skip a branch
+ * whenever the distance to its split is greater than the distance to the
+ * farthest of them. Points changed with {@link DataPoint#setData(double[])}
+ * after they are added are still found by their old coordinates; use
+ * {@link #set(int, DataPoint)} to move a point.
+ *
+ * <p>
  * A couple of other standard collections are used to provide efficient
- * index-based access and for reverse lookups of leafs.
+ * index-based access and for reverse lookups of indices.
  *
  * @author James Matthew Watson - July 2, 2007
  */
@@ -60,6 +69,9 @@ public class NTree implements Iterable<DataPoint> {
                                 * optimization theories
                                 */
 
+    /** The number of queries above which a batch query runs in parallel. */
+    private static final int PARALLEL_THRESHOLD = 64;
+
     /** The static logger for this class */
     private static final Logger LOGGER = Logger.getLogger(NTree.class);
 
@@ -80,8 +92,14 @@ public class NTree implements Iterable<DataPoint> {
     /** Indexed list of all elements */
     private List<DataPoint> list = new ArrayList<DataPoint>();
 
-    /** Map of all elements mapped to their leafs */
-    private Map<DataPoint, Leaf> all = new LinkedHashMap<DataPoint, Leaf>();
+    /** Map of all elements to their indices */
+    private Map<DataPoint, Integer> indices = new HashMap<DataPoint, Integer>();
+
+    /**
+     * The coordinates of all elements, by index, as they were when the
+     * elements were added or set.
+     */
+    private double[] coordinates = new double[0];
 
     /**
      * Constructs an NTree with the given number of dimensions.
@@ -100,21 +118,39 @@ public class NTree implements Iterable<DataPoint> {
      * @return the number of points in the tree
      */
     public int size() {
-        return all.size();
+        return list.size();
     }
 
     /**
      * Adds a point to the set.
      *
      * @param point the point to add
-     * @return
+     * @return null
      */
     public DataPoint add(DataPoint point) {
-        //System.out.println(point.getDimension());
         if (logger.isDebugEnabled()) {
             logger.debug("adding point " + point);
         }
+        int index = list.size();
+        if (coordinates.length < (index + 1) * dimensions) {
+            coordinates = Arrays.copyOf(coordinates,
+                    Math.max(16, 2 * (index + 1)) * dimensions);
+        }
+        System.arraycopy(point.getVector(), 0, coordinates, index * dimensions,
+                dimensions);
+        list.add(point);
+        indices.putIfAbsent(point, index);
+        insert(index);
+        return null;
+    }
 
+    /**
+     * Puts an element in the leaf its coordinates lead to, splitting the leaf
+     * if it has become too large.
+     *
+     * @param index the index of the element
+     */
+    private void insert(final int index) {
         /* Keeps track of the most recent parent branch, if any */
         Branch parent = null;
 
@@ -131,163 +167,113 @@ public class NTree implements Iterable<DataPoint> {
          * left or right based on the midpoint of the branches split dimension.
          */
         while (current.type == Type.branch) {
-            /* Cast current to Branch and set the parent */
             Branch branch = (Branch) current;
             parent = branch;
-
-            if (point.get(branch.splitDimension) < branch.midPoint) {
-                if (logger.isDebugEnabled())
-                    logger.debug("at branch : " + branch + " - going left");
-                /* To the left */
-                current = branch.left;
-                onLeft = true;
-            } else {
-                if (logger.isDebugEnabled())
-                    logger.debug("at branch : " + branch + " - going right");
-                /* To the right */
-                current = branch.right;
-                onLeft = false;
-            }
+            onLeft = coordinate(index, branch.splitDimension) < branch.midPoint;
+            current = onLeft ? branch.left : branch.right;
         }
 
-        /* Cast the current node to a leaf */
         Leaf leaf = (Leaf) current;
+        leaf.add(index);
+        if (leaf.size <= MAX) {
+            return;
+        }
 
-        if (logger.isDebugEnabled())
-            logger.debug("adding point to leaf : " + leaf);
-
-        /* Add the point to the leaf and the list and map */
-        leaf.points.add(point);
-        list.add(point);
-        all.put(point, leaf);
-
-        /* check the number of points in the leaf */
-        int size = leaf.points.size();
-
-        if (logger.isDebugEnabled())
-            logger.debug("leaf size : " + size);
-
-        if (size > MAX) {
-            /*
-             * the leaf has more elements than the threshold. The leaf will be
-             * split
-             */
-            int splitOn = parent == null ? 0 : (parent.splitDimension + 1)
-                    % dimensions;
-            if (logger.isDebugEnabled())
-                logger.debug("splitting leaf on dimension: " + splitOn);
-
-            /* Get the middle point index */
-            int middle = size / 2;
-            if (logger.isTraceEnabled())
-                logger.trace("middle: " + middle);
-
-            /* Sort the points based on the split dimension */
-            Collections.sort(leaf.points, new PointComparator(splitOn));
-
-            /*
-             * Take the right most point on the left the left most point on the
-             * right
-             */
-            DataPoint leftPoint = leaf.points.get(middle);
-            if (logger.isTraceEnabled())
-                logger.trace("leftPoint: " + leftPoint);
-
-            DataPoint rightPoint = leaf.points.get(middle + 1);
-            if (logger.isTraceEnabled())
-                logger.trace("rightPoint: " + rightPoint);
-
-            /*
-             * Get the average between the points on the split dimension. this
-             * is the midpoint
-             */
-            double midPoint = (leftPoint.get(splitOn) + rightPoint.get(splitOn)) / 2;
-            if (logger.isTraceEnabled())
-                logger.trace("midPoint: " + midPoint);
-
-            /* instantiate the new branch with the midpoint and split-dimension */
-            Branch newBranch = new Branch(midPoint, splitOn);
-
-            /* create the new leaves */
-            Leaf left = new Leaf();
-            Leaf right = new Leaf();
-
-            /* loop through all the points and add to the appropriate leaf */
-            for (int i = 0; i < size; i++) {
-                DataPoint p = leaf.points.get(i);
-
-                if (p.get(splitOn) < midPoint) {
-                    if (logger.isTraceEnabled())
-                        logger.trace("adding to left: " + p);
-                    left.points.add(p);
-                    all.put(p, left);
-                } else {
-                    if (logger.isTraceEnabled())
-                        logger.trace("adding to right: " + p);
-                    right.points.add(p);
-                    all.put(p, right);
-                }
+        /*
+         * The leaf has more elements than the threshold and is split on the
+         * dimension after its parent's, or on the next one that separates its
+         * elements if they all share a value there.
+         */
+        int first = parent == null ? 0 : (parent.splitDimension + 1)
+                % dimensions;
+        for (int n = 0; n < dimensions; n++) {
+            int splitOn = (first + n) % dimensions;
+            Branch newBranch = split(leaf, splitOn);
+            if (newBranch == null) {
+                continue;
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("split leaf on dimension: " + splitOn);
             }
-
-            /* set the new branches */
-            newBranch.left = left;
-            newBranch.right = right;
-
             /*
              * Set the branch on it's parent, unless there is none: then it's
              * the new root
              */
             if (parent == null) {
-                if (logger.isTraceEnabled())
-                    logger.debug("setting new branch as root");
                 root = newBranch;
             } else if (onLeft) {
-                if (logger.isTraceEnabled())
-                    logger.debug("setting new branch as left");
                 parent.left = newBranch;
             } else {
-                if (logger.isTraceEnabled())
-                    logger.debug("setting new branch as right");
                 parent.right = newBranch;
             }
+            return;
         }
-
-        return null;
     }
 
     /**
-     * Comparator used to compare two points on a single dimension
+     * Splits a leaf at the median of its elements along a dimension.
+     *
+     * @param leaf the leaf to split
+     * @param splitOn the dimension to split on
+     * @return a branch with the two new leaves, or null if all the elements
+     *         would fall on one side
      */
-    private static final class PointComparator implements Comparator<DataPoint> {
-
-        /** The dimension to compare on */
-        final int dimension;
+    private Branch split(final Leaf leaf, final int splitOn) {
+        int size = leaf.size;
+        double[] values = new double[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = coordinate(leaf.indices[i], splitOn);
+        }
+        Arrays.sort(values);
 
-        /**
-         * Constructs a new comparator on the given dimension
-         *
-         * @param dimension the dimension to compare on
+        /*
+         * Take the average of the right most point on the left and the left
+         * most point on the right. this is the midpoint
          */
-        PointComparator(int dimension) {
-            this.dimension = dimension;
+        int middle = size / 2;
+        double midPoint = (values[middle] + values[middle + 1]) / 2;
+        if (!(values[0] < midPoint)) {
+            return null;
         }
 
-        /**
-         * compares two points on one dimension
-         * @param o1
-         * @param o2
-         * @return
-         */
-        public int compare(DataPoint o1, DataPoint o2) {
-            double difference = o1.get(dimension) - o2.get(dimension);
-            if (difference < 0) {
-                return -1;
-            } else if (difference > 0) {
-                return 1;
+        Branch newBranch = new Branch(midPoint, splitOn);
+        Leaf left = new Leaf();
+        Leaf right = new Leaf();
+        for (int i = 0; i < size; i++) {
+            int index = leaf.indices[i];
+            if (coordinate(index, splitOn) < midPoint) {
+                left.add(index);
             } else {
-                return 0;
+                right.add(index);
             }
         }
+        newBranch.left = left;
+        newBranch.right = right;
+        return newBranch;
+    }
+
+    /**
+     * Removes an element from the leaf its stored coordinates lead to.
+     *
+     * @param index the index of the element
+     */
+    private void remove(final int index) {
+        Node current = root;
+        while (current.type == Type.branch) {
+            Branch branch = (Branch) current;
+            current = coordinate(index, branch.splitDimension)
+                    < branch.midPoint ? branch.left : branch.right;
+        }
+        ((Leaf) current).remove(index);
+    }
+
+    /**
+     * @param index the index of an element
+     * @param dimension a dimension
+     * @return the stored coordinate of the element along the dimension
+     */
+    private double coordinate(final int index, final int dimension) {
+        return coordinates[index * dimensions + dimension];
     }
 
     /**
@@ -305,84 +291,53 @@ public class NTree implements Iterable<DataPoint> {
      *
      * @param point the point to search for
      * @param tolerance the tolerance for determining uniqueness
-     * @return the matching datapoint if it exists, null if the datapoint is unique 
+     * @return the matching datapoint if it exists, null if the datapoint is unique
      */
     public DataPoint isUnique(final DataPoint point, final double tolerance) {
-        return isUnique(root, point, tolerance);
+        int index = findWithin(root, point.getVector(), tolerance);
+        return index < 0 ? null : list.get(index);
     }
 
     //TODO: Confusing names.   rename or add methods that return booleans?
-    
+
     /**
-     * Checks whether the given point already exists in the tree with the
-     * specified tolerance.
+     * Finds an element closer than a tolerance to a point, following a
+     * branch only if some point on its side of the split could be that
+     * close.
      *
      * @param from the node to start from
-     * @param point the point to search for
+     * @param point the coordinates to search for
      * @param tolerance the tolerance for determining uniqueness
-     * @return the matching datapoint if it exists, null if the datapoint is unique
+     * @return the index of a matching element, or -1 if there is none
      */
-    private DataPoint isUnique(Node from, DataPoint point, double tolerance) {
-
-        if (logger.isDebugEnabled())
-            logger.debug("is unique? tolerance " + tolerance + " - " + point);
-
+    private int findWithin(Node from, final double[] point,
+            final double tolerance) {
         /* loop over the from node while it's a branch */
         while (from.type == Type.branch) {
-
-            /* cast to a branch */
             Branch branch = (Branch) from;
-            /* get the split dimension */
-            double d = point.get(branch.splitDimension);
+            double d = point[branch.splitDimension];
 
             /*
-             * If the point is within tolerance of the split, recurse both paths
-             * otherwise continue branching
+             * If the point is within tolerance of the split, recurse on the
+             * far path as well
              */
+            boolean left = d < branch.midPoint;
             if (Math.abs(d - branch.midPoint) < tolerance) {
-                if (logger.isDebugEnabled())
-                    logger.debug("at branch : " + branch
-                            + " - recursing both paths");
-                DataPoint leftCheck = isUnique(branch.left, point, tolerance);
-                DataPoint rightCheck = isUnique(branch.right, point, tolerance);
-                if ((leftCheck == null) && (rightCheck == null)) {
-                    return null;
-                } else {
-                    if (leftCheck != null) {
-                        return leftCheck;
-                    } else {
-                        return rightCheck;
-                    }
+                int found = findWithin(left ? branch.right : branch.left,
+                        point, tolerance);
+                if (found >= 0) {
+                    return found;
                 }
-            } else if (point.getVector()[branch.splitDimension] < branch.midPoint) {
-                if (logger.isDebugEnabled())
-                    logger.debug("at branch : " + branch + " - going left");
-                from = branch.left;
-            } else {
-                if (logger.isDebugEnabled())
-                    logger.debug("at branch : " + branch + " - going right");
-                from = branch.right;
             }
+            from = left ? branch.left : branch.right;
         }
 
-        /* cast to leaf */
         Leaf leaf = (Leaf) from;
-
-        /*
-         * loop over the points. if each of the elements in the point is within
-         * a tolerance of the given point, check the distance. otherwise, the
-         * point cannot be within a tolerance distance of the given point.
-         */
-        for (DataPoint p : leaf.points) {
-            for (int i = 0; i < p.getDimension(); i++) {
-                if (Math.abs(p.get(i) - point.get(i)) >= tolerance) {
-                    break;
-                }
-            }
-
-            /* If the distance is less than tolerance, this point is not unique */
-            if (getDistance(p, point) < tolerance) {
-                return p;
+        double tolerance2 = tolerance * tolerance;
+        for (int i = 0; i < leaf.size; i++) {
+            int index = leaf.indices[i];
+            if (distance2(index, point, tolerance2) < tolerance2) {
+                return index;
             }
         }
 
@@ -390,7 +345,30 @@ public class NTree implements Iterable<DataPoint> {
          * All possibilities in the current path have been exhausted and no
          * duplicates were found.
          */
-        return null;
+        return -1;
+    }
+
+    /**
+     * @param index the index of an element
+     * @param point a point
+     * @param bound a squared distance past which the exact value is not
+     *            needed
+     * @return the squared distance between the element and the point, or
+     *         some value greater than the bound if it is greater than the
+     *         bound
+     */
+    private double distance2(final int index, final double[] point,
+            final double bound) {
+        int offset = index * dimensions;
+        double sum = 0;
+        for (int i = 0; i < dimensions; i++) {
+            double difference = coordinates[offset + i] - point[i];
+            sum += difference * difference;
+            if (sum > bound) {
+                return sum;
+            }
+        }
+        return sum;
     }
 
     /**
@@ -424,114 +402,223 @@ public class NTree implements Iterable<DataPoint> {
      *
      * @param number the number of points to collect
      * @param point the point to find points close to
-     * @return the closest points
+     * @return the closest points, nearest first
      */
     public List<DataPoint> getClosestPoints(int number, DataPoint point) {
-        List<DataPoint> points = new ArrayList<DataPoint>();
-        for (DistancePoint dp : getClosestPoints(root, number, point)) {
-            points.add(dp.point);
-            // TODO: Returning multiple copies of same number
-            //System.out.println(Arrays.asList(dp.point));
+        int[] nearest = getClosestIndices(number, point.getVector());
+        List<DataPoint> points = new ArrayList<DataPoint>(nearest.length);
+        for (int index : nearest) {
+            points.add(list.get(index));
         }
-
         return points;
     }
 
     /**
-     * Gets the closest points to the passed in point. The amount of points to
-     * determine is specified by the number argument
+     * Gets the indices of the closest points to a point. Points at the same
+     * distance are ordered by index.
      *
-     * @param from the node to start from
      * @param number the number of points to collect
-     * @param point the point to find points close to
-     * @return the closest points
+     * @param point the coordinates to find points close to
+     * @return the indices of the closest points, nearest first, as many as
+     *         requested or as there are points, whichever is fewer
      */
-    private List<DistancePoint> getClosestPoints(Node from, int number,
-            DataPoint point) {
-        List<DistancePoint> points;
+    public int[] getClosestIndices(final int number, final double[] point) {
+        if (point.length != dimensions) {
+            throw new IllegalArgumentException(
+                    "points of different dimensions cannot be compared: "
+                            + point.length + ", " + dimensions);
+        }
+        Heap heap = new Heap(Math.max(0, Math.min(number, size())));
+        if (heap.capacity > 0) {
+            search(root, point, heap);
+        }
+        return heap.drain();
+    }
 
-        /*
-         * If from is a branch, recurse otherwise get the closest points in the
-         * leaf
-         */
-        if (from.type == Type.branch) {
+    /**
+     * Gets the indices of the closest points to each of many points. The
+     * queries are divided over the available processors, so the tree must not
+     * be changed until this returns.
+     *
+     * @param number the number of points to collect for each query
+     * @param points the coordinates of the queries
+     * @return for each query, the indices of its closest points, nearest first
+     */
+    public int[][] getClosestIndices(final int number,
+            final double[][] points) {
+        int[][] nearest = new int[points.length][];
+        IntStream queries = IntStream.range(0, points.length);
+        if (points.length > PARALLEL_THRESHOLD) {
+            queries = queries.parallel();
+        }
+        queries.forEach(q -> nearest[q] = getClosestIndices(number,
+                points[q]));
+        return nearest;
+    }
 
-            /* Cast to Branch */
+    /**
+     * Offers the elements under a node to a heap of the nearest found so far,
+     * visiting the side of each branch containing the point first and the
+     * other side only if it could hold something nearer than the farthest
+     * element in a full heap.
+     *
+     * @param from the node to search
+     * @param point the coordinates to find points close to
+     * @param heap the nearest elements found so far
+     */
+    private void search(final Node from, final double[] point,
+            final Heap heap) {
+        if (from.type == Type.branch) {
             Branch branch = (Branch) from;
+            double d = point[branch.splitDimension] - branch.midPoint;
+            search(d < 0 ? branch.left : branch.right, point, heap);
+            if (!heap.isFull() || d * d <= heap.worst()) {
+                search(d < 0 ? branch.right : branch.left, point, heap);
+            }
+            return;
+        }
+        Leaf leaf = (Leaf) from;
+        for (int i = 0; i < leaf.size; i++) {
+            int index = leaf.indices[i];
+            double bound = heap.isFull() ? heap.worst()
+                    : Double.POSITIVE_INFINITY;
+            double distance = distance2(index, point, bound);
+            if (distance <= bound) {
+                heap.offer(index, distance);
+            }
+        }
+    }
+
+    /**
+     * A max-heap of at most a fixed number of element indices keyed by squared
+     * distance, so the farthest of the nearest elements found so far is
+     * always at the top. Equal distances are ordered by index, which makes
+     * the results independent of the order in which elements are visited.
+     */
+    private static final class Heap {
 
-            /* The point's value on the splitDimension */
-            double d = point.get(branch.splitDimension);
+        /** The most elements the heap holds. */
+        final int capacity;
 
-            /* Determine whether the normal path is left or right */
-            boolean left = d < branch.midPoint;
+        /** The indices of the elements. */
+        final int[] indices;
 
-            /* Recurse on branch determined above */
-            points = getClosestPoints(left ? branch.left : branch.right,
-                    number, point);
+        /** The squared distances of the elements. */
+        final double[] distances;
 
-            /*
-             * Determine whether to recurse on the other path. if the farthest
-             * out point from the main branch is less than the distance to the
-             * split, get the n points from the other branch
-             */
-            if (points.size() < number
-                    || points.get(number - 1).distance > Math.abs(d
-                            - branch.midPoint)) {
-                points.addAll(getClosestPoints(left ? branch.right
-                        : branch.left, number, point));
-
-                /* combine the points and sort */
-                Collections.sort(points, new Comparator<DistancePoint>() {
-                    public int compare(DistancePoint o1, DistancePoint o2) {
-                        if (o1.distance < o2.distance)
-                            return -1;
-                        else if (o1.distance > o2.distance)
-                            return 1;
-                        else
-                            return 0;
-                    }
-                });
-            }
-        } else {
-            points = new ArrayList<DistancePoint>();
-            /* Cast to Leaf */
-            Leaf leaf = (Leaf) from;
+        /** The number of elements in the heap. */
+        int size;
 
-            /*
-             * Loop over the points in the leaf adding any that are less than
-             * the current or adding if there are less than n
-             */
-            for (DataPoint d : leaf.points) {
-                double distance = getDistance(d, point);
-
-                for (int i = 0; i < number; i++) {
-                    if (i >= points.size()) {
-                        points.add(new DistancePoint(distance, d));
-                    } else if (distance < points.get(i).distance) {
-                        points.add(i, new DistancePoint(distance, d));
+        /**
+         * @param capacity the most elements the heap holds
+         */
+        Heap(final int capacity) {
+            this.capacity = capacity;
+            indices = new int[capacity];
+            distances = new double[capacity];
+        }
+
+        /**
+         * @return whether the heap holds as many elements as it can
+         */
+        boolean isFull() {
+            return size == capacity;
+        }
+
+        /**
+         * @return the squared distance of the farthest element
+         */
+        double worst() {
+            return distances[0];
+        }
+
+        /**
+         * @param i a slot
+         * @param j another slot
+         * @return whether the element in the first slot comes after the one
+         *         in the second
+         */
+        boolean after(final int i, final int j) {
+            return distances[i] > distances[j] || (distances[i] == distances[j]
+                    && indices[i] > indices[j]);
+        }
+
+        /**
+         * Adds an element, replacing the farthest if the heap is full and the
+         * element is nearer.
+         *
+         * @param index the index of the element
+         * @param distance its squared distance
+         */
+        void offer(final int index, final double distance) {
+            if (size < capacity) {
+                indices[size] = index;
+                distances[size] = distance;
+                for (int i = size++; i > 0;) {
+                    int parent = (i - 1) / 2;
+                    if (!after(i, parent)) {
+                        break;
                     }
+                    swap(i, parent);
+                    i = parent;
                 }
+                return;
             }
+            if (distance > distances[0] || (distance == distances[0]
+                    && index > indices[0])) {
+                return;
+            }
+            indices[0] = index;
+            distances[0] = distance;
+            siftDown(0, size);
         }
 
-        /* Trim the list to size, if necessary */
-        return points.size() < number ? points : points.subList(0, number);
-    }
+        /**
+         * Moves an element down until it comes after neither child.
+         *
+         * @param i the slot of the element
+         * @param end the number of slots in use
+         */
+        void siftDown(int i, final int end) {
+            while (2 * i + 1 < end) {
+                int child = 2 * i + 1;
+                if (child + 1 < end && after(child + 1, child)) {
+                    child++;
+                }
+                if (!after(child, i)) {
+                    return;
+                }
+                swap(i, child);
+                i = child;
+            }
+        }
 
-    /**
-     * A tuple of a point and the distance to that point
-     */
-    private static class DistancePoint {
-        double distance;
-        DataPoint point;
+        /**
+         * @param i a slot
+         * @param j another slot
+         */
+        void swap(final int i, final int j) {
+            int index = indices[i];
+            indices[i] = indices[j];
+            indices[j] = index;
+            double distance = distances[i];
+            distances[i] = distances[j];
+            distances[j] = distance;
+        }
 
         /**
-         * @param distance the distance to the given point
-         * @param point a point
+         * Empties the heap.
+         *
+         * @return the indices of its elements, nearest first
          */
-        DistancePoint(final double distance, final DataPoint point) {
-            this.distance = distance;
-            this.point = point;
+        int[] drain() {
+            for (int end = size - 1; end > 0; end--) {
+                swap(0, end);
+                siftDown(0, end);
+            }
+            int[] sorted = Arrays.copyOf(indices, size);
+            size = 0;
+            return sorted;
         }
     }
 
@@ -539,20 +626,23 @@ public class NTree implements Iterable<DataPoint> {
      * Returns the closest point in the tree to the given point.
      *
      * @param point
-     * @return the point closest to the given point
+     * @return the point closest to the given point, or null if the tree is
+     *         empty
      */
     public DataPoint getClosestPoint(final DataPoint point) {
-        return getClosestPoints(1, point).get(0);
+        int[] nearest = getClosestIndices(1, point.getVector());
+        return nearest.length == 0 ? null : list.get(nearest[0]);
     }
 
     /**
      * Returns the index for the given point.
      *
      * @param point the point to lookup
-     * @return the index of that point
+     * @return the index of that point, or -1 if it is not in the tree
      */
     public int getIndex(DataPoint point) {
-        return list.indexOf(point);
+        Integer index = indices.get(point);
+        return index == null ? -1 : index;
     }
 
     /**
@@ -577,7 +667,7 @@ public class NTree implements Iterable<DataPoint> {
 
     /**
      * Returns an iterator over this tree
-     * @return 
+     * @return
      */
     public Iterator<DataPoint> iterator() {
         return list.iterator();
@@ -591,15 +681,15 @@ public class NTree implements Iterable<DataPoint> {
      */
     public void set(int index, DataPoint point) {
         DataPoint old = list.get(index);
-        Leaf leaf = all.get(old); // leaf can be null sometimes..
-        if (leaf == null) {
-            System.out.println(index);
-        }
-        int leafIndex = leaf.points.indexOf(old);
-        leaf.points.set(leafIndex, point);
-        all.put(point, leaf);
-        all.remove(old);
+        remove(index);
+        if (Integer.valueOf(index).equals(indices.get(old))) {
+            indices.remove(old);
+        }
+        System.arraycopy(point.getVector(), 0, coordinates, index * dimensions,
+                dimensions);
         list.set(index, point);
+        indices.putIfAbsent(point, index);
+        insert(index);
     }
 
     /*----------------------------------------------*/
@@ -639,10 +729,28 @@ public class NTree implements Iterable<DataPoint> {
             type = Type.leaf;
         }
 
-        List<DataPoint> points = new ArrayList<DataPoint>();
+        int[] indices = new int[MAX + 1];
+
+        int size;
+
+        void add(int index) {
+            if (size == indices.length) {
+                indices = Arrays.copyOf(indices, 2 * size);
+            }
+            indices[size++] = index;
+        }
+
+        void remove(int index) {
+            for (int i = 0; i < size; i++) {
+                if (indices[i] == index) {
+                    indices[i] = indices[--size];
+                    return;
+                }
+            }
+        }
 
         public String toString() {
-            return "size: " + points.size();
+            return "size: " + size;
         }
     }
-}
\ No newline at end of file
+}
@@ -26,11 +26,59 @@ import Jama.Matrix;
 /**
  * <B>ProjectPCA</B> Projects the high-dimensional dataset along its two
  * principal components to the low-d dataset.
+ * <p>
+ * By default the projection is online: the mean and covariance are kept as
+ * running sums which each new point updates, the principal components are
+ * refined from their previous values by a few steps of subspace iteration,
+ * and only the new points are projected. All the points are projected again
+ * only when a component has turned far enough from the one the points were
+ * last projected with (see {@link #setDriftThreshold(double)}), so adding a
+ * point costs time proportional to the square of the dimension rather than
+ * to the cube of the dimension plus the number of points. Offline, every
+ * projection recomputes the covariance from the whole dataset and fully
+ * decomposes it.
  *
  * @author Scott Hotton
  */
 public class ProjectPCA extends ProjectionMethod {
 
+    /** The default value of {@link #getDriftThreshold()}. */
+    public static final double DEFAULT_DRIFT_THRESHOLD = 0.001;
+
+    /** The number of steps of subspace iteration per projection. */
+    private static final int SUBSPACE_ITERATIONS = 2;
+
+    /** Whether to update the components online. */
+    private boolean online = true;
+
+    /**
+     * How far a component may turn, as one minus the cosine of the angle
+     * between it and the component the points were last projected with,
+     * before all the points are projected again.
+     */
+    private double driftThreshold = DEFAULT_DRIFT_THRESHOLD;
+
+    /** The dataset the running sums were taken from. */
+    private Dataset summed;
+
+    /** The number of upstairs points in the running sums. */
+    private int count;
+
+    /** The running mean of the upstairs points. */
+    private double[] mean;
+
+    /**
+     * The running sums of the products of the deviations from the mean, a
+     * row-major matrix of which only the upper triangle is kept.
+     */
+    private double[] comoments;
+
+    /** The current estimate of the principal components, one per row. */
+    private double[][] components;
+
+    /** The components the points were last projected with, one per row. */
+    private double[][] projected;
+
     /**
      * Default PCA project.
      * @param projector
@@ -47,6 +95,10 @@ public class ProjectPCA extends ProjectionMethod {
         if (projector.getUpstairs().getNumPoints() < 1) {
             return;
         }
+        if (online) {
+            projectOnline();
+            return;
+        }
 
         int lowdim = projector.getDownstairs().getDimensions();
         int updim = projector.getUpstairs().getDimensions();
@@ -106,9 +158,234 @@ public class ProjectPCA extends ProjectionMethod {
         }
     }
 
+    /**
+     * Adds the new upstairs points to the running sums, refines the
+     * components and projects either the new points or, if a component has
+     * drifted too far, all of them.
+     */
+    private void projectOnline() {
+        Dataset upstairs = projector.getUpstairs();
+        Dataset downstairs = projector.getDownstairs();
+        int numPoints = upstairs.getNumPoints();
+        int updim = upstairs.getDimensions();
+        if (upstairs != summed || numPoints < count || mean == null
+                || mean.length != updim) {
+            init();
+            summed = upstairs;
+            mean = new double[updim];
+            comoments = new double[updim * updim];
+        }
+        int firstNew = count;
+        for (; count < numPoints; count++) {
+            accumulate(upstairs.getPoint(count).getVector());
+        }
+
+        boolean reproject;
+        if (components == null) {
+            components = topEigenvectors(downstairs.getDimensions());
+            reproject = true;
+        } else {
+            for (int i = 0; i < SUBSPACE_ITERATIONS; i++) {
+                subspaceIteration();
+            }
+            reproject = drift() > driftThreshold;
+        }
+        if (reproject) {
+            projected = new double[components.length][];
+            for (int k = 0; k < components.length; k++) {
+                projected[k] = components[k].clone();
+            }
+            firstNew = 0;
+        }
+        for (int i = firstNew; i < numPoints
+                && i < downstairs.getNumPoints(); i++) {
+            downstairs.getPoint(i).setData(
+                    projectPoint(upstairs.getPoint(i).getVector()));
+        }
+    }
+
+    /**
+     * Adds a point to the running mean and comoments (Welford's method).
+     *
+     * @param x the point
+     */
+    private void accumulate(final double[] x) {
+        int updim = mean.length;
+        double[] delta = new double[updim];
+        for (int i = 0; i < updim; i++) {
+            delta[i] = x[i] - mean[i];
+            mean[i] += delta[i] / (count + 1);
+        }
+        for (int i = 0; i < updim; i++) {
+            double di = delta[i];
+            for (int j = i; j < updim; j++) {
+                comoments[i * updim + j] += di * (x[j] - mean[j]);
+            }
+        }
+    }
+
+    /**
+     * @param i a row
+     * @param j a column
+     * @return the covariance of the points summed so far
+     */
+    private double covariance(final int i, final int j) {
+        int updim = mean.length;
+        return (i <= j ? comoments[i * updim + j] : comoments[j * updim + i])
+                / count;
+    }
+
+    /**
+     * Decomposes the current covariance matrix in full.
+     *
+     * @param k the number of components wanted
+     * @return the eigenvectors with the k largest eigenvalues, largest first
+     */
+    private double[][] topEigenvectors(final int k) {
+        int updim = mean.length;
+        Matrix m = new Matrix(updim, updim);
+        for (int i = 0; i < updim; i++) {
+            for (int j = 0; j < updim; j++) {
+                m.set(i, j, covariance(i, j));
+            }
+        }
+        EigenvalueDecomposition ed = m.eig();
+        double[] evals = ed.getRealEigenvalues();
+        Integer[] order = new Integer[updim];
+        for (int i = 0; i < updim; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(evals[b], evals[a]));
+        double[][] vecs = new double[k][updim];
+        Matrix v = ed.getV();
+        for (int c = 0; c < k && c < updim; c++) {
+            for (int i = 0; i < updim; i++) {
+                vecs[c][i] = v.get(i, order[c]);
+            }
+        }
+        return vecs;
+    }
+
+    /**
+     * Multiplies the components by the covariance matrix and makes them
+     * orthonormal again, which turns them toward the principal components.
+     * A component is kept pointing the same way as before, so the picture
+     * does not flip.
+     */
+    private void subspaceIteration() {
+        int updim = mean.length;
+        double[][] next = new double[components.length][updim];
+        for (int k = 0; k < components.length; k++) {
+            double[] v = components[k];
+            double[] w = next[k];
+            for (int i = 0; i < updim; i++) {
+                double sum = 0;
+                for (int j = 0; j < updim; j++) {
+                    sum += covariance(i, j) * v[j];
+                }
+                w[i] = sum;
+            }
+            // Gram-Schmidt against the components before this one
+            for (int p = 0; p < k; p++) {
+                double dot = dot(w, next[p]);
+                for (int i = 0; i < updim; i++) {
+                    w[i] -= dot * next[p][i];
+                }
+            }
+            double norm = Math.sqrt(dot(w, w));
+            if (!(norm > 0)) {
+                // No variance left to follow; keep the old direction.
+                System.arraycopy(v, 0, w, 0, updim);
+                continue;
+            }
+            double sign = dot(w, v) < 0 ? -1 : 1;
+            for (int i = 0; i < updim; i++) {
+                w[i] *= sign / norm;
+            }
+        }
+        components = next;
+    }
+
+    /**
+     * @return the largest drift of a component from the one the points were
+     *         last projected with, as one minus the absolute cosine of the
+     *         angle between them
+     */
+    private double drift() {
+        double drift = 0;
+        for (int k = 0; k < components.length; k++) {
+            drift = Math.max(drift,
+                    1 - Math.abs(dot(components[k], projected[k])));
+        }
+        return drift;
+    }
+
+    /**
+     * @param x an upstairs point
+     * @return its projection on the components the points are projected with
+     */
+    private double[] projectPoint(final double[] x) {
+        double[] low = new double[projected.length];
+        for (int k = 0; k < projected.length; k++) {
+            low[k] = dot(projected[k], x);
+        }
+        return low;
+    }
+
+    /**
+     * @param a a vector
+     * @param b a vector of the same length
+     * @return their dot product
+     */
+    private static double dot(final double[] a, final double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            sum += a[i] * b[i];
+        }
+        return sum;
+    }
+
     @Override
     public void init() {
-        // TODO Auto-generated method stub
+        summed = null;
+        count = 0;
+        mean = null;
+        comoments = null;
+        components = null;
+        projected = null;
+    }
+
+    /**
+     * @return whether the components are updated online
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * @param online whether to update the components online
+     */
+    public void setOnline(boolean online) {
+        this.online = online;
+        init();
+    }
+
+    /**
+     * @return how far a component may turn, as one minus the cosine of the
+     *         angle it turns through, before all the points are projected
+     *         again
+     */
+    public double getDriftThreshold() {
+        return driftThreshold;
+    }
+
+    /**
+     * @param driftThreshold how far a component may turn, as one minus the
+     *            cosine of the angle it turns through, before all the points
+     *            are projected again
+     */
+    public void setDriftThreshold(double driftThreshold) {
+        this.driftThreshold = driftThreshold;
     }
 
 }
@@ -19,18 +19,96 @@
 package org.simbrain.util.projection;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SimbrainMath;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  * <B>ProjectSammon.java</B> implements gradient descent to compute image of
  * Sammon projection.
+ * <p>
+ * The exact method compares every pair of points on every iteration, using
+ * matrices of all interpoint distances, and so takes time and memory
+ * quadratic in the number of points. Above {@link #EXACT_LIMIT} points, or
+ * whenever {@link #setApproximate(boolean)} is set, an approximate method is
+ * used instead, after Chalmers' linear iteration time spring model. Each
+ * point remembers the {@link #NUM_NEIGHBORS} points closest to it upstairs
+ * that it has seen so far and on each iteration is also compared with
+ * {@link #NUM_SAMPLES} points chosen at random. The gradient is made of the
+ * exact terms of the neighbors plus the terms of the random points scaled up
+ * to stand for all the other points, so its expected value is close to the
+ * exact gradient and the step size means the same thing in both methods. A
+ * random point closer than the farthest neighbor replaces it, so the
+ * neighbor lists converge to the true nearest neighbors. Distances are
+ * computed as needed rather than stored, the points are moved in place and
+ * the work is divided over the available processors.
  *
  * TODO: Possibly convert all arrays to datapoints.
  */
 public class ProjectSammon extends IterableProjectionMethod {
 
+    /**
+     * The number of points above which the approximate method is always
+     * used.
+     */
+    public static final int EXACT_LIMIT = 2000;
+
+    /**
+     * The number of nearest neighbors each point remembers in the approximate
+     * method.
+     */
+    public static final int NUM_NEIGHBORS = 10;
+
+    /**
+     * The number of random points each point is compared with on each
+     * iteration of the approximate method.
+     */
+    public static final int NUM_SAMPLES = 10;
+
+    /**
+     * The number of random pairs of points per point used to estimate the
+     * sum of the upstairs distances in the approximate method.
+     */
+    private static final int PAIRS_PER_POINT = 20;
+
+    /**
+     * The number of points above which an approximate iteration divides its
+     * work over the available processors.
+     */
+    private static final int PARALLEL_THRESHOLD = 1000;
+
+    /**
+     * The number of points which draw their random samples from the same
+     * stream in an approximate iteration. Each block of points has its own
+     * stream, so the samples do not depend on how the work is divided.
+     */
+    private static final int STEP_BLOCK_SIZE = 256;
+
+    /** Whether to use the approximate method however few points there are. */
+    private boolean approximate;
+
+    /**
+     * For each point, the indices of its nearest upstairs neighbors found so
+     * far, {@link #NUM_NEIGHBORS} per point, nearest first. Unused entries
+     * are -1.
+     */
+    private int[] neighbors = new int[0];
+
+    /** The upstairs distance to each neighbor in {@link #neighbors}. */
+    private double[] neighborDistances = new double[0];
+
+    /** The new downstairs coordinates computed by an approximate iteration. */
+    private double[] nextCoordinates = new double[0];
+
+    /** The error each point contributes in an approximate iteration. */
+    private double[] pointErrors = new double[0];
+
     /** Array of datasets. */
     private ArrayList<DataPoint> yArray;
 
@@ -93,10 +171,15 @@ public class ProjectSammon extends IterableProjectionMethod {
     public void init() {
         try {
             perturbationAmount = SimbrainPreferences.getDouble("projectorSammonPerturbationAmount");
-            perturbationAmount = SimbrainPreferences.getDouble("projectorSammonEpsilon");
+            epsilon = SimbrainPreferences.getDouble("projectorSammonEpsilon");
         } catch (PropertyNotFoundException e) {
             e.printStackTrace();
         }
+        if (isApproximating()) {
+            initApproximate();
+            setNeedsReInit(false);
+            return;
+        }
         dstar = projector.getUpstairs().getDistances();
         dstarSum = projector.getUpstairs().getSumDistances();
         projector.getDownstairs().perturbOverlappingPoints(perturbationAmount);
@@ -115,10 +198,15 @@ public class ProjectSammon extends IterableProjectionMethod {
         }
 
         // If new points were added re-initialize
-        if (needsReInit()) {
+        if (needsReInit() || isApproximating() != (dstar == null)) {
             init();
         }
 
+        if (isApproximating()) {
+            iterateApproximate();
+            return;
+        }
+
         yArray = projector.getDownstairs().getDatasetCopy();
         d = projector.getDownstairs().getDistances();
 
@@ -161,6 +249,296 @@ public class ProjectSammon extends IterableProjectionMethod {
         // System.out.println("currentCloseness = " + currentCloseness);
     }
 
+    /**
+     * @return whether the approximate method will be used on the current
+     *         points
+     */
+    public boolean isApproximating() {
+        return approximate || projector.getNumPoints() > EXACT_LIMIT;
+    }
+
+    /**
+     * Prepares the approximate method: releases the distance matrices of the
+     * exact method, makes room in the neighbor lists for new points (the
+     * lists of old points stay valid, since upstairs points don't move),
+     * estimates the sum of the upstairs distances from random pairs and
+     * separates downstairs points which coincide.
+     */
+    private void initApproximate() {
+        dstar = null;
+        d = null;
+        yArray = null;
+        int numPoints = projector.getNumPoints();
+        int oldPoints = neighbors.length / NUM_NEIGHBORS;
+        if (numPoints != oldPoints) {
+            int keep = Math.min(oldPoints, numPoints) * NUM_NEIGHBORS;
+            neighbors = Arrays.copyOf(neighbors, numPoints * NUM_NEIGHBORS);
+            neighborDistances = Arrays.copyOf(neighborDistances,
+                    numPoints * NUM_NEIGHBORS);
+            Arrays.fill(neighbors, keep, neighbors.length, -1);
+            Arrays.fill(neighborDistances, keep, neighborDistances.length,
+                    Double.POSITIVE_INFINITY);
+        }
+        int dims = projector.getDownstairs().getDimensions();
+        if (nextCoordinates.length != numPoints * dims) {
+            nextCoordinates = new double[numPoints * dims];
+            pointErrors = new double[numPoints];
+        }
+
+        double[][] up = vectors(projector.getUpstairs());
+        RandomStream rand = RandomStreams.current();
+        long numPairs = Math.min((long) numPoints * (numPoints - 1) / 2,
+                (long) PAIRS_PER_POINT * numPoints);
+        double sum = 0;
+        for (long p = 0; p < numPairs; p++) {
+            int i = rand.nextInt(0, numPoints - 1);
+            int j = rand.nextInt(0, numPoints - 2);
+            sum += distance(up[i], up[j < i ? j : j + 1]);
+        }
+        dstarSum = sum / numPairs * ((double) numPoints * (numPoints - 1) / 2);
+
+        // Coinciding points would never be pulled apart. Sorting brings them
+        // together without comparing every pair.
+        final double[][] down = vectors(projector.getDownstairs());
+        Integer[] order = new Integer[numPoints];
+        for (int i = 0; i < numPoints; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (i, j) -> compare(down[i], down[j]));
+        for (int k = 1; k < numPoints; k++) {
+            if (compare(down[order[k - 1]], down[order[k]]) == 0) {
+                double[] y = down[order[k - 1]];
+                for (int n = 0; n < y.length; n++) {
+                    y[n] += (rand.nextDouble() - 0.5) * perturbationAmount;
+                }
+            }
+        }
+    }
+
+    /**
+     * @param a a vector
+     * @param b a vector of the same length
+     * @return the lexicographic comparison of the vectors
+     */
+    private static int compare(final double[] a, final double[] b) {
+        for (int n = 0; n < a.length; n++) {
+            int c = Double.compare(a[n], b[n]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * One iteration of the approximate method. See the class comment.
+     */
+    private void iterateApproximate() {
+        final double[][] up = vectors(projector.getUpstairs());
+        final double[][] down = vectors(projector.getDownstairs());
+        final int numPoints = up.length;
+        final int dims = projector.getDownstairs().getDimensions();
+        final long seed = RandomStreams.nextSeed(RandomStreams.current());
+        final int numBlocks = (numPoints + STEP_BLOCK_SIZE - 1)
+                / STEP_BLOCK_SIZE;
+        IntStream blocks = IntStream.range(0, numBlocks);
+        if (numPoints > PARALLEL_THRESHOLD) {
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(b -> {
+            RandomStream rand = SimbrainMath.seededStream(seed, b);
+            for (int m = b * STEP_BLOCK_SIZE, end = Math.min(numPoints,
+                    (b + 1) * STEP_BLOCK_SIZE); m < end; m++) {
+                approximateStep(m, up, down, dims, rand);
+            }
+        });
+        // All the new coordinates were computed from the old ones, so they
+        // can only be written back now.
+        double e = 0;
+        for (int m = 0; m < numPoints; m++) {
+            System.arraycopy(nextCoordinates, m * dims, down[m], 0, dims);
+            e += pointErrors[m];
+        }
+        // Every pair is seen from both of its points.
+        currentCloseness = e / 2 / dstarSum;
+        setError(currentCloseness);
+        projector.fireProjectorDataChanged();
+    }
+
+    /**
+     * Computes the new downstairs coordinates of one point, and its share of
+     * the error, from its neighbors and from random points, and updates its
+     * neighbors with any random point closer than one of them.
+     *
+     * @param m the index of the point
+     * @param up the upstairs points
+     * @param down the downstairs points
+     * @param dims the number of downstairs dimensions
+     * @param rand the stream to draw the random points from
+     */
+    private void approximateStep(final int m, final double[][] up,
+            final double[][] down, final int dims, final RandomStream rand) {
+        final int numPoints = up.length;
+        final int start = m * NUM_NEIGHBORS;
+        double[] partial = new double[dims];
+        double err = 0;
+        int numNeighbors = 0;
+        for (int k = start; k < start + NUM_NEIGHBORS; k++) {
+            int i = neighbors[k];
+            if (i < 0) {
+                break;
+            }
+            err += addTerm(partial, up, down, m, i, neighborDistances[k], 1);
+            numNeighbors++;
+        }
+        int numOthers = numPoints - 1 - numNeighbors;
+        if (numOthers <= NUM_SAMPLES) {
+            // Few enough to compare with all of them.
+            for (int i = 0; i < numPoints; i++) {
+                if (i != m && !isNeighbor(m, i)) {
+                    double dist = distance(up[i], up[m]);
+                    err += addTerm(partial, up, down, m, i, dist, 1);
+                    offerNeighbor(m, i, dist);
+                }
+            }
+        } else {
+            double weight = numOthers / (double) NUM_SAMPLES;
+            for (int s = 0; s < NUM_SAMPLES; s++) {
+                int i = rand.nextInt(0, numPoints - 2);
+                if (i >= m) {
+                    i++;
+                }
+                if (isNeighbor(m, i)) {
+                    // Already counted; drawing again would bias the sample.
+                    s--;
+                    continue;
+                }
+                double dist = distance(up[i], up[m]);
+                err += addTerm(partial, up, down, m, i, dist, weight);
+                offerNeighbor(m, i, dist);
+            }
+        }
+        double[] yM = down[m];
+        for (int n = 0; n < dims; n++) {
+            nextCoordinates[m * dims + n] = yM[n]
+                    - ((epsilon * 2 * partial[n]) / dstarSum);
+        }
+        pointErrors[m] = err;
+    }
+
+    /**
+     * Adds the term of one pair of points to the partial derivatives of the
+     * error with respect to the downstairs coordinates of the first point.
+     *
+     * @param partial the partial derivatives to add to
+     * @param up the upstairs points
+     * @param down the downstairs points
+     * @param m the index of the point being moved
+     * @param i the index of the other point
+     * @param dist the upstairs distance between the points
+     * @param weight how many pairs the pair stands for
+     * @return the error of the pair times the weight
+     */
+    private static double addTerm(final double[] partial,
+            final double[][] up, final double[][] down, final int m,
+            final int i, final double dist, final double weight) {
+        if (dist == 0) {
+            return 0;
+        }
+        double[] yM = down[m];
+        double[] yI = down[i];
+        double dd = distance(yI, yM);
+        if (dd != 0) {
+            double scale = weight * (dist - dd) / dist / dd;
+            for (int n = 0; n < partial.length; n++) {
+                partial[n] += scale * (yI[n] - yM[n]);
+            }
+        }
+        return weight * (dist - dd) * (dist - dd) / dist;
+    }
+
+    /**
+     * @param m the index of a point
+     * @param i the index of another point
+     * @return whether the second point is in the neighbor list of the first
+     */
+    private boolean isNeighbor(final int m, final int i) {
+        for (int k = m * NUM_NEIGHBORS, end = k + NUM_NEIGHBORS; k < end;
+                k++) {
+            if (neighbors[k] == i) {
+                return true;
+            }
+            if (neighbors[k] < 0) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Puts a point in the neighbor list of another if it is closer than the
+     * farthest neighbor, keeping the list ordered nearest first.
+     *
+     * @param m the index of the point whose list is updated
+     * @param i the index of the candidate neighbor
+     * @param dist the upstairs distance between them
+     */
+    private void offerNeighbor(final int m, final int i, final double dist) {
+        int start = m * NUM_NEIGHBORS;
+        int k = start + NUM_NEIGHBORS - 1;
+        if (!(dist < neighborDistances[k])) {
+            return;
+        }
+        for (; k > start && neighborDistances[k - 1] > dist; k--) {
+            neighbors[k] = neighbors[k - 1];
+            neighborDistances[k] = neighborDistances[k - 1];
+        }
+        neighbors[k] = i;
+        neighborDistances[k] = dist;
+    }
+
+    /**
+     * @param dataset a dataset
+     * @return the vectors of its points, by index
+     */
+    private static double[][] vectors(final Dataset dataset) {
+        double[][] vectors = new double[dataset.getNumPoints()][];
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = dataset.getPoint(i).getVector();
+        }
+        return vectors;
+    }
+
+    /**
+     * @param a a vector
+     * @param b a vector of the same length
+     * @return the Euclidean distance between them
+     */
+    private static double distance(final double[] a, final double[] b) {
+        double sum = 0;
+        for (int n = 0; n < a.length; n++) {
+            double diff = a[n] - b[n];
+            sum += diff * diff;
+        }
+        return Math.sqrt(sum);
+    }
+
+    /**
+     * @return whether the approximate method is used however few points
+     *         there are
+     */
+    public boolean isApproximate() {
+        return approximate;
+    }
+
+    /**
+     * @param approximate whether to use the approximate method however few
+     *            points there are
+     */
+    public void setApproximate(boolean approximate) {
+        this.approximate = approximate;
+    }
+
     /**
      * @return the epsilon
      */
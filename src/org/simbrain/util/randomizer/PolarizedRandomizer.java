@@ -21,6 +21,8 @@ package org.simbrain.util.randomizer;
 import org.simbrain.util.SimbrainConstants.Polarity;
 import org.simbrain.util.math.ProbDistribution;
 
+import umontreal.iro.lecuyer.rng.RandomStream;
+
 /**
  *
  * A tentative solution to some of the issues involving randomizers....
@@ -114,6 +116,21 @@ public class PolarizedRandomizer extends Randomizer {
         }
     }
 
+    /**
+     * Returns a random number drawn using the given random stream.
+     *
+     * @param stream the random stream to draw from
+     * @return the next random number
+     */
+    @Override
+    public double getRandom(final RandomStream stream) {
+        if (clipping) {
+            return clip(pdf.nextRand(stream, param1, param2));
+        } else {
+            return polarity.value(pdf.nextRand(stream, param1, param2));
+        }
+    }
+
     /**
      * Clip <code>val</code> to upper and lower bounds.
      *
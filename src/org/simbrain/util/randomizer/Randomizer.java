@@ -18,7 +18,13 @@
  */
 package org.simbrain.util.randomizer;
 
+import java.util.stream.IntStream;
+
 import org.simbrain.util.math.ProbDistribution;
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.util.math.SimbrainMath;
+
+import umontreal.iro.lecuyer.rng.RandomStream;
 
 /**
  * @author Zach Tosi
@@ -32,6 +38,12 @@ public class Randomizer {
     public static final ProbDistribution DEFAULT_DISTRIBUTION =
             ProbDistribution.UNIFORM;
 
+    /**
+     * The number of values {@link #fill(double[], long)} draws from each
+     * stream.
+     */
+    public static final int FILL_BLOCK_SIZE = 4096;
+
     protected ProbDistribution pdf = DEFAULT_DISTRIBUTION;
 
     /**
@@ -118,6 +130,68 @@ public class Randomizer {
         }
     }
 
+    /**
+     * Returns a random number drawn using the given random stream.
+     *
+     * @param stream the random stream to draw from
+     * @return the next random number
+     */
+    public double getRandom(final RandomStream stream) {
+        if (clipping) {
+            return clip(pdf.nextRand(stream, param1, param2));
+        } else {
+            return pdf.nextRand(stream, param1, param2);
+        }
+    }
+
+    /**
+     * Fills part of an array with random numbers drawn using the given random
+     * stream, so that many values can be drawn reproducibly in one call.
+     *
+     * @param values the array to fill
+     * @param from the first index to fill
+     * @param to one past the last index to fill
+     * @param stream the random stream to draw from
+     */
+    public void fillRandom(final double[] values, final int from,
+            final int to, final RandomStream stream) {
+        for (int i = from; i < to; i++) {
+            values[i] = getRandom(stream);
+        }
+    }
+
+    /**
+     * Fills an array with random numbers drawn from the current random stream
+     * of the calling thread, see {@link RandomStreams#current()}.
+     *
+     * @param values the array to fill
+     */
+    public void fill(final double[] values) {
+        fillRandom(values, 0, values.length, RandomStreams.current());
+    }
+
+    /**
+     * Fills an array with random numbers fixed by a seed. The array is split
+     * into blocks of {@link #FILL_BLOCK_SIZE} values, each drawn from its own
+     * stream made with {@link SimbrainMath#seededStream(long, long)}, and the
+     * blocks of large arrays are filled in parallel, so the values depend only
+     * on the seed and not on the number of processors.
+     *
+     * @param values the array to fill
+     * @param seed the seed the values are drawn with
+     */
+    public void fill(final double[] values, final long seed) {
+        final int numBlocks = (values.length + FILL_BLOCK_SIZE - 1)
+                / FILL_BLOCK_SIZE;
+        IntStream blocks = IntStream.range(0, numBlocks);
+        if (numBlocks > 1) {
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(b -> fillRandom(values, b * FILL_BLOCK_SIZE,
+                Math.min(values.length, (b + 1) * FILL_BLOCK_SIZE),
+                SimbrainMath.seededStream(seed, b)));
+    }
+
     /**
      * Clip <code>val</code> to upper and lower bounds.
      *
@@ -17,9 +17,6 @@
  */
 package org.simbrain.workspace;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
-
 /**
  * The main usage of this class by API users is to create potential attributes
  * (PotentialConsumer and PotentialProducer), which are in turn used to create
@@ -74,101 +71,9 @@ public class AttributeManager {
             final Class<?>[] argumentDataTypes, final Object[] argumentValues,
             final String description) {
 
-        Producer<?> producer = new Producer() {
-
-            private Method theMethod;
-
-            // Static initializer
-            {
-                try {
-                    if (argumentDataTypes == null) {
-                        theMethod = parentObject.getClass().getMethod(
-                                methodName);
-                    } else {
-                        theMethod = parentObject.getClass().getMethod(
-                                methodName, argumentDataTypes);
-                    }
-                } catch (SecurityException e1) {
-                    e1.printStackTrace();
-                } catch (NoSuchMethodException e1) {
-                    System.err.println("Could not find method " + methodName
-                            + " with return type of "
-                            + dataType.getCanonicalName());
-                    e1.printStackTrace();
-                }
-
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object getValue() {
-                try {
-                    return theMethod.invoke(parentObject, argumentValues);
-                } catch (IllegalArgumentException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-                return null;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public WorkspaceComponent getParentComponent() {
-                return parentComponent;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object getBaseObject() {
-                return parentObject;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public String getMethodName() {
-                return methodName;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Class<?> getDataType() {
-                return dataType;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Class<?>[] getArgumentDataTypes() {
-                return argumentDataTypes;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object[] getArgumentValues() {
-                return argumentValues;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public String getDescription() {
-                return description;
-            }
-
-        };
-        return producer;
+        return MethodAttribute.createProducer(parentComponent, parentObject,
+                methodName, dataType, argumentDataTypes, argumentValues,
+                description);
 
     }
 
@@ -208,110 +113,8 @@ public class AttributeManager {
             final String methodName, final Class<?>[] argumentDataTypes,
             final Object[] argumentValues, final String description) {
 
-        Consumer<?> consumer = new Consumer() {
-
-            private Method theMethod;
-
-            // Static initializer
-            {
-                // System.out.println(Arrays.asList(argumentDataTypes));
-                try {
-                    theMethod = parentObject.getClass().getMethod(methodName,
-                            argumentDataTypes);
-                } catch (SecurityException e1) {
-                    e1.printStackTrace();
-                } catch (NoSuchMethodException e1) {
-                    System.err.print("Could not find method " + methodName
-                            + " ");
-                    if (argumentDataTypes != null) {
-                        System.err.print("with arguments of type ");
-                        for (Class<?> type : argumentDataTypes) {
-                            System.err.print(type.getCanonicalName());
-                        }
-                        System.err.println();
-                    }
-                    e1.printStackTrace();
-                }
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public void setValue(Object value) {
-                try {
-
-                    if (argumentDataTypes.length == 1) {
-                        theMethod.invoke(parentObject, new Object[] { value });
-                    } else {
-                        Object[] concatArray = new Object[argumentValues.length + 1];
-                        concatArray[0] = value;
-                        System.arraycopy(argumentValues, 0, concatArray, 1,
-                                argumentValues.length);
-                        theMethod.invoke(parentObject, concatArray);
-                    }
-                } catch (IllegalArgumentException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (IllegalAccessException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                } catch (InvocationTargetException e) {
-                    // TODO Auto-generated catch block
-                    e.printStackTrace();
-                }
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public WorkspaceComponent getParentComponent() {
-                return parentComponent;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object getBaseObject() {
-                return parentObject;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public String getMethodName() {
-                return methodName;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Class<?>[] getArgumentDataTypes() {
-                return argumentDataTypes;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public Object[] getArgumentValues() {
-                return argumentValues;
-            }
-
-            /**
-             * {@inheritDoc}
-             */
-            public String getDescription() {
-                return description;
-            }
-
-            /**
-             * Assume first argument datatype is the "main" data type.
-             */
-            public Class<?> getDataType() {
-                return argumentDataTypes[0];
-            }
-
-        };
-        return consumer;
+        return MethodAttribute.createConsumer(parentComponent, parentObject,
+                methodName, argumentDataTypes, argumentValues, description);
 
     }
 
@@ -0,0 +1,609 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.simbrain.util.math.RandomStreams;
+import org.simbrain.workspace.updater.UpdateAction;
+import org.simbrain.workspace.updater.WorkspaceUpdater;
+
+/**
+ * Runs a saved workspace without a desktop, for batch simulations. The
+ * workspace archive is read once; every run opens its own copy of the
+ * workspace from it, sets the run's parameter values, iterates the workspace a
+ * fixed number of times through its {@link WorkspaceUpdater}, and streams the
+ * values of chosen producers to a csv file, one row per iteration.
+ * <p>
+ * A parameter sweep is given as a set of parameters, each with a list of
+ * values; one run is made for every combination of values, repeated as many
+ * times as there are replicas. Runs are spread over a thread pool, so many
+ * replicas share one JVM. Each run reseeds its workspace (see
+ * {@link Workspace#setRandomSeed(long)}) with a seed derived from the seed of
+ * the batch and the index of the run, so replicas differ from one another and
+ * a batch run again with the same seed repeats every run exactly. An index
+ * file, runs.csv, lists the seed and the parameter values used by each run.
+ * <p>
+ * Producers and parameters are named like coupling ids,
+ * <code>component:objectKey:methodName</code>, where the object key is the one
+ * the component uses when saving couplings (for example Neuron_3 or
+ * NeuronGroup:Group_1) and may be empty to name the component itself.
+ * Recorded methods must be getters without arguments; parameter methods must
+ * be setters with a single number, boolean or string argument.
+ * <p>
+ * From the command line:
+ *
+ * <pre>
+ * java -cp Simbrain.jar org.simbrain.workspace.BatchRunner workspace.zip 1000 \
+ *     -out results -record Network1:Neuron_5:getActivation \
+ *     -sweep "Network1:Neuron_2:setUpperBound=1,2,5" -replicas 10
+ * </pre>
+ *
+ * The command line runner sets java.awt.headless, so no display is needed and
+ * no window system is initialized. Code using this class directly should run
+ * with -Djava.awt.headless=true for the same effect.
+ */
+public class BatchRunner {
+
+    /** The bytes of the workspace archive. */
+    private final byte[] archive;
+
+    /** Number of iterations per run. */
+    private int iterations = 1;
+
+    /** Number of runs per combination of parameter values. */
+    private int replicas = 1;
+
+    /** Number of runs performed at once. */
+    private int numParallel = Runtime.getRuntime().availableProcessors();
+
+    /** Directory the result files are written to. */
+    private File outputDirectory = new File(".");
+
+    /** The seed the seed of each run is derived from. */
+    private long seed = RandomStreams.nextSeed();
+
+    /** Names of the producers to record. */
+    private final List<String> recorded = new ArrayList<String>();
+
+    /** Names of the swept parameters. */
+    private final List<String> parameters = new ArrayList<String>();
+
+    /** The values of each swept parameter, as text. */
+    private final List<String[]> parameterValues = new ArrayList<String[]>();
+
+    /**
+     * Create a runner for a saved workspace.
+     *
+     * @param workspaceFile the workspace archive
+     * @throws IOException if the file cannot be read
+     */
+    public BatchRunner(final File workspaceFile) throws IOException {
+        this.archive = Files.readAllBytes(workspaceFile.toPath());
+    }
+
+    /**
+     * Record the values of a producer.
+     *
+     * @param name the producer, as component:objectKey:getterName
+     */
+    public void addRecordedProducer(final String name) {
+        parse(name);
+        recorded.add(name);
+    }
+
+    /**
+     * Sweep a parameter over a list of values.
+     *
+     * @param name the parameter, as component:objectKey:setterName
+     * @param values the values, as text
+     * @throws IllegalArgumentException if no values are given
+     */
+    public void addSweep(final String name, final String... values) {
+        parse(name);
+        if (values.length == 0) {
+            throw new IllegalArgumentException("No values given for " + name);
+        }
+        parameters.add(name);
+        parameterValues.add(values.clone());
+    }
+
+    /**
+     * @param iterations the number of iterations per run
+     */
+    public void setIterations(final int iterations) {
+        if (iterations < 0) {
+            throw new IllegalArgumentException("Negative iteration count.");
+        }
+        this.iterations = iterations;
+    }
+
+    /**
+     * @param replicas the number of runs per combination of parameter values
+     */
+    public void setReplicas(final int replicas) {
+        if (replicas < 1) {
+            throw new IllegalArgumentException("At least one replica is"
+                    + " required.");
+        }
+        this.replicas = replicas;
+    }
+
+    /**
+     * @param numParallel the number of runs performed at once
+     */
+    public void setNumParallel(final int numParallel) {
+        if (numParallel < 1) {
+            throw new IllegalArgumentException("At least one thread is"
+                    + " required.");
+        }
+        this.numParallel = numParallel;
+    }
+
+    /**
+     * @param outputDirectory the directory result files are written to
+     */
+    public void setOutputDirectory(final File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * @param seed the seed the seed of each run is derived from; random
+     *            unless set
+     */
+    public void setSeed(final long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @return the seed the seed of each run is derived from
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Perform every run. Runs that fail are reported and do not stop the
+     * others.
+     *
+     * @return the number of runs that failed
+     * @throws IOException if the output directory or index cannot be written
+     * @throws InterruptedException if interrupted while waiting for runs
+     */
+    public int run() throws IOException, InterruptedException {
+        if (!outputDirectory.isDirectory() && !outputDirectory.mkdirs()) {
+            throw new IOException("Cannot create " + outputDirectory);
+        }
+        int numPoints = 1;
+        for (String[] values : parameterValues) {
+            numPoints *= values.length;
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(numParallel);
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        List<String> runNames = new ArrayList<String>();
+        try (Writer index = new BufferedWriter(new FileWriter(new File(
+                outputDirectory, "runs.csv")))) {
+            index.write("run,seed");
+            for (String name : parameters) {
+                index.write("," + quote(name));
+            }
+            index.write("\n");
+            for (int point = 0; point < numPoints; point++) {
+                String[] values = valuesAt(point);
+                for (int replica = 0; replica < replicas; replica++) {
+                    final String runName = "run_" + point + "_" + replica;
+                    final String[] runValues = values;
+                    final long runSeed = RandomStreams.childSeed(seed,
+                            runNames.size());
+                    index.write(runName + "," + runSeed);
+                    for (String value : values) {
+                        index.write("," + quote(value));
+                    }
+                    index.write("\n");
+                    runNames.add(runName);
+                    futures.add(pool.submit(() -> {
+                        runOnce(runName, runValues, runSeed);
+                        return null;
+                    }));
+                }
+            }
+        }
+
+        int failures = 0;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    failures++;
+                    System.err.println(runNames.get(i) + " failed:");
+                    e.getCause().printStackTrace();
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        return failures;
+    }
+
+    /**
+     * @param point the index of a combination of parameter values
+     * @return the parameter values of that combination
+     */
+    private String[] valuesAt(int point) {
+        String[] values = new String[parameters.size()];
+        for (int p = values.length - 1; p >= 0; p--) {
+            String[] choices = parameterValues.get(p);
+            values[p] = choices[point % choices.length];
+            point /= choices.length;
+        }
+        return values;
+    }
+
+    /**
+     * Perform one run.
+     *
+     * @param runName the name of the run, used for its result file
+     * @param values the value of each swept parameter
+     * @param runSeed the seed of the run's workspace
+     * @throws Exception if the run fails
+     */
+    private void runOnce(final String runName, final String[] values,
+            final long runSeed) throws Exception {
+        Workspace workspace = new Workspace();
+        WorkspaceUpdater updater = workspace.getUpdater();
+        try {
+            new WorkspaceSerializer(workspace)
+                    .deserialize(new ByteArrayInputStream(archive));
+            workspace.setRandomSeed(runSeed);
+            if (numParallel > 1) {
+                // The runs themselves provide the parallelism.
+                updater.setNumThreads(1);
+            }
+            for (int p = 0; p < values.length; p++) {
+                setParameter(workspace, parameters.get(p), values[p]);
+            }
+            try (Writer out = new BufferedWriter(new FileWriter(new File(
+                    outputDirectory, runName + ".csv")))) {
+                Recorder recorder = new Recorder(workspace, out);
+                updater.getUpdateManager().addAction(recorder);
+                CountDownLatch latch = new CountDownLatch(1);
+                updater.iterate(latch, iterations);
+                latch.await();
+                if (recorder.failure != null) {
+                    throw recorder.failure;
+                }
+            }
+        } finally {
+            updater.shutdown();
+        }
+    }
+
+    /**
+     * Split a producer or parameter name into its component name, object key
+     * and method name.
+     *
+     * @param name the name
+     * @return the three parts
+     * @throws IllegalArgumentException if the name is malformed
+     */
+    private static String[] parse(final String name) {
+        int first = name.indexOf(':');
+        int last = name.lastIndexOf(':');
+        if (first < 0 || first == last || last == name.length() - 1) {
+            throw new IllegalArgumentException("Expected"
+                    + " component:objectKey:methodName but got " + name);
+        }
+        return new String[] { name.substring(0, first),
+                name.substring(first + 1, last), name.substring(last + 1) };
+    }
+
+    /**
+     * @param workspace a workspace
+     * @param parts the parts of a name, as returned by {@link #parse}
+     * @return the component named
+     * @throws IllegalArgumentException if there is no such component
+     */
+    private static WorkspaceComponent componentFor(final Workspace workspace,
+            final String[] parts) {
+        WorkspaceComponent component = workspace.getComponent(parts[0]);
+        if (component == null) {
+            throw new IllegalArgumentException("No component named "
+                    + parts[0]);
+        }
+        return component;
+    }
+
+    /**
+     * @param component a component
+     * @param key an object key, or the empty string for the component itself
+     * @return the object with that key
+     * @throws IllegalArgumentException if there is no such object
+     */
+    private static Object objectFor(final WorkspaceComponent component,
+            final String key) {
+        if (key.isEmpty()) {
+            return component;
+        }
+        Object object = component.getObjectFromKey(key);
+        if (object == null) {
+            throw new IllegalArgumentException("No object " + key + " in "
+                    + component.getName());
+        }
+        return object;
+    }
+
+    /**
+     * Set a parameter of a workspace.
+     *
+     * @param workspace the workspace
+     * @param name the parameter, as component:objectKey:setterName
+     * @param value the value, as text
+     * @throws IllegalArgumentException if the parameter cannot be found or
+     *             the value cannot be converted to its type
+     */
+    @SuppressWarnings("unchecked")
+    private static void setParameter(final Workspace workspace,
+            final String name, final String value) {
+        String[] parts = parse(name);
+        WorkspaceComponent component = componentFor(workspace, parts);
+        Object object = objectFor(component, parts[1]);
+        Method setter = null;
+        for (Method method : object.getClass().getMethods()) {
+            if (method.getName().equals(parts[2])
+                    && method.getParameterCount() == 1) {
+                setter = method;
+                break;
+            }
+        }
+        if (setter == null) {
+            throw new IllegalArgumentException("No method " + parts[2]
+                    + " with one argument on " + object);
+        }
+        Class<?> type = setter.getParameterTypes()[0];
+        Consumer<Object> consumer = (Consumer<Object>) component
+                .getAttributeManager().createConsumer(object, parts[2],
+                        new Class<?>[] { type }, null, name);
+        consumer.setValue(convert(value, type));
+    }
+
+    /**
+     * @param value a value as text
+     * @param type the type to convert it to
+     * @return the converted value
+     * @throws IllegalArgumentException if the type is not supported or the
+     *             value cannot be converted
+     */
+    private static Object convert(final String value, final Class<?> type) {
+        if (type == double.class || type == Double.class) {
+            return Double.valueOf(value);
+        } else if (type == float.class || type == Float.class) {
+            return Float.valueOf(value);
+        } else if (type == int.class || type == Integer.class) {
+            return Integer.valueOf(value);
+        } else if (type == long.class || type == Long.class) {
+            return Long.valueOf(value);
+        } else if (type == boolean.class || type == Boolean.class) {
+            return Boolean.valueOf(value);
+        } else if (type == String.class) {
+            return value;
+        }
+        throw new IllegalArgumentException("Parameters of type "
+                + type.getSimpleName() + " cannot be swept.");
+    }
+
+    /**
+     * Quote a csv field if it needs it.
+     *
+     * @param field the field
+     * @return the field as written to a csv file
+     */
+    private static String quote(final String field) {
+        if (field.indexOf(',') < 0 && field.indexOf('"') < 0
+                && field.indexOf('\n') < 0) {
+            return field;
+        }
+        return '"' + field.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * An update action, added after the workspace's own actions, which
+     * writes the recorded producers' values at the end of each iteration.
+     */
+    private class Recorder implements UpdateAction {
+
+        /** The workspace being run. */
+        private final Workspace workspace;
+
+        /** Where rows are written. */
+        private final Writer out;
+
+        /** The recorded producers. */
+        private final Producer<?>[] producers;
+
+        /** Row under construction, reused between iterations. */
+        private final StringBuilder row = new StringBuilder();
+
+        /** The first error writing rows, if any. */
+        private volatile IOException failure;
+
+        /**
+         * Resolve the recorded producers and write the header row.
+         *
+         * @param workspace the workspace being run
+         * @param out where rows are written
+         * @throws IOException if the header cannot be written
+         */
+        Recorder(final Workspace workspace, final Writer out)
+                throws IOException {
+            this.workspace = workspace;
+            this.out = out;
+            producers = new Producer<?>[recorded.size()];
+            out.write("time");
+            for (int i = 0; i < producers.length; i++) {
+                String name = recorded.get(i);
+                String[] parts = parse(name);
+                WorkspaceComponent component = componentFor(workspace, parts);
+                Object object = objectFor(component, parts[1]);
+                Method getter;
+                try {
+                    getter = object.getClass().getMethod(parts[2]);
+                } catch (NoSuchMethodException e) {
+                    throw new IllegalArgumentException("No method "
+                            + parts[2] + " without arguments on " + object);
+                }
+                producers[i] = component.getAttributeManager().createProducer(
+                        object, parts[2], getter.getReturnType(), null, null,
+                        name);
+                out.write("," + quote(name));
+            }
+            out.write("\n");
+        }
+
+        @Override
+        public void invoke() {
+            if (failure != null) {
+                return;
+            }
+            row.setLength(0);
+            row.append(workspace.getTime());
+            for (Producer<?> producer : producers) {
+                if (producer instanceof DoubleProducer) {
+                    row.append(',').append(
+                            ((DoubleProducer) producer).getDoubleValue());
+                    continue;
+                }
+                Object value = producer.getValue();
+                if (value instanceof double[]) {
+                    for (double x : (double[]) value) {
+                        row.append(',').append(x);
+                    }
+                } else {
+                    row.append(',').append(quote(String.valueOf(value)));
+                }
+            }
+            row.append('\n');
+            try {
+                out.append(row);
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+
+        @Override
+        public String getDescription() {
+            return "Record batch results";
+        }
+
+        @Override
+        public String getLongDescription() {
+            return "Write the values of the recorded producers to a file";
+        }
+    }
+
+    /**
+     * Print the command line usage.
+     */
+    private static void usage() {
+        System.err.println("Usage: BatchRunner <workspace.zip> <iterations>"
+                + " [options]\n"
+                + "  -out <dir>               directory for results"
+                + " (default .)\n"
+                + "  -record <c:key:getter>   producer to record;"
+                + " may be repeated\n"
+                + "  -sweep <c:key:setter=v1,v2,...>  parameter values;"
+                + " may be repeated\n"
+                + "  -replicas <n>            runs per combination of"
+                + " parameter values (default 1)\n"
+                + "  -parallel <n>            runs at once (default one"
+                + " per processor)\n"
+                + "  -seed <n>                seed of the batch"
+                + " (default random)");
+    }
+
+    /**
+     * Run a batch from the command line; see the class documentation.
+     *
+     * @param args the command line arguments
+     * @throws Exception if the batch cannot be run
+     */
+    public static void main(final String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 2) {
+            usage();
+            System.exit(2);
+        }
+        BatchRunner runner = new BatchRunner(new File(args[0]));
+        try {
+            runner.setIterations(Integer.parseInt(args[1]));
+            for (int i = 2; i < args.length; i++) {
+                String option = args[i];
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for "
+                            + option);
+                }
+                String value = args[++i];
+                if (option.equals("-out")) {
+                    runner.setOutputDirectory(new File(value));
+                } else if (option.equals("-record")) {
+                    runner.addRecordedProducer(value);
+                } else if (option.equals("-sweep")) {
+                    int equals = value.indexOf('=');
+                    if (equals < 0) {
+                        throw new IllegalArgumentException("Expected"
+                                + " name=values but got " + value);
+                    }
+                    runner.addSweep(value.substring(0, equals), value
+                            .substring(equals + 1).split(","));
+                } else if (option.equals("-replicas")) {
+                    runner.setReplicas(Integer.parseInt(value));
+                } else if (option.equals("-parallel")) {
+                    runner.setNumParallel(Integer.parseInt(value));
+                } else if (option.equals("-seed")) {
+                    runner.setSeed(Long.parseLong(value));
+                } else {
+                    throw new IllegalArgumentException("Unknown option "
+                            + option);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            usage();
+            System.exit(2);
+        }
+        int failures = runner.run();
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+}
@@ -18,6 +18,7 @@
  */
 package org.simbrain.workspace;
 
+import java.util.Collection;
 import java.util.concurrent.Callable;
 
 import org.apache.log4j.Logger;
@@ -59,9 +60,36 @@ public final class Coupling<E> {
     /** Consuming attribute for this coupling. */
     private Consumer<E> consumer;
 
-    /** Value of buffer. */
+    /**
+     * Value of buffer. Couplings between a {@link DoubleProducer} and a
+     * {@link DoubleConsumer} leave this unset and use {@link #doubleBuffer}.
+     *
+     * @deprecated read the buffer of any coupling with {@link #getBuffer()}
+     */
+    @Deprecated
     public E buffer;
 
+    /** Value of buffer for couplings of double attributes. */
+    private double doubleBuffer;
+
+    /**
+     * The single lock of the producer's component, or null if the component
+     * has several locks.
+     */
+    private Object producerLock;
+
+    /**
+     * The producer producerLock was looked up for, so that it is looked up
+     * again if the producer changes.
+     */
+    private Producer<E> lockedProducer;
+
+    /** The single lock of the consumer's component; see producerLock. */
+    private Object consumerLock;
+
+    /** The consumer consumerLock was looked up for. */
+    private Consumer<E> lockedConsumer;
+
     /**
      * Create a coupling between a specified consuming attribute, without yet
      * specifying the corresponding producing attribute.
@@ -117,25 +145,36 @@ public final class Coupling<E> {
     }
 
     /**
-     * Set value of buffer.
+     * Set value of buffer. This runs for every coupling on every workspace
+     * update, so the common case of a component with a single lock is
+     * handled without allocating anything.
      */
     public void setBuffer() {
-        final WorkspaceComponent producerComponent = producer
-                .getParentComponent();
-
+        if (producer != lockedProducer) {
+            producerLock = singleLock(producer.getParentComponent());
+            lockedProducer = producer;
+        }
         try {
-            buffer = Workspace.syncRest(
-                    producerComponent.getLocks().iterator(), new Callable<E>() {
-                        public E call() throws Exception {
-                            return producer.getValue();
-                        }
-                    });
+            if (producerLock != null) {
+                synchronized (producerLock) {
+                    readProducer();
+                }
+            } else {
+                Workspace.syncRest(producer.getParentComponent().getLocks()
+                        .iterator(), new Callable<E>() {
+                    public E call() throws Exception {
+                        readProducer();
+                        return null;
+                    }
+                });
+            }
         } catch (Exception e) {
             // TODO exception service?
             e.printStackTrace();
         }
-
-        LOGGER.debug("buffer set: " + buffer);
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("buffer set: " + bufferString());
+        }
     }
 
     /**
@@ -143,31 +182,97 @@ public final class Coupling<E> {
      */
     public void update() {
         if ((consumer != null) && (producer != null)) {
-            final WorkspaceComponent consumerComponent = consumer
-                    .getParentComponent();
+            if (consumer != lockedConsumer) {
+                consumerLock = singleLock(consumer.getParentComponent());
+                lockedConsumer = consumer;
+            }
             try {
-                Workspace.syncRest(consumerComponent.getLocks().iterator(),
-                        new Callable<E>() {
-                            public E call() throws Exception {
-                                consumer.setValue(buffer);
-                                LOGGER.debug(consumer.getParentComponent()
-                                        .getName()
-                                        + " just consumed "
-                                        + producer.getValue()
-                                        + " from "
-                                        + producer.getParentComponent()
-                                                .getName());
-
-                                return null;
-                            }
-                        });
+                if (consumerLock != null) {
+                    synchronized (consumerLock) {
+                        writeConsumer();
+                    }
+                } else {
+                    Workspace.syncRest(consumer.getParentComponent()
+                            .getLocks().iterator(), new Callable<E>() {
+                        public E call() throws Exception {
+                            writeConsumer();
+                            return null;
+                        }
+                    });
+                }
             } catch (Exception e) {
                 // TODO exception service?
                 e.printStackTrace();
             }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug(consumer.getParentComponent().getName()
+                        + " just consumed " + bufferString() + " from "
+                        + producer.getParentComponent().getName());
+            }
         }
     }
 
+    /**
+     * Read the producer's value into the buffer. The caller holds the
+     * producer component's locks.
+     */
+    void readProducer() {
+        if (isDoubleCoupling()) {
+            doubleBuffer = ((DoubleProducer) producer).getDoubleValue();
+        } else {
+            buffer = producer.getValue();
+        }
+    }
+
+    /**
+     * Pass the buffer to the consumer. The caller holds the consumer
+     * component's locks.
+     */
+    void writeConsumer() {
+        if (isDoubleCoupling()) {
+            ((DoubleConsumer) consumer).setDoubleValue(doubleBuffer);
+        } else {
+            consumer.setValue(buffer);
+        }
+    }
+
+    /**
+     * @return true if values pass from producer to consumer as primitives
+     */
+    private boolean isDoubleCoupling() {
+        return producer instanceof DoubleProducer
+                && consumer instanceof DoubleConsumer;
+    }
+
+    /**
+     * Returns the value last read from the producer. For couplings of double
+     * attributes the value is boxed here rather than on every update.
+     *
+     * @return the buffered value
+     */
+    @SuppressWarnings("unchecked")
+    public E getBuffer() {
+        return isDoubleCoupling() ? (E) Double.valueOf(doubleBuffer) : buffer;
+    }
+
+    /**
+     * @return the buffered value, for logging
+     */
+    private String bufferString() {
+        return String.valueOf(getBuffer());
+    }
+
+    /**
+     * Return the only lock of a component, or null if it has more than one.
+     *
+     * @param component the component
+     * @return its lock
+     */
+    private static Object singleLock(final WorkspaceComponent component) {
+        Collection<? extends Object> locks = component.getLocks();
+        return locks.size() == 1 ? locks.iterator().next() : null;
+    }
+
     /**
      * @return the Producer
      */
@@ -0,0 +1,222 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * The couplings from one workspace component to another, which the coupling
+ * manager updates together when it runs in parallel mode (see
+ * {@link CouplingManager#setParallelUpdate(boolean)}). Reading the producers
+ * of a group and writing its consumers are timed, so that the links which
+ * dominate a workspace update can be found.
+ */
+public final class CouplingGroup {
+
+    /** The component producing values. */
+    private final WorkspaceComponent source;
+
+    /** The component consuming values. */
+    private final WorkspaceComponent target;
+
+    /** The couplings from source to target. */
+    private final List<Coupling<?>> couplings = new ArrayList<Coupling<?>>();
+
+    /** Time taken by the last read of the producers, in nanoseconds. */
+    private volatile long lastReadNanos;
+
+    /** Time taken by the last write to the consumers, in nanoseconds. */
+    private volatile long lastWriteNanos;
+
+    /** Total time spent reading and writing, in nanoseconds. */
+    private volatile long totalNanos;
+
+    /** The number of times the group has been updated. */
+    private volatile long updateCount;
+
+    /**
+     * Construct an empty coupling group.
+     *
+     * @param source the component producing values
+     * @param target the component consuming values
+     */
+    CouplingGroup(final WorkspaceComponent source,
+            final WorkspaceComponent target) {
+        this.source = source;
+        this.target = target;
+    }
+
+    /**
+     * @param coupling a coupling from source to target
+     */
+    void add(final Coupling<?> coupling) {
+        couplings.add(coupling);
+    }
+
+    /**
+     * Read the producers into the coupling buffers while holding the locks of
+     * the source component.
+     */
+    void read() {
+        long start = System.nanoTime();
+        runLocked(source, true);
+        long elapsed = System.nanoTime() - start;
+        lastReadNanos = elapsed;
+        totalNanos += elapsed;
+    }
+
+    /**
+     * Write the coupling buffers to the consumers while holding the locks of
+     * the target component.
+     */
+    void write() {
+        long start = System.nanoTime();
+        runLocked(target, false);
+        long elapsed = System.nanoTime() - start;
+        lastWriteNanos = elapsed;
+        totalNanos += elapsed;
+        updateCount++;
+    }
+
+    /**
+     * Transfer the values of every coupling in one direction, taking the
+     * component's locks once for the whole group.
+     *
+     * @param component the component whose locks are taken
+     * @param read true to read the producers, false to write the consumers
+     */
+    private void runLocked(final WorkspaceComponent component,
+            final boolean read) {
+        Collection<? extends Object> locks = component.getLocks();
+        try {
+            if (locks.size() == 1) {
+                synchronized (locks.iterator().next()) {
+                    transfer(read);
+                }
+            } else {
+                Workspace.syncRest(locks.iterator(), new Callable<Object>() {
+                    public Object call() throws Exception {
+                        transfer(read);
+                        return null;
+                    }
+                });
+            }
+        } catch (Exception e) {
+            // TODO exception service?
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @param read true to read the producers, false to write the consumers
+     */
+    private void transfer(final boolean read) {
+        for (int i = 0, n = couplings.size(); i < n; i++) {
+            try {
+                if (read) {
+                    couplings.get(i).readProducer();
+                } else {
+                    couplings.get(i).writeConsumer();
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return the component producing values
+     */
+    public WorkspaceComponent getSource() {
+        return source;
+    }
+
+    /**
+     * @return the component consuming values
+     */
+    public WorkspaceComponent getTarget() {
+        return target;
+    }
+
+    /**
+     * @return the couplings in this group
+     */
+    public List<Coupling<?>> getCouplings() {
+        return Collections.unmodifiableList(couplings);
+    }
+
+    /**
+     * @return the time taken by the last read of the producers, in
+     *         nanoseconds
+     */
+    public long getLastReadNanos() {
+        return lastReadNanos;
+    }
+
+    /**
+     * @return the time taken by the last write to the consumers, in
+     *         nanoseconds
+     */
+    public long getLastWriteNanos() {
+        return lastWriteNanos;
+    }
+
+    /**
+     * @return the total time spent updating this group, in nanoseconds
+     */
+    public long getTotalNanos() {
+        return totalNanos;
+    }
+
+    /**
+     * @return the number of times this group has been updated
+     */
+    public long getUpdateCount() {
+        return updateCount;
+    }
+
+    /**
+     * @return the mean time taken by an update of this group, in nanoseconds
+     */
+    public double getMeanNanos() {
+        return updateCount == 0 ? 0 : (double) totalNanos / updateCount;
+    }
+
+    /**
+     * Reset the timings of this group.
+     */
+    public void resetTimings() {
+        lastReadNanos = 0;
+        lastWriteNanos = 0;
+        totalNanos = 0;
+        updateCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "[" + source.getName() + "] --> [" + target.getName() + "] ("
+                + couplings.size() + " couplings, mean "
+                + String.format("%.1f", getMeanNanos() / 1000) + " us)";
+    }
+
+}
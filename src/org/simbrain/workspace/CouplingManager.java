@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
 
 import org.apache.log4j.Logger;
 
@@ -74,6 +75,18 @@ public class CouplingManager {
     /** Priority of this component; used in priority based workspace update. */
     private int priority = DEFAULT_PRIORITY;
 
+    /**
+     * Whether couplings are updated group by group, concurrently where
+     * possible, rather than one at a time.
+     */
+    private volatile boolean parallelUpdate;
+
+    /**
+     * The schedule used for parallel update, or null if it must be rebuilt
+     * because couplings have changed.
+     */
+    private volatile CouplingSchedule schedule;
+
     /** List of listeners to fire updates when couplings are changed. */
     private List<CouplingListener> couplingListeners = new ArrayList<CouplingListener>();
 
@@ -172,6 +185,7 @@ public class CouplingManager {
      */
     public void clearCouplings() {
         couplingList.clear();
+        schedule = null;
     }
 
     /**
@@ -197,9 +211,31 @@ public class CouplingManager {
     }
 
     /**
-     * Updates all couplings in the workspace.
+     * Updates all couplings in the workspace on the calling thread.
      */
     public void updateAllCouplings() {
+        updateAllCouplings(null, 1);
+    }
+
+    /**
+     * Updates all couplings in the workspace. In parallel mode the couplings
+     * between each pair of components are updated as a group, independent
+     * groups running concurrently on the given executor; otherwise the
+     * couplings are updated one at a time on the calling thread. Either way
+     * every producer is read before any consumer is written.
+     *
+     * @param executor executor for running coupling groups, or null to run
+     *            them all on the calling thread
+     * @param numThreads the number of threads, including the calling thread,
+     *            that may work on the update at once
+     */
+    public void updateAllCouplings(final Executor executor,
+            final int numThreads) {
+        if (parallelUpdate) {
+            LOGGER.debug("updating coupling groups");
+            getSchedule().run(executor, numThreads);
+            return;
+        }
         LOGGER.debug("updating all couplings");
         for (Coupling<?> coupling : getCouplings()) {
             LOGGER.trace(coupling.getClass());
@@ -211,6 +247,47 @@ public class CouplingManager {
         }
     }
 
+    /**
+     * @return the current schedule, rebuilt if couplings have changed
+     */
+    private CouplingSchedule getSchedule() {
+        CouplingSchedule current = schedule;
+        if (current == null) {
+            current = new CouplingSchedule(getCouplings());
+            schedule = current;
+        }
+        return current;
+    }
+
+    /**
+     * Returns the couplings grouped by source and target component, with the
+     * time spent updating each group. Timings are only collected in parallel
+     * mode and start again from zero whenever couplings are added or removed.
+     *
+     * @return the coupling groups
+     */
+    public List<CouplingGroup> getCouplingGroups() {
+        return getSchedule().getGroups();
+    }
+
+    /**
+     * @return true if couplings are updated in parallel groups
+     */
+    public boolean isParallelUpdate() {
+        return parallelUpdate;
+    }
+
+    /**
+     * Set whether couplings are updated in parallel groups.
+     *
+     * @param parallelUpdate true to update the couplings between each pair of
+     *            components as a group, running independent groups
+     *            concurrently
+     */
+    public void setParallelUpdate(final boolean parallelUpdate) {
+        this.parallelUpdate = parallelUpdate;
+    }
+
     /**
      * Removes all couplings associated with a producer or consumer.
      *
@@ -323,6 +400,7 @@ public class CouplingManager {
             throw new UmatchedAttributesException(warning);
         }
         couplingList.add(coupling);
+        schedule = null;
 
         // Populate source / target maps (used to return lists of couplings
         // connecting particular workspace components together)
@@ -470,6 +548,7 @@ public class CouplingManager {
         // consumingAttributes.remove(coupling.getConsumingAttribute());
 
         couplingList.remove(coupling);
+        schedule = null;
 
         removeCouplingFromList(sourceTargetCouplings.get(sourceTarget),
                 coupling);
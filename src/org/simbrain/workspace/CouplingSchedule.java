@@ -0,0 +1,290 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * A dependency graph over the coupling groups of a workspace, used to update
+ * couplings concurrently while keeping the buffered semantics of a serial
+ * update, in which every producer is read before any consumer is written.
+ *
+ * Each group contributes two tasks: reading its producers and writing its
+ * consumers. A write waits for the group's own read and for the reads of
+ * every group whose source is the component being written, so no producer
+ * sees a value written during the same update. Writes into the same
+ * component are chained so that each component is written by one task at a
+ * time. Reads have no dependencies. Tasks run on the calling thread and on
+ * helpers submitted to an executor; the calling thread takes part, so the
+ * update completes even if no helper ever runs.
+ *
+ * A schedule is immutable once built; the coupling manager builds a new one
+ * when couplings are added or removed.
+ */
+final class CouplingSchedule {
+
+    /** The coupling groups, in the order of their first coupling. */
+    private final List<CouplingGroup> groups;
+
+    /**
+     * For each task, the tasks depending on it. Task i &lt; groups.size()
+     * reads group i; task groups.size() + i writes group i.
+     */
+    private final int[][] dependents;
+
+    /** For each task, the number of tasks it depends on. */
+    private final int[] numDependencies;
+
+    /**
+     * Build the schedule for a set of couplings.
+     *
+     * @param couplings the couplings
+     */
+    CouplingSchedule(final Collection<? extends Coupling<?>> couplings) {
+        Map<WorkspaceComponent, Map<WorkspaceComponent, CouplingGroup>> pairs =
+                new LinkedHashMap<WorkspaceComponent,
+                Map<WorkspaceComponent, CouplingGroup>>();
+        List<CouplingGroup> groupList = new ArrayList<CouplingGroup>();
+        for (Coupling<?> coupling : couplings) {
+            if (coupling.getProducer() == null
+                    || coupling.getConsumer() == null) {
+                continue;
+            }
+            WorkspaceComponent source = coupling.getProducer()
+                    .getParentComponent();
+            WorkspaceComponent target = coupling.getConsumer()
+                    .getParentComponent();
+            Map<WorkspaceComponent, CouplingGroup> targets = pairs.get(source);
+            if (targets == null) {
+                targets = new LinkedHashMap<WorkspaceComponent,
+                        CouplingGroup>();
+                pairs.put(source, targets);
+            }
+            CouplingGroup group = targets.get(target);
+            if (group == null) {
+                group = new CouplingGroup(source, target);
+                targets.put(target, group);
+                groupList.add(group);
+            }
+            group.add(coupling);
+        }
+        groups = Collections.unmodifiableList(groupList);
+
+        int n = groupList.size();
+        Map<WorkspaceComponent, List<Integer>> readsBySource =
+                new IdentityHashMap<WorkspaceComponent, List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            listFor(readsBySource, groupList.get(i).getSource()).add(i);
+        }
+        List<List<Integer>> edges = new ArrayList<List<Integer>>(2 * n);
+        for (int t = 0; t < 2 * n; t++) {
+            edges.add(new ArrayList<Integer>());
+        }
+        numDependencies = new int[2 * n];
+        Map<WorkspaceComponent, Integer> lastWriteTo =
+                new IdentityHashMap<WorkspaceComponent, Integer>();
+        for (int i = 0; i < n; i++) {
+            int write = n + i;
+            WorkspaceComponent target = groupList.get(i).getTarget();
+            addEdge(edges, i, write);
+            List<Integer> reads = readsBySource.get(target);
+            if (reads != null) {
+                for (int read : reads) {
+                    if (read != i) {
+                        addEdge(edges, read, write);
+                    }
+                }
+            }
+            Integer previous = lastWriteTo.put(target, write);
+            if (previous != null) {
+                addEdge(edges, previous, write);
+            }
+        }
+        dependents = new int[2 * n][];
+        for (int t = 0; t < 2 * n; t++) {
+            List<Integer> list = edges.get(t);
+            dependents[t] = new int[list.size()];
+            for (int k = 0; k < list.size(); k++) {
+                dependents[t][k] = list.get(k);
+                numDependencies[list.get(k)]++;
+            }
+        }
+    }
+
+    /**
+     * @param map a map of lists
+     * @param key a key
+     * @return the list for the key, created if need be
+     */
+    private static List<Integer> listFor(
+            final Map<WorkspaceComponent, List<Integer>> map,
+            final WorkspaceComponent key) {
+        List<Integer> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * @param edges the adjacency lists
+     * @param from the task which must finish first
+     * @param to the task which depends on it
+     */
+    private static void addEdge(final List<List<Integer>> edges,
+            final int from, final int to) {
+        edges.get(from).add(to);
+    }
+
+    /**
+     * @return the coupling groups
+     */
+    List<CouplingGroup> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Update every coupling once.
+     *
+     * @param executor executor to run helpers on, or null to run every task
+     *            on the calling thread
+     * @param numThreads the number of threads, including the calling thread,
+     *            to spread the tasks over
+     * @throws IllegalStateException if a task failed
+     */
+    void run(final Executor executor, final int numThreads) {
+        if (dependents.length == 0) {
+            return;
+        }
+        Step step = new Step();
+        if (executor != null) {
+            int helpers = Math.min(numThreads - 1, groups.size() - 1);
+            try {
+                for (int h = 0; h < helpers; h++) {
+                    executor.execute(step);
+                }
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down; the caller does the rest.
+            }
+        }
+        step.work(true);
+        if (step.failure != null) {
+            throw new IllegalStateException("Coupling update failed.",
+                    step.failure);
+        }
+    }
+
+    /**
+     * The state of a single update, shared by the threads working on it.
+     */
+    private final class Step implements Runnable {
+
+        /** The number of unfinished dependencies of each task. */
+        private final int[] pending = numDependencies.clone();
+
+        /** Stack of tasks ready to run. */
+        private final int[] ready = new int[dependents.length];
+
+        /** The number of tasks on the ready stack. */
+        private int readyCount;
+
+        /** The number of finished tasks. */
+        private int finished;
+
+        /** The first exception thrown by a task. */
+        private volatile Throwable failure;
+
+        /**
+         * Push the tasks with no dependencies.
+         */
+        Step() {
+            for (int t = pending.length - 1; t >= 0; t--) {
+                if (pending[t] == 0) {
+                    ready[readyCount++] = t;
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            work(false);
+        }
+
+        /**
+         * Run ready tasks until every task has finished.
+         *
+         * @param caller true for the thread which started the update, which
+         *            must not return before the update is complete
+         */
+        void work(final boolean caller) {
+            boolean interrupted = false;
+            int n = groups.size();
+            while (true) {
+                int task;
+                synchronized (this) {
+                    while (readyCount == 0 && finished < pending.length) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            if (!caller) {
+                                return;
+                            }
+                            interrupted = true;
+                        }
+                    }
+                    if (finished == pending.length) {
+                        break;
+                    }
+                    task = ready[--readyCount];
+                }
+                try {
+                    if (task < n) {
+                        groups.get(task).read();
+                    } else {
+                        groups.get(task - n).write();
+                    }
+                } catch (RuntimeException | Error e) {
+                    failure = e;
+                }
+                synchronized (this) {
+                    finished++;
+                    for (int d : dependents[task]) {
+                        if (--pending[d] == 0) {
+                            ready[readyCount++] = d;
+                        }
+                    }
+                    notifyAll();
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,428 @@
+/*
+ * Part of Simbrain--a java-based neural network kit
+ * Copyright (C) 2005,2007 The Authors.  See http://www.simbrain.net/credits
+ *
+ * This program is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation; either version 2 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place - Suite 330, Boston, MA  02111-1307, USA.
+ */
+package org.simbrain.workspace;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.WrongMethodTypeException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+
+/**
+ * An attribute backed by a method of its base object. The method is looked up
+ * and turned into a method handle once, when the attribute is created, with
+ * the base object and any auxiliary arguments already bound to it. Reading or
+ * writing a value then costs a single handle invocation, with no reflective
+ * call and no argument array. Attributes whose main data type is double are
+ * created as {@link DoubleProducer}s and {@link DoubleConsumer}s so that
+ * couplings between them need not box their values.
+ *
+ * Attributes are created with {@link #createProducer} and
+ * {@link #createConsumer}, which are used by {@link AttributeManager}.
+ */
+abstract class MethodAttribute implements Attribute {
+
+    /** Parent component. */
+    private final WorkspaceComponent parentComponent;
+
+    /** Base object. */
+    private final Object parentObject;
+
+    /** Name of the method. */
+    private final String methodName;
+
+    /** Main data type. */
+    private final Class<?> dataType;
+
+    /** Data types of the method's arguments. */
+    private final Class<?>[] argumentDataTypes;
+
+    /** Auxiliary argument values. */
+    private final Object[] argumentValues;
+
+    /** Description of the attribute. */
+    private final String description;
+
+    /**
+     * The method with the base object and auxiliary arguments bound to it, or
+     * null if the method could not be found.
+     */
+    final MethodHandle handle;
+
+    /**
+     * Construct a method attribute.
+     *
+     * @param parentComponent parent component
+     * @param parentObject base object
+     * @param methodName name of method
+     * @param dataType main data type
+     * @param argumentDataTypes data types of the method's arguments
+     * @param argumentValues auxiliary argument values
+     * @param description description
+     * @param handle the bound method, already adapted to the type the
+     *            subclass invokes it with
+     */
+    private MethodAttribute(final WorkspaceComponent parentComponent,
+            final Object parentObject, final String methodName,
+            final Class<?> dataType, final Class<?>[] argumentDataTypes,
+            final Object[] argumentValues, final String description,
+            final MethodHandle handle) {
+        this.parentComponent = parentComponent;
+        this.parentObject = parentObject;
+        this.methodName = methodName;
+        this.dataType = dataType;
+        this.argumentDataTypes = argumentDataTypes;
+        this.argumentValues = argumentValues;
+        this.description = description;
+        this.handle = handle;
+    }
+
+    /**
+     * Create a producer for a getter.
+     *
+     * @param parentComponent parent component
+     * @param parentObject base object
+     * @param methodName name of method
+     * @param dataType main data type
+     * @param argumentDataTypes data types of all arguments to the method, or
+     *            null if it takes none
+     * @param argumentValues arguments to the method
+     * @param description description of the producer
+     * @return the producer
+     */
+    static Producer<?> createProducer(
+            final WorkspaceComponent parentComponent, final Object parentObject,
+            final String methodName, final Class<?> dataType,
+            final Class<?>[] argumentDataTypes, final Object[] argumentValues,
+            final String description) {
+        MethodHandle handle = null;
+        try {
+            Method method;
+            if (argumentDataTypes == null) {
+                method = parentObject.getClass().getMethod(methodName);
+            } else {
+                method = parentObject.getClass().getMethod(methodName,
+                        argumentDataTypes);
+            }
+            handle = bind(method, parentObject, 0, argumentValues);
+        } catch (SecurityException e1) {
+            e1.printStackTrace();
+        } catch (NoSuchMethodException e1) {
+            System.err.println("Could not find method " + methodName
+                    + " with return type of " + dataType.getCanonicalName());
+            e1.printStackTrace();
+        }
+        if (handle != null && isDouble(dataType)) {
+            try {
+                return new DoubleMethodProducer(parentComponent, parentObject,
+                        methodName, dataType, argumentDataTypes,
+                        argumentValues, description, handle.asType(
+                                MethodType.methodType(double.class)));
+            } catch (WrongMethodTypeException e) {
+                // The method does not return a number; fall through.
+            }
+        }
+        return new ObjectMethodProducer(parentComponent, parentObject,
+                methodName, dataType, argumentDataTypes, argumentValues,
+                description, handle == null ? null : handle.asType(
+                        MethodType.methodType(Object.class)));
+    }
+
+    /**
+     * Create a consumer for a setter.
+     *
+     * @param parentComponent parent component
+     * @param parentObject base object
+     * @param methodName name of method
+     * @param argumentDataTypes data types of all arguments to the method,
+     *            where the first is the main data type
+     * @param argumentValues values for the auxiliary arguments
+     * @param description description of the consumer
+     * @return the consumer
+     */
+    static Consumer<?> createConsumer(
+            final WorkspaceComponent parentComponent, final Object parentObject,
+            final String methodName, final Class<?>[] argumentDataTypes,
+            final Object[] argumentValues, final String description) {
+        MethodHandle handle = null;
+        try {
+            Method method = parentObject.getClass().getMethod(methodName,
+                    argumentDataTypes);
+            handle = bind(method, parentObject, 1, argumentValues);
+        } catch (SecurityException e1) {
+            e1.printStackTrace();
+        } catch (NoSuchMethodException e1) {
+            System.err.print("Could not find method " + methodName + " ");
+            if (argumentDataTypes != null) {
+                System.err.print("with arguments of type ");
+                for (Class<?> type : argumentDataTypes) {
+                    System.err.print(type.getCanonicalName());
+                }
+                System.err.println();
+            }
+            e1.printStackTrace();
+        }
+        // Assume first argument datatype is the "main" data type.
+        Class<?> dataType = argumentDataTypes[0];
+        if (handle != null && isDouble(dataType)) {
+            try {
+                return new DoubleMethodConsumer(parentComponent, parentObject,
+                        methodName, dataType, argumentDataTypes,
+                        argumentValues, description, handle.asType(
+                                MethodType.methodType(void.class,
+                                        double.class)));
+            } catch (WrongMethodTypeException e) {
+                // Not reachable for a double argument; fall through.
+            }
+        }
+        return new ObjectMethodConsumer(parentComponent, parentObject,
+                methodName, dataType, argumentDataTypes, argumentValues,
+                description, handle == null ? null : handle.asType(
+                        MethodType.methodType(void.class, Object.class)));
+    }
+
+    /**
+     * Turn a method into a handle with its receiver and auxiliary arguments
+     * bound.
+     *
+     * @param method the method
+     * @param parentObject the receiver
+     * @param position the position of the first auxiliary argument
+     * @param argumentValues the auxiliary arguments, if any
+     * @return the bound handle, or null if the method cannot be accessed
+     */
+    private static MethodHandle bind(final Method method,
+            final Object parentObject, final int position,
+            final Object[] argumentValues) {
+        MethodHandle handle;
+        try {
+            handle = MethodHandles.publicLookup().unreflect(method);
+        } catch (IllegalAccessException e) {
+            // A public method declared by a class which is not itself public.
+            try {
+                method.setAccessible(true);
+                handle = MethodHandles.lookup().unreflect(method);
+            } catch (IllegalAccessException | RuntimeException e1) {
+                e1.printStackTrace();
+                return null;
+            }
+        }
+        handle = handle.bindTo(parentObject);
+        int auxiliary = method.getParameterCount() - position;
+        if (auxiliary > 0 && argumentValues != null) {
+            handle = MethodHandles.insertArguments(handle, position,
+                    Arrays.copyOf(argumentValues, auxiliary));
+        }
+        return handle;
+    }
+
+    /**
+     * @param type a data type
+     * @return true if values of the type are doubles
+     */
+    private static boolean isDouble(final Class<?> type) {
+        return type == double.class || type == Double.class;
+    }
+
+    /**
+     * Report a failed invocation the way reflective invocation failures have
+     * always been reported, by printing it, unless it is an error.
+     *
+     * @param t what was thrown by the method or the invocation
+     */
+    static void invocationFailed(final Throwable t) {
+        if (t instanceof Error) {
+            throw (Error) t;
+        }
+        t.printStackTrace();
+    }
+
+    /**
+     * @throws IllegalStateException if the method could not be resolved
+     */
+    final void checkResolved() {
+        if (handle == null) {
+            throw new IllegalStateException("Method " + methodName
+                    + " could not be resolved on " + parentObject);
+        }
+    }
+
+    @Override
+    public WorkspaceComponent getParentComponent() {
+        return parentComponent;
+    }
+
+    @Override
+    public Object getBaseObject() {
+        return parentObject;
+    }
+
+    @Override
+    public String getMethodName() {
+        return methodName;
+    }
+
+    @Override
+    public Class<?> getDataType() {
+        return dataType;
+    }
+
+    @Override
+    public Class<?>[] getArgumentDataTypes() {
+        return argumentDataTypes;
+    }
+
+    @Override
+    public Object[] getArgumentValues() {
+        return argumentValues;
+    }
+
+    @Override
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * A producer of any type of value.
+     */
+    private static final class ObjectMethodProducer extends MethodAttribute
+            implements Producer<Object> {
+
+        /**
+         * Construct the producer; see {@link MethodAttribute}.
+         */
+        ObjectMethodProducer(final WorkspaceComponent parentComponent,
+                final Object parentObject, final String methodName,
+                final Class<?> dataType, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle handle) {
+            super(parentComponent, parentObject, methodName, dataType,
+                    argumentDataTypes, argumentValues, description, handle);
+        }
+
+        @Override
+        public Object getValue() {
+            checkResolved();
+            try {
+                return (Object) handle.invokeExact();
+            } catch (Throwable t) {
+                invocationFailed(t);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A producer of double values.
+     */
+    private static final class DoubleMethodProducer extends MethodAttribute
+            implements DoubleProducer {
+
+        /**
+         * Construct the producer; see {@link MethodAttribute}.
+         */
+        DoubleMethodProducer(final WorkspaceComponent parentComponent,
+                final Object parentObject, final String methodName,
+                final Class<?> dataType, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle handle) {
+            super(parentComponent, parentObject, methodName, dataType,
+                    argumentDataTypes, argumentValues, description, handle);
+        }
+
+        @Override
+        public double getDoubleValue() {
+            try {
+                return (double) handle.invokeExact();
+            } catch (Throwable t) {
+                invocationFailed(t);
+            }
+            return 0;
+        }
+
+        @Override
+        public Double getValue() {
+            return getDoubleValue();
+        }
+    }
+
+    /**
+     * A consumer of any type of value.
+     */
+    private static final class ObjectMethodConsumer extends MethodAttribute
+            implements Consumer<Object> {
+
+        /**
+         * Construct the consumer; see {@link MethodAttribute}.
+         */
+        ObjectMethodConsumer(final WorkspaceComponent parentComponent,
+                final Object parentObject, final String methodName,
+                final Class<?> dataType, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle handle) {
+            super(parentComponent, parentObject, methodName, dataType,
+                    argumentDataTypes, argumentValues, description, handle);
+        }
+
+        @Override
+        public void setValue(final Object value) {
+            checkResolved();
+            try {
+                handle.invokeExact(value);
+            } catch (Throwable t) {
+                invocationFailed(t);
+            }
+        }
+    }
+
+    /**
+     * A consumer of double values.
+     */
+    private static final class DoubleMethodConsumer extends MethodAttribute
+            implements DoubleConsumer {
+
+        /**
+         * Construct the consumer; see {@link MethodAttribute}.
+         */
+        DoubleMethodConsumer(final WorkspaceComponent parentComponent,
+                final Object parentObject, final String methodName,
+                final Class<?> dataType, final Class<?>[] argumentDataTypes,
+                final Object[] argumentValues, final String description,
+                final MethodHandle handle) {
+            super(parentComponent, parentObject, methodName, dataType,
+                    argumentDataTypes, argumentValues, description, handle);
+        }
+
+        @Override
+        public void setDoubleValue(final double value) {
+            try {
+                handle.invokeExact(value);
+            } catch (Throwable t) {
+                invocationFailed(t);
+            }
+        }
+
+        @Override
+        public void setValue(final Double value) {
+            setDoubleValue(value);
+        }
+    }
+
+}
@@ -35,6 +35,7 @@ import java.util.concurrent.CountDownLatch;
 import org.apache.log4j.Logger;
 import org.simbrain.util.SimbrainPreferences;
 import org.simbrain.util.SimbrainPreferences.PropertyNotFoundException;
+import org.simbrain.util.math.RandomStreams;
 import org.simbrain.workspace.updater.TaskSynchronizationManager;
 import org.simbrain.workspace.updater.UpdateAction;
 import org.simbrain.workspace.updater.WorkspaceUpdater;
@@ -99,6 +100,12 @@ public class Workspace {
      */
     private int updateDelay = 0;
 
+    /**
+     * The seed the random numbers of the components are derived from. Saved
+     * with the workspace; 0 in workspaces saved before seeds were.
+     */
+    private long randomSeed = RandomStreams.nextSeed();
+
     /**
      * The updater used to manage component updates.
      */
@@ -251,6 +258,7 @@ public class Workspace {
             component.setName(component.getSimpleName()
                     + componentNameIndices.get(component.getClass()));
         }
+        component.setRandomSeed(getComponentSeed(component));
 
         fireWorkspaceComponentAdded(component);
 
@@ -715,6 +723,41 @@ public class Workspace {
         this.updateDelay = updateDelay;
     }
 
+    /**
+     * @return the seed the random numbers of the components are derived from
+     */
+    public long getRandomSeed() {
+        return randomSeed;
+    }
+
+    /**
+     * Sets the seed the random numbers of the components are derived from,
+     * and reseeds every component with its own seed, see
+     * {@link #getComponentSeed(WorkspaceComponent)}. Runs of a workspace with
+     * the same seed draw the same random numbers.
+     *
+     * @param randomSeed the new seed
+     */
+    public void setRandomSeed(final long randomSeed) {
+        this.randomSeed = randomSeed;
+        for (WorkspaceComponent component : getComponentList()) {
+            component.setRandomSeed(getComponentSeed(component));
+        }
+    }
+
+    /**
+     * Returns the seed of a component, derived from the seed of the workspace
+     * and the name of the component so that it is the same each time the
+     * workspace is opened.
+     *
+     * @param component a component of this workspace
+     * @return the seed of the component
+     */
+    public long getComponentSeed(final WorkspaceComponent component) {
+        return RandomStreams.childSeed(randomSeed,
+                component.getName().hashCode());
+    }
+
     /**
      * Actions required prior to proper serialization.
      */
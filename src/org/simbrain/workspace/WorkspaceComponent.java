@@ -204,6 +204,17 @@ public abstract class WorkspaceComponent {
 
     }
 
+    /**
+     * Seeds the random numbers drawn by this component. The workspace calls
+     * this with a seed derived from its own when the component is added and
+     * whenever the seed of the workspace is set. Does nothing unless
+     * overridden.
+     *
+     * @param seed the seed
+     */
+    public void setRandomSeed(final long seed) {
+    }
+
     /**
      * Adds a AttributeListener to this component.
      *
@@ -18,6 +18,7 @@
  */
 package org.simbrain.workspace;
 
+import java.awt.GraphicsEnvironment;
 import java.awt.Rectangle;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
@@ -61,7 +62,11 @@ public class WorkspaceSerializer {
     /** The current workspace. */
     private final Workspace workspace;
 
-    /** The desktop component for the workspace. */
+    /**
+     * The desktop component for the workspace, or null if the workspace has
+     * no desktop. Headless workspaces never have one, and the desktop class
+     * is not even loaded for them.
+     */
     private final SimbrainDesktop desktop;
 
     /**
@@ -71,7 +76,11 @@ public class WorkspaceSerializer {
      */
     public WorkspaceSerializer(final Workspace workspace) {
         this.workspace = workspace;
-        this.desktop = SimbrainDesktop.getDesktop(workspace);
+        if (GraphicsEnvironment.isHeadless()) {
+            this.desktop = null;
+        } else {
+            this.desktop = SimbrainDesktop.getDesktop(workspace);
+        }
     }
 
     /**
@@ -131,8 +140,10 @@ public class WorkspaceSerializer {
             zipStream.putNextEntry(entry);
             serializer.serializeComponent(component);
 
-            GuiComponent<?> desktopComponent = SimbrainDesktop.getDesktop(
-                    workspace).getDesktopComponent(component);
+            GuiComponent<?> desktopComponent = null;
+            if (desktop != null) {
+                desktopComponent = desktop.getDesktopComponent(component);
+            }
 
             /*
              * If there is a desktop component associated with the component
@@ -202,6 +213,14 @@ public class WorkspaceSerializer {
         contents = (ArchiveContents) ArchiveContents.xstream().fromXML(
                 new ByteArrayInputStream(entries.get("contents.xml")));
 
+        // Restore the seed first, since components are seeded as they are
+        // added.
+        if (contents.getWorkspaceParameters() != null
+                && contents.getWorkspaceParameters().getRandomSeed() != 0) {
+            workspace.setRandomSeed(contents.getWorkspaceParameters()
+                    .getRandomSeed());
+        }
+
         // Add Components
         if (contents.getArchivedComponents() != null) {
             for (ArchiveContents.ArchivedComponent archivedComponent : contents
@@ -220,7 +239,8 @@ public class WorkspaceSerializer {
                 // created
                 workspace.addWorkspaceComponent(wc);
 
-                if (archivedComponent.getDesktopComponent() != null) {
+                if (desktop != null
+                        && archivedComponent.getDesktopComponent() != null) {
                     Rectangle bounds = (Rectangle) new XStream(new DomDriver())
                             .fromXML(new ByteArrayInputStream(entries
                                     .get(archivedComponent
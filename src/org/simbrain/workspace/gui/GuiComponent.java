@@ -211,8 +211,7 @@ public abstract class GuiComponent<E extends WorkspaceComponent> extends JPanel
 
             try {
                 FileOutputStream stream = new FileOutputStream(theFile);
-                // TODO format?
-                workspaceComponent.save(stream, null);
+                workspaceComponent.save(stream, formatOf(theFile));
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
@@ -238,13 +237,25 @@ public abstract class GuiComponent<E extends WorkspaceComponent> extends JPanel
             try {
                 FileOutputStream stream = new FileOutputStream(
                         workspaceComponent.getCurrentFile());
-                workspaceComponent.save(stream, null);
+                workspaceComponent.save(stream,
+                        formatOf(workspaceComponent.getCurrentFile()));
             } catch (FileNotFoundException e) {
                 throw new RuntimeException(e);
             }
         }
     }
 
+    /**
+     * @param file a file being saved to
+     * @return its extension if that is one of the component's formats, and
+     *         null (the component's default) otherwise
+     */
+    private String formatOf(final File file) {
+        String extension = SFileChooser.getExtension(file);
+        return workspaceComponent.getFormats().contains(extension) ? extension
+                : null;
+    }
+
     /**
      * Writes the bounds of this desktop component to the provided stream.
      *
@@ -171,6 +171,19 @@ public class WorkspaceUpdater {
         run = false;
     }
 
+    /**
+     * Stops the updater and releases its threads once queued work is done.
+     * The updater cannot be used afterwards. Meant for workspaces which are
+     * discarded while the program goes on, such as the replicas of a batch
+     * run.
+     */
+    public void shutdown() {
+        run = false;
+        workspaceUpdates.shutdown();
+        componentUpdates.shutdown();
+        notificationEvents.shutdown();
+    }
+
     /**
      * Returns whether the updater is set to run.
      *
@@ -467,8 +480,10 @@ public class WorkspaceUpdater {
             stop();
         }
         this.numThreads = numThreads;
+        ExecutorService old = componentUpdates;
         this.componentUpdates = Executors.newFixedThreadPool(numThreads,
                 new UpdaterThreadFactory());
+        old.shutdown();
         for (WorkspaceUpdaterListener listener : updaterListeners) {
             listener.changeNumThreads();
         }
@@ -634,7 +649,8 @@ public class WorkspaceUpdater {
      * Update couplings.
      */
     public void updateCouplings() {
-        workspace.getCouplingManager().updateAllCouplings();
+        workspace.getCouplingManager().updateAllCouplings(componentUpdates,
+                numThreads);
         LOGGER.trace("couplings updated");
         workspace.getUpdater().notifyCouplingsUpdated();
     }